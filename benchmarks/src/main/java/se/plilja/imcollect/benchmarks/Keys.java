@@ -0,0 +1,43 @@
+package se.plilja.imcollect.benchmarks;
+
+import java.util.Random;
+
+final class Keys {
+    static final long SEED = 4711;
+    static final int PROBES = 1 << 12;
+    static final int PROBE_MASK = PROBES - 1;
+
+    private Keys() {
+    }
+
+    /**
+     * The integers 0 until size in a random (but deterministic) order.
+     */
+    static int[] shuffled(int size) {
+        int[] res = new int[size];
+        for (int i = 0; i < size; i++) {
+            res[i] = i;
+        }
+        Random random = new Random(SEED);
+        for (int i = size - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = res[i];
+            res[i] = res[j];
+            res[j] = tmp;
+        }
+        return res;
+    }
+
+    /**
+     * Random integers in the range [0, bound), used as probes by the benchmarks.
+     * They are boxed up front so that the benchmarks do not measure the allocation of Integer:s.
+     */
+    static Integer[] probes(int bound) {
+        Random random = new Random(SEED + 1);
+        Integer[] res = new Integer[PROBES];
+        for (int i = 0; i < PROBES; i++) {
+            res[i] = random.nextInt(bound);
+        }
+        return res;
+    }
+}
@@ -0,0 +1,202 @@
+package se.plilja.imcollect.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import se.plilja.imcollect.internal.fingertrees.FingerTreeList;
+import se.plilja.imcollect.internal.vector.RrbVector;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link FingerTreeList} and {@link RrbVector} with a copy-on-write {@link ArrayList}.
+ * The list holds the values 0 until size, probes are random indexes (or values) within the list.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class ListBenchmark {
+
+    @State(Scope.Thread)
+    public static class FingerTreeListState {
+        @Param({"10", "100", "1000", "10000", "100000", "1000000", "10000000"})
+        int size;
+
+        FingerTreeList<Integer> list;
+        Integer[] probes;
+        int i;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            list = FingerTreeList.empty();
+            for (int j = 0; j < size; j++) {
+                list = list.add(j);
+            }
+            probes = Keys.probes(size);
+        }
+
+        Integer nextProbe() {
+            return probes[i++ & Keys.PROBE_MASK];
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class RrbVectorState {
+        @Param({"10", "100", "1000", "10000", "100000", "1000000", "10000000"})
+        int size;
+
+        RrbVector<Integer> list;
+        Integer[] probes;
+        int i;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            list = RrbVector.empty();
+            for (int j = 0; j < size; j++) {
+                list = list.add(j);
+            }
+            probes = Keys.probes(size);
+        }
+
+        Integer nextProbe() {
+            return probes[i++ & Keys.PROBE_MASK];
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ArrayListState {
+        @Param({"10", "100", "1000", "10000", "100000", "1000000", "10000000"})
+        int size;
+
+        ArrayList<Integer> list;
+        Integer[] probes;
+        int i;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            list = new ArrayList<>(size);
+            for (int j = 0; j < size; j++) {
+                list.add(j);
+            }
+            probes = Keys.probes(size);
+        }
+
+        Integer nextProbe() {
+            return probes[i++ & Keys.PROBE_MASK];
+        }
+    }
+
+    @Benchmark
+    public FingerTreeList<Integer> add(FingerTreeListState state) {
+        return state.list.add(state.nextProbe());
+    }
+
+    @Benchmark
+    public FingerTreeList<Integer> remove(FingerTreeListState state) {
+        return state.list.remove(state.nextProbe());
+    }
+
+    @Benchmark
+    public Integer get(FingerTreeListState state) {
+        return state.list.get(state.nextProbe());
+    }
+
+    @Benchmark
+    public FingerTreeList<Integer> set(FingerTreeListState state) {
+        Integer idx = state.nextProbe();
+        return state.list.set(idx, idx);
+    }
+
+    @Benchmark
+    public int indexOf(FingerTreeListState state) {
+        return state.list.indexOf(state.nextProbe());
+    }
+
+    @Benchmark
+    public FingerTreeList<Integer> concat(FingerTreeListState state) {
+        return state.list.concat(state.list);
+    }
+
+    @Benchmark
+    public void iterate(FingerTreeListState state, Blackhole blackhole) {
+        for (Integer value : state.list) {
+            blackhole.consume(value);
+        }
+    }
+
+    @Benchmark
+    public RrbVector<Integer> addVector(RrbVectorState state) {
+        return state.list.add(state.nextProbe());
+    }
+
+    @Benchmark
+    public Integer getVector(RrbVectorState state) {
+        return state.list.get(state.nextProbe());
+    }
+
+    @Benchmark
+    public RrbVector<Integer> setVector(RrbVectorState state) {
+        Integer idx = state.nextProbe();
+        return state.list.set(idx, idx);
+    }
+
+    @Benchmark
+    public RrbVector<Integer> concatVector(RrbVectorState state) {
+        return state.list.concat(state.list);
+    }
+
+    @Benchmark
+    public RrbVector<Integer> sliceVector(RrbVectorState state) {
+        int idx = state.nextProbe();
+        return state.list.slice(idx / 2, idx);
+    }
+
+    @Benchmark
+    public void iterateVector(RrbVectorState state, Blackhole blackhole) {
+        for (Integer value : state.list) {
+            blackhole.consume(value);
+        }
+    }
+
+    @Benchmark
+    public ArrayList<Integer> addCopyOnWrite(ArrayListState state) {
+        ArrayList<Integer> copy = new ArrayList<>(state.list.size() + 1);
+        copy.addAll(state.list);
+        copy.add(state.nextProbe());
+        return copy;
+    }
+
+    @Benchmark
+    public ArrayList<Integer> removeCopyOnWrite(ArrayListState state) {
+        ArrayList<Integer> copy = new ArrayList<>(state.list);
+        copy.remove(state.nextProbe());
+        return copy;
+    }
+
+    @Benchmark
+    public Integer getArrayList(ArrayListState state) {
+        return state.list.get(state.nextProbe());
+    }
+
+    @Benchmark
+    public ArrayList<Integer> setCopyOnWrite(ArrayListState state) {
+        Integer idx = state.nextProbe();
+        ArrayList<Integer> copy = new ArrayList<>(state.list);
+        copy.set(idx, idx);
+        return copy;
+    }
+
+    @Benchmark
+    public int indexOfArrayList(ArrayListState state) {
+        return state.list.indexOf(state.nextProbe());
+    }
+
+    @Benchmark
+    public void iterateArrayList(ArrayListState state, Blackhole blackhole) {
+        for (Integer value : state.list) {
+            blackhole.consume(value);
+        }
+    }
+}
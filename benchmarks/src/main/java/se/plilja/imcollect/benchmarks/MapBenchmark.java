@@ -0,0 +1,242 @@
+package se.plilja.imcollect.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import se.plilja.imcollect.ImmutableMap;
+import se.plilja.imcollect.internal.WeightBalancedTreeMap;
+import se.plilja.imcollect.internal.champ.ChampHashMap;
+import se.plilja.imcollect.internal.primitive.LongLongTreeMap;
+
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link WeightBalancedTreeMap} with a copy-on-write {@link TreeMap}, i.e. the
+ * cost of getting a new version of a map using only the standard library.
+ * Keys are drawn from [0, 2 * size) so roughly half of the probes hit an existing entry.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class MapBenchmark {
+    private static final int BATCH = 1000;
+
+    @State(Scope.Thread)
+    public static class WeightBalancedTreeMapState {
+        @Param({"10", "100", "1000", "10000", "100000", "1000000", "10000000"})
+        int size;
+
+        WeightBalancedTreeMap<Integer, Integer> map;
+        Integer[] probes;
+        int i;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            map = new WeightBalancedTreeMap<>(Integer::compare);
+            for (int key : Keys.shuffled(size)) {
+                map = map.put(key, key);
+            }
+            probes = Keys.probes(2 * size);
+        }
+
+        Integer nextProbe() {
+            return probes[i++ & Keys.PROBE_MASK];
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ChampHashMapState {
+        @Param({"10", "100", "1000", "10000", "100000", "1000000", "10000000"})
+        int size;
+
+        ChampHashMap<Integer, Integer> map;
+        Integer[] probes;
+        int i;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            map = ChampHashMap.empty();
+            for (int key : Keys.shuffled(size)) {
+                map = map.put(key, key);
+            }
+            probes = Keys.probes(2 * size);
+        }
+
+        Integer nextProbe() {
+            return probes[i++ & Keys.PROBE_MASK];
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class LongLongTreeMapState {
+        @Param({"10", "100", "1000", "10000", "100000", "1000000", "10000000"})
+        int size;
+
+        LongLongTreeMap map;
+        long[] probes;
+        int i;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            map = LongLongTreeMap.empty();
+            for (int key : Keys.shuffled(size)) {
+                map = map.put(key, key);
+            }
+            Integer[] boxed = Keys.probes(2 * size);
+            probes = new long[boxed.length];
+            for (int j = 0; j < boxed.length; j++) {
+                probes[j] = boxed[j];
+            }
+        }
+
+        long nextProbe() {
+            return probes[i++ & Keys.PROBE_MASK];
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class TreeMapState {
+        @Param({"10", "100", "1000", "10000", "100000", "1000000", "10000000"})
+        int size;
+
+        TreeMap<Integer, Integer> map;
+        Integer[] probes;
+        int i;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            map = new TreeMap<>();
+            for (int key : Keys.shuffled(size)) {
+                map.put(key, key);
+            }
+            probes = Keys.probes(2 * size);
+        }
+
+        Integer nextProbe() {
+            return probes[i++ & Keys.PROBE_MASK];
+        }
+    }
+
+    @Benchmark
+    public WeightBalancedTreeMap<Integer, Integer> put(WeightBalancedTreeMapState state) {
+        Integer key = state.nextProbe();
+        return state.map.put(key, key);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public WeightBalancedTreeMap<Integer, Integer> putBatch(WeightBalancedTreeMapState state) {
+        WeightBalancedTreeMap<Integer, Integer> res = state.map;
+        for (int j = 0; j < BATCH; j++) {
+            Integer key = state.nextProbe();
+            res = res.put(key, key);
+        }
+        return res;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public ImmutableMap<Integer, Integer> putBatchBuilder(WeightBalancedTreeMapState state) {
+        ImmutableMap.Builder<Integer, Integer> builder = state.map.toBuilder();
+        for (int j = 0; j < BATCH; j++) {
+            Integer key = state.nextProbe();
+            builder.put(key, key);
+        }
+        return builder.build();
+    }
+
+    @Benchmark
+    public WeightBalancedTreeMap<Integer, Integer> remove(WeightBalancedTreeMapState state) {
+        return state.map.remove(state.nextProbe());
+    }
+
+    @Benchmark
+    public Integer get(WeightBalancedTreeMapState state) {
+        return state.map.get(state.nextProbe());
+    }
+
+    @Benchmark
+    public boolean contains(WeightBalancedTreeMapState state) {
+        return state.map.contains(state.nextProbe());
+    }
+
+    @Benchmark
+    public void iterate(WeightBalancedTreeMapState state, Blackhole blackhole) {
+        for (Integer key : state.map.keys()) {
+            blackhole.consume(key);
+        }
+    }
+
+    @Benchmark
+    public ChampHashMap<Integer, Integer> putHashMap(ChampHashMapState state) {
+        Integer key = state.nextProbe();
+        return state.map.put(key, key);
+    }
+
+    @Benchmark
+    public ChampHashMap<Integer, Integer> removeHashMap(ChampHashMapState state) {
+        return state.map.remove(state.nextProbe());
+    }
+
+    @Benchmark
+    public Integer getHashMap(ChampHashMapState state) {
+        return state.map.get(state.nextProbe());
+    }
+
+    @Benchmark
+    public void iterateHashMap(ChampHashMapState state, Blackhole blackhole) {
+        for (Integer key : state.map.keys()) {
+            blackhole.consume(key);
+        }
+    }
+
+    @Benchmark
+    public LongLongTreeMap putLongLong(LongLongTreeMapState state) {
+        long key = state.nextProbe();
+        return state.map.put(key, key);
+    }
+
+    @Benchmark
+    public LongLongTreeMap removeLongLong(LongLongTreeMapState state) {
+        return state.map.remove(state.nextProbe());
+    }
+
+    @Benchmark
+    public long getLongLong(LongLongTreeMapState state) {
+        return state.map.getOrDefault(state.nextProbe(), -1);
+    }
+
+    @Benchmark
+    public TreeMap<Integer, Integer> putCopyOnWrite(TreeMapState state) {
+        Integer key = state.nextProbe();
+        TreeMap<Integer, Integer> copy = new TreeMap<>(state.map);
+        copy.put(key, key);
+        return copy;
+    }
+
+    @Benchmark
+    public TreeMap<Integer, Integer> removeCopyOnWrite(TreeMapState state) {
+        TreeMap<Integer, Integer> copy = new TreeMap<>(state.map);
+        copy.remove(state.nextProbe());
+        return copy;
+    }
+
+    @Benchmark
+    public Integer getTreeMap(TreeMapState state) {
+        return state.map.get(state.nextProbe());
+    }
+
+    @Benchmark
+    public boolean containsTreeMap(TreeMapState state) {
+        return state.map.containsKey(state.nextProbe());
+    }
+
+    @Benchmark
+    public void iterateTreeMap(TreeMapState state, Blackhole blackhole) {
+        for (Integer key : state.map.keySet()) {
+            blackhole.consume(key);
+        }
+    }
+}
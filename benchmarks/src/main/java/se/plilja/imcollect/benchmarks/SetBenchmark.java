@@ -0,0 +1,124 @@
+package se.plilja.imcollect.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import se.plilja.imcollect.internal.WeightBalancedTreeSet;
+
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link WeightBalancedTreeSet} with a copy-on-write {@link TreeSet}.
+ * Values are drawn from [0, 2 * size) so roughly half of the probes hit an existing value.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class SetBenchmark {
+
+    @State(Scope.Thread)
+    public static class WeightBalancedTreeSetState {
+        @Param({"10", "100", "1000", "10000", "100000", "1000000", "10000000"})
+        int size;
+
+        WeightBalancedTreeSet<Integer> set;
+        Integer[] probes;
+        int i;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            set = new WeightBalancedTreeSet<>(Integer::compare);
+            for (int value : Keys.shuffled(size)) {
+                set = set.add(value);
+            }
+            probes = Keys.probes(2 * size);
+        }
+
+        Integer nextProbe() {
+            return probes[i++ & Keys.PROBE_MASK];
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class TreeSetState {
+        @Param({"10", "100", "1000", "10000", "100000", "1000000", "10000000"})
+        int size;
+
+        TreeSet<Integer> set;
+        Integer[] probes;
+        int i;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            set = new TreeSet<>();
+            for (int value : Keys.shuffled(size)) {
+                set.add(value);
+            }
+            probes = Keys.probes(2 * size);
+        }
+
+        Integer nextProbe() {
+            return probes[i++ & Keys.PROBE_MASK];
+        }
+    }
+
+    @Benchmark
+    public WeightBalancedTreeSet<Integer> add(WeightBalancedTreeSetState state) {
+        return state.set.add(state.nextProbe());
+    }
+
+    @Benchmark
+    public WeightBalancedTreeSet<Integer> remove(WeightBalancedTreeSetState state) {
+        return state.set.remove(state.nextProbe());
+    }
+
+    @Benchmark
+    public boolean contains(WeightBalancedTreeSetState state) {
+        return state.set.contains(state.nextProbe());
+    }
+
+    @Benchmark
+    public void iterate(WeightBalancedTreeSetState state, Blackhole blackhole) {
+        for (Integer value : state.set) {
+            blackhole.consume(value);
+        }
+    }
+
+    @Benchmark
+    public long sumStream(WeightBalancedTreeSetState state) {
+        return state.set.stream().mapToLong(Integer::longValue).sum();
+    }
+
+    @Benchmark
+    public long sumParallelStream(WeightBalancedTreeSetState state) {
+        return state.set.parallelStream().mapToLong(Integer::longValue).sum();
+    }
+
+    @Benchmark
+    public TreeSet<Integer> addCopyOnWrite(TreeSetState state) {
+        TreeSet<Integer> copy = new TreeSet<>(state.set);
+        copy.add(state.nextProbe());
+        return copy;
+    }
+
+    @Benchmark
+    public TreeSet<Integer> removeCopyOnWrite(TreeSetState state) {
+        TreeSet<Integer> copy = new TreeSet<>(state.set);
+        copy.remove(state.nextProbe());
+        return copy;
+    }
+
+    @Benchmark
+    public boolean containsTreeSet(TreeSetState state) {
+        return state.set.contains(state.nextProbe());
+    }
+
+    @Benchmark
+    public void iterateTreeSet(TreeSetState state, Blackhole blackhole) {
+        for (Integer value : state.set) {
+            blackhole.consume(value);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package se.plilja.imcollect;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes and reads values of the collections in their binary format, which is the size of the collection
+ * followed by its values (and for maps, key and value after each other) in iteration order.
+ */
+public interface Codec<T> {
+    void write(DataOutput out, T value) throws IOException;
+
+    T read(DataInput in) throws IOException;
+
+    Codec<Integer> INTEGER = new Codec<>() {
+        @Override
+        public void write(DataOutput out, Integer value) throws IOException {
+            out.writeInt(value);
+        }
+
+        @Override
+        public Integer read(DataInput in) throws IOException {
+            return in.readInt();
+        }
+    };
+
+    Codec<Long> LONG = new Codec<>() {
+        @Override
+        public void write(DataOutput out, Long value) throws IOException {
+            out.writeLong(value);
+        }
+
+        @Override
+        public Long read(DataInput in) throws IOException {
+            return in.readLong();
+        }
+    };
+
+    Codec<Double> DOUBLE = new Codec<>() {
+        @Override
+        public void write(DataOutput out, Double value) throws IOException {
+            out.writeDouble(value);
+        }
+
+        @Override
+        public Double read(DataInput in) throws IOException {
+            return in.readDouble();
+        }
+    };
+
+    /**
+     * Strings as their length in bytes followed by the bytes of their UTF-8 encoding, unlike
+     * DataOutput.writeUTF strings of any length are supported.
+     */
+    Codec<String> STRING = new Codec<>() {
+        @Override
+        public void write(DataOutput out, String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        @Override
+        public String read(DataInput in) throws IOException {
+            int n = in.readInt();
+            if (n < 0) {
+                throw new IOException("Negative string length " + n);
+            }
+            byte[] bytes = new byte[n];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    };
+}
@@ -1,9 +1,14 @@
 package se.plilja.imcollect;
 
+import se.plilja.imcollect.internal.Parallelism;
+
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.Spliterator;
 import java.util.Spliterators;
+import java.util.function.BiFunction;
+import java.util.function.BinaryOperator;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
@@ -68,6 +73,22 @@ public interface ImmutableCollection<T> extends Iterable<T> {
         return res;
     }
 
+    /**
+     * Folds the values in order, starting from identity. Large collections are split on their spliterator
+     * into parts that are folded in parallel, each starting from identity, and the results of the parts are
+     * combined in order. As for Stream.reduce, combiner must be associative and identity an identity for it.
+     */
+    default <R> R fold(R identity, BiFunction<R, ? super T, R> accumulator, BinaryOperator<R> combiner) {
+        return fold(identity, accumulator, combiner, Parallelism.SEQUENTIAL_CUTOFF);
+    }
+
+    /**
+     * As fold, where parts with fewer than sequentialCutoff values are folded sequentially.
+     */
+    default <R> R fold(R identity, BiFunction<R, ? super T, R> accumulator, BinaryOperator<R> combiner, int sequentialCutoff) {
+        return Parallelism.fold(spliterator(), identity, accumulator, combiner, sequentialCutoff);
+    }
+
     default Collection<T> toMutableCollection() {
         ArrayList<T> res = new ArrayList<>();
         for (T t : this) {
@@ -76,11 +97,20 @@ public interface ImmutableCollection<T> extends Iterable<T> {
         return res;
     }
 
+    /**
+     * The default spliterator only splits by copying batches from the iterator, implementations
+     * override it with spliterators that split on the structure of the collection.
+     */
+    @Override
+    default Spliterator<T> spliterator() {
+        return Spliterators.spliterator(iterator(), size(), Spliterator.IMMUTABLE | Spliterator.NONNULL);
+    }
+
     default Stream<T> stream() {
-        return StreamSupport.stream(Spliterators.spliterator(iterator(), size(), 0), false);
+        return StreamSupport.stream(spliterator(), false);
     }
 
     default Stream<T> parallelStream() {
-        return StreamSupport.stream(Spliterators.spliterator(iterator(), size(), 0), false);
+        return StreamSupport.stream(spliterator(), true);
     }
 }
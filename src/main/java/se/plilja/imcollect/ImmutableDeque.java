@@ -0,0 +1,75 @@
+package se.plilja.imcollect;
+
+import se.plilja.imcollect.internal.fingertrees.FingerTreeList;
+
+/**
+ * A double-ended queue. Values are added, read and removed at both ends in amortized O(1).
+ */
+public interface ImmutableDeque<T> extends ImmutableCollection<T> {
+
+    /**
+     * Same as addLast.
+     */
+    @Override
+    ImmutableDeque<T> add(T value);
+
+    @Override
+    default ImmutableDeque<T> addAll(Iterable<? extends T> values) {
+        return (ImmutableDeque<T>) ImmutableCollection.super.addAll(values);
+    }
+
+    @Override
+    ImmutableDeque<T> remove(T value);
+
+    @Override
+    default ImmutableDeque<T> removeAll(Iterable<? extends T> values) {
+        return (ImmutableDeque<T>) ImmutableCollection.super.removeAll(values);
+    }
+
+    @Override
+    default ImmutableDeque<T> retainAll(Iterable<? extends T> values) {
+        return (ImmutableDeque<T>) ImmutableCollection.super.retainAll(values);
+    }
+
+    ImmutableDeque<T> addFirst(T value);
+
+    ImmutableDeque<T> addLast(T value);
+
+    /**
+     * @return The deque without its first value.
+     * @throws java.util.NoSuchElementException If the deque is empty.
+     */
+    ImmutableDeque<T> removeFirst();
+
+    /**
+     * @return The deque without its last value.
+     * @throws java.util.NoSuchElementException If the deque is empty.
+     */
+    ImmutableDeque<T> removeLast();
+
+    /**
+     * @return The first value or null if the deque is empty.
+     */
+    T peekFirst();
+
+    /**
+     * @return The last value or null if the deque is empty.
+     */
+    T peekLast();
+
+    @SafeVarargs
+    public static <T> ImmutableDeque<T> of(T... ts) {
+        ImmutableDeque<T> r = empty();
+        for (T t : ts) {
+            r = r.addLast(t);
+        }
+        return r;
+    }
+
+    /**
+     * An empty deque backed by a finger tree, which is also an {@link ImmutableList}.
+     */
+    public static <T> ImmutableDeque<T> empty() {
+        return FingerTreeList.empty();
+    }
+}
@@ -0,0 +1,70 @@
+package se.plilja.imcollect;
+
+import se.plilja.imcollect.internal.primitive.IntVector;
+
+import java.util.PrimitiveIterator;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * A list of unboxed ints.
+ */
+public interface ImmutableIntList {
+
+    ImmutableIntList add(int value);
+
+    default ImmutableIntList addAll(int... values) {
+        ImmutableIntList res = this;
+        for (int value : values) {
+            res = res.add(value);
+        }
+        return res;
+    }
+
+    int getInt(int idx);
+
+    ImmutableIntList set(int idx, int value);
+
+    /**
+     * @return The leftmost index of the value or -1 if the value is not present in the list.
+     */
+    int indexOf(int value);
+
+    /**
+     * @return The rightmost index of the value or -1 if the value is not present in the list.
+     */
+    int lastIndexOf(int value);
+
+    default boolean contains(int value) {
+        return indexOf(value) != -1;
+    }
+
+    int size();
+
+    default boolean isEmpty() {
+        return size() == 0;
+    }
+
+    PrimitiveIterator.OfInt intIterator();
+
+    default void forEach(IntConsumer action) {
+        PrimitiveIterator.OfInt it = intIterator();
+        while (it.hasNext()) {
+            action.accept(it.nextInt());
+        }
+    }
+
+    IntStream intStream();
+
+    default int[] toArray() {
+        return intStream().toArray();
+    }
+
+    public static ImmutableIntList empty() {
+        return IntVector.empty();
+    }
+
+    public static ImmutableIntList of(int... values) {
+        return IntVector.empty().addAll(values);
+    }
+}
@@ -1,6 +1,20 @@
 package se.plilja.imcollect;
 
+import se.plilja.imcollect.internal.BinaryFormat;
+import se.plilja.imcollect.internal.Parallelism;
 import se.plilja.imcollect.internal.fingertrees.FingerTreeList;
+import se.plilja.imcollect.internal.vector.RrbVector;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 public interface ImmutableList<T> extends ImmutableCollection<T> {
 
@@ -29,6 +43,107 @@ public interface ImmutableList<T> extends ImmutableCollection<T> {
 
     ImmutableList<T> set(int idx, T value);
 
+    /**
+     * @return A list with value inserted at idx, the values from idx onwards are shifted one step to the right.
+     * idx may be equal to the size of the list, which appends value.
+     */
+    ImmutableList<T> insert(int idx, T value);
+
+    /**
+     * @return A list with the value at idx removed.
+     */
+    ImmutableList<T> removeAt(int idx);
+
+    /**
+     * @return A list with value first, followed by the values of this list.
+     */
+    default ImmutableList<T> prepend(T value) {
+        return insert(0, value);
+    }
+
+    /**
+     * @return The values with index in [from, to). The sub list shares structure with this list.
+     */
+    ImmutableList<T> subList(int from, int to);
+
+    /**
+     * @return The values before idx and the values from idx onwards.
+     */
+    default Parts<T> splitAt(int idx) {
+        if (idx < 0 || idx > size()) {
+            throw new IndexOutOfBoundsException();
+        }
+        return new Parts<>(subList(0, idx), subList(idx, size()));
+    }
+
+    /**
+     * A list split in two by {@link #splitAt(int)}.
+     */
+    final class Parts<T> {
+        private final ImmutableList<T> left;
+        private final ImmutableList<T> right;
+
+        public Parts(ImmutableList<T> left, ImmutableList<T> right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        /**
+         * @return The values before the index split at.
+         */
+        public ImmutableList<T> left() {
+            return left;
+        }
+
+        /**
+         * @return The values from the index split at onwards.
+         */
+        public ImmutableList<T> right() {
+            return right;
+        }
+    }
+
+    /**
+     * @return A list with the values of this list followed by the values of other.
+     */
+    ImmutableList<T> concat(ImmutableList<T> other);
+
+    /**
+     * @return A list with f applied to every value, in the same order.
+     */
+    default <R> ImmutableList<R> map(Function<? super T, ? extends R> f) {
+        return map(f, Parallelism.SEQUENTIAL_CUTOFF);
+    }
+
+    /**
+     * As map, where implementations that map in parallel map parts with fewer than sequentialCutoff values
+     * sequentially.
+     */
+    @SuppressWarnings("unchecked")
+    default <R> ImmutableList<R> map(Function<? super T, ? extends R> f, int sequentialCutoff) {
+        ImmutableList<R> res = (ImmutableList<R>) subList(0, 0);
+        for (T value : this) {
+            res = res.add(f.apply(value));
+        }
+        return res;
+    }
+
+    /**
+     * @return A list with the values for which predicate holds, in the same order. The parts of large
+     * lists are filtered in parallel and concatenated.
+     */
+    default ImmutableList<T> filter(Predicate<? super T> predicate) {
+        return filter(predicate, Parallelism.SEQUENTIAL_CUTOFF);
+    }
+
+    /**
+     * As filter, where parts with fewer than sequentialCutoff values are filtered sequentially.
+     */
+    default ImmutableList<T> filter(Predicate<? super T> predicate, int sequentialCutoff) {
+        ImmutableList<T> res = fold(subList(0, 0), (acc, value) -> predicate.test(value) ? acc.add(value) : acc, ImmutableList::concat, sequentialCutoff);
+        return res.size() == size() ? this : res;
+    }
+
     /**
      * Finds the first index of a given value.
      *
@@ -43,10 +158,48 @@ public interface ImmutableList<T> extends ImmutableCollection<T> {
      */
     int lastIndexOf(T value);
 
+    /**
+     * @return An iterator from the last value to the first.
+     */
+    default Iterator<T> reverseIterator() {
+        return new Iterator<>() {
+            private int idx = size() - 1;
+
+            @Override
+            public boolean hasNext() {
+                return idx >= 0;
+            }
+
+            @Override
+            public T next() {
+                if (idx < 0) {
+                    throw new NoSuchElementException();
+                }
+                return get(idx--);
+            }
+        };
+    }
+
     default boolean contains(T value) {
         return indexOf(value) != -1;
     }
 
+    /**
+     * Writes the size of the list followed by its values in order, see {@link Codec}.
+     */
+    default void writeTo(DataOutput out, Codec<? super T> codec) throws IOException {
+        out.writeInt(size());
+        for (T value : this) {
+            codec.write(out, value);
+        }
+    }
+
+    default void writeTo(WritableByteChannel channel, Codec<? super T> codec) throws IOException {
+        DataOutputStream out = BinaryFormat.output(channel);
+        writeTo(out, codec);
+        out.flush();
+    }
+
     @SafeVarargs
     public static <T> ImmutableList<T> of(T... ts) {
         ImmutableList<T> r = empty();
@@ -59,4 +212,28 @@ public interface ImmutableList<T> extends ImmutableCollection<T> {
     public static <T> ImmutableList<T> empty() {
         return FingerTreeList.empty();
     }
+
+    /**
+     * An empty list backed by a 32-way tree. Indexed access and update are close to constant time,
+     * and lists can be concatenated and sliced in logarithmic time.
+     */
+    public static <T> ImmutableList<T> emptyVector() {
+        return RrbVector.empty();
+    }
+
+    /**
+     * Reads a list written by writeTo with the same codec, in O(n).
+     *
+     * @throws IOException If the input can't be read or holds a null value.
+     */
+    public static <T> ImmutableList<T> readFrom(DataInput in, Codec<T> codec) throws IOException {
+        return FingerTreeList.readFrom(in, codec);
+    }
+
+    /**
+     * Reads a list from channel. The channel is read through a buffer, so it may be read past the end of the list.
+     */
+    public static <T> ImmutableList<T> readFrom(ReadableByteChannel channel, Codec<T> codec) throws IOException {
+        return FingerTreeList.readFrom(channel, codec);
+    }
 }
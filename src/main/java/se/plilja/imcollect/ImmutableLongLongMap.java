@@ -0,0 +1,115 @@
+package se.plilja.imcollect;
+
+import se.plilja.imcollect.internal.primitive.LongLongTreeMap;
+import se.plilja.imcollect.internal.primitive.OffHeapLongLongMap;
+
+import java.util.NoSuchElementException;
+import java.util.OptionalLong;
+import java.util.PrimitiveIterator;
+import java.util.stream.LongStream;
+
+/**
+ * A map from unboxed long keys to unboxed long values, sorted on the keys.
+ */
+public interface ImmutableLongLongMap {
+
+    /**
+     * @return The value for key or defaultValue if the key isn't present.
+     */
+    long getOrDefault(long key, long defaultValue);
+
+    /**
+     * @throws NoSuchElementException If the key isn't present.
+     */
+    long getLong(long key);
+
+    default OptionalLong lookup(long key) {
+        return contains(key) ? OptionalLong.of(getLong(key)) : OptionalLong.empty();
+    }
+
+    boolean contains(long key);
+
+    ImmutableLongLongMap put(long key, long value);
+
+    ImmutableLongLongMap remove(long key);
+
+    int size();
+
+    default boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Iterates the keys in ascending order.
+     */
+    PrimitiveIterator.OfLong keyIterator();
+
+    /**
+     * Iterates the values in the order of their keys.
+     */
+    PrimitiveIterator.OfLong valueIterator();
+
+    void forEach(LongLongConsumer action);
+
+    LongStream keyStream();
+
+    LongStream valueStream();
+
+    @FunctionalInterface
+    interface LongLongConsumer {
+        void accept(long key, long value);
+    }
+
+    /**
+     * A map whose nodes are stored outside the heap and shared between its versions. Since the garbage
+     * collector doesn't know about the nodes, every version, including the empty map it starts from, must
+     * be released when it's no longer used. Using a released version throws IllegalStateException.
+     */
+    interface OffHeap extends ImmutableLongLongMap, AutoCloseable {
+        /**
+         * @return A new version with key mapped to value, which must be released as well.
+         */
+        @Override
+        OffHeap put(long key, long value);
+
+        /**
+         * @return A new version without key, which must be released as well.
+         */
+        @Override
+        OffHeap remove(long key);
+
+        /**
+         * Releases the nodes of this version that aren't shared with other versions. Releasing a version
+         * more than once has no effect.
+         */
+        void release();
+
+        boolean isReleased();
+
+        /**
+         * Same as release.
+         */
+        @Override
+        void close();
+    }
+
+    public static ImmutableLongLongMap empty() {
+        return LongLongTreeMap.empty();
+    }
+
+    /**
+     * An empty map that keeps its nodes outside the heap, for maps too large for the garbage collector to
+     * mark cheaply. Nodes are allocated 32768 at a time.
+     */
+    public static OffHeap emptyOffHeap() {
+        return OffHeapLongLongMap.create();
+    }
+
+    /**
+     * @param nodesPerSlab The number of nodes to allocate at a time, each node takes 32 bytes. Rounded up to
+     *                     a power of two.
+     */
+    public static OffHeap emptyOffHeap(int nodesPerSlab) {
+        return OffHeapLongLongMap.create(nodesPerSlab);
+    }
+}
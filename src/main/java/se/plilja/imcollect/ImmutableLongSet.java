@@ -0,0 +1,59 @@
+package se.plilja.imcollect;
+
+import se.plilja.imcollect.internal.primitive.LongTreeSet;
+
+import java.util.PrimitiveIterator;
+import java.util.function.LongConsumer;
+import java.util.stream.LongStream;
+
+/**
+ * A sorted set of unboxed longs.
+ */
+public interface ImmutableLongSet {
+
+    ImmutableLongSet add(long value);
+
+    default ImmutableLongSet addAll(long... values) {
+        ImmutableLongSet res = this;
+        for (long value : values) {
+            res = res.add(value);
+        }
+        return res;
+    }
+
+    ImmutableLongSet remove(long value);
+
+    boolean contains(long value);
+
+    int size();
+
+    default boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Iterates the values in ascending order.
+     */
+    PrimitiveIterator.OfLong longIterator();
+
+    default void forEach(LongConsumer action) {
+        PrimitiveIterator.OfLong it = longIterator();
+        while (it.hasNext()) {
+            action.accept(it.nextLong());
+        }
+    }
+
+    LongStream longStream();
+
+    default long[] toArray() {
+        return longStream().toArray();
+    }
+
+    public static ImmutableLongSet empty() {
+        return LongTreeSet.empty();
+    }
+
+    public static ImmutableLongSet of(long... values) {
+        return LongTreeSet.fromArray(values);
+    }
+}
@@ -1,21 +1,48 @@
 package se.plilja.imcollect;
 
+import se.plilja.imcollect.internal.Parallelism;
+import se.plilja.imcollect.internal.PersistentMapBuilder;
 import se.plilja.imcollect.internal.WeightBalancedTreeMap;
+import se.plilja.imcollect.internal.champ.ChampHashMap;
+import se.plilja.imcollect.internal.mapped.MappedSortedMap;
 
+import java.io.DataInput;
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.util.AbstractMap;
 import java.util.Comparator;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.function.BiFunction;
+import java.util.function.BiPredicate;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 public interface ImmutableMap<K, V> {
 
+    /**
+     * @return The value for key or null if the key isn't present.
+     */
     default V get(K key) {
         return lookup(key).orElse(null);
     }
 
+    /**
+     * @return The value for key or defaultValue if the key isn't present.
+     */
+    default V getOrDefault(K key, V defaultValue) {
+        V value = get(key);
+        return value == null ? defaultValue : value;
+    }
+
     Optional<V> lookup(K key);
 
     default boolean contains(K key) {
-        return lookup(key).isPresent();
+        return get(key) != null;
     }
 
     ImmutableMap<K, V> put(K key, V value);
@@ -32,31 +59,411 @@ public interface ImmutableMap<K, V> {
 
     default ImmutableMap<K, V> putAll(ImmutableMap<K, V> map) {
         ImmutableMap<K, V> res = this;
+        Iterator<V> values = map.values().iterator();
         for (K key : map.keys()) {
-            res = res.put(key, map.get(key));
+            res = res.put(key, values.next());
+        }
+        return res;
+    }
+
+    /**
+     * @return All entries of this map and other. For keys present in both maps the value is
+     * resolver(value in this map, value in other), the key is removed if that is null.
+     */
+    default ImmutableMap<K, V> merge(ImmutableMap<K, V> other, BiFunction<? super V, ? super V, ? extends V> resolver) {
+        return merge(other, resolver, Parallelism.SEQUENTIAL_CUTOFF);
+    }
+
+    /**
+     * As merge, where implementations that merge in parallel merge parts with fewer than sequentialCutoff
+     * entries sequentially.
+     */
+    default ImmutableMap<K, V> merge(ImmutableMap<K, V> other, BiFunction<? super V, ? super V, ? extends V> resolver, int sequentialCutoff) {
+        ImmutableMap<K, V> res = this;
+        Iterator<V> values = other.values().iterator();
+        for (K key : other.keys()) {
+            V value = values.next();
+            if (contains(key)) {
+                V resolved = resolver.apply(get(key), value);
+                res = resolved == null ? res.remove(key) : res.put(key, resolved);
+            } else {
+                res = res.put(key, value);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * @return All entries of this map and other. For keys present in both maps the value in other
+     * is used, in the same manner as with {@link #putAll(ImmutableMap)}.
+     */
+    default ImmutableMap<K, V> union(ImmutableMap<K, V> other) {
+        return putAll(other);
+    }
+
+    /**
+     * @return The entries of this map whose keys are also present in other.
+     */
+    default ImmutableMap<K, V> intersection(ImmutableMap<K, V> other) {
+        ImmutableMap<K, V> res = this;
+        for (K key : keys()) {
+            if (!other.contains(key)) {
+                res = res.remove(key);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * @return The entries of this map whose keys are not present in other.
+     */
+    default ImmutableMap<K, V> difference(ImmutableMap<K, V> other) {
+        ImmutableMap<K, V> res = this;
+        for (K key : keys()) {
+            if (other.contains(key)) {
+                res = res.remove(key);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * @return True if all keys of this map are present in other. Values are not compared.
+     */
+    default boolean isSubsetOf(ImmutableMap<K, V> other) {
+        for (K key : keys()) {
+            if (!other.contains(key)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return True if no key of this map is present in other.
+     */
+    default boolean isDisjoint(ImmutableMap<K, V> other) {
+        for (K key : keys()) {
+            if (other.contains(key)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The entry at index in key iteration order, which for ordered maps is the entry with the
+     * index'th smallest key. Ordered maps do this in O(log n).
+     */
+    default Map.Entry<K, V> getByIndex(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException(String.format("Index %d out of bounds for size %d", index, size()));
+        }
+        int i = 0;
+        for (K key : keys()) {
+            if (i++ == index) {
+                return new AbstractMap.SimpleImmutableEntry<>(key, get(key));
+            }
+        }
+        throw new IllegalStateException();
+    }
+
+    /**
+     * @return The index of key in key iteration order if present, otherwise (-(insertion point) - 1). For ordered
+     * maps the insertion point is the number of keys less than key. Unordered maps use the size of the map
+     * as insertion point. Ordered maps do this in O(log n).
+     */
+    default int rankOf(K key) {
+        int i = 0;
+        for (K k : keys()) {
+            if (k.equals(key)) {
+                return i;
+            }
+            i++;
+        }
+        return -size() - 1;
+    }
+
+    /**
+     * @return The first n entries in key iteration order.
+     */
+    default ImmutableMap<K, V> take(int n) {
+        return slice(0, n);
+    }
+
+    /**
+     * @return All entries but the first n in key iteration order.
+     */
+    default ImmutableMap<K, V> drop(int n) {
+        return slice(n, size());
+    }
+
+    /**
+     * @return The entries with index in [from, to) in key iteration order. Ordered maps do this in O(log n).
+     */
+    default ImmutableMap<K, V> slice(int from, int to) {
+        if (from < 0 || to > size() || from > to) {
+            throw new IndexOutOfBoundsException(String.format("Slice [%d, %d) out of bounds for size %d", from, to, size()));
+        }
+        ImmutableMap<K, V> res = this;
+        int i = 0;
+        for (K key : keys()) {
+            if (i < from || i >= to) {
+                res = res.remove(key);
+            }
+            i++;
         }
         return res;
     }
 
+    /**
+     * @return A map with the same keys, where every value is replaced by f of it.
+     */
+    default <V2> ImmutableMap<K, V2> mapValues(Function<? super V, ? extends V2> f) {
+        return mapValues(f, Parallelism.SEQUENTIAL_CUTOFF);
+    }
+
+    /**
+     * As mapValues, where implementations that map in parallel map parts with fewer than sequentialCutoff
+     * entries sequentially.
+     */
+    default <V2> ImmutableMap<K, V2> mapValues(Function<? super V, ? extends V2> f, int sequentialCutoff) {
+        ImmutableMap<K, V2> res = emptyHashMap();
+        Iterator<V> values = values().iterator();
+        for (K key : keys()) {
+            res = res.put(key, f.apply(values.next()));
+        }
+        return res;
+    }
+
+    /**
+     * @return The entries for which predicate holds.
+     */
+    default ImmutableMap<K, V> filter(BiPredicate<? super K, ? super V> predicate) {
+        return filter(predicate, Parallelism.SEQUENTIAL_CUTOFF);
+    }
+
+    /**
+     * As filter, where implementations that filter in parallel filter parts with fewer than sequentialCutoff
+     * entries sequentially.
+     */
+    default ImmutableMap<K, V> filter(BiPredicate<? super K, ? super V> predicate, int sequentialCutoff) {
+        ImmutableMap<K, V> res = this;
+        Iterator<V> values = values().iterator();
+        for (K key : keys()) {
+            if (!predicate.test(key, values.next())) {
+                res = res.remove(key);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * @return The entries with a key for which predicate holds.
+     */
+    default ImmutableMap<K, V> filterKeys(Predicate<? super K> predicate) {
+        return filter((key, value) -> predicate.test(key));
+    }
+
+    /**
+     * Folds the entries in order, starting from identity. Implementations may fold parts of the map in
+     * parallel, each starting from identity, and combine the results of the parts in order. As for
+     * Stream.reduce, combiner must be associative and identity an identity for it.
+     */
+    default <R> R fold(R identity, EntryAccumulator<R, K, V> accumulator, BinaryOperator<R> combiner) {
+        return fold(identity, accumulator, combiner, Parallelism.SEQUENTIAL_CUTOFF);
+    }
+
+    /**
+     * As fold, where implementations that fold in parallel fold parts with fewer than sequentialCutoff
+     * entries sequentially.
+     */
+    default <R> R fold(R identity, EntryAccumulator<R, K, V> accumulator, BinaryOperator<R> combiner, int sequentialCutoff) {
+        R res = identity;
+        Iterator<V> values = values().iterator();
+        for (K key : keys()) {
+            res = accumulator.accumulate(res, key, values.next());
+        }
+        return res;
+    }
+
+    @FunctionalInterface
+    interface EntryAccumulator<R, K, V> {
+        R accumulate(R result, K key, V value);
+    }
+
+    /**
+     * Reports the changes that turn this map into other. Ordered maps derived from one another are diffed
+     * by walking their trees together and skipping the subtrees they share, in O(d log n) for d changes.
+     * Other maps are diffed by looking up every key of both maps in the other map.
+     */
+    default void diff(ImmutableMap<K, V> other, DiffListener<K, V> listener) {
+        Iterator<V> values = values().iterator();
+        for (K key : keys()) {
+            V value = values.next();
+            if (!other.contains(key)) {
+                listener.removed(key, value);
+            } else {
+                V otherValue = other.get(key);
+                if (!Objects.equals(value, otherValue)) {
+                    listener.changed(key, value, otherValue);
+                }
+            }
+        }
+        Iterator<V> otherValues = other.values().iterator();
+        for (K key : other.keys()) {
+            V otherValue = otherValues.next();
+            if (!contains(key)) {
+                listener.added(key, otherValue);
+            }
+        }
+    }
+
+    /**
+     * Receives the changes found by diff, ordered by key for ordered maps.
+     */
+    interface DiffListener<K, V> {
+        /**
+         * key is present in the other map but not in this map.
+         */
+        void added(K key, V value);
+
+        /**
+         * key is present in this map but not in the other map.
+         */
+        void removed(K key, V value);
+
+        /**
+         * key is present in both maps with different values.
+         */
+        void changed(K key, V oldValue, V newValue);
+    }
+
+    /**
+     * @return A builder initially holding the entries of this map. By default every change of the
+     * builder creates a new version of the map, implementations with a cheaper way of changing a
+     * map in place override this.
+     */
+    default Builder<K, V> toBuilder() {
+        return new PersistentMapBuilder<>(this);
+    }
+
+    /**
+     * A mutable builder for maps. Building a map through a builder avoids creating intermediate
+     * versions of the map for every change. A builder is not thread safe.
+     */
+    interface Builder<K, V> {
+        Builder<K, V> put(K key, V value);
+
+        default Builder<K, V> putAll(Map<K, V> map) {
+            for (Map.Entry<K, V> entry : map.entrySet()) {
+                put(entry.getKey(), entry.getValue());
+            }
+            return this;
+        }
+
+        Builder<K, V> remove(K key);
+
+        Optional<V> lookup(K key);
+
+        default V get(K key) {
+            return lookup(key).orElse(null);
+        }
+
+        default boolean contains(K key) {
+            return get(key) != null;
+        }
+
+        int size();
+
+        /**
+         * Creates a map with the current content of the builder. The builder may continue to
+         * be used afterwards without affecting the built map.
+         */
+        ImmutableMap<K, V> build();
+    }
+
     Iterable<K> keys();
 
     Iterable<V> values();
 
     int size();
 
-    public static <K extends Comparable<K>, V> ImmutableMap<K, V> singletonMap(K key, V value) {
+    public static <K extends Comparable<K>, V> ImmutableSortedMap<K, V> singletonMap(K key, V value) {
         return ImmutableMap.<K, V>empty().put(key, value);
     }
 
-    public static <K, V> ImmutableMap<K, V> singletonMap(Comparator<K> comparator, K key, V value) {
+    public static <K, V> ImmutableSortedMap<K, V> singletonMap(Comparator<K> comparator, K key, V value) {
         return ImmutableMap.<K, V>empty(comparator).put(key, value);
     }
 
-    public static <K extends Comparable<K>, V> ImmutableMap<K, V> empty() {
+    /**
+     * Creates a map from entries in ascending key order in linear time. Unsorted entries are
+     * accepted as well but will then have to be sorted first. If a key occurs several times
+     * the last entry wins.
+     */
+    public static <K extends Comparable<K>, V> ImmutableSortedMap<K, V> fromSortedEntries(Iterable<? extends Map.Entry<K, V>> sorted) {
+        return WeightBalancedTreeMap.fromEntries(Comparator.naturalOrder(), sorted);
+    }
+
+    /**
+     * Creates a map from entries in ascending key order (according to comparator) in linear time.
+     * Unsorted entries are accepted as well but will then have to be sorted first. If a key occurs
+     * several times the last entry wins.
+     */
+    public static <K, V> ImmutableSortedMap<K, V> fromSortedEntries(Comparator<K> comparator, Iterable<? extends Map.Entry<K, V>> sorted) {
+        return WeightBalancedTreeMap.fromEntries(comparator, sorted);
+    }
+
+    /**
+     * Reads a map written by {@link ImmutableSortedMap#writeTo} with the same codecs, in O(n).
+     *
+     * @throws IOException If the input can't be read or the keys are not in strictly ascending order by comparator.
+     */
+    public static <K, V> ImmutableSortedMap<K, V> readFrom(DataInput in, Comparator<K> comparator, Codec<K> keyCodec, Codec<V> valueCodec) throws IOException {
+        return WeightBalancedTreeMap.readFrom(in, comparator, keyCodec, valueCodec);
+    }
+
+    /**
+     * Reads a map from channel. The channel is read through a buffer, so it may be read past the end of the map.
+     */
+    public static <K, V> ImmutableSortedMap<K, V> readFrom(ReadableByteChannel channel, Comparator<K> comparator, Codec<K> keyCodec, Codec<V> valueCodec) throws IOException {
+        return WeightBalancedTreeMap.readFrom(channel, comparator, keyCodec, valueCodec);
+    }
+
+    /**
+     * Opens a map memory mapped from a file written by {@link #writeMapped}. Only the header is read up
+     * front, entries are decoded from the file as they are looked up. Changes to the map are kept on the
+     * heap and never written to the file.
+     *
+     * @param comparator Must order the keys the same way as the map that was written.
+     */
+    public static <K, V> ImmutableSortedMap<K, V> mapped(Path file, Comparator<K> comparator, Codec<K> keyCodec, Codec<V> valueCodec) throws IOException {
+        return MappedSortedMap.open(file, comparator, keyCodec, valueCodec);
+    }
+
+    /**
+     * Writes map to file in a format that can be opened by {@link #mapped}.
+     *
+     * @throws IOException If the file can't be written or would be larger than 2 GB.
+     */
+    public static <K, V> void writeMapped(Path file, ImmutableSortedMap<K, V> map, Codec<? super K> keyCodec, Codec<? super V> valueCodec) throws IOException {
+        MappedSortedMap.write(file, map, keyCodec, valueCodec);
+    }
+
+    public static <K extends Comparable<K>, V> ImmutableSortedMap<K, V> empty() {
         return new WeightBalancedTreeMap<K, V>(Comparator.naturalOrder());
     }
 
-    public static <K, V> ImmutableMap<K, V> empty(Comparator<K> comparator) {
+    public static <K, V> ImmutableSortedMap<K, V> empty(Comparator<K> comparator) {
         return new WeightBalancedTreeMap<>(comparator);
     }
+
+    /**
+     * An empty map based on hashing rather than ordering. Lookups are close to constant time but
+     * keys are not iterated in any particular order.
+     */
+    public static <K, V> ImmutableMap<K, V> emptyHashMap() {
+        return ChampHashMap.empty();
+    }
 }
@@ -0,0 +1,73 @@
+package se.plilja.imcollect;
+
+import se.plilja.imcollect.internal.fingertrees.FingerTreePriorityQueue;
+
+import java.util.Comparator;
+
+/**
+ * A queue that hands out its values from the smallest to the largest according to a comparator. Values
+ * of equal priority are handed out in the order they were added. Iterating the queue visits the values
+ * in the order they were added, not in priority order.
+ */
+public interface ImmutablePriorityQueue<T> extends ImmutableCollection<T> {
+
+    /**
+     * Adds value in amortized O(1).
+     */
+    @Override
+    ImmutablePriorityQueue<T> add(T value);
+
+    @Override
+    default ImmutablePriorityQueue<T> addAll(Iterable<? extends T> values) {
+        return (ImmutablePriorityQueue<T>) ImmutableCollection.super.addAll(values);
+    }
+
+    @Override
+    ImmutablePriorityQueue<T> remove(T value);
+
+    @Override
+    default ImmutablePriorityQueue<T> removeAll(Iterable<? extends T> values) {
+        return (ImmutablePriorityQueue<T>) ImmutableCollection.super.removeAll(values);
+    }
+
+    @Override
+    default ImmutablePriorityQueue<T> retainAll(Iterable<? extends T> values) {
+        return (ImmutablePriorityQueue<T>) ImmutableCollection.super.retainAll(values);
+    }
+
+    Comparator<T> comparator();
+
+    /**
+     * @return The smallest value or null if the queue is empty.
+     */
+    T peekMin();
+
+    /**
+     * @return The queue without the value returned by peekMin.
+     * @throws java.util.NoSuchElementException If the queue is empty.
+     */
+    ImmutablePriorityQueue<T> popMin();
+
+    /**
+     * @return A queue with the values of both this queue and other. Queues of the same kind ordered by the same
+     * comparator are melded in O(log n).
+     */
+    ImmutablePriorityQueue<T> meld(ImmutablePriorityQueue<T> other);
+
+    @SafeVarargs
+    public static <T extends Comparable<T>> ImmutablePriorityQueue<T> of(T... ts) {
+        ImmutablePriorityQueue<T> r = empty();
+        for (T t : ts) {
+            r = r.add(t);
+        }
+        return r;
+    }
+
+    public static <T extends Comparable<T>> ImmutablePriorityQueue<T> empty() {
+        return FingerTreePriorityQueue.empty(Comparator.<T>naturalOrder());
+    }
+
+    public static <T> ImmutablePriorityQueue<T> empty(Comparator<T> comparator) {
+        return FingerTreePriorityQueue.empty(comparator);
+    }
+}
@@ -1,8 +1,16 @@
 package se.plilja.imcollect;
 
+import se.plilja.imcollect.internal.Parallelism;
+import se.plilja.imcollect.internal.PersistentSetBuilder;
 import se.plilja.imcollect.internal.WeightBalancedTreeSet;
+import se.plilja.imcollect.internal.champ.ChampHashSet;
 
+import java.io.DataInput;
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.function.Predicate;
 
 public interface ImmutableSet<T> extends ImmutableCollection<T> {
 
@@ -27,27 +35,272 @@ public interface ImmutableSet<T> extends ImmutableCollection<T> {
         return (ImmutableSet<T>) ImmutableCollection.super.retainAll(values);
     }
 
-    public static <K extends Comparable<K>> ImmutableSet<K> of(K... ks) {
-        ImmutableSet<K> r = empty();
-        for (K k : ks) {
-            r = r.add(k);
+    /**
+     * @return All values present in this set or in other.
+     */
+    default ImmutableSet<T> union(ImmutableSet<T> other) {
+        return addAll(other);
+    }
+
+    /**
+     * @return The values of this set that are also present in other.
+     */
+    default ImmutableSet<T> intersection(ImmutableSet<T> other) {
+        ImmutableSet<T> res = this;
+        for (T value : this) {
+            if (!other.contains(value)) {
+                res = res.remove(value);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * @return The values of this set that are not present in other.
+     */
+    default ImmutableSet<T> difference(ImmutableSet<T> other) {
+        ImmutableSet<T> res = this;
+        for (T value : this) {
+            if (other.contains(value)) {
+                res = res.remove(value);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * @return True if all values of this set are present in other.
+     */
+    default boolean isSubsetOf(ImmutableSet<T> other) {
+        for (T value : this) {
+            if (!other.contains(value)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return True if no value of this set is present in other.
+     */
+    default boolean isDisjoint(ImmutableSet<T> other) {
+        for (T value : this) {
+            if (other.contains(value)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The value at index in iteration order, which for ordered sets is the index'th smallest value.
+     * Ordered sets do this in O(log n).
+     */
+    default T getByIndex(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException(String.format("Index %d out of bounds for size %d", index, size()));
+        }
+        int i = 0;
+        for (T value : this) {
+            if (i++ == index) {
+                return value;
+            }
         }
-        return r;
+        throw new IllegalStateException();
     }
 
-    public static <K> ImmutableSet<K> of(Comparator<K> comparator, K... ks) {
-        ImmutableSet<K> r = empty(comparator);
-        for (K k : ks) {
-            r = r.add(k);
+    /**
+     * @return The index of value in iteration order if present, otherwise (-(insertion point) - 1). For ordered
+     * sets the insertion point is the number of values less than value, which hence is what the rank of
+     * an absent value tells. Unordered sets use the size of the set as insertion point. Ordered sets do this
+     * in O(log n).
+     */
+    default int rankOf(T value) {
+        int i = 0;
+        for (T t : this) {
+            if (t.equals(value)) {
+                return i;
+            }
+            i++;
         }
-        return r;
+        return -size() - 1;
     }
 
-    public static <K extends Comparable<K>> ImmutableSet<K> empty() {
+    /**
+     * @return The first n values in iteration order.
+     */
+    default ImmutableSet<T> take(int n) {
+        return slice(0, n);
+    }
+
+    /**
+     * @return All values but the first n in iteration order.
+     */
+    default ImmutableSet<T> drop(int n) {
+        return slice(n, size());
+    }
+
+    /**
+     * @return The values with index in [from, to) in iteration order. Ordered sets do this in O(log n).
+     */
+    default ImmutableSet<T> slice(int from, int to) {
+        if (from < 0 || to > size() || from > to) {
+            throw new IndexOutOfBoundsException(String.format("Slice [%d, %d) out of bounds for size %d", from, to, size()));
+        }
+        ImmutableSet<T> res = this;
+        int i = 0;
+        for (T value : this) {
+            if (i < from || i >= to) {
+                res = res.remove(value);
+            }
+            i++;
+        }
+        return res;
+    }
+
+    /**
+     * @return The values for which predicate holds.
+     */
+    default ImmutableSet<T> filter(Predicate<? super T> predicate) {
+        return filter(predicate, Parallelism.SEQUENTIAL_CUTOFF);
+    }
+
+    /**
+     * As filter, where implementations that filter in parallel filter parts with fewer than sequentialCutoff
+     * values sequentially.
+     */
+    default ImmutableSet<T> filter(Predicate<? super T> predicate, int sequentialCutoff) {
+        ImmutableSet<T> res = this;
+        for (T value : this) {
+            if (!predicate.test(value)) {
+                res = res.remove(value);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Reports the changes that turn this set into other. Ordered sets derived from one another are diffed
+     * by walking their trees together and skipping the subtrees they share, in O(d log n) for d changes.
+     * Other sets are diffed by looking up every value of both sets in the other set.
+     */
+    default void diff(ImmutableSet<T> other, DiffListener<T> listener) {
+        for (T value : this) {
+            if (!other.contains(value)) {
+                listener.removed(value);
+            }
+        }
+        for (T value : other) {
+            if (!contains(value)) {
+                listener.added(value);
+            }
+        }
+    }
+
+    /**
+     * Receives the changes found by diff, in ascending order for ordered sets.
+     */
+    interface DiffListener<T> {
+        /**
+         * value is present in the other set but not in this set.
+         */
+        void added(T value);
+
+        /**
+         * value is present in this set but not in the other set.
+         */
+        void removed(T value);
+    }
+
+    /**
+     * @return A builder initially holding the values of this set. By default every change of the
+     * builder creates a new version of the set, implementations with a cheaper way of changing a
+     * set in place override this.
+     */
+    default Builder<T> toBuilder() {
+        return new PersistentSetBuilder<>(this);
+    }
+
+    /**
+     * A mutable builder for sets. Building a set through a builder avoids creating intermediate
+     * versions of the set for every change. A builder is not thread safe.
+     */
+    interface Builder<T> {
+        Builder<T> add(T value);
+
+        default Builder<T> addAll(Iterable<? extends T> values) {
+            for (T value : values) {
+                add(value);
+            }
+            return this;
+        }
+
+        Builder<T> remove(T value);
+
+        boolean contains(T value);
+
+        int size();
+
+        /**
+         * Creates a set with the current content of the builder. The builder may continue to
+         * be used afterwards without affecting the built set.
+         */
+        ImmutableSet<T> build();
+    }
+
+    public static <K extends Comparable<K>> ImmutableSortedSet<K> of(K... ks) {
+        return ImmutableSet.<K>empty().addAll(Arrays.asList(ks));
+    }
+
+    public static <K> ImmutableSortedSet<K> of(Comparator<K> comparator, K... ks) {
+        return empty(comparator).addAll(Arrays.asList(ks));
+    }
+
+    /**
+     * Creates a set from values in ascending order in linear time. Unsorted
+     * values are accepted as well but will then have to be sorted first.
+     */
+    public static <K extends Comparable<K>> ImmutableSortedSet<K> fromSorted(Iterable<K> sorted) {
+        return ImmutableSet.<K>empty().addAll(sorted);
+    }
+
+    /**
+     * Creates a set from values in ascending order (according to comparator) in linear time.
+     * Unsorted values are accepted as well but will then have to be sorted first.
+     */
+    public static <K> ImmutableSortedSet<K> fromSorted(Comparator<K> comparator, Iterable<K> sorted) {
+        return empty(comparator).addAll(sorted);
+    }
+
+    /**
+     * Reads a set written by {@link ImmutableSortedSet#writeTo} with the same codec, in O(n).
+     *
+     * @throws IOException If the input can't be read or the values are not in strictly ascending order by comparator.
+     */
+    public static <K> ImmutableSortedSet<K> readFrom(DataInput in, Comparator<K> comparator, Codec<K> codec) throws IOException {
+        return WeightBalancedTreeSet.readFrom(in, comparator, codec);
+    }
+
+    /**
+     * Reads a set from channel. The channel is read through a buffer, so it may be read past the end of the set.
+     */
+    public static <K> ImmutableSortedSet<K> readFrom(ReadableByteChannel channel, Comparator<K> comparator, Codec<K> codec) throws IOException {
+        return WeightBalancedTreeSet.readFrom(channel, comparator, codec);
+    }
+
+    public static <K extends Comparable<K>> ImmutableSortedSet<K> empty() {
         return new WeightBalancedTreeSet<>((k1, k2) -> k1.compareTo(k2));
     }
 
-    public static <K> ImmutableSet<K> empty(Comparator<K> comparator) {
+    public static <K> ImmutableSortedSet<K> empty(Comparator<K> comparator) {
         return new WeightBalancedTreeSet<>(comparator);
     }
+
+    /**
+     * An empty set based on hashing rather than ordering. Lookups are close to constant time but
+     * values are not iterated in any particular order.
+     */
+    public static <K> ImmutableSet<K> emptyHashSet() {
+        return ChampHashSet.empty();
+    }
 }
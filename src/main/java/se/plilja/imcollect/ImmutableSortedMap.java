@@ -0,0 +1,235 @@
+package se.plilja.imcollect;
+
+import se.plilja.imcollect.internal.BinaryFormat;
+import se.plilja.imcollect.internal.Parallelism;
+
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.BiFunction;
+import java.util.function.BiPredicate;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * A map whose keys are ordered by a comparator, which allows navigating the map by key.
+ * Sub maps are created by splitting the underlying tree in O(log n), they share all but
+ * O(log n) nodes with this map.
+ */
+public interface ImmutableSortedMap<K, V> extends ImmutableMap<K, V> {
+
+    @Override
+    ImmutableSortedMap<K, V> put(K key, V value);
+
+    @Override
+    ImmutableSortedMap<K, V> remove(K key);
+
+    @Override
+    default ImmutableSortedMap<K, V> putAll(Map<K, V> map) {
+        return (ImmutableSortedMap<K, V>) ImmutableMap.super.putAll(map);
+    }
+
+    @Override
+    default ImmutableSortedMap<K, V> putAll(ImmutableMap<K, V> map) {
+        return (ImmutableSortedMap<K, V>) ImmutableMap.super.putAll(map);
+    }
+
+    @Override
+    default ImmutableSortedMap<K, V> merge(ImmutableMap<K, V> other, BiFunction<? super V, ? super V, ? extends V> resolver) {
+        return (ImmutableSortedMap<K, V>) ImmutableMap.super.merge(other, resolver);
+    }
+
+    @Override
+    default ImmutableSortedMap<K, V> merge(ImmutableMap<K, V> other, BiFunction<? super V, ? super V, ? extends V> resolver, int sequentialCutoff) {
+        return (ImmutableSortedMap<K, V>) ImmutableMap.super.merge(other, resolver, sequentialCutoff);
+    }
+
+    @Override
+    default ImmutableSortedMap<K, V> union(ImmutableMap<K, V> other) {
+        return (ImmutableSortedMap<K, V>) ImmutableMap.super.union(other);
+    }
+
+    @Override
+    default ImmutableSortedMap<K, V> intersection(ImmutableMap<K, V> other) {
+        return (ImmutableSortedMap<K, V>) ImmutableMap.super.intersection(other);
+    }
+
+    @Override
+    default ImmutableSortedMap<K, V> difference(ImmutableMap<K, V> other) {
+        return (ImmutableSortedMap<K, V>) ImmutableMap.super.difference(other);
+    }
+
+    @Override
+    default ImmutableSortedMap<K, V> take(int n) {
+        return (ImmutableSortedMap<K, V>) ImmutableMap.super.take(n);
+    }
+
+    @Override
+    default ImmutableSortedMap<K, V> drop(int n) {
+        return (ImmutableSortedMap<K, V>) ImmutableMap.super.drop(n);
+    }
+
+    @Override
+    default ImmutableSortedMap<K, V> slice(int from, int to) {
+        return (ImmutableSortedMap<K, V>) ImmutableMap.super.slice(from, to);
+    }
+
+    @Override
+    default <V2> ImmutableSortedMap<K, V2> mapValues(Function<? super V, ? extends V2> f) {
+        return mapValues(f, Parallelism.SEQUENTIAL_CUTOFF);
+    }
+
+    @Override
+    default <V2> ImmutableSortedMap<K, V2> mapValues(Function<? super V, ? extends V2> f, int sequentialCutoff) {
+        ImmutableSortedMap<K, V2> res = ImmutableMap.empty(comparator());
+        Iterator<V> values = values().iterator();
+        for (K key : keys()) {
+            res = res.put(key, f.apply(values.next()));
+        }
+        return res;
+    }
+
+    @Override
+    default ImmutableSortedMap<K, V> filter(BiPredicate<? super K, ? super V> predicate) {
+        return (ImmutableSortedMap<K, V>) ImmutableMap.super.filter(predicate);
+    }
+
+    @Override
+    default ImmutableSortedMap<K, V> filter(BiPredicate<? super K, ? super V> predicate, int sequentialCutoff) {
+        return (ImmutableSortedMap<K, V>) ImmutableMap.super.filter(predicate, sequentialCutoff);
+    }
+
+    @Override
+    default ImmutableSortedMap<K, V> filterKeys(Predicate<? super K> predicate) {
+        return (ImmutableSortedMap<K, V>) ImmutableMap.super.filterKeys(predicate);
+    }
+
+    Comparator<K> comparator();
+
+    /**
+     * @return The entry with the smallest key or null if the map is empty.
+     */
+    Map.Entry<K, V> firstEntry();
+
+    /**
+     * @return The entry with the largest key or null if the map is empty.
+     */
+    Map.Entry<K, V> lastEntry();
+
+    /**
+     * @return The entry with the greatest key less than or equal to key or null if there is no such entry.
+     */
+    Map.Entry<K, V> floorEntry(K key);
+
+    /**
+     * @return The entry with the least key greater than or equal to key or null if there is no such entry.
+     */
+    Map.Entry<K, V> ceilingEntry(K key);
+
+    /**
+     * @return The entry with the greatest key strictly less than key or null if there is no such entry.
+     */
+    Map.Entry<K, V> lowerEntry(K key);
+
+    /**
+     * @return The entry with the least key strictly greater than key or null if there is no such entry.
+     */
+    Map.Entry<K, V> higherEntry(K key);
+
+    default K firstKey() {
+        return keyOf(firstEntry());
+    }
+
+    default K lastKey() {
+        return keyOf(lastEntry());
+    }
+
+    default K floorKey(K key) {
+        return keyOf(floorEntry(key));
+    }
+
+    default K ceilingKey(K key) {
+        return keyOf(ceilingEntry(key));
+    }
+
+    default K lowerKey(K key) {
+        return keyOf(lowerEntry(key));
+    }
+
+    default K higherKey(K key) {
+        return keyOf(higherEntry(key));
+    }
+
+    private static <K> K keyOf(Map.Entry<K, ?> entry) {
+        return entry == null ? null : entry.getKey();
+    }
+
+    /**
+     * @return The keys from the largest to the smallest.
+     */
+    Iterable<K> descendingKeys();
+
+    /**
+     * @return The values ordered by their keys from the largest to the smallest.
+     */
+    Iterable<V> descendingValues();
+
+    /**
+     * @return The entries with keys between from and to, each bound being included if the corresponding flag is set.
+     * @throws IllegalArgumentException If from is greater than to.
+     */
+    ImmutableSortedMap<K, V> subMap(K from, boolean fromInclusive, K to, boolean toInclusive);
+
+    /**
+     * @return The entries with keys less than to, or equal to to if inclusive.
+     */
+    ImmutableSortedMap<K, V> headMap(K to, boolean inclusive);
+
+    /**
+     * @return The entries with keys greater than from, or equal to from if inclusive.
+     */
+    ImmutableSortedMap<K, V> tailMap(K from, boolean inclusive);
+
+    /**
+     * @return The entries with keys in [from, to).
+     */
+    default ImmutableSortedMap<K, V> subMap(K from, K to) {
+        return subMap(from, true, to, false);
+    }
+
+    /**
+     * @return The entries with keys less than to.
+     */
+    default ImmutableSortedMap<K, V> headMap(K to) {
+        return headMap(to, false);
+    }
+
+    /**
+     * @return The entries with keys greater than or equal to from.
+     */
+    default ImmutableSortedMap<K, V> tailMap(K from) {
+        return tailMap(from, true);
+    }
+
+    /**
+     * Writes the size of the map followed by its keys and values in ascending order of key, see {@link Codec}.
+     */
+    default void writeTo(DataOutput out, Codec<? super K> keyCodec, Codec<? super V> valueCodec) throws IOException {
+        out.writeInt(size());
+        Iterator<V> values = values().iterator();
+        for (K key : keys()) {
+            keyCodec.write(out, key);
+            valueCodec.write(out, values.next());
+        }
+    }
+
+    default void writeTo(WritableByteChannel channel, Codec<? super K> keyCodec, Codec<? super V> valueCodec) throws IOException {
+        DataOutputStream out = BinaryFormat.output(channel);
+        writeTo(out, keyCodec, valueCodec);
+        out.flush();
+    }
+}
@@ -0,0 +1,170 @@
+package se.plilja.imcollect;
+
+import se.plilja.imcollect.internal.BinaryFormat;
+
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.function.Predicate;
+
+/**
+ * A set whose values are ordered by a comparator, which allows navigating the set by value.
+ * Sub sets are created by splitting the underlying tree in O(log n), they share all but
+ * O(log n) nodes with this set.
+ */
+public interface ImmutableSortedSet<T> extends ImmutableSet<T> {
+
+    @Override
+    ImmutableSortedSet<T> add(T t);
+
+    @Override
+    default ImmutableSortedSet<T> addAll(Iterable<? extends T> values) {
+        return (ImmutableSortedSet<T>) ImmutableSet.super.addAll(values);
+    }
+
+    @Override
+    ImmutableSortedSet<T> remove(T value);
+
+    @Override
+    default ImmutableSortedSet<T> removeAll(Iterable<? extends T> values) {
+        return (ImmutableSortedSet<T>) ImmutableSet.super.removeAll(values);
+    }
+
+    @Override
+    default ImmutableSortedSet<T> retainAll(Iterable<? extends T> values) {
+        return (ImmutableSortedSet<T>) ImmutableSet.super.retainAll(values);
+    }
+
+    @Override
+    default ImmutableSortedSet<T> union(ImmutableSet<T> other) {
+        return (ImmutableSortedSet<T>) ImmutableSet.super.union(other);
+    }
+
+    @Override
+    default ImmutableSortedSet<T> intersection(ImmutableSet<T> other) {
+        return (ImmutableSortedSet<T>) ImmutableSet.super.intersection(other);
+    }
+
+    @Override
+    default ImmutableSortedSet<T> difference(ImmutableSet<T> other) {
+        return (ImmutableSortedSet<T>) ImmutableSet.super.difference(other);
+    }
+
+    @Override
+    default ImmutableSortedSet<T> take(int n) {
+        return (ImmutableSortedSet<T>) ImmutableSet.super.take(n);
+    }
+
+    @Override
+    default ImmutableSortedSet<T> drop(int n) {
+        return (ImmutableSortedSet<T>) ImmutableSet.super.drop(n);
+    }
+
+    @Override
+    default ImmutableSortedSet<T> slice(int from, int to) {
+        return (ImmutableSortedSet<T>) ImmutableSet.super.slice(from, to);
+    }
+
+    @Override
+    default ImmutableSortedSet<T> filter(Predicate<? super T> predicate) {
+        return (ImmutableSortedSet<T>) ImmutableSet.super.filter(predicate);
+    }
+
+    @Override
+    default ImmutableSortedSet<T> filter(Predicate<? super T> predicate, int sequentialCutoff) {
+        return (ImmutableSortedSet<T>) ImmutableSet.super.filter(predicate, sequentialCutoff);
+    }
+
+    Comparator<T> comparator();
+
+    /**
+     * @return The smallest value or null if the set is empty.
+     */
+    T first();
+
+    /**
+     * @return The largest value or null if the set is empty.
+     */
+    T last();
+
+    /**
+     * @return The greatest value less than or equal to value or null if there is no such value.
+     */
+    T floor(T value);
+
+    /**
+     * @return The least value greater than or equal to value or null if there is no such value.
+     */
+    T ceiling(T value);
+
+    /**
+     * @return The greatest value strictly less than value or null if there is no such value.
+     */
+    T lower(T value);
+
+    /**
+     * @return The least value strictly greater than value or null if there is no such value.
+     */
+    T higher(T value);
+
+    /**
+     * @return The values from the largest to the smallest.
+     */
+    Iterator<T> descendingIterator();
+
+    /**
+     * @return The values between from and to, each bound being included if the corresponding flag is set.
+     * @throws IllegalArgumentException If from is greater than to.
+     */
+    ImmutableSortedSet<T> subSet(T from, boolean fromInclusive, T to, boolean toInclusive);
+
+    /**
+     * @return The values less than to, or equal to to if inclusive.
+     */
+    ImmutableSortedSet<T> headSet(T to, boolean inclusive);
+
+    /**
+     * @return The values greater than from, or equal to from if inclusive.
+     */
+    ImmutableSortedSet<T> tailSet(T from, boolean inclusive);
+
+    /**
+     * @return The values in [from, to).
+     */
+    default ImmutableSortedSet<T> subSet(T from, T to) {
+        return subSet(from, true, to, false);
+    }
+
+    /**
+     * @return The values less than to.
+     */
+    default ImmutableSortedSet<T> headSet(T to) {
+        return headSet(to, false);
+    }
+
+    /**
+     * @return The values greater than or equal to from.
+     */
+    default ImmutableSortedSet<T> tailSet(T from) {
+        return tailSet(from, true);
+    }
+
+    /**
+     * Writes the size of the set followed by its values in ascending order, see {@link Codec}.
+     */
+    default void writeTo(DataOutput out, Codec<? super T> codec) throws IOException {
+        out.writeInt(size());
+        for (T value : this) {
+            codec.write(out, value);
+        }
+    }
+
+    default void writeTo(WritableByteChannel channel, Codec<? super T> codec) throws IOException {
+        DataOutputStream out = BinaryFormat.output(channel);
+        writeTo(out, codec);
+        out.flush();
+    }
+}
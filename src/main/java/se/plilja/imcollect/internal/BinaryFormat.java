@@ -0,0 +1,43 @@
+package se.plilja.imcollect.internal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Shared parts of reading and writing collections in the binary format of {@link se.plilja.imcollect.Codec}.
+ * <p>
+ * Channels are read and written through buffers. Reading from a channel may hence consume bytes after the
+ * collection, several collections in one channel are read through a single DataInput instead.
+ */
+public final class BinaryFormat {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private BinaryFormat() {
+    }
+
+    /**
+     * A buffered output to channel, which must be flushed (but not closed, that closes the channel) when done.
+     */
+    public static DataOutputStream output(WritableByteChannel channel) {
+        return new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE));
+    }
+
+    public static DataInput input(ReadableByteChannel channel) {
+        return new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), BUFFER_SIZE));
+    }
+
+    public static int readSize(DataInput in) throws IOException {
+        int size = in.readInt();
+        if (size < 0) {
+            throw new IOException("Negative collection size " + size);
+        }
+        return size;
+    }
+}
@@ -0,0 +1,109 @@
+package se.plilja.imcollect.internal;
+
+import se.plilja.imcollect.ImmutableList;
+import se.plilja.imcollect.ImmutableMap;
+import se.plilja.imcollect.ImmutableSet;
+
+import java.util.Iterator;
+import java.util.Objects;
+
+/**
+ * equals and hashCode with the semantics of java.util.List, Set and Map, for collections of different
+ * implementations. Implementations that can compare or hash their own kind faster handle that case
+ * themselves and fall back to these otherwise.
+ */
+public final class CollectionEquality {
+    private CollectionEquality() {
+    }
+
+    /**
+     * @return True if o is a list with equal values in the same order.
+     */
+    public static boolean listEquals(ImmutableList<?> list, Object o) {
+        if (list == o) {
+            return true;
+        } else if (!(o instanceof ImmutableList) || ((ImmutableList<?>) o).size() != list.size()) {
+            return false;
+        }
+        Iterator<?> it = ((ImmutableList<?>) o).iterator();
+        for (Object value : list) {
+            if (!value.equals(it.next())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static int listHashCode(ImmutableList<?> list) {
+        int res = 1;
+        for (Object value : list) {
+            res = 31 * res + value.hashCode();
+        }
+        return res;
+    }
+
+    /**
+     * @return True if o is a set with the same size as set and which contains all values of set.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> boolean setEquals(ImmutableSet<T> set, Object o) {
+        if (set == o) {
+            return true;
+        } else if (!(o instanceof ImmutableSet) || ((ImmutableSet<?>) o).size() != set.size()) {
+            return false;
+        }
+        ImmutableSet<T> other = (ImmutableSet<T>) o;
+        try {
+            for (T value : set) {
+                if (!other.contains(value)) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (ClassCastException ex) {
+            return false; // other is ordered by a comparator of an incompatible type
+        }
+    }
+
+    public static int setHashCode(ImmutableSet<?> set) {
+        int res = 0;
+        for (Object value : set) {
+            res += value.hashCode();
+        }
+        return res;
+    }
+
+    /**
+     * @return True if o is a map with the same size as map and with the same value for every key of map.
+     */
+    @SuppressWarnings("unchecked")
+    public static <K, V> boolean mapEquals(ImmutableMap<K, V> map, Object o) {
+        if (map == o) {
+            return true;
+        } else if (!(o instanceof ImmutableMap) || ((ImmutableMap<?, ?>) o).size() != map.size()) {
+            return false;
+        }
+        ImmutableMap<K, V> other = (ImmutableMap<K, V>) o;
+        try {
+            Iterator<V> values = map.values().iterator();
+            for (K key : map.keys()) {
+                V value = values.next();
+                if (!other.contains(key) || !Objects.equals(value, other.get(key))) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (ClassCastException ex) {
+            return false; // other is ordered by a comparator of an incompatible type
+        }
+    }
+
+    public static int mapHashCode(ImmutableMap<?, ?> map) {
+        int res = 0;
+        Iterator<?> values = map.values().iterator();
+        for (Object key : map.keys()) {
+            res += key.hashCode() ^ Objects.hashCode(values.next());
+        }
+        return res;
+    }
+}
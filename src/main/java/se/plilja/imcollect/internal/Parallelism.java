@@ -0,0 +1,101 @@
+package se.plilja.imcollect.internal;
+
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BiFunction;
+import java.util.function.BinaryOperator;
+import java.util.function.Supplier;
+
+/**
+ * Bulk operations recurse into the independent parts of a collection in parallel on a fork join pool,
+ * until the parts hold fewer values than the sequential cutoff. The cutoff can be given per call to the
+ * bulk operations, the calls without one use SEQUENTIAL_CUTOFF, which is read from the system property
+ * se.plilja.imcollect.sequentialCutoff and defaults to 8192.
+ */
+public final class Parallelism {
+    public static final int SEQUENTIAL_CUTOFF = Integer.getInteger("se.plilja.imcollect.sequentialCutoff", 1 << 13);
+
+    private Parallelism() {
+    }
+
+    /**
+     * @return sequentialCutoff, if it is at least 1.
+     */
+    public static int checkCutoff(int sequentialCutoff) {
+        if (sequentialCutoff < 1) {
+            throw new IllegalArgumentException("The sequential cutoff must be at least 1, got " + sequentialCutoff);
+        }
+        return sequentialCutoff;
+    }
+
+    /**
+     * Runs task in the fork join pool of the calling thread, or in the common pool if there is none.
+     */
+    public static <T> T invoke(ForkJoinTask<T> task) {
+        if (ForkJoinTask.inForkJoinPool()) {
+            return task.invoke();
+        } else {
+            return ForkJoinPool.commonPool().invoke(task);
+        }
+    }
+
+    /**
+     * Runs computation, which may fork for parts of at least sequentialCutoff values, on a fork join pool
+     * through {@link #invoke} if size is at least sequentialCutoff. Smaller computations never fork and
+     * run directly in the calling thread.
+     */
+    public static <T> T invoke(long size, int sequentialCutoff, Supplier<T> computation) {
+        if (size < sequentialCutoff) {
+            return computation.get();
+        } else {
+            return invoke(ForkJoinTask.adapt(() -> computation.get()));
+        }
+    }
+
+    /**
+     * Folds the values of spliterator in encounter order. The spliterator is split, and the parts folded
+     * in parallel and combined, as long as a part holds at least sequentialCutoff values.
+     */
+    public static <T, R> R fold(Spliterator<T> spliterator, R identity, BiFunction<R, ? super T, R> accumulator, BinaryOperator<R> combiner, int sequentialCutoff) {
+        FoldTask<T, R> task = new FoldTask<>(spliterator, identity, accumulator, combiner, checkCutoff(sequentialCutoff));
+        if (spliterator.estimateSize() < sequentialCutoff) {
+            return task.compute();
+        } else {
+            return invoke(task);
+        }
+    }
+
+    @SuppressWarnings("serial") // tasks are never serialized
+    private static final class FoldTask<T, R> extends RecursiveTask<R> {
+        private final Spliterator<T> spliterator;
+        private final R identity;
+        private final BiFunction<R, ? super T, R> accumulator;
+        private final BinaryOperator<R> combiner;
+        private final int cutoff;
+        private R result;
+
+        private FoldTask(Spliterator<T> spliterator, R identity, BiFunction<R, ? super T, R> accumulator, BinaryOperator<R> combiner, int cutoff) {
+            this.spliterator = spliterator;
+            this.identity = identity;
+            this.accumulator = accumulator;
+            this.combiner = combiner;
+            this.cutoff = cutoff;
+        }
+
+        @Override
+        protected R compute() {
+            Spliterator<T> prefix;
+            if (spliterator.estimateSize() >= cutoff && (prefix = spliterator.trySplit()) != null) {
+                FoldTask<T, R> left = new FoldTask<>(prefix, identity, accumulator, combiner, cutoff);
+                left.fork();
+                R right = new FoldTask<>(spliterator, identity, accumulator, combiner, cutoff).compute();
+                return combiner.apply(left.join(), right);
+            }
+            result = identity;
+            spliterator.forEachRemaining(value -> result = accumulator.apply(result, value));
+            return result;
+        }
+    }
+}
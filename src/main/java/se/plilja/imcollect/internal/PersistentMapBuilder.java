@@ -0,0 +1,43 @@
+package se.plilja.imcollect.internal;
+
+import se.plilja.imcollect.ImmutableMap;
+
+import java.util.Optional;
+
+/**
+ * A builder for maps without a transient version, every change creates a new version of the map.
+ */
+public final class PersistentMapBuilder<K, V> implements ImmutableMap.Builder<K, V> {
+    private ImmutableMap<K, V> map;
+
+    public PersistentMapBuilder(ImmutableMap<K, V> map) {
+        this.map = map;
+    }
+
+    @Override
+    public PersistentMapBuilder<K, V> put(K key, V value) {
+        map = map.put(key, value);
+        return this;
+    }
+
+    @Override
+    public PersistentMapBuilder<K, V> remove(K key) {
+        map = map.remove(key);
+        return this;
+    }
+
+    @Override
+    public Optional<V> lookup(K key) {
+        return map.lookup(key);
+    }
+
+    @Override
+    public int size() {
+        return map.size();
+    }
+
+    @Override
+    public ImmutableMap<K, V> build() {
+        return map;
+    }
+}
@@ -0,0 +1,41 @@
+package se.plilja.imcollect.internal;
+
+import se.plilja.imcollect.ImmutableSet;
+
+/**
+ * A builder for sets without a transient version, every change creates a new version of the set.
+ */
+public final class PersistentSetBuilder<T> implements ImmutableSet.Builder<T> {
+    private ImmutableSet<T> set;
+
+    public PersistentSetBuilder(ImmutableSet<T> set) {
+        this.set = set;
+    }
+
+    @Override
+    public PersistentSetBuilder<T> add(T value) {
+        set = set.add(value);
+        return this;
+    }
+
+    @Override
+    public PersistentSetBuilder<T> remove(T value) {
+        set = set.remove(value);
+        return this;
+    }
+
+    @Override
+    public boolean contains(T value) {
+        return set.contains(value);
+    }
+
+    @Override
+    public int size() {
+        return set.size();
+    }
+
+    @Override
+    public ImmutableSet<T> build() {
+        return set;
+    }
+}
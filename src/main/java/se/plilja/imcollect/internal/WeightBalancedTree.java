@@ -1,9 +1,24 @@
 package se.plilja.imcollect.internal;
 
+import se.plilja.imcollect.Codec;
+import se.plilja.imcollect.ImmutableMap;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.BiFunction;
+import java.util.function.BiPredicate;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
 import java.util.function.Function;
 
-public final class WeightBalancedTree<K> {
+/**
+ * A weight balanced tree of keys, each key optionally with a value. Sets use the tree without values
+ * (all values are null) while maps keep the value of each entry in the node holding its key.
+ */
+public final class WeightBalancedTree<K, V> {
     private static final double OMEGA = 2.5;
     private static final double ALPHA = 1.5;
     private static final double DELTA = 1;
@@ -11,10 +26,10 @@ public final class WeightBalancedTree<K> {
     private static final int EQ = 0;
     private static final int GT = 1;
 
-    private final WBNode<K> root;
+    private final WBNode<K, V> root;
     private final Comparator<K> comp;
 
-    private WeightBalancedTree(WBNode<K> root, Comparator<K> comparator) {
+    private WeightBalancedTree(WBNode<K, V> root, Comparator<K> comparator) {
         this.root = root;
         this.comp = comparator;
     }
@@ -24,79 +39,254 @@ public final class WeightBalancedTree<K> {
     }
 
     public Optional<K> lookup(K key) {
+        return Optional.ofNullable(find(key));
+    }
+
+    /**
+     * Iterative lookup which doesn't allocate.
+     *
+     * @return The key in the tree which is equal to key or null if there is no such key.
+     */
+    public K find(K key) {
+        WBNode<K, V> node = findNode(root, key);
+        return node == null ? null : node.key;
+    }
+
+    /**
+     * Iterative lookup which doesn't allocate.
+     *
+     * @return The value of the key in the tree which is equal to key or null if there is no such key.
+     */
+    public V findValue(K key) {
+        WBNode<K, V> node = findNode(root, key);
+        return node == null ? null : node.value();
+    }
+
+    private WBNode<K, V> findNode(WBNode<K, V> node, K key) {
         if (key == null) {
-            return Optional.empty();
-        } else {
-            return lookup(root, key);
+            return null;
+        }
+        while (node != null) {
+            int c = comp.compare(key, node.key);
+            if (c < 0) {
+                node = node.left;
+            } else if (c > 0) {
+                node = node.right;
+            } else {
+                return node;
+            }
         }
+        return null;
     }
 
-    public Optional<K> lookup(WBNode<K> node, K key) {
+    private int compare(K k1, K k2) {
+        return Integer.signum(comp.compare(k1, k2));
+    }
+
+    public WeightBalancedTree<K, V> add(K key) {
+        return put(key, null);
+    }
+
+    /**
+     * Adds key with value, replacing any key equal to key. The tree itself is returned if the
+     * same key is added again or if value is equal to the present value.
+     */
+    public WeightBalancedTree<K, V> put(K key, V value) {
+        return withRoot(add(null, root, key, value));
+    }
+
+    /**
+     * @param edit Nodes owned by this edit token are updated in place, null for a regular persistent update.
+     * @return The updated tree, for persistent updates node itself if nothing changed.
+     */
+    private WBNode<K, V> add(Object edit, WBNode<K, V> node, K key, V value) {
         if (node == null) {
-            return Optional.empty();
+            return newNode(key, value, null, null, 1, edit);
         } else {
             switch (compare(key, node.key)) {
-                case LT:
-                    return lookup(node.left, key);
+                case LT: {
+                    WBNode<K, V> newLeft = add(edit, node.left, key, value);
+                    if (edit == null && newLeft == node.left) {
+                        return node;
+                    }
+                    return balance(edit, node(edit, node, node, newLeft, node.right));
+                }
                 case EQ:
-                    return Optional.of(node.key);
-                case GT:
-                    return lookup(node.right, key);
+                    if (value == null ? key == node.key : value.equals(node.value())) {
+                        return node;
+                    }
+                    return node(edit, node, key, value, node.left, node.right);
+                case GT: {
+                    WBNode<K, V> newRight = add(edit, node.right, key, value);
+                    if (edit == null && newRight == node.right) {
+                        return node;
+                    }
+                    return balance(edit, node(edit, node, node, node.left, newRight));
+                }
                 default:
                     throw new IllegalStateException();
             }
         }
     }
 
-    private int compare(K k1, K k2) {
-        return Integer.signum(comp.compare(k1, k2));
+    /**
+     * Adds all keys in bulk. Keys already present are replaced, as with {@link #add(Object)},
+     * and if a key occurs several times in keys the last occurrence wins.
+     * <p>
+     * If there are many keys compared to the size of the tree the result is built directly
+     * from a sorted array in O(n + m) (plus O(m log m) if keys aren't already sorted) instead of
+     * doing one path copy and rebalance per key.
+     *
+     * @throws IllegalArgumentException If a key is null.
+     */
+    public WeightBalancedTree<K, V> addAll(Iterable<? extends K> keys) {
+        Object edit = new Object();
+        ArrayList<WBNode<K, V>> leaves = new ArrayList<>();
+        for (K key : keys) {
+            if (key == null) {
+                throw new IllegalArgumentException("Null values are not supported");
+            }
+            leaves.add(newNode(key, null, null, null, 1, edit));
+        }
+        return putAll(edit, leaves);
     }
 
-    public WeightBalancedTree<K> add(K key) {
-        WBNode<K> newRoot = add(root, key);
-        return new WeightBalancedTree<>(newRoot, comp);
+    /**
+     * Puts all entries in bulk, in the same manner as {@link #addAll(Iterable)}.
+     *
+     * @throws IllegalArgumentException If a key or a value is null.
+     */
+    public WeightBalancedTree<K, V> putAll(Iterable<? extends Map.Entry<? extends K, ? extends V>> entries) {
+        Object edit = new Object();
+        ArrayList<WBNode<K, V>> leaves = new ArrayList<>();
+        for (Map.Entry<? extends K, ? extends V> entry : entries) {
+            if (entry.getKey() == null) {
+                throw new IllegalArgumentException("Null keys are not supported");
+            }
+            if (entry.getValue() == null) {
+                throw new IllegalArgumentException("Null values are not supported");
+            }
+            leaves.add(newNode(entry.getKey(), entry.getValue(), null, null, 1, edit));
+        }
+        return putAll(edit, leaves);
     }
 
-    private WBNode<K> add(WBNode<K> node, K key) {
-        if (node == null) {
-            return new WBNode<>(key, null, null, 1);
+    /**
+     * @param leaves New nodes owned by edit, they become the nodes of the built tree.
+     */
+    private WeightBalancedTree<K, V> putAll(Object edit, ArrayList<WBNode<K, V>> leaves) {
+        ArrayList<WBNode<K, V>> sorted = sortedDistinct(leaves);
+        if (sorted.isEmpty()) {
+            return this;
+        } else if (root == null) {
+            return new WeightBalancedTree<>(build(edit, sorted, 0, sorted.size()), comp);
+        } else if (shouldRebuild(size(), sorted.size())) {
+            ArrayList<WBNode<K, V>> merged = merge(sorted);
+            return new WeightBalancedTree<>(build(edit, merged, 0, merged.size()), comp);
         } else {
-            switch (compare(key, node.key)) {
-                case LT:
-                    WBNode<K> newLeft = add(node.left, key);
-                    return balance(node(node.key, newLeft, node.right));
-                case EQ:
-                    return node(key, node.left, node.right);
-                case GT:
-                    WBNode<K> newRight = add(node.right, key);
-                    return balance(node(node.key, node.left, newRight));
-                default:
-                    throw new IllegalStateException();
+            WBNode<K, V> newRoot = root;
+            for (WBNode<K, V> leaf : sorted) {
+                newRoot = add(edit, newRoot, leaf.key, leaf.value());
+            }
+            return new WeightBalancedTree<>(newRoot, comp);
+        }
+    }
+
+    /**
+     * Rebuilding allocates a node per key in both trees whereas inserting
+     * allocates about log(n) nodes per inserted key.
+     */
+    private static boolean shouldRebuild(int n, int m) {
+        int log2 = 32 - Integer.numberOfLeadingZeros(n);
+        return (long) m * log2 >= (long) n + m;
+    }
+
+    private ArrayList<WBNode<K, V>> sortedDistinct(ArrayList<WBNode<K, V>> res) {
+        boolean sorted = true;
+        for (int i = 1; i < res.size() && sorted; i++) {
+            sorted = compare(res.get(i - 1).key, res.get(i).key) != GT;
+        }
+        if (!sorted) {
+            res.sort((n1, n2) -> comp.compare(n1.key, n2.key)); // stable, so the last of several equal keys is still last
+        }
+        int j = 0;
+        for (int i = 0; i < res.size(); i++) {
+            if (j > 0 && compare(res.get(j - 1).key, res.get(i).key) == EQ) {
+                res.set(j - 1, res.get(i));
+            } else {
+                res.set(j++, res.get(i));
+            }
+        }
+        res.subList(j, res.size()).clear();
+        return res;
+    }
+
+    /**
+     * Merge the nodes of this tree with sorted (which must be sorted and distinct).
+     * Nodes in sorted win over nodes in this tree.
+     */
+    private ArrayList<WBNode<K, V>> merge(ArrayList<WBNode<K, V>> sorted) {
+        ArrayList<WBNode<K, V>> res = new ArrayList<>(size() + sorted.size());
+        Iterator<WBNode<K, V>> it = new WeightBalancedTreeIterator<>(root, null, false);
+        WBNode<K, V> curr = it.hasNext() ? it.next() : null;
+        for (WBNode<K, V> node : sorted) {
+            while (curr != null && compare(curr.key, node.key) == LT) {
+                res.add(curr);
+                curr = it.hasNext() ? it.next() : null;
             }
+            if (curr != null && compare(curr.key, node.key) == EQ) {
+                curr = it.hasNext() ? it.next() : null;
+            }
+            res.add(node);
+        }
+        while (curr != null) {
+            res.add(curr);
+            curr = it.hasNext() ? it.next() : null;
+        }
+        return res;
+    }
+
+    /**
+     * Builds a perfectly balanced tree from the sorted nodes in [from, to). Nodes owned by edit
+     * are reused, the others are copied.
+     */
+    private WBNode<K, V> build(Object edit, List<WBNode<K, V>> sorted, int from, int to) {
+        if (from >= to) {
+            return null;
+        } else {
+            int mid = (from + to) >>> 1;
+            WBNode<K, V> left = build(edit, sorted, from, mid);
+            WBNode<K, V> right = build(edit, sorted, mid + 1, to);
+            WBNode<K, V> node = sorted.get(mid);
+            return node(edit, node, node, left, right);
         }
     }
 
-    private WBNode<K> balance(WBNode<K> node) {
+    private WBNode<K, V> balance(WBNode<K, V> node) {
+        return balance(null, node);
+    }
+
+    private WBNode<K, V> balance(Object edit, WBNode<K, V> node) {
         if (nodeSize(node) <= 2) {
             return node;
         } else if (nodeSize(node.right) > OMEGA * nodeSize(node.left) + DELTA) {
             if (nodeSize(node.right.left) < ALPHA * nodeSize(node.right.right)) {
-                return singleLeft(node);
+                return singleLeft(edit, node);
             } else {
-                return doubleLeft(node);
+                return doubleLeft(edit, node);
             }
         } else if (nodeSize(node.left) > OMEGA * nodeSize(node.right) + DELTA) {
             if (nodeSize(node.left.right) < ALPHA * nodeSize(node.left.left)) {
-                return singleRight(node);
+                return singleRight(edit, node);
             } else {
-                return doubleRight(node);
+                return doubleRight(edit, node);
             }
         } else {
             return node;
         }
     }
 
-    private int nodeSize(WBNode<K> node) {
+    private static int nodeSize(WBNode<?, ?> node) {
         if (node == null) {
             return 0;
         } else {
@@ -104,100 +294,710 @@ public final class WeightBalancedTree<K> {
         }
     }
 
-    private WBNode<K> doubleRight(WBNode<K> node) {
-        WBNode<K> L = node.left;
-        WBNode<K> R = node.right;
-        WBNode<K> LR = L.right;
-        return node(LR.key,
-                node(L.key, L.left, LR.left),
-                node(node.key, LR.right, R));
+    // The rotations reuse each node for the node taking its place, which means that
+    // nodes owned by edit are updated in place. All fields are read before any node is updated.
+
+    private WBNode<K, V> doubleRight(Object edit, WBNode<K, V> node) {
+        WBNode<K, V> L = node.left;
+        WBNode<K, V> R = node.right;
+        WBNode<K, V> LR = L.right;
+        WBNode<K, V> LRL = LR.left;
+        WBNode<K, V> LRR = LR.right;
+        return node(edit, LR, LR,
+                node(edit, L, L, L.left, LRL),
+                node(edit, node, node, LRR, R));
     }
 
-    private WBNode<K> singleRight(WBNode<K> node) {
-        WBNode<K> L = node.left;
-        WBNode<K> R = node.right;
-        WBNode<K> newR = node(node.key, L.right, R);
-        return node(L.key, L.left, newR);
+    private WBNode<K, V> singleRight(Object edit, WBNode<K, V> node) {
+        WBNode<K, V> L = node.left;
+        WBNode<K, V> R = node.right;
+        WBNode<K, V> LL = L.left;
+        WBNode<K, V> newR = node(edit, node, node, L.right, R);
+        return node(edit, L, L, LL, newR);
     }
 
-    private WBNode<K> doubleLeft(WBNode<K> node) {
-        WBNode<K> L = node.left;
-        WBNode<K> R = node.right;
-        WBNode<K> RL = R.left;
-        return node(RL.key,
-                node(node.key, L, RL.left),
-                node(R.key, RL.right, R.right));
+    private WBNode<K, V> doubleLeft(Object edit, WBNode<K, V> node) {
+        WBNode<K, V> L = node.left;
+        WBNode<K, V> R = node.right;
+        WBNode<K, V> RL = R.left;
+        WBNode<K, V> RLL = RL.left;
+        WBNode<K, V> RLR = RL.right;
+        return node(edit, RL, RL,
+                node(edit, node, node, L, RLL),
+                node(edit, R, R, RLR, R.right));
     }
 
-    private WBNode<K> singleLeft(WBNode<K> node) {
-        WBNode<K> left = node.left;
-        WBNode<K> right = node.right;
-        WBNode<K> newLeft = node(node.key, left, right.left);
-        return node(right.key, newLeft, right.right);
+    private WBNode<K, V> singleLeft(Object edit, WBNode<K, V> node) {
+        WBNode<K, V> left = node.left;
+        WBNode<K, V> right = node.right;
+        WBNode<K, V> RR = right.right;
+        WBNode<K, V> newLeft = node(edit, node, node, left, right.left);
+        return node(edit, right, right, newLeft, RR);
     }
 
-    public WeightBalancedTree<K> remove(K key) {
-        WBNode<K> newRoot = remove(root, key);
-        return new WeightBalancedTree<>(newRoot, comp);
+    public WeightBalancedTree<K, V> remove(K key) {
+        return withRoot(remove(null, root, key));
     }
 
-    private WBNode<K> remove(WBNode<K> node, K key) {
+    /**
+     * @return The updated tree, for persistent updates node itself if key isn't present.
+     */
+    private WBNode<K, V> remove(Object edit, WBNode<K, V> node, K key) {
         if (node == null) {
             return null;
         } else {
             switch (compare(key, node.key)) {
-                case LT:
-                    WBNode<K> newLeft = remove(node.left, key);
-                    return balance(node(node.key, newLeft, node.right));
+                case LT: {
+                    WBNode<K, V> newLeft = remove(edit, node.left, key);
+                    if (edit == null && newLeft == node.left) {
+                        return node;
+                    }
+                    return balance(edit, node(edit, node, node, newLeft, node.right));
+                }
                 case EQ:
-                    return concat(node.left, node.right);
-                case GT:
-                    WBNode<K> newRight = remove(node.right, key);
-                    return balance(node(node.key, node.left, newRight));
+                    return concat(edit, node, node.left, node.right);
+                case GT: {
+                    WBNode<K, V> newRight = remove(edit, node.right, key);
+                    if (edit == null && newRight == node.right) {
+                        return node;
+                    }
+                    return balance(edit, node(edit, node, node, node.left, newRight));
+                }
                 default:
                     throw new IllegalStateException();
             }
         }
     }
 
-    private WBNode<K> concat(WBNode<K> left, WBNode<K> right) {
+    private WBNode<K, V> concat(WBNode<K, V> left, WBNode<K, V> right) {
+        return concat(null, null, left, right);
+    }
+
+    /**
+     * @param reuse A node that is no longer needed and hence may be reused if owned by edit.
+     */
+    private WBNode<K, V> concat(Object edit, WBNode<K, V> reuse, WBNode<K, V> left, WBNode<K, V> right) {
         if (right == null) {
             return left;
         } else if (left == null) {
             return right;
         } else if (nodeSize(left) > nodeSize(right)) {
-            Pair<K, WBNode<K>> r = popMax(left);
-            K m = r.first;
-            WBNode<K> newLeft = r.second;
-            return node(m, newLeft, right);
+            Pair<WBNode<K, V>, WBNode<K, V>> r = popMax(edit, left);
+            return node(edit, reuse, r.first, r.second, right);
         } else {
-            Pair<K, WBNode<K>> r = popMin(right);
-            K m = r.first;
-            WBNode<K> newRight = r.second;
-            return node(m, left, newRight);
+            Pair<WBNode<K, V>, WBNode<K, V>> r = popMin(edit, right);
+            return node(edit, reuse, r.first, left, r.second);
         }
     }
 
-    private Pair<K, WBNode<K>> popMin(WBNode<K> node) {
+    /**
+     * @return The node with the smallest key and the tree without that node.
+     */
+    private Pair<WBNode<K, V>, WBNode<K, V>> popMin(Object edit, WBNode<K, V> node) {
         if (node.left == null) {
-            return Pair.make(node.key, node.right);
+            return Pair.make(node, node.right);
         } else {
-            Pair<K, WBNode<K>> r = popMin(node.left);
-            return Pair.make(r.first, balance(node(node.key, r.second, node.right)));
+            Pair<WBNode<K, V>, WBNode<K, V>> r = popMin(edit, node.left);
+            return Pair.make(r.first, balance(edit, node(edit, node, node, r.second, node.right)));
         }
     }
 
-    private Pair<K, WBNode<K>> popMax(WBNode<K> node) {
+    /**
+     * @return The node with the largest key and the tree without that node.
+     */
+    private Pair<WBNode<K, V>, WBNode<K, V>> popMax(Object edit, WBNode<K, V> node) {
         if (node.right == null) {
-            return Pair.make(node.key, node.left);
+            return Pair.make(node, node.left);
+        } else {
+            Pair<WBNode<K, V>, WBNode<K, V>> r = popMax(edit, node.right);
+            return Pair.make(r.first, balance(edit, node(edit, node, node, node.left, r.second)));
+        }
+    }
+
+    /**
+     * All keys present in this tree or in other. For keys present in both trees the key and value in other
+     * win, in the same manner as with {@link #put(Object, Object)}. Both trees must be ordered the same way.
+     * <p>
+     * Runs in O(m log(n/m + 1)) where m is the size of the smaller tree, subtrees that are not affected are shared
+     * with the input trees.
+     */
+    public WeightBalancedTree<K, V> union(WeightBalancedTree<K, V> other) {
+        return withRoot(union(root, other.root));
+    }
+
+    /**
+     * All entries of this tree and other. For keys present in both trees the value is
+     * resolver(value in this tree, value in other), and the key is left out if that is null. Both trees
+     * must be ordered the same way.
+     * <p>
+     * Works as union, sharing subtrees that are not affected. The recursions into the left and right
+     * subtrees are independent and run in parallel when they hold at least sequentialCutoff entries
+     * together, so the resolver may be called from several threads.
+     */
+    public WeightBalancedTree<K, V> merge(WeightBalancedTree<K, V> other, BiFunction<? super V, ? super V, ? extends V> resolver, int sequentialCutoff) {
+        int cutoff = Parallelism.checkCutoff(sequentialCutoff);
+        return withRoot(Parallelism.invoke((long) size() + other.size(), cutoff, () -> merge(root, other.root, resolver, cutoff)));
+    }
+
+    private WBNode<K, V> merge(WBNode<K, V> t1, WBNode<K, V> t2, BiFunction<? super V, ? super V, ? extends V> resolver, int cutoff) {
+        if (t1 == null) {
+            return t2;
+        } else if (t2 == null) {
+            return t1;
+        }
+        SplitNode<K, V> s = split(t2, t1.key);
+        WBNode<K, V> newLeft;
+        WBNode<K, V> newRight;
+        if (t1.size + t2.size >= cutoff) {
+            ForkJoinTask<WBNode<K, V>> leftTask = ForkJoinTask.adapt(() -> merge(t1.left, s.left, resolver, cutoff)).fork();
+            newRight = merge(t1.right, s.right, resolver, cutoff);
+            newLeft = leftTask.join();
+        } else {
+            newLeft = merge(t1.left, s.left, resolver, cutoff);
+            newRight = merge(t1.right, s.right, resolver, cutoff);
+        }
+        WBNode<K, V> entry = t1;
+        if (s.found != null) {
+            V value = resolver.apply(t1.value(), s.found.value());
+            if (value == null) {
+                return join2(newLeft, newRight);
+            } else if (value == s.found.value()) {
+                entry = s.found;
+            } else if (value != t1.value()) {
+                entry = newNode(t1.key, value, null, null, 1, null);
+            }
+        }
+        if (newLeft == t1.left && newRight == t1.right && entry == t1) {
+            return t1;
+        } else {
+            return join(entry, newLeft, newRight);
+        }
+    }
+
+    /**
+     * A tree with the same keys and shape as this tree, where every value is replaced by f of it. Runs in
+     * O(n), subtrees of at least sequentialCutoff entries are mapped in parallel.
+     */
+    public <V2> WeightBalancedTree<K, V2> mapValues(Function<? super V, ? extends V2> f, int sequentialCutoff) {
+        int cutoff = Parallelism.checkCutoff(sequentialCutoff);
+        return new WeightBalancedTree<>(Parallelism.invoke(size(), cutoff, () -> mapValues(root, f, cutoff)), comp);
+    }
+
+    private static <K, V, V2> WBNode<K, V2> mapValues(WBNode<K, V> node, Function<? super V, ? extends V2> f, int cutoff) {
+        if (node == null) {
+            return null;
+        }
+        WBNode<K, V2> newLeft;
+        WBNode<K, V2> newRight;
+        if (node.size >= cutoff) {
+            ForkJoinTask<WBNode<K, V2>> leftTask = ForkJoinTask.adapt(() -> WeightBalancedTree.<K, V, V2>mapValues(node.left, f, cutoff)).fork();
+            newRight = mapValues(node.right, f, cutoff);
+            newLeft = leftTask.join();
+        } else {
+            newLeft = mapValues(node.left, f, cutoff);
+            newRight = mapValues(node.right, f, cutoff);
+        }
+        return newNode(node.key, f.apply(node.value()), newLeft, newRight, node.size, null);
+    }
+
+    /**
+     * The entries for which predicate holds. The filtered subtrees are joined with the kept keys, subtrees
+     * where every entry is kept are shared with this tree. Subtrees of at least sequentialCutoff entries are
+     * filtered in parallel.
+     */
+    public WeightBalancedTree<K, V> filter(BiPredicate<? super K, ? super V> predicate, int sequentialCutoff) {
+        int cutoff = Parallelism.checkCutoff(sequentialCutoff);
+        return withRoot(Parallelism.invoke(size(), cutoff, () -> filter(root, predicate, cutoff)));
+    }
+
+    private WBNode<K, V> filter(WBNode<K, V> node, BiPredicate<? super K, ? super V> predicate, int cutoff) {
+        if (node == null) {
+            return null;
+        }
+        WBNode<K, V> newLeft;
+        WBNode<K, V> newRight;
+        if (node.size >= cutoff) {
+            ForkJoinTask<WBNode<K, V>> leftTask = ForkJoinTask.adapt(() -> filter(node.left, predicate, cutoff)).fork();
+            newRight = filter(node.right, predicate, cutoff);
+            newLeft = leftTask.join();
+        } else {
+            newLeft = filter(node.left, predicate, cutoff);
+            newRight = filter(node.right, predicate, cutoff);
+        }
+        if (!predicate.test(node.key, node.value())) {
+            return join2(newLeft, newRight);
+        } else if (newLeft == node.left && newRight == node.right) {
+            return node;
+        } else {
+            return join(node, newLeft, newRight);
+        }
+    }
+
+    /**
+     * Folds the entries in order. Subtrees of at least sequentialCutoff entries are folded in parallel, the
+     * right subtree starting from identity, and combined with combiner.
+     */
+    public <R> R fold(R identity, ImmutableMap.EntryAccumulator<R, K, V> accumulator, BinaryOperator<R> combiner, int sequentialCutoff) {
+        int cutoff = Parallelism.checkCutoff(sequentialCutoff);
+        return Parallelism.invoke(size(), cutoff, () -> fold(root, identity, identity, accumulator, combiner, cutoff));
+    }
+
+    private static <K, V, R> R fold(WBNode<K, V> node, R result, R identity, ImmutableMap.EntryAccumulator<R, K, V> accumulator, BinaryOperator<R> combiner, int cutoff) {
+        if (node == null) {
+            return result;
+        } else if (node.size >= cutoff) {
+            ForkJoinTask<R> rightTask = ForkJoinTask.adapt(() -> fold(node.right, identity, identity, accumulator, combiner, cutoff)).fork();
+            R left = accumulator.accumulate(fold(node.left, result, identity, accumulator, combiner, cutoff), node.key, node.value());
+            return combiner.apply(left, rightTask.join());
+        } else {
+            R left = accumulator.accumulate(fold(node.left, result, identity, accumulator, combiner, cutoff), node.key, node.value());
+            return fold(node.right, left, identity, accumulator, combiner, cutoff);
+        }
+    }
+
+    /**
+     * All keys of this tree that are also present in other. Both trees must be ordered the same way.
+     */
+    public WeightBalancedTree<K, V> intersection(WeightBalancedTree<K, V> other) {
+        return withRoot(intersection(root, other.root));
+    }
+
+    /**
+     * All keys of this tree that are not present in other. Both trees must be ordered the same way.
+     */
+    public WeightBalancedTree<K, V> difference(WeightBalancedTree<K, V> other) {
+        return withRoot(difference(root, other.root));
+    }
+
+    /**
+     * True if all keys of this tree are present in other. Both trees must be ordered the same way.
+     */
+    public boolean isSubsetOf(WeightBalancedTree<K, V> other) {
+        return isSubsetOf(root, other.root);
+    }
+
+    /**
+     * True if no key of this tree is present in other. Both trees must be ordered the same way.
+     */
+    public boolean isDisjoint(WeightBalancedTree<K, V> other) {
+        return isDisjoint(root, other.root);
+    }
+
+    public Comparator<K> comparator() {
+        return comp;
+    }
+
+    private WeightBalancedTree<K, V> withRoot(WBNode<K, V> newRoot) {
+        if (newRoot == root) {
+            return this;
+        } else {
+            return new WeightBalancedTree<>(newRoot, comp);
+        }
+    }
+
+    private WBNode<K, V> union(WBNode<K, V> t1, WBNode<K, V> t2) {
+        if (t1 == null) {
+            return t2;
+        } else if (t2 == null || t1 == t2) {
+            return t1;
+        } else {
+            SplitNode<K, V> s = split(t2, t1.key);
+            WBNode<K, V> newLeft = union(t1.left, s.left);
+            WBNode<K, V> newRight = union(t1.right, s.right);
+            WBNode<K, V> entry = s.found != null ? s.found : t1;
+            if (newLeft == t1.left && newRight == t1.right && entry.key == t1.key && entry.value() == t1.value()) {
+                return t1;
+            } else {
+                return join(entry, newLeft, newRight);
+            }
+        }
+    }
+
+    private WBNode<K, V> intersection(WBNode<K, V> t1, WBNode<K, V> t2) {
+        if (t1 == null || t2 == null) {
+            return null;
+        } else if (t1 == t2) {
+            return t1;
+        } else {
+            SplitNode<K, V> s = split(t2, t1.key);
+            WBNode<K, V> newLeft = intersection(t1.left, s.left);
+            WBNode<K, V> newRight = intersection(t1.right, s.right);
+            if (s.found == null) {
+                return join2(newLeft, newRight);
+            } else if (newLeft == t1.left && newRight == t1.right) {
+                return t1;
+            } else {
+                return join(t1, newLeft, newRight);
+            }
+        }
+    }
+
+    private WBNode<K, V> difference(WBNode<K, V> t1, WBNode<K, V> t2) {
+        if (t1 == null || t1 == t2) {
+            return null;
+        } else if (t2 == null) {
+            return t1;
+        } else {
+            SplitNode<K, V> s = split(t2, t1.key);
+            WBNode<K, V> newLeft = difference(t1.left, s.left);
+            WBNode<K, V> newRight = difference(t1.right, s.right);
+            if (s.found != null) {
+                return join2(newLeft, newRight);
+            } else if (newLeft == t1.left && newRight == t1.right) {
+                return t1;
+            } else {
+                return join(t1, newLeft, newRight);
+            }
+        }
+    }
+
+    private boolean isSubsetOf(WBNode<K, V> t1, WBNode<K, V> t2) {
+        if (t1 == null || t1 == t2) {
+            return true;
+        } else if (nodeSize(t1) > nodeSize(t2)) {
+            return false;
+        } else {
+            SplitNode<K, V> s = split(t2, t1.key);
+            return s.found != null && isSubsetOf(t1.left, s.left) && isSubsetOf(t1.right, s.right);
+        }
+    }
+
+    private boolean isDisjoint(WBNode<K, V> t1, WBNode<K, V> t2) {
+        if (t1 == null || t2 == null) {
+            return true;
+        } else if (t1 == t2) {
+            return false;
+        } else {
+            SplitNode<K, V> s = split(t2, t1.key);
+            return s.found == null && isDisjoint(t1.left, s.left) && isDisjoint(t1.right, s.right);
+        }
+    }
+
+    /**
+     * Splits node into the keys less than key and the keys greater than key.
+     */
+    private SplitNode<K, V> split(WBNode<K, V> node, K key) {
+        if (node == null) {
+            return new SplitNode<>(null, null, null);
+        } else {
+            switch (compare(key, node.key)) {
+                case LT: {
+                    SplitNode<K, V> s = split(node.left, key);
+                    return new SplitNode<>(s.left, s.found, join(node, s.right, node.right));
+                }
+                case EQ:
+                    return new SplitNode<>(node.left, node, node.right);
+                case GT: {
+                    SplitNode<K, V> s = split(node.right, key);
+                    return new SplitNode<>(join(node, node.left, s.left), s.found, s.right);
+                }
+                default:
+                    throw new IllegalStateException();
+            }
+        }
+    }
+
+    /**
+     * Joins two trees and the key and value of entry, where the key is greater than all keys in left
+     * and less than all keys in right. Runs in O(|log(size(left)) - log(size(right))|).
+     */
+    private WBNode<K, V> join(WBNode<K, V> entry, WBNode<K, V> left, WBNode<K, V> right) {
+        if (left == null) {
+            return insertMin(entry, right);
+        } else if (right == null) {
+            return insertMax(entry, left);
+        } else if (isTooHeavy(right, left)) {
+            return balance(node(right, join(entry, left, right.left), right.right));
+        } else if (isTooHeavy(left, right)) {
+            return balance(node(left, left.left, join(entry, left.right, right)));
+        } else {
+            return node(entry, left, right);
+        }
+    }
+
+    /**
+     * Joins two trees where all keys in left are less than all keys in right.
+     */
+    private WBNode<K, V> join2(WBNode<K, V> left, WBNode<K, V> right) {
+        if (left == null) {
+            return right;
+        } else if (right == null) {
+            return left;
+        } else if (isTooHeavy(right, left)) {
+            return balance(node(right, join2(left, right.left), right.right));
+        } else if (isTooHeavy(left, right)) {
+            return balance(node(left, left.left, join2(left.right, right)));
+        } else {
+            return concat(left, right);
+        }
+    }
+
+    private boolean isTooHeavy(WBNode<K, V> node, WBNode<K, V> sibling) {
+        return nodeSize(node) > OMEGA * nodeSize(sibling) + DELTA;
+    }
+
+    private WBNode<K, V> insertMin(WBNode<K, V> entry, WBNode<K, V> node) {
+        if (node == null) {
+            return node(entry, null, null);
         } else {
-            Pair<K, WBNode<K>> r = popMax(node.right);
-            return Pair.make(r.first, balance(node(node.key, node.left, r.second)));
+            return balance(node(node, insertMin(entry, node.left), node.right));
         }
     }
 
-    public <T> Iterator<T> iterator(Function<K, T> mapping) {
-        return new WeightBalancedTreeIterator<>(root, mapping);
+    private WBNode<K, V> insertMax(WBNode<K, V> entry, WBNode<K, V> node) {
+        if (node == null) {
+            return node(entry, null, null);
+        } else {
+            return balance(node(node, node.left, insertMax(entry, node.right)));
+        }
+    }
+
+    /**
+     * The key and value at index in key order, mapped by mapping. Runs in O(log n) using the sizes of the subtrees.
+     */
+    public <T> T getByIndex(int index, BiFunction<? super K, ? super V, ? extends T> mapping) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException(String.format("Index %d out of bounds for size %d", index, size()));
+        }
+        WBNode<K, V> node = root;
+        while (true) {
+            int leftSize = nodeSize(node.left);
+            if (index < leftSize) {
+                node = node.left;
+            } else if (index > leftSize) {
+                index -= leftSize + 1;
+                node = node.right;
+            } else {
+                return mapping.apply(node.key, node.value());
+            }
+        }
+    }
+
+    /**
+     * The index of key if present, otherwise (-(insertion point) - 1) where the insertion point is the number of
+     * keys less than key, in the same manner as {@link Arrays#binarySearch(Object[], Object)}. Runs in O(log n).
+     */
+    public int rankOf(K key) {
+        int rank = 0;
+        WBNode<K, V> node = root;
+        while (node != null) {
+            int c = comp.compare(key, node.key);
+            if (c < 0) {
+                node = node.left;
+            } else if (c > 0) {
+                rank += nodeSize(node.left) + 1;
+                node = node.right;
+            } else {
+                return rank + nodeSize(node.left);
+            }
+        }
+        return -rank - 1;
+    }
+
+    /**
+     * The first n keys. Runs in O(log n), the result shares all but O(log n) nodes with this tree.
+     */
+    public WeightBalancedTree<K, V> take(int n) {
+        if (n < 0 || n > size()) {
+            throw new IndexOutOfBoundsException(String.format("Can not take %d keys from size %d", n, size()));
+        }
+        return withRoot(take(root, n));
+    }
+
+    /**
+     * All keys but the first n. Runs in O(log n), the result shares all but O(log n) nodes with this tree.
+     */
+    public WeightBalancedTree<K, V> drop(int n) {
+        if (n < 0 || n > size()) {
+            throw new IndexOutOfBoundsException(String.format("Can not drop %d keys from size %d", n, size()));
+        }
+        return withRoot(drop(root, n));
+    }
+
+    /**
+     * The keys with index in [from, to).
+     */
+    public WeightBalancedTree<K, V> slice(int from, int to) {
+        if (from < 0 || to > size() || from > to) {
+            throw new IndexOutOfBoundsException(String.format("Slice [%d, %d) out of bounds for size %d", from, to, size()));
+        }
+        return withRoot(take(drop(root, from), to - from));
+    }
+
+    private WBNode<K, V> take(WBNode<K, V> node, int n) {
+        if (n == 0) {
+            return null;
+        } else if (n >= nodeSize(node)) {
+            return node;
+        } else {
+            int leftSize = nodeSize(node.left);
+            if (n <= leftSize) {
+                return take(node.left, n);
+            } else {
+                return join(node, node.left, take(node.right, n - leftSize - 1));
+            }
+        }
+    }
+
+    private WBNode<K, V> drop(WBNode<K, V> node, int n) {
+        if (n == 0) {
+            return node;
+        } else if (n >= nodeSize(node)) {
+            return null;
+        } else {
+            int leftSize = nodeSize(node.left);
+            if (n > leftSize) {
+                return drop(node.right, n - leftSize - 1);
+            } else {
+                return join(node, drop(node.left, n), node.right);
+            }
+        }
+    }
+
+    /**
+     * The smallest key and its value, mapped by mapping, or null if the tree is empty.
+     */
+    public <T> T first(BiFunction<? super K, ? super V, ? extends T> mapping) {
+        WBNode<K, V> node = root;
+        while (node != null && node.left != null) {
+            node = node.left;
+        }
+        return node == null ? null : mapping.apply(node.key, node.value());
+    }
+
+    /**
+     * The largest key and its value, mapped by mapping, or null if the tree is empty.
+     */
+    public <T> T last(BiFunction<? super K, ? super V, ? extends T> mapping) {
+        WBNode<K, V> node = root;
+        while (node != null && node.right != null) {
+            node = node.right;
+        }
+        return node == null ? null : mapping.apply(node.key, node.value());
+    }
+
+    /**
+     * The greatest key less than key (or equal to key if inclusive) and its value, mapped by mapping,
+     * or null if there is no such key.
+     */
+    public <T> T lower(K key, boolean inclusive, BiFunction<? super K, ? super V, ? extends T> mapping) {
+        WBNode<K, V> res = null;
+        WBNode<K, V> node = root;
+        while (node != null) {
+            int c = comp.compare(key, node.key);
+            if (c > 0 || (c == 0 && inclusive)) {
+                res = node;
+                if (c == 0) {
+                    break;
+                }
+                node = node.right;
+            } else {
+                node = node.left;
+            }
+        }
+        return res == null ? null : mapping.apply(res.key, res.value());
+    }
+
+    /**
+     * The least key greater than key (or equal to key if inclusive) and its value, mapped by mapping,
+     * or null if there is no such key.
+     */
+    public <T> T higher(K key, boolean inclusive, BiFunction<? super K, ? super V, ? extends T> mapping) {
+        WBNode<K, V> res = null;
+        WBNode<K, V> node = root;
+        while (node != null) {
+            int c = comp.compare(key, node.key);
+            if (c < 0 || (c == 0 && inclusive)) {
+                res = node;
+                if (c == 0) {
+                    break;
+                }
+                node = node.left;
+            } else {
+                node = node.right;
+            }
+        }
+        return res == null ? null : mapping.apply(res.key, res.value());
+    }
+
+    /**
+     * The keys less than to (or equal to to if inclusive). Runs in O(log n) in the same manner as
+     * {@link #take(int)}.
+     */
+    public WeightBalancedTree<K, V> head(K to, boolean inclusive) {
+        return withRoot(head(root, to, inclusive));
+    }
+
+    /**
+     * The keys greater than from (or equal to from if inclusive). Runs in O(log n) in the same manner as
+     * {@link #drop(int)}.
+     */
+    public WeightBalancedTree<K, V> tail(K from, boolean inclusive) {
+        return withRoot(tail(root, from, inclusive));
+    }
+
+    /**
+     * The keys between from and to, each bound being included if the corresponding flag is set.
+     */
+    public WeightBalancedTree<K, V> range(K from, boolean fromInclusive, K to, boolean toInclusive) {
+        if (compare(from, to) == GT) {
+            throw new IllegalArgumentException("from is greater than to");
+        }
+        return withRoot(tail(head(root, to, toInclusive), from, fromInclusive));
+    }
+
+    private WBNode<K, V> head(WBNode<K, V> node, K to, boolean inclusive) {
+        if (node == null) {
+            return null;
+        } else {
+            int c = compare(to, node.key);
+            if (c == LT || (c == EQ && !inclusive)) {
+                return head(node.left, to, inclusive);
+            } else if (c == EQ) {
+                return node.right == null ? node : insertMax(node, node.left);
+            } else {
+                WBNode<K, V> newRight = head(node.right, to, inclusive);
+                return newRight == node.right ? node : join(node, node.left, newRight);
+            }
+        }
+    }
+
+    private WBNode<K, V> tail(WBNode<K, V> node, K from, boolean inclusive) {
+        if (node == null) {
+            return null;
+        } else {
+            int c = compare(from, node.key);
+            if (c == GT || (c == EQ && !inclusive)) {
+                return tail(node.right, from, inclusive);
+            } else if (c == EQ) {
+                return node.left == null ? node : insertMin(node, node.right);
+            } else {
+                WBNode<K, V> newLeft = tail(node.left, from, inclusive);
+                return newLeft == node.left ? node : join(node, newLeft, node.right);
+            }
+        }
+    }
+
+    public <T> Iterator<T> iterator(BiFunction<? super K, ? super V, ? extends T> mapping) {
+        return new WeightBalancedTreeIterator<>(root, mapping, false);
+    }
+
+    /**
+     * Iterates the keys and values, mapped by mapping, in descending key order.
+     */
+    public <T> Iterator<T> descendingIterator(BiFunction<? super K, ? super V, ? extends T> mapping) {
+        return new WeightBalancedTreeIterator<>(root, mapping, true);
+    }
+
+    /**
+     * A spliterator over the keys, which splits at subtree boundaries.
+     */
+    public Spliterator<K> spliterator() {
+        return new WeightBalancedTreeSpliterator<>(root, (k, v) -> k, Spliterator.DISTINCT | Spliterator.SORTED, comp);
+    }
+
+    public <T> Spliterator<T> spliterator(BiFunction<? super K, ? super V, ? extends T> mapping) {
+        return new WeightBalancedTreeSpliterator<>(root, mapping, 0, null);
     }
 
     public int size() {
@@ -211,7 +1011,7 @@ public final class WeightBalancedTree<K> {
         return isConsistent(root);
     }
 
-    private Pair<Boolean, String> isConsistent(WBNode<K> node) {
+    private Pair<Boolean, String> isConsistent(WBNode<K, V> node) {
         if (node == null) {
             return Pair.make(true, "");
         } else {
@@ -227,34 +1027,405 @@ public final class WeightBalancedTree<K> {
         }
     }
 
-    private WBNode<K> node(K key, WBNode<K> left, WBNode<K> right) {
+    /**
+     * @return The sum of key.hashCode() ^ value.hashCode() over all entries, which is the hash code of
+     * java.util.Map and, since all values of a set tree are null, of java.util.Set. The hash of every
+     * subtree is cached in its root, a new version of a tree therefore only hashes its new nodes.
+     */
+    public int entriesHashCode() {
+        return hash(root);
+    }
+
+    private static int hash(WBNode<?, ?> node) {
+        if (node == null) {
+            return 0;
+        }
+        int h = node.hash;
+        if (h == 0) {
+            h = hash(node.left) + (node.key.hashCode() ^ Objects.hashCode(node.value())) + hash(node.right);
+            node.hash = h;
+        }
+        return h;
+    }
+
+    /**
+     * Compares the entries of two trees ordered by the same comparator. The trees are walked in order side
+     * by side and subtrees that the trees share at the same position are skipped without being visited,
+     * so comparing two versions of a tree costs O(d log n) for d differing entries rather than O(n).
+     *
+     * @return True if the trees have equal keys, according to the comparator, with equal values.
+     */
+    public boolean hasSameEntries(WeightBalancedTree<K, V> other) {
+        if (root == other.root) {
+            return true;
+        } else if (nodeSize(root) != nodeSize(other.root)) {
+            return false;
+        }
+        EntryCursor<K, V> a = new EntryCursor<>(root);
+        EntryCursor<K, V> b = new EntryCursor<>(other.root);
+        while (a.top > 0) {
+            WBNode<K, V> na = a.nodes[a.top - 1];
+            WBNode<K, V> nb = b.nodes[b.top - 1];
+            boolean subtreeA = a.subtree[a.top - 1];
+            boolean subtreeB = b.subtree[b.top - 1];
+            if (subtreeA && subtreeB && na == nb) {
+                a.top--;
+                b.top--;
+            } else if (subtreeA && (!subtreeB || na.size >= nb.size)) {
+                a.expand();
+            } else if (subtreeB) {
+                b.expand();
+            } else if (compare(na.key, nb.key) != EQ || !Objects.equals(na.value(), nb.value())) {
+                return false;
+            } else {
+                a.top--;
+                b.top--;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reports the changes that turn this tree into other, which must be ordered by the same comparator, in
+     * ascending order of key. The trees are walked in order side by side, merging on key, and subtrees
+     * that are at the front of both walks are skipped without being visited. For trees derived from one
+     * another this costs O(d log n) for d changes.
+     */
+    public void diff(WeightBalancedTree<K, V> other, ImmutableMap.DiffListener<K, V> listener) {
+        EntryCursor<K, V> a = new EntryCursor<>(root == other.root ? null : root);
+        EntryCursor<K, V> b = new EntryCursor<>(root == other.root ? null : other.root);
+        while (a.top > 0 && b.top > 0) {
+            WBNode<K, V> na = a.nodes[a.top - 1];
+            WBNode<K, V> nb = b.nodes[b.top - 1];
+            boolean subtreeA = a.subtree[a.top - 1];
+            boolean subtreeB = b.subtree[b.top - 1];
+            if (subtreeA && subtreeB && na == nb) {
+                a.top--;
+                b.top--;
+            } else if (subtreeA && (!subtreeB || na.size >= nb.size)) {
+                a.expand();
+            } else if (subtreeB) {
+                b.expand();
+            } else {
+                int c = compare(na.key, nb.key);
+                if (c == LT) {
+                    listener.removed(na.key, na.value());
+                    a.top--;
+                } else if (c == GT) {
+                    listener.added(nb.key, nb.value());
+                    b.top--;
+                } else {
+                    if (!Objects.equals(na.value(), nb.value())) {
+                        listener.changed(na.key, na.value(), nb.value());
+                    }
+                    a.top--;
+                    b.top--;
+                }
+            }
+        }
+        while (a.top > 0) {
+            if (a.subtree[a.top - 1]) {
+                a.expand();
+            } else {
+                WBNode<K, V> node = a.nodes[--a.top];
+                listener.removed(node.key, node.value());
+            }
+        }
+        while (b.top > 0) {
+            if (b.subtree[b.top - 1]) {
+                b.expand();
+            } else {
+                WBNode<K, V> node = b.nodes[--b.top];
+                listener.added(node.key, node.value());
+            }
+        }
+    }
+
+    /**
+     * The remaining part of an in order walk, as a stack of whole subtrees and single entries.
+     */
+    private static final class EntryCursor<K, V> {
+        private WBNode<K, V>[] nodes;
+        private boolean[] subtree;
+        private int top;
+
+        @SuppressWarnings("unchecked")
+        private EntryCursor(WBNode<K, V> root) {
+            nodes = (WBNode<K, V>[]) new WBNode<?, ?>[16];
+            subtree = new boolean[16];
+            if (root != null) {
+                push(root, true);
+            }
+        }
+
+        /**
+         * Replaces the subtree on top of the stack with its left subtree, its entry and its right subtree.
+         */
+        private void expand() {
+            WBNode<K, V> node = nodes[--top];
+            if (node.right != null) {
+                push(node.right, true);
+            }
+            push(node, false);
+            if (node.left != null) {
+                push(node.left, true);
+            }
+        }
+
+        private void push(WBNode<K, V> node, boolean isSubtree) {
+            if (top == nodes.length) {
+                nodes = Arrays.copyOf(nodes, 2 * top);
+                subtree = Arrays.copyOf(subtree, 2 * top);
+            }
+            nodes[top] = node;
+            subtree[top] = isSubtree;
+            top++;
+        }
+    }
+
+    /**
+     * A new node with the key and value of entry.
+     */
+    private static <K, V> WBNode<K, V> node(WBNode<K, V> entry, WBNode<K, V> left, WBNode<K, V> right) {
+        int n = nodeSize(left) + nodeSize(right) + 1;
+        return newNode(entry.key, entry.value(), left, right, n, null);
+    }
+
+    private WBNode<K, V> node(Object edit, WBNode<K, V> reuse, WBNode<K, V> entry, WBNode<K, V> left, WBNode<K, V> right) {
+        return node(edit, reuse, entry.key, entry.value(), left, right);
+    }
+
+    /**
+     * Updates reuse in place if it is owned by edit, otherwise creates a new node owned by edit.
+     */
+    private WBNode<K, V> node(Object edit, WBNode<K, V> reuse, K key, V value, WBNode<K, V> left, WBNode<K, V> right) {
         int n = nodeSize(left) + nodeSize(right) + 1;
-        return new WBNode<>(key, left, right, n);
+        if (edit != null && reuse != null && reuse.edit == edit) {
+            reuse.key = key;
+            reuse.setValue(value);
+            reuse.left = left;
+            reuse.right = right;
+            reuse.size = n;
+            reuse.hash = 0;
+            return reuse;
+        } else {
+            return newNode(key, value, left, right, n, edit);
+        }
+    }
+
+    private static <K, V> WBNode<K, V> newNode(K key, V value, WBNode<K, V> left, WBNode<K, V> right, int size, Object edit) {
+        if (value == null) {
+            return new WBNode<>(key, left, right, size, edit);
+        } else {
+            return new WBEntryNode<>(key, value, left, right, size, edit);
+        }
     }
 
-    private final class WBNode<T> {
-        final T key;
-        final WBNode<T> left;
-        final WBNode<T> right;
-        final int size;
+    /**
+     * A transient version of the tree which is updated in place. Nodes created by the transient are owned
+     * by its edit token and are updated in place on subsequent changes, nodes shared with persistent trees
+     * are copied (once) before being changed. An owned node may also get a new key, a removed node is reused
+     * for the entry that replaces it and an add of an equal key replaces the key.
+     * <p>
+     * A transient is not thread safe and must not be shared between threads.
+     */
+    public final class Transient {
+        private Object edit = new Object();
+        private WBNode<K, V> transientRoot;
+
+        private Transient(WBNode<K, V> root) {
+            this.transientRoot = root;
+        }
+
+        public void add(K key) {
+            put(key, null);
+        }
+
+        public void put(K key, V value) {
+            transientRoot = WeightBalancedTree.this.add(edit, transientRoot, key, value);
+        }
+
+        public void remove(K key) {
+            transientRoot = WeightBalancedTree.this.remove(edit, transientRoot, key);
+        }
+
+        public Optional<K> lookup(K key) {
+            return Optional.ofNullable(find(key));
+        }
+
+        public K find(K key) {
+            WBNode<K, V> node = findNode(transientRoot, key);
+            return node == null ? null : node.key;
+        }
+
+        public V findValue(K key) {
+            WBNode<K, V> node = findNode(transientRoot, key);
+            return node == null ? null : node.value();
+        }
 
-        private WBNode(T key, WBNode<T> left, WBNode<T> right, int size) {
+        public int size() {
+            return nodeSize(transientRoot);
+        }
+
+        /**
+         * Creates a persistent tree with the current content. The transient may continue to be used
+         * afterwards, it then gets a new edit token so that the nodes of the persistent tree are never changed.
+         */
+        public WeightBalancedTree<K, V> persistent() {
+            edit = new Object();
+            return new WeightBalancedTree<>(transientRoot, comp);
+        }
+    }
+
+    /**
+     * Writes the size of the tree followed by its keys in ascending order, each key followed by its value
+     * unless valueCodec is null.
+     */
+    public void write(DataOutput out, Codec<? super K> keyCodec, Codec<? super V> valueCodec) throws IOException {
+        out.writeInt(size());
+        Iterator<WBNode<K, V>> it = new WeightBalancedTreeIterator<>(root, null, false);
+        while (it.hasNext()) {
+            WBNode<K, V> node = it.next();
+            keyCodec.write(out, node.key);
+            if (valueCodec != null) {
+                valueCodec.write(out, node.value());
+            }
+        }
+    }
+
+    /**
+     * Reads a tree written by {@link #write} with the same codecs. The entries are read in ascending order
+     * straight into the nodes of a perfectly balanced tree, so this runs in O(n) and keeps only the
+     * path to the node being read besides the tree.
+     *
+     * @throws IOException If a key or value is null or the keys are not in strictly ascending order.
+     */
+    public static <K, V> WeightBalancedTree<K, V> read(DataInput in, Comparator<K> comparator, Codec<K> keyCodec, Codec<V> valueCodec) throws IOException {
+        int size = BinaryFormat.readSize(in);
+        TreeReader<K, V> reader = new TreeReader<>(in, comparator, keyCodec, valueCodec);
+        return new WeightBalancedTree<>(reader.read(size), comparator);
+    }
+
+    private static final class TreeReader<K, V> {
+        private final DataInput in;
+        private final Comparator<K> comparator;
+        private final Codec<K> keyCodec;
+        private final Codec<V> valueCodec;
+        private K previous;
+
+        private TreeReader(DataInput in, Comparator<K> comparator, Codec<K> keyCodec, Codec<V> valueCodec) {
+            this.in = in;
+            this.comparator = comparator;
+            this.keyCodec = keyCodec;
+            this.valueCodec = valueCodec;
+        }
+
+        /**
+         * Reads the next n entries into a tree split as {@link #build} does.
+         */
+        private WBNode<K, V> read(int n) throws IOException {
+            if (n == 0) {
+                return null;
+            }
+            WBNode<K, V> left = read(n / 2);
+            K key = keyCodec.read(in);
+            if (key == null) {
+                throw new IOException("Null key");
+            } else if (previous != null && comparator.compare(previous, key) >= 0) {
+                throw new IOException(String.format("Keys are not in ascending order, %s is followed by %s", previous, key));
+            }
+            previous = key;
+            V value = null;
+            if (valueCodec != null && (value = valueCodec.read(in)) == null) {
+                throw new IOException("Null value for key " + key);
+            }
+            WBNode<K, V> right = read(n - n / 2 - 1);
+            return newNode(key, value, left, right, n, null);
+        }
+    }
+
+    public Transient asTransient() {
+        return new Transient(root);
+    }
+
+    /**
+     * Nodes are immutable once reachable from a {@link WeightBalancedTree}. The fields are only
+     * updated by a {@link Transient} holding the edit token that the node was created with.
+     * <p>
+     * Keys without a value are stored in plain nodes and keys with a value in {@link WBEntryNode}s,
+     * so sets don't pay for a value field and maps don't need a separate entry object per key.
+     */
+    private static class WBNode<K, V> {
+        K key;
+        WBNode<K, V> left;
+        WBNode<K, V> right;
+        int size;
+        int hash; // hash of the entries in the subtree, 0 until computed (and recomputed if it is 0)
+        final Object edit;
+
+        private WBNode(K key, WBNode<K, V> left, WBNode<K, V> right, int size, Object edit) {
             this.key = key;
             this.left = left;
             this.right = right;
             this.size = size;
+            this.edit = edit;
+        }
+
+        V value() {
+            return null;
+        }
+
+        void setValue(V value) {
+            assert value == null;
+        }
+    }
+
+    private static final class WBEntryNode<K, V> extends WBNode<K, V> {
+        V value;
+
+        private WBEntryNode(K key, V value, WBNode<K, V> left, WBNode<K, V> right, int size, Object edit) {
+            super(key, left, right, size, edit);
+            this.value = value;
+        }
+
+        @Override
+        V value() {
+            return value;
+        }
+
+        @Override
+        void setValue(V value) {
+            this.value = value;
         }
     }
 
-    private final class WeightBalancedTreeIterator<T> implements Iterator<T> {
-        private Deque<WBNode<K>> stack;
-        private WBNode<K> next;
-        private Function<K, T> nodeMapper;
+    private static final class SplitNode<K, V> {
+        final WBNode<K, V> left;
+        final WBNode<K, V> found; // null if the key split on was not present
+        final WBNode<K, V> right;
 
-        public WeightBalancedTreeIterator(WBNode<K> root, Function<K, T> nodeMapper) {
+        private SplitNode(WBNode<K, V> left, WBNode<K, V> found, WBNode<K, V> right) {
+            this.left = left;
+            this.found = found;
+            this.right = right;
+        }
+    }
+
+    /**
+     * Iterates the nodes themselves if nodeMapper is null. A descending iterator mirrors the
+     * ascending one, going right where the ascending iterator goes left.
+     */
+    private static final class WeightBalancedTreeIterator<K, V, T> implements Iterator<T> {
+        private final Deque<WBNode<K, V>> stack;
+        private final BiFunction<? super K, ? super V, ? extends T> nodeMapper;
+        private final boolean descending;
+        private WBNode<K, V> next;
+
+        private WeightBalancedTreeIterator(WBNode<K, V> root, BiFunction<? super K, ? super V, ? extends T> nodeMapper, boolean descending) {
             this.nodeMapper = nodeMapper;
+            this.descending = descending;
             stack = new ArrayDeque<>();
-            goLeft(root);
+            goFirst(root);
             next = extractNext();
         }
 
@@ -264,30 +1435,150 @@ public final class WeightBalancedTree<K> {
         }
 
         @Override
+        @SuppressWarnings("unchecked")
         public T next() {
-            WBNode<K> res = next;
+            WBNode<K, V> res = next;
+            if (res == null) {
+                throw new NoSuchElementException();
+            }
             next = extractNext();
-            return nodeMapper.apply(res.key);
+            return nodeMapper == null ? (T) res : nodeMapper.apply(res.key, res.value());
         }
 
-        private WBNode<K> extractNext() {
+        private WBNode<K, V> extractNext() {
             if (stack.isEmpty()) {
                 return null;
             } else {
-                WBNode<K> p = stack.pop();
-                goLeft(p.right);
+                WBNode<K, V> p = stack.pop();
+                goFirst(descending ? p.left : p.right);
                 return p;
             }
         }
 
-        private void goLeft(WBNode<K> node) {
-            WBNode<K> curr = node;
+        private void goFirst(WBNode<K, V> node) {
+            WBNode<K, V> curr = node;
             while (curr != null) {
                 stack.push(curr);
-                curr = curr.left;
+                curr = descending ? curr.right : curr.left;
             }
         }
     }
 
+    /**
+     * Keeps the remaining elements as a sequence of disjoint subtrees in order. Splitting hands the
+     * first half of the subtrees to the new spliterator, a lone subtree is first broken up into its
+     * left subtree, its key and its right subtree. Since the tree is weight balanced that gives splits
+     * of reasonably even sizes.
+     */
+    private static final class WeightBalancedTreeSpliterator<K, V, T> implements Spliterator<T> {
+        private final EntryCursor<K, V> cursor;
+        private final BiFunction<? super K, ? super V, ? extends T> nodeMapper;
+        private final int extraCharacteristics;
+        private final Comparator<K> comp;
+        private long remaining;
+
+        private WeightBalancedTreeSpliterator(WBNode<K, V> root, BiFunction<? super K, ? super V, ? extends T> nodeMapper,
+                                              int extraCharacteristics, Comparator<K> comp) {
+            this(new EntryCursor<>(root), nodeSize(root), nodeMapper, extraCharacteristics, comp);
+        }
+
+        private WeightBalancedTreeSpliterator(EntryCursor<K, V> cursor, long remaining, BiFunction<? super K, ? super V, ? extends T> nodeMapper,
+                                              int extraCharacteristics, Comparator<K> comp) {
+            this.cursor = cursor;
+            this.remaining = remaining;
+            this.nodeMapper = nodeMapper;
+            this.extraCharacteristics = extraCharacteristics;
+            this.comp = comp;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            if (cursor.top == 0) {
+                return false;
+            }
+            while (cursor.subtree[cursor.top - 1]) {
+                cursor.expand();
+            }
+            WBNode<K, V> node = cursor.nodes[--cursor.top];
+            remaining--;
+            action.accept(nodeMapper.apply(node.key, node.value()));
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super T> action) {
+            while (cursor.top > 0) {
+                int i = --cursor.top;
+                if (cursor.subtree[i]) {
+                    forEach(cursor.nodes[i], action);
+                } else {
+                    action.accept(nodeMapper.apply(cursor.nodes[i].key, cursor.nodes[i].value()));
+                }
+            }
+            remaining = 0;
+        }
+
+        private void forEach(WBNode<K, V> node, Consumer<? super T> action) {
+            while (node != null) {
+                forEach(node.left, action);
+                action.accept(nodeMapper.apply(node.key, node.value()));
+                node = node.right;
+            }
+        }
 
+        /**
+         * Splits off the subtrees and entries from the top of the stack that make up about half of the
+         * remaining entries.
+         */
+        @Override
+        public Spliterator<T> trySplit() {
+            if (remaining <= 1) {
+                return null;
+            }
+            if (cursor.top == 1) {
+                cursor.expand();
+            }
+            long half = (remaining + 1) / 2;
+            long prefixSize = 0;
+            int from = cursor.top;
+            while (from > 1 && prefixSize + weight(from - 1) <= half) {
+                prefixSize += weight(--from);
+            }
+            if (from == cursor.top) {
+                prefixSize += weight(--from);
+            }
+            EntryCursor<K, V> prefix = new EntryCursor<>(null);
+            for (int i = from; i < cursor.top; i++) {
+                prefix.push(cursor.nodes[i], cursor.subtree[i]);
+            }
+            cursor.top = from;
+            remaining -= prefixSize;
+            return new WeightBalancedTreeSpliterator<>(prefix, prefixSize, nodeMapper, extraCharacteristics, comp);
+        }
+
+        private long weight(int i) {
+            return cursor.subtree[i] ? cursor.nodes[i].size : 1;
+        }
+
+        @Override
+        public long estimateSize() {
+            return remaining;
+        }
+
+        @Override
+        public int characteristics() {
+            return Spliterator.ORDERED | Spliterator.SIZED | Spliterator.SUBSIZED | Spliterator.IMMUTABLE
+                    | Spliterator.NONNULL | extraCharacteristics;
+        }
+
+        @Override
+        public Comparator<? super T> getComparator() {
+            if ((extraCharacteristics & Spliterator.SORTED) == 0) {
+                throw new IllegalStateException();
+            }
+            @SuppressWarnings("unchecked")
+            Comparator<? super T> res = (Comparator<? super T>) comp;
+            return res;
+        }
+    }
 }
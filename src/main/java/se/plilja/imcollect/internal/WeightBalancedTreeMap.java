@@ -1,29 +1,85 @@
 package se.plilja.imcollect.internal;
 
+import se.plilja.imcollect.Codec;
 import se.plilja.imcollect.ImmutableMap;
+import se.plilja.imcollect.ImmutableSortedMap;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.AbstractMap;
 import java.util.Comparator;
 import java.util.Map;
 import java.util.Optional;
+import java.util.function.BiFunction;
+import java.util.function.BiPredicate;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
-public final class WeightBalancedTreeMap<K, V> implements ImmutableMap<K, V> {
-    private final WeightBalancedTree<Pair<K, V>> tree;
+public final class WeightBalancedTreeMap<K, V> implements ImmutableSortedMap<K, V> {
+    private final WeightBalancedTree<K, V> tree;
 
-    private WeightBalancedTreeMap(WeightBalancedTree<Pair<K, V>> tree) {
+    private WeightBalancedTreeMap(WeightBalancedTree<K, V> tree) {
         this.tree = tree;
     }
 
     public WeightBalancedTreeMap(Comparator<K> comparator) {
-        this.tree = new WeightBalancedTree<>((p1, p2) -> comparator.compare(p1.first, p2.first));
+        this.tree = new WeightBalancedTree<>(comparator);
+    }
+
+    /**
+     * Creates a map from entries. If the entries are sorted by key the map is built in linear time,
+     * otherwise they are sorted first. If a key occurs several times the last entry wins.
+     */
+    public static <K, V> WeightBalancedTreeMap<K, V> fromEntries(Comparator<K> comparator, Iterable<? extends Map.Entry<K, V>> entries) {
+        return new WeightBalancedTreeMap<K, V>(comparator).putAllEntries(entries);
+    }
+
+    /**
+     * Reads a map written by writeTo with the same codecs, in O(n).
+     *
+     * @throws IOException If the input can't be read or the keys are not in strictly ascending order by comparator.
+     */
+    public static <K, V> WeightBalancedTreeMap<K, V> readFrom(DataInput in, Comparator<K> comparator, Codec<K> keyCodec, Codec<V> valueCodec) throws IOException {
+        return new WeightBalancedTreeMap<>(WeightBalancedTree.read(in, comparator, keyCodec, valueCodec));
+    }
+
+    /**
+     * Reads a map from channel, see {@link BinaryFormat} on reading from channels.
+     */
+    public static <K, V> WeightBalancedTreeMap<K, V> readFrom(ReadableByteChannel channel, Comparator<K> comparator, Codec<K> keyCodec, Codec<V> valueCodec) throws IOException {
+        return readFrom(BinaryFormat.input(channel), comparator, keyCodec, valueCodec);
+    }
+
+    /**
+     * Writes the size of the map followed by its keys and values in ascending order of key.
+     */
+    @Override
+    public void writeTo(DataOutput out, Codec<? super K> keyCodec, Codec<? super V> valueCodec) throws IOException {
+        tree.write(out, keyCodec, valueCodec);
     }
 
     @Override
     public Optional<V> lookup(K key) {
-        if (key == null) {
-            return Optional.empty();
-        } else {
-            return tree.lookup(Pair.make(key, null)).map(p -> p.second);
-        }
+        return Optional.ofNullable(get(key));
+    }
+
+    @Override
+    public V get(K key) {
+        return tree.findValue(key);
+    }
+
+    @Override
+    public V getOrDefault(K key, V defaultValue) {
+        V value = tree.findValue(key);
+        return value == null ? defaultValue : value;
+    }
+
+    @Override
+    public boolean contains(K key) {
+        return tree.find(key) != null;
     }
 
     @Override
@@ -34,17 +90,92 @@ public final class WeightBalancedTreeMap<K, V> implements ImmutableMap<K, V> {
         if (value == null) {
             throw new IllegalArgumentException("Null values are not supported");
         }
-        return new WeightBalancedTreeMap<>(tree.add(Pair.make(key, value)));
+        return withTree(tree.put(key, value));
     }
 
     @Override
     public WeightBalancedTreeMap<K, V> putAll(Map<K, V> map) {
-        return (WeightBalancedTreeMap<K, V>) ImmutableMap.super.putAll(map);
+        return putAllEntries(map.entrySet());
     }
 
     @Override
     public WeightBalancedTreeMap<K, V> putAll(ImmutableMap<K, V> map) {
-        return (WeightBalancedTreeMap<K, V>) ImmutableMap.super.putAll(map);
+        if (isOrderedAs(map)) {
+            return withTree(tree.union(((WeightBalancedTreeMap<K, V>) map).tree));
+        } else if (map instanceof WeightBalancedTreeMap) {
+            WeightBalancedTree<K, V> otherTree = ((WeightBalancedTreeMap<K, V>) map).tree;
+            return withTree(tree.putAll(() -> otherTree.iterator(AbstractMap.SimpleImmutableEntry::new)));
+        } else {
+            return (WeightBalancedTreeMap<K, V>) ImmutableSortedMap.super.putAll(map);
+        }
+    }
+
+    /**
+     * Maps ordered by the same comparator are merged as a union of the trees, which shares the subtrees
+     * that are not affected and which runs on a fork join pool for large maps, see {@link Parallelism}.
+     */
+    @Override
+    public WeightBalancedTreeMap<K, V> merge(ImmutableMap<K, V> other, BiFunction<? super V, ? super V, ? extends V> resolver) {
+        return merge(other, resolver, Parallelism.SEQUENTIAL_CUTOFF);
+    }
+
+    @Override
+    public WeightBalancedTreeMap<K, V> merge(ImmutableMap<K, V> other, BiFunction<? super V, ? super V, ? extends V> resolver, int sequentialCutoff) {
+        if (resolver == null) {
+            throw new IllegalArgumentException("Null resolver is not supported");
+        } else if (isOrderedAs(other)) {
+            return withTree(tree.merge(((WeightBalancedTreeMap<K, V>) other).tree, resolver, sequentialCutoff));
+        } else {
+            return (WeightBalancedTreeMap<K, V>) ImmutableSortedMap.super.merge(other, resolver, sequentialCutoff);
+        }
+    }
+
+    @Override
+    public <V2> WeightBalancedTreeMap<K, V2> mapValues(Function<? super V, ? extends V2> f) {
+        return mapValues(f, Parallelism.SEQUENTIAL_CUTOFF);
+    }
+
+    /**
+     * Maps the values of the tree in place of its shape, in O(n) and in parallel for large maps.
+     */
+    @Override
+    public <V2> WeightBalancedTreeMap<K, V2> mapValues(Function<? super V, ? extends V2> f, int sequentialCutoff) {
+        return new WeightBalancedTreeMap<>(tree.mapValues(value -> {
+            V2 newValue = f.apply(value);
+            if (newValue == null) {
+                throw new IllegalArgumentException("Null values are not supported");
+            }
+            return newValue;
+        }, sequentialCutoff));
+    }
+
+    @Override
+    public WeightBalancedTreeMap<K, V> filter(BiPredicate<? super K, ? super V> predicate) {
+        return filter(predicate, Parallelism.SEQUENTIAL_CUTOFF);
+    }
+
+    @Override
+    public WeightBalancedTreeMap<K, V> filter(BiPredicate<? super K, ? super V> predicate, int sequentialCutoff) {
+        return withTree(tree.filter(predicate, sequentialCutoff));
+    }
+
+    @Override
+    public WeightBalancedTreeMap<K, V> filterKeys(Predicate<? super K> predicate) {
+        return filter((key, value) -> predicate.test(key));
+    }
+
+    @Override
+    public <R> R fold(R identity, EntryAccumulator<R, K, V> accumulator, BinaryOperator<R> combiner) {
+        return fold(identity, accumulator, combiner, Parallelism.SEQUENTIAL_CUTOFF);
+    }
+
+    @Override
+    public <R> R fold(R identity, EntryAccumulator<R, K, V> accumulator, BinaryOperator<R> combiner, int sequentialCutoff) {
+        return tree.fold(identity, accumulator, combiner, sequentialCutoff);
+    }
+
+    private WeightBalancedTreeMap<K, V> putAllEntries(Iterable<? extends Map.Entry<K, V>> entries) {
+        return withTree(tree.putAll(entries));
     }
 
     @Override
@@ -52,21 +183,277 @@ public final class WeightBalancedTreeMap<K, V> implements ImmutableMap<K, V> {
         if (key == null) {
             return this;
         }
-        return new WeightBalancedTreeMap<>(tree.remove(Pair.make(key, null)));
+        return withTree(tree.remove(key));
+    }
+
+    @Override
+    public Comparator<K> comparator() {
+        return tree.comparator();
+    }
+
+    @Override
+    public Map.Entry<K, V> firstEntry() {
+        return tree.first(AbstractMap.SimpleImmutableEntry::new);
+    }
+
+    @Override
+    public Map.Entry<K, V> lastEntry() {
+        return tree.last(AbstractMap.SimpleImmutableEntry::new);
+    }
+
+    @Override
+    public Map.Entry<K, V> floorEntry(K key) {
+        return tree.lower(nonNull(key), true, AbstractMap.SimpleImmutableEntry::new);
+    }
+
+    @Override
+    public Map.Entry<K, V> ceilingEntry(K key) {
+        return tree.higher(nonNull(key), true, AbstractMap.SimpleImmutableEntry::new);
+    }
+
+    @Override
+    public Map.Entry<K, V> lowerEntry(K key) {
+        return tree.lower(nonNull(key), false, AbstractMap.SimpleImmutableEntry::new);
+    }
+
+    @Override
+    public Map.Entry<K, V> higherEntry(K key) {
+        return tree.higher(nonNull(key), false, AbstractMap.SimpleImmutableEntry::new);
+    }
+
+    @Override
+    public K floorKey(K key) {
+        return tree.lower(nonNull(key), true, (k, v) -> k);
+    }
+
+    @Override
+    public K ceilingKey(K key) {
+        return tree.higher(nonNull(key), true, (k, v) -> k);
+    }
+
+    @Override
+    public K lowerKey(K key) {
+        return tree.lower(nonNull(key), false, (k, v) -> k);
+    }
+
+    @Override
+    public K higherKey(K key) {
+        return tree.higher(nonNull(key), false, (k, v) -> k);
+    }
+
+    @Override
+    public Iterable<K> descendingKeys() {
+        return () -> tree.descendingIterator((key, value) -> key);
+    }
+
+    @Override
+    public Iterable<V> descendingValues() {
+        return () -> tree.descendingIterator((key, value) -> value);
+    }
+
+    @Override
+    public WeightBalancedTreeMap<K, V> subMap(K from, boolean fromInclusive, K to, boolean toInclusive) {
+        return withTree(tree.range(nonNull(from), fromInclusive, nonNull(to), toInclusive));
+    }
+
+    @Override
+    public WeightBalancedTreeMap<K, V> headMap(K to, boolean inclusive) {
+        return withTree(tree.head(nonNull(to), inclusive));
+    }
+
+    @Override
+    public WeightBalancedTreeMap<K, V> tailMap(K from, boolean inclusive) {
+        return withTree(tree.tail(nonNull(from), inclusive));
+    }
+
+    private static <K> K nonNull(K key) {
+        if (key == null) {
+            throw new IllegalArgumentException("Null keys are not supported");
+        }
+        return key;
+    }
+
+    @Override
+    public Map.Entry<K, V> getByIndex(int index) {
+        return tree.getByIndex(index, AbstractMap.SimpleImmutableEntry::new);
+    }
+
+    @Override
+    public int rankOf(K key) {
+        if (key == null) {
+            return -size() - 1;
+        }
+        return tree.rankOf(key);
+    }
+
+    @Override
+    public WeightBalancedTreeMap<K, V> take(int n) {
+        return withTree(tree.take(n));
+    }
+
+    @Override
+    public WeightBalancedTreeMap<K, V> drop(int n) {
+        return withTree(tree.drop(n));
+    }
+
+    @Override
+    public WeightBalancedTreeMap<K, V> slice(int from, int to) {
+        return withTree(tree.slice(from, to));
+    }
+
+    @Override
+    public WeightBalancedTreeMap<K, V> union(ImmutableMap<K, V> other) {
+        return putAll(other);
+    }
+
+    @Override
+    public WeightBalancedTreeMap<K, V> intersection(ImmutableMap<K, V> other) {
+        if (isOrderedAs(other)) {
+            return withTree(tree.intersection(((WeightBalancedTreeMap<K, V>) other).tree));
+        } else {
+            return (WeightBalancedTreeMap<K, V>) ImmutableSortedMap.super.intersection(other);
+        }
+    }
+
+    @Override
+    public WeightBalancedTreeMap<K, V> difference(ImmutableMap<K, V> other) {
+        if (isOrderedAs(other)) {
+            return withTree(tree.difference(((WeightBalancedTreeMap<K, V>) other).tree));
+        } else {
+            return (WeightBalancedTreeMap<K, V>) ImmutableSortedMap.super.difference(other);
+        }
+    }
+
+    @Override
+    public boolean isSubsetOf(ImmutableMap<K, V> other) {
+        if (isOrderedAs(other)) {
+            return tree.isSubsetOf(((WeightBalancedTreeMap<K, V>) other).tree);
+        } else {
+            return ImmutableSortedMap.super.isSubsetOf(other);
+        }
+    }
+
+    @Override
+    public boolean isDisjoint(ImmutableMap<K, V> other) {
+        if (isOrderedAs(other)) {
+            return tree.isDisjoint(((WeightBalancedTreeMap<K, V>) other).tree);
+        } else {
+            return ImmutableSortedMap.super.isDisjoint(other);
+        }
+    }
+
+    @Override
+    public ImmutableMap.Builder<K, V> toBuilder() {
+        return new TransientBuilder<>(tree.asTransient());
+    }
+
+    private static final class TransientBuilder<K, V> implements ImmutableMap.Builder<K, V> {
+        private final WeightBalancedTree<K, V>.Transient tree;
+
+        private TransientBuilder(WeightBalancedTree<K, V>.Transient tree) {
+            this.tree = tree;
+        }
+
+        @Override
+        public TransientBuilder<K, V> put(K key, V value) {
+            if (key == null) {
+                throw new IllegalArgumentException("Null keys are not supported");
+            }
+            if (value == null) {
+                throw new IllegalArgumentException("Null values are not supported");
+            }
+            tree.put(key, value);
+            return this;
+        }
+
+        @Override
+        public TransientBuilder<K, V> remove(K key) {
+            if (key != null) {
+                tree.remove(key);
+            }
+            return this;
+        }
+
+        @Override
+        public Optional<V> lookup(K key) {
+            return Optional.ofNullable(get(key));
+        }
+
+        @Override
+        public V get(K key) {
+            return tree.findValue(key);
+        }
+
+        @Override
+        public boolean contains(K key) {
+            return tree.find(key) != null;
+        }
+
+        @Override
+        public int size() {
+            return tree.size();
+        }
+
+        @Override
+        public WeightBalancedTreeMap<K, V> build() {
+            return new WeightBalancedTreeMap<>(tree.persistent());
+        }
+    }
+
+    /**
+     * The structural set operations on the trees require that both trees are ordered the same way.
+     */
+    private boolean isOrderedAs(ImmutableMap<K, V> other) {
+        return other instanceof WeightBalancedTreeMap && ((WeightBalancedTreeMap<K, V>) other).tree.comparator() == tree.comparator();
+    }
+
+    private WeightBalancedTreeMap<K, V> withTree(WeightBalancedTree<K, V> newTree) {
+        if (newTree == tree) {
+            return this;
+        } else {
+            return new WeightBalancedTreeMap<>(newTree);
+        }
     }
 
     @Override
     public Iterable<K> keys() {
-        return () -> tree.iterator(p -> p.first);
+        return () -> tree.iterator((key, value) -> key);
     }
 
     @Override
     public Iterable<V> values() {
-        return () -> tree.iterator(p -> p.second);
+        return () -> tree.iterator((key, value) -> value);
     }
 
     @Override
     public int size() {
         return tree.size();
     }
+
+    /**
+     * Maps ordered by the same comparator are compared through their trees, skipping subtrees they share.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean equals(Object o) {
+        if (o instanceof WeightBalancedTreeMap && ((WeightBalancedTreeMap<?, ?>) o).comparator() == comparator()) {
+            return tree.hasSameEntries(((WeightBalancedTreeMap<K, V>) o).tree);
+        } else {
+            return CollectionEquality.mapEquals(this, o);
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        return tree.entriesHashCode();
+    }
+
+    @Override
+    public void diff(ImmutableMap<K, V> other, DiffListener<K, V> listener) {
+        if (other instanceof WeightBalancedTreeMap && ((WeightBalancedTreeMap<K, V>) other).comparator() == comparator()) {
+            tree.diff(((WeightBalancedTreeMap<K, V>) other).tree, listener);
+        } else {
+            ImmutableSortedMap.super.diff(other, listener);
+        }
+    }
 }
@@ -1,15 +1,26 @@
 package se.plilja.imcollect.internal;
 
+import se.plilja.imcollect.Codec;
+import se.plilja.imcollect.ImmutableMap;
 import se.plilja.imcollect.ImmutableSet;
+import se.plilja.imcollect.ImmutableSortedSet;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.Iterator;
-import java.util.function.Function;
+import java.util.Spliterator;
+import java.util.function.BiFunction;
+import java.util.function.BinaryOperator;
+import java.util.function.Predicate;
 
-public final class WeightBalancedTreeSet<T> implements ImmutableSet<T> {
-    private final WeightBalancedTree<T> tree;
+public final class WeightBalancedTreeSet<T> implements ImmutableSortedSet<T> {
+    private final WeightBalancedTree<T, Void> tree;
 
-    private WeightBalancedTreeSet(WeightBalancedTree<T> tree) {
+    private WeightBalancedTreeSet(WeightBalancedTree<T, Void> tree) {
         this.tree = tree;
     }
 
@@ -17,12 +28,36 @@ public final class WeightBalancedTreeSet<T> implements ImmutableSet<T> {
         this.tree = new WeightBalancedTree<>(comparator);
     }
 
+    /**
+     * Reads a set written by writeTo with the same codec, in O(n).
+     *
+     * @throws IOException If the input can't be read or the values are not in strictly ascending order by comparator.
+     */
+    public static <T> WeightBalancedTreeSet<T> readFrom(DataInput in, Comparator<T> comparator, Codec<T> codec) throws IOException {
+        return new WeightBalancedTreeSet<>(WeightBalancedTree.read(in, comparator, codec, null));
+    }
+
+    /**
+     * Reads a set from channel, see {@link BinaryFormat} on reading from channels.
+     */
+    public static <T> WeightBalancedTreeSet<T> readFrom(ReadableByteChannel channel, Comparator<T> comparator, Codec<T> codec) throws IOException {
+        return readFrom(BinaryFormat.input(channel), comparator, codec);
+    }
+
+    /**
+     * Writes the size of the set followed by its values in ascending order.
+     */
+    @Override
+    public void writeTo(DataOutput out, Codec<? super T> codec) throws IOException {
+        tree.write(out, codec, null);
+    }
+
     @Override
     public WeightBalancedTreeSet<T> add(T value) {
         if (value == null) {
             throw new IllegalArgumentException("Null values are not supported");
         }
-        return new WeightBalancedTreeSet<>(tree.add(value));
+        return withTree(tree.add(value));
     }
 
     @Override
@@ -30,7 +65,7 @@ public final class WeightBalancedTreeSet<T> implements ImmutableSet<T> {
         if (value == null) {
             return this; // null can not be present, hence there is nothing to remove
         }
-        return new WeightBalancedTreeSet<>(tree.remove(value));
+        return withTree(tree.remove(value));
     }
 
     @Override
@@ -40,18 +75,303 @@ public final class WeightBalancedTreeSet<T> implements ImmutableSet<T> {
 
     @Override
     public boolean contains(T val) {
-        return tree.lookup(val).isPresent();
+        return tree.find(val) != null;
+    }
+
+    /**
+     * Sets ordered by the same comparator are compared through their trees, skipping subtrees they share.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean equals(Object o) {
+        if (o instanceof WeightBalancedTreeSet && ((WeightBalancedTreeSet<?>) o).comparator() == comparator()) {
+            return tree.hasSameEntries(((WeightBalancedTreeSet<T>) o).tree);
+        } else {
+            return CollectionEquality.setEquals(this, o);
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        return tree.entriesHashCode();
+    }
+
+    @Override
+    public void diff(ImmutableSet<T> other, DiffListener<T> listener) {
+        if (other instanceof WeightBalancedTreeSet && ((WeightBalancedTreeSet<T>) other).comparator() == comparator()) {
+            tree.diff(((WeightBalancedTreeSet<T>) other).tree, new ImmutableMap.DiffListener<>() {
+                @Override
+                public void added(T key, Void value) {
+                    listener.added(key);
+                }
+
+                @Override
+                public void removed(T key, Void value) {
+                    listener.removed(key);
+                }
+
+                @Override
+                public void changed(T key, Void oldValue, Void newValue) {
+                    throw new IllegalStateException("Values of a set never change");
+                }
+            });
+        } else {
+            ImmutableSortedSet.super.diff(other, listener);
+        }
     }
 
     @Override
     public Iterator<T> iterator() {
-        return tree.iterator(Function.identity());
+        return tree.iterator((key, value) -> key);
+    }
+
+    @Override
+    public Spliterator<T> spliterator() {
+        return tree.spliterator();
+    }
+
+    @Override
+    public Comparator<T> comparator() {
+        return tree.comparator();
+    }
+
+    @Override
+    public T first() {
+        return tree.first((key, value) -> key);
+    }
+
+    @Override
+    public T last() {
+        return tree.last((key, value) -> key);
+    }
+
+    @Override
+    public T floor(T value) {
+        return tree.lower(nonNull(value), true, (key, v) -> key);
+    }
+
+    @Override
+    public T ceiling(T value) {
+        return tree.higher(nonNull(value), true, (key, v) -> key);
+    }
+
+    @Override
+    public T lower(T value) {
+        return tree.lower(nonNull(value), false, (key, v) -> key);
+    }
+
+    @Override
+    public T higher(T value) {
+        return tree.higher(nonNull(value), false, (key, v) -> key);
+    }
+
+    @Override
+    public Iterator<T> descendingIterator() {
+        return tree.descendingIterator((key, value) -> key);
+    }
+
+    @Override
+    public WeightBalancedTreeSet<T> subSet(T from, boolean fromInclusive, T to, boolean toInclusive) {
+        return withTree(tree.range(nonNull(from), fromInclusive, nonNull(to), toInclusive));
+    }
+
+    @Override
+    public WeightBalancedTreeSet<T> headSet(T to, boolean inclusive) {
+        return withTree(tree.head(nonNull(to), inclusive));
+    }
+
+    @Override
+    public WeightBalancedTreeSet<T> tailSet(T from, boolean inclusive) {
+        return withTree(tree.tail(nonNull(from), inclusive));
+    }
+
+    private static <T> T nonNull(T value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Null values are not supported");
+        }
+        return value;
+    }
+
+    @Override
+    public T getByIndex(int index) {
+        return tree.getByIndex(index, (key, value) -> key);
+    }
+
+    @Override
+    public int rankOf(T value) {
+        if (value == null) {
+            return -size() - 1;
+        }
+        return tree.rankOf(value);
+    }
+
+    @Override
+    public WeightBalancedTreeSet<T> take(int n) {
+        return withTree(tree.take(n));
+    }
+
+    @Override
+    public WeightBalancedTreeSet<T> drop(int n) {
+        return withTree(tree.drop(n));
+    }
+
+    @Override
+    public WeightBalancedTreeSet<T> slice(int from, int to) {
+        return withTree(tree.slice(from, to));
     }
 
     @Override
     public WeightBalancedTreeSet<T> addAll(Iterable<? extends T> values) {
-        return (WeightBalancedTreeSet<T>) ImmutableSet.super.addAll(values);
+        return withTree(tree.addAll(values));
+    }
+
+    @Override
+    public WeightBalancedTreeSet<T> removeAll(Iterable<? extends T> values) {
+        return withTree(tree.difference(toTree(values)));
     }
 
+    @Override
+    public WeightBalancedTreeSet<T> retainAll(Iterable<? extends T> values) {
+        return withTree(tree.intersection(toTree(values)));
+    }
 
+    @Override
+    public WeightBalancedTreeSet<T> filter(Predicate<? super T> predicate) {
+        return filter(predicate, Parallelism.SEQUENTIAL_CUTOFF);
+    }
+
+    @Override
+    public WeightBalancedTreeSet<T> filter(Predicate<? super T> predicate, int sequentialCutoff) {
+        return withTree(tree.filter((value, none) -> predicate.test(value), sequentialCutoff));
+    }
+
+    @Override
+    public <R> R fold(R identity, BiFunction<R, ? super T, R> accumulator, BinaryOperator<R> combiner) {
+        return fold(identity, accumulator, combiner, Parallelism.SEQUENTIAL_CUTOFF);
+    }
+
+    @Override
+    public <R> R fold(R identity, BiFunction<R, ? super T, R> accumulator, BinaryOperator<R> combiner, int sequentialCutoff) {
+        return tree.fold(identity, (result, value, none) -> accumulator.apply(result, value), combiner, sequentialCutoff);
+    }
+
+    @Override
+    public WeightBalancedTreeSet<T> union(ImmutableSet<T> other) {
+        if (isOrderedAs(other)) {
+            return withTree(tree.union(((WeightBalancedTreeSet<T>) other).tree));
+        } else {
+            return (WeightBalancedTreeSet<T>) ImmutableSortedSet.super.union(other);
+        }
+    }
+
+    @Override
+    public WeightBalancedTreeSet<T> intersection(ImmutableSet<T> other) {
+        if (isOrderedAs(other)) {
+            return withTree(tree.intersection(((WeightBalancedTreeSet<T>) other).tree));
+        } else {
+            return (WeightBalancedTreeSet<T>) ImmutableSortedSet.super.intersection(other);
+        }
+    }
+
+    @Override
+    public WeightBalancedTreeSet<T> difference(ImmutableSet<T> other) {
+        if (isOrderedAs(other)) {
+            return withTree(tree.difference(((WeightBalancedTreeSet<T>) other).tree));
+        } else {
+            return (WeightBalancedTreeSet<T>) ImmutableSortedSet.super.difference(other);
+        }
+    }
+
+    @Override
+    public boolean isSubsetOf(ImmutableSet<T> other) {
+        if (isOrderedAs(other)) {
+            return tree.isSubsetOf(((WeightBalancedTreeSet<T>) other).tree);
+        } else {
+            return ImmutableSortedSet.super.isSubsetOf(other);
+        }
+    }
+
+    @Override
+    public boolean isDisjoint(ImmutableSet<T> other) {
+        if (isOrderedAs(other)) {
+            return tree.isDisjoint(((WeightBalancedTreeSet<T>) other).tree);
+        } else {
+            return ImmutableSortedSet.super.isDisjoint(other);
+        }
+    }
+
+    /**
+     * The structural set operations on the trees require that both trees are ordered the same way.
+     */
+    private boolean isOrderedAs(Iterable<? extends T> other) {
+        return other instanceof WeightBalancedTreeSet && ((WeightBalancedTreeSet<?>) other).tree.comparator() == tree.comparator();
+    }
+
+    @SuppressWarnings("unchecked")
+    private WeightBalancedTree<T, Void> toTree(Iterable<? extends T> values) {
+        if (isOrderedAs(values)) {
+            return ((WeightBalancedTreeSet<T>) values).tree;
+        } else {
+            ArrayList<T> nonNull = new ArrayList<>();
+            for (T value : values) {
+                if (value != null) {
+                    nonNull.add(value);
+                }
+            }
+            return new WeightBalancedTree<T, Void>(tree.comparator()).addAll(nonNull);
+        }
+    }
+
+    @Override
+    public ImmutableSet.Builder<T> toBuilder() {
+        return new TransientBuilder<>(tree.asTransient());
+    }
+
+    private static final class TransientBuilder<T> implements ImmutableSet.Builder<T> {
+        private final WeightBalancedTree<T, Void>.Transient tree;
+
+        private TransientBuilder(WeightBalancedTree<T, Void>.Transient tree) {
+            this.tree = tree;
+        }
+
+        @Override
+        public TransientBuilder<T> add(T value) {
+            if (value == null) {
+                throw new IllegalArgumentException("Null values are not supported");
+            }
+            tree.add(value);
+            return this;
+        }
+
+        @Override
+        public TransientBuilder<T> remove(T value) {
+            if (value != null) {
+                tree.remove(value);
+            }
+            return this;
+        }
+
+        @Override
+        public boolean contains(T value) {
+            return tree.find(value) != null;
+        }
+
+        @Override
+        public int size() {
+            return tree.size();
+        }
+
+        @Override
+        public WeightBalancedTreeSet<T> build() {
+            return new WeightBalancedTreeSet<>(tree.persistent());
+        }
+    }
+
+    private WeightBalancedTreeSet<T> withTree(WeightBalancedTree<T, Void> newTree) {
+        if (newTree == tree) {
+            return this;
+        } else {
+            return new WeightBalancedTreeSet<>(newTree);
+        }
+    }
 }
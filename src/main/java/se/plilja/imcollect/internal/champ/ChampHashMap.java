@@ -0,0 +1,104 @@
+package se.plilja.imcollect.internal.champ;
+
+import se.plilja.imcollect.ImmutableMap;
+import se.plilja.imcollect.internal.CollectionEquality;
+
+import java.util.Optional;
+
+/**
+ * A map based on a compressed hash-array mapped prefix tree (CHAMP). Keys are compared
+ * with equals and hashCode rather than a comparator and are not kept in any particular order.
+ */
+public final class ChampHashMap<K, V> implements ImmutableMap<K, V> {
+    private static final ChampHashMap<?, ?> EMPTY = new ChampHashMap<>(ChampNode.empty(), 0);
+
+    private final ChampNode<K, V> root;
+    private final int size;
+
+    private ChampHashMap(ChampNode<K, V> root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <K, V> ChampHashMap<K, V> empty() {
+        return (ChampHashMap<K, V>) EMPTY;
+    }
+
+    @Override
+    public Optional<V> lookup(K key) {
+        return Optional.ofNullable(get(key));
+    }
+
+    @Override
+    public V get(K key) {
+        return key == null ? null : root.find(key, key.hashCode(), 0);
+    }
+
+    @Override
+    public V getOrDefault(K key, V defaultValue) {
+        V value = get(key);
+        return value == null ? defaultValue : value;
+    }
+
+    @Override
+    public boolean contains(K key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public ChampHashMap<K, V> put(K key, V value) {
+        if (key == null) {
+            throw new IllegalArgumentException("Null keys are not supported");
+        }
+        if (value == null) {
+            throw new IllegalArgumentException("Null values are not supported");
+        }
+        ChampNode.Change change = new ChampNode.Change();
+        ChampNode<K, V> newRoot = root.updated(key, value, key.hashCode(), 0, change);
+        if (!change.modified) {
+            return this;
+        } else {
+            return new ChampHashMap<>(newRoot, change.replaced ? size : size + 1);
+        }
+    }
+
+    @Override
+    public ChampHashMap<K, V> remove(K key) {
+        if (key == null) {
+            return this;
+        }
+        ChampNode.Change change = new ChampNode.Change();
+        ChampNode<K, V> newRoot = root.removed(key, key.hashCode(), 0, change);
+        if (!change.modified) {
+            return this;
+        } else {
+            return new ChampHashMap<>(newRoot, size - 1);
+        }
+    }
+
+    @Override
+    public Iterable<K> keys() {
+        return () -> new ChampIterator<>(root, (k, v) -> k);
+    }
+
+    @Override
+    public Iterable<V> values() {
+        return () -> new ChampIterator<>(root, (k, v) -> v);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return CollectionEquality.mapEquals(this, o);
+    }
+
+    @Override
+    public int hashCode() {
+        return CollectionEquality.mapHashCode(this);
+    }
+}
@@ -0,0 +1,86 @@
+package se.plilja.imcollect.internal.champ;
+
+import se.plilja.imcollect.ImmutableSet;
+import se.plilja.imcollect.internal.CollectionEquality;
+
+import java.util.Iterator;
+
+/**
+ * A set based on a compressed hash-array mapped prefix tree (CHAMP). Values are compared
+ * with equals and hashCode rather than a comparator and are not kept in any particular order.
+ * Each value is stored as both key and value of the trie.
+ */
+public final class ChampHashSet<T> implements ImmutableSet<T> {
+    private static final ChampHashSet<?> EMPTY = new ChampHashSet<>(ChampNode.empty(), 0);
+
+    private final ChampNode<T, T> root;
+    private final int size;
+
+    private ChampHashSet(ChampNode<T, T> root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T> ChampHashSet<T> empty() {
+        return (ChampHashSet<T>) EMPTY;
+    }
+
+    @Override
+    public ChampHashSet<T> add(T value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Null values are not supported");
+        }
+        ChampNode.Change change = new ChampNode.Change();
+        ChampNode<T, T> newRoot = root.updated(value, value, value.hashCode(), 0, change);
+        if (!change.modified) {
+            return this;
+        } else {
+            return new ChampHashSet<>(newRoot, change.replaced ? size : size + 1);
+        }
+    }
+
+    @Override
+    public ChampHashSet<T> remove(T value) {
+        if (value == null) {
+            return this; // null can not be present, hence there is nothing to remove
+        }
+        ChampNode.Change change = new ChampNode.Change();
+        ChampNode<T, T> newRoot = root.removed(value, value.hashCode(), 0, change);
+        if (!change.modified) {
+            return this;
+        } else {
+            return new ChampHashSet<>(newRoot, size - 1);
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean contains(T val) {
+        return val != null && root.find(val, val.hashCode(), 0) != null;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return CollectionEquality.setEquals(this, o);
+    }
+
+    @Override
+    public int hashCode() {
+        return CollectionEquality.setHashCode(this);
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return new ChampIterator<>(root, (k, v) -> k);
+    }
+
+    @Override
+    public ChampHashSet<T> addAll(Iterable<? extends T> values) {
+        return (ChampHashSet<T>) ImmutableSet.super.addAll(values);
+    }
+}
@@ -0,0 +1,70 @@
+package se.plilja.imcollect.internal.champ;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.BiFunction;
+
+/**
+ * Iterates the entries of a trie, the entries of a node first and then the entries of its sub nodes.
+ */
+final class ChampIterator<K, V, T> implements Iterator<T> {
+    private static final int MAX_DEPTH = ChampNode.HASH_CODE_LENGTH / ChampNode.BITS + 2;
+
+    private final BiFunction<K, V, T> mapping;
+    @SuppressWarnings("unchecked")
+    private final ChampNode<K, V>[] nodes = (ChampNode<K, V>[]) new ChampNode<?, ?>[MAX_DEPTH];
+    private final int[] nodeCursors = new int[MAX_DEPTH];
+    private int depth = -1;
+    private ChampNode<K, V> payloadNode;
+    private int payloadCursor;
+    private int payloadLength;
+
+    ChampIterator(ChampNode<K, V> root, BiFunction<K, V, T> mapping) {
+        this.mapping = mapping;
+        if (root.nodeArity() > 0) {
+            depth = 0;
+            nodes[0] = root;
+        }
+        payloadNode = root;
+        payloadLength = root.payloadArity();
+    }
+
+    @Override
+    public boolean hasNext() {
+        return payloadCursor < payloadLength || searchNextPayload();
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        T res = mapping.apply(payloadNode.getKey(payloadCursor), payloadNode.getValue(payloadCursor));
+        payloadCursor++;
+        return res;
+    }
+
+    private boolean searchNextPayload() {
+        while (depth >= 0) {
+            ChampNode<K, V> node = nodes[depth];
+            if (nodeCursors[depth] < node.nodeArity()) {
+                ChampNode<K, V> child = node.getNode(nodeCursors[depth]++);
+                if (child.nodeArity() > 0) {
+                    depth++;
+                    nodes[depth] = child;
+                    nodeCursors[depth] = 0;
+                }
+                if (child.payloadArity() > 0) {
+                    payloadNode = child;
+                    payloadCursor = 0;
+                    payloadLength = child.payloadArity();
+                    return true;
+                }
+            } else {
+                nodes[depth] = null;
+                depth--;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,391 @@
+package se.plilja.imcollect.internal.champ;
+
+/**
+ * A node in a compressed hash-array mapped prefix tree (CHAMP), see Steindorfer and Vinju,
+ * "Optimizing Hash-Array Mapped Tries for Fast and Lean Immutable JVM Collections".
+ * <p>
+ * Every level of the trie consumes 5 bits of the hash. Entries are stored inline in the node as long as
+ * there is no other entry with the same 5 bits on that level, otherwise the entries are pushed down to a sub node.
+ * Keys whose hashes are equal in all 32 bits are stored in a {@link HashCollisionNode}.
+ */
+abstract class ChampNode<K, V> {
+    static final int BITS = 5;
+    static final int MASK = (1 << BITS) - 1;
+    static final int HASH_CODE_LENGTH = 32;
+
+    static final int SIZE_EMPTY = 0;
+    static final int SIZE_ONE = 1;
+    static final int SIZE_MORE = 2;
+
+    private static final BitmapIndexedNode<?, ?> EMPTY = new BitmapIndexedNode<>(0, 0, new Object[0]);
+
+    @SuppressWarnings("unchecked")
+    static <K, V> ChampNode<K, V> empty() {
+        return (ChampNode<K, V>) EMPTY;
+    }
+
+    /**
+     * @return The value of key or null if key is not present.
+     */
+    abstract V find(K key, int hash, int shift);
+
+    abstract ChampNode<K, V> updated(K key, V value, int hash, int shift, Change change);
+
+    abstract ChampNode<K, V> removed(K key, int hash, int shift, Change change);
+
+    abstract int payloadArity();
+
+    abstract K getKey(int i);
+
+    abstract V getValue(int i);
+
+    abstract int nodeArity();
+
+    abstract ChampNode<K, V> getNode(int i);
+
+    /**
+     * @return One of {@link #SIZE_EMPTY}, {@link #SIZE_ONE} or {@link #SIZE_MORE}.
+     */
+    abstract int sizePredicate();
+
+    static int mask(int hash, int shift) {
+        return (hash >>> shift) & MASK;
+    }
+
+    static int bitpos(int mask) {
+        return 1 << mask;
+    }
+
+    /**
+     * Details about an update that are needed to keep track of the size of the collection.
+     */
+    static final class Change {
+        boolean modified;
+        boolean replaced;
+    }
+
+    static <K, V> ChampNode<K, V> mergeTwo(K key0, V value0, int hash0, K key1, V value1, int hash1, int shift) {
+        if (shift >= HASH_CODE_LENGTH) {
+            return new HashCollisionNode<>(hash0, new Object[]{key0, value0, key1, value1});
+        }
+        int mask0 = mask(hash0, shift);
+        int mask1 = mask(hash1, shift);
+        if (mask0 != mask1) {
+            int dataMap = bitpos(mask0) | bitpos(mask1);
+            if (mask0 < mask1) {
+                return new BitmapIndexedNode<>(dataMap, 0, new Object[]{key0, value0, key1, value1});
+            } else {
+                return new BitmapIndexedNode<>(dataMap, 0, new Object[]{key1, value1, key0, value0});
+            }
+        } else {
+            ChampNode<K, V> node = mergeTwo(key0, value0, hash0, key1, value1, hash1, shift + BITS);
+            return new BitmapIndexedNode<>(0, bitpos(mask0), new Object[]{node});
+        }
+    }
+
+    /**
+     * The content array holds the inline entries as key, value pairs first followed by the
+     * sub nodes in reverse order.
+     */
+    static final class BitmapIndexedNode<K, V> extends ChampNode<K, V> {
+        private final int dataMap;
+        private final int nodeMap;
+        private final Object[] content;
+
+        BitmapIndexedNode(int dataMap, int nodeMap, Object[] content) {
+            this.dataMap = dataMap;
+            this.nodeMap = nodeMap;
+            this.content = content;
+        }
+
+        @Override
+        V find(K key, int hash, int shift) {
+            int bitpos = bitpos(mask(hash, shift));
+            if ((dataMap & bitpos) != 0) {
+                int idx = dataIndex(bitpos);
+                return key.equals(getKey(idx)) ? getValue(idx) : null;
+            } else if ((nodeMap & bitpos) != 0) {
+                return getNode(nodeIndex(bitpos)).find(key, hash, shift + BITS);
+            } else {
+                return null;
+            }
+        }
+
+        @Override
+        ChampNode<K, V> updated(K key, V value, int hash, int shift, Change change) {
+            int bitpos = bitpos(mask(hash, shift));
+            if ((dataMap & bitpos) != 0) {
+                int idx = dataIndex(bitpos);
+                K currentKey = getKey(idx);
+                if (key.equals(currentKey)) {
+                    if (getValue(idx) == value && currentKey == key) {
+                        return this;
+                    } else {
+                        change.modified = true;
+                        change.replaced = true;
+                        return copyAndSetEntry(idx, key, value);
+                    }
+                } else {
+                    V currentValue = getValue(idx);
+                    ChampNode<K, V> subNode = mergeTwo(currentKey, currentValue, currentKey.hashCode(), key, value, hash, shift + BITS);
+                    change.modified = true;
+                    return copyAndMigrateFromInlineToNode(bitpos, subNode);
+                }
+            } else if ((nodeMap & bitpos) != 0) {
+                ChampNode<K, V> subNode = getNode(nodeIndex(bitpos));
+                ChampNode<K, V> newSubNode = subNode.updated(key, value, hash, shift + BITS, change);
+                if (newSubNode == subNode) {
+                    return this;
+                } else {
+                    return copyAndSetNode(bitpos, newSubNode);
+                }
+            } else {
+                change.modified = true;
+                return copyAndInsertEntry(bitpos, key, value);
+            }
+        }
+
+        @Override
+        ChampNode<K, V> removed(K key, int hash, int shift, Change change) {
+            int bitpos = bitpos(mask(hash, shift));
+            if ((dataMap & bitpos) != 0) {
+                int idx = dataIndex(bitpos);
+                if (!key.equals(getKey(idx))) {
+                    return this;
+                }
+                change.modified = true;
+                if (payloadArity() == 2 && nodeArity() == 0) {
+                    // The remaining entry is either the whole trie or will be inlined by the parent
+                    int newDataMap = shift == 0 ? dataMap ^ bitpos : bitpos(mask(hash, 0));
+                    int remaining = idx == 0 ? 1 : 0;
+                    return new BitmapIndexedNode<>(newDataMap, 0, new Object[]{getKey(remaining), getValue(remaining)});
+                } else {
+                    return copyAndRemoveEntry(bitpos);
+                }
+            } else if ((nodeMap & bitpos) != 0) {
+                ChampNode<K, V> subNode = getNode(nodeIndex(bitpos));
+                ChampNode<K, V> newSubNode = subNode.removed(key, hash, shift + BITS, change);
+                if (!change.modified) {
+                    return this;
+                } else if (newSubNode.sizePredicate() == SIZE_ONE) {
+                    if (payloadArity() == 0 && nodeArity() == 1) {
+                        return newSubNode; // let the parent inline the remaining entry
+                    } else {
+                        return copyAndMigrateFromNodeToInline(bitpos, newSubNode);
+                    }
+                } else {
+                    return copyAndSetNode(bitpos, newSubNode);
+                }
+            } else {
+                return this;
+            }
+        }
+
+        @Override
+        int payloadArity() {
+            return Integer.bitCount(dataMap);
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        K getKey(int i) {
+            return (K) content[2 * i];
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        V getValue(int i) {
+            return (V) content[2 * i + 1];
+        }
+
+        @Override
+        int nodeArity() {
+            return Integer.bitCount(nodeMap);
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        ChampNode<K, V> getNode(int i) {
+            return (ChampNode<K, V>) content[content.length - 1 - i];
+        }
+
+        @Override
+        int sizePredicate() {
+            if (nodeMap != 0) {
+                return SIZE_MORE;
+            } else {
+                switch (payloadArity()) {
+                    case 0:
+                        return SIZE_EMPTY;
+                    case 1:
+                        return SIZE_ONE;
+                    default:
+                        return SIZE_MORE;
+                }
+            }
+        }
+
+        private int dataIndex(int bitpos) {
+            return Integer.bitCount(dataMap & (bitpos - 1));
+        }
+
+        private int nodeIndex(int bitpos) {
+            return Integer.bitCount(nodeMap & (bitpos - 1));
+        }
+
+        private BitmapIndexedNode<K, V> copyAndSetEntry(int idx, K key, V value) {
+            Object[] dst = content.clone();
+            dst[2 * idx] = key;
+            dst[2 * idx + 1] = value;
+            return new BitmapIndexedNode<>(dataMap, nodeMap, dst);
+        }
+
+        private BitmapIndexedNode<K, V> copyAndSetNode(int bitpos, ChampNode<K, V> node) {
+            Object[] dst = content.clone();
+            dst[content.length - 1 - nodeIndex(bitpos)] = node;
+            return new BitmapIndexedNode<>(dataMap, nodeMap, dst);
+        }
+
+        private BitmapIndexedNode<K, V> copyAndInsertEntry(int bitpos, K key, V value) {
+            int idx = 2 * dataIndex(bitpos);
+            Object[] dst = new Object[content.length + 2];
+            System.arraycopy(content, 0, dst, 0, idx);
+            dst[idx] = key;
+            dst[idx + 1] = value;
+            System.arraycopy(content, idx, dst, idx + 2, content.length - idx);
+            return new BitmapIndexedNode<>(dataMap | bitpos, nodeMap, dst);
+        }
+
+        private BitmapIndexedNode<K, V> copyAndRemoveEntry(int bitpos) {
+            int idx = 2 * dataIndex(bitpos);
+            Object[] dst = new Object[content.length - 2];
+            System.arraycopy(content, 0, dst, 0, idx);
+            System.arraycopy(content, idx + 2, dst, idx, content.length - idx - 2);
+            return new BitmapIndexedNode<>(dataMap ^ bitpos, nodeMap, dst);
+        }
+
+        private BitmapIndexedNode<K, V> copyAndMigrateFromInlineToNode(int bitpos, ChampNode<K, V> node) {
+            int idxOld = 2 * dataIndex(bitpos);
+            int idxNew = content.length - 2 - nodeIndex(bitpos);
+            Object[] dst = new Object[content.length - 1];
+            System.arraycopy(content, 0, dst, 0, idxOld);
+            System.arraycopy(content, idxOld + 2, dst, idxOld, idxNew - idxOld);
+            dst[idxNew] = node;
+            System.arraycopy(content, idxNew + 2, dst, idxNew + 1, content.length - idxNew - 2);
+            return new BitmapIndexedNode<>(dataMap ^ bitpos, nodeMap | bitpos, dst);
+        }
+
+        private BitmapIndexedNode<K, V> copyAndMigrateFromNodeToInline(int bitpos, ChampNode<K, V> node) {
+            int idxOld = content.length - 1 - nodeIndex(bitpos);
+            int idxNew = 2 * dataIndex(bitpos);
+            Object[] dst = new Object[content.length + 1];
+            System.arraycopy(content, 0, dst, 0, idxNew);
+            dst[idxNew] = node.getKey(0);
+            dst[idxNew + 1] = node.getValue(0);
+            System.arraycopy(content, idxNew, dst, idxNew + 2, idxOld - idxNew);
+            System.arraycopy(content, idxOld + 1, dst, idxOld + 2, content.length - idxOld - 1);
+            return new BitmapIndexedNode<>(dataMap | bitpos, nodeMap ^ bitpos, dst);
+        }
+    }
+
+    /**
+     * Holds keys whose hashes are equal in all bits, as key, value pairs in a flat array.
+     */
+    static final class HashCollisionNode<K, V> extends ChampNode<K, V> {
+        private final int hash;
+        private final Object[] content;
+
+        HashCollisionNode(int hash, Object[] content) {
+            this.hash = hash;
+            this.content = content;
+        }
+
+        @Override
+        V find(K key, int hash, int shift) {
+            int idx = indexOf(key);
+            return idx == -1 ? null : getValue(idx);
+        }
+
+        @Override
+        ChampNode<K, V> updated(K key, V value, int hash, int shift, Change change) {
+            int idx = indexOf(key);
+            if (idx == -1) {
+                Object[] dst = new Object[content.length + 2];
+                System.arraycopy(content, 0, dst, 0, content.length);
+                dst[content.length] = key;
+                dst[content.length + 1] = value;
+                change.modified = true;
+                return new HashCollisionNode<>(this.hash, dst);
+            } else if (getValue(idx) == value && getKey(idx) == key) {
+                return this;
+            } else {
+                Object[] dst = content.clone();
+                dst[2 * idx] = key;
+                dst[2 * idx + 1] = value;
+                change.modified = true;
+                change.replaced = true;
+                return new HashCollisionNode<>(this.hash, dst);
+            }
+        }
+
+        @Override
+        ChampNode<K, V> removed(K key, int hash, int shift, Change change) {
+            int idx = indexOf(key);
+            if (idx == -1) {
+                return this;
+            }
+            change.modified = true;
+            if (payloadArity() == 2) {
+                int remaining = idx == 0 ? 1 : 0;
+                // Will be inlined by the parent
+                return new BitmapIndexedNode<>(bitpos(mask(this.hash, 0)), 0, new Object[]{getKey(remaining), getValue(remaining)});
+            } else {
+                Object[] dst = new Object[content.length - 2];
+                System.arraycopy(content, 0, dst, 0, 2 * idx);
+                System.arraycopy(content, 2 * idx + 2, dst, 2 * idx, content.length - 2 * idx - 2);
+                return new HashCollisionNode<>(this.hash, dst);
+            }
+        }
+
+        private int indexOf(K key) {
+            for (int i = 0; i < payloadArity(); i++) {
+                if (key.equals(getKey(i))) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        int payloadArity() {
+            return content.length / 2;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        K getKey(int i) {
+            return (K) content[2 * i];
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        V getValue(int i) {
+            return (V) content[2 * i + 1];
+        }
+
+        @Override
+        int nodeArity() {
+            return 0;
+        }
+
+        @Override
+        ChampNode<K, V> getNode(int i) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        @Override
+        int sizePredicate() {
+            return payloadArity() == 1 ? SIZE_ONE : SIZE_MORE;
+        }
+    }
+}
@@ -3,12 +3,9 @@ package se.plilja.imcollect.internal.fingertrees;
 
 import se.plilja.imcollect.internal.Pair;
 
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.Optional;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Function;
 import java.util.function.Predicate;
-import java.util.function.Supplier;
 
 class Deep<T, M> extends FingerTree<T, M> {
     private final Digit<T, M> prefix;
@@ -16,6 +13,7 @@ class Deep<T, M> extends FingerTree<T, M> {
     private final Digit<T, M> suffix;
     private final Measure<M, T> measure;
     private final M measured;
+    private final int count;
 
     Deep(Digit<T, M> prefix, FingerTree<Node<T, M>, M> middle, Digit<T, M> suffix, Measure<M, T> measure) {
         assert prefix.size() > 0;
@@ -28,6 +26,7 @@ class Deep<T, M> extends FingerTree<T, M> {
         tmp = measure.combine(tmp, middle.measured());
         tmp = measure.combine(tmp, suffix.measured());
         this.measured = tmp;
+        this.count = prefix.count() + middle.count() + suffix.count();
     }
 
     @Override
@@ -67,6 +66,62 @@ class Deep<T, M> extends FingerTree<T, M> {
         return measured;
     }
 
+    @Override
+    int count() {
+        return count;
+    }
+
+    @Override
+    Object lookup(int idx) {
+        int p = prefix.count();
+        if (idx < p) {
+            return prefix.lookup(idx);
+        }
+        int m = middle.count();
+        if (idx < p + m) {
+            return middle.lookup(idx - p);
+        }
+        return suffix.lookup(idx - p - m);
+    }
+
+    @Override
+    FingerTree<T, M> update(int idx, Object newValue) {
+        int p = prefix.count();
+        if (idx < p) {
+            return new Deep<>(prefix.update(idx, newValue), middle, suffix, measure);
+        }
+        int m = middle.count();
+        if (idx < p + m) {
+            return new Deep<>(prefix, middle.update(idx - p, newValue), suffix, measure);
+        }
+        return new Deep<>(prefix, middle, suffix.update(idx - p - m, newValue), measure);
+    }
+
+    Digit<T, M> prefix() {
+        return prefix;
+    }
+
+    FingerTree<Node<T, M>, M> middle() {
+        return middle;
+    }
+
+    Digit<T, M> suffix() {
+        return suffix;
+    }
+
+    @Override
+    <R> FingerTree<R, M> map(Function<Object, Object> f, Measure<M, R> newMeasure, int cutoff) {
+        MeasureNode<M, R> liftedMeasure = new MeasureNode<>(newMeasure);
+        if (middle.count() >= cutoff) {
+            ForkJoinTask<FingerTree<Node<R, M>, M>> middleTask = ForkJoinTask.adapt(() -> middle.map(f, liftedMeasure, cutoff)).fork();
+            Digit<R, M> newPrefix = prefix.map(f, newMeasure, cutoff);
+            Digit<R, M> newSuffix = suffix.map(f, newMeasure, cutoff);
+            return new Deep<>(newPrefix, middleTask.join(), newSuffix, newMeasure);
+        } else {
+            return new Deep<>(prefix.map(f, newMeasure, cutoff), middle.map(f, liftedMeasure, cutoff), suffix.map(f, newMeasure, cutoff), newMeasure);
+        }
+    }
+
     @Override
     Pair<FingerTree<T, M>, FingerTree<T, M>> split(Predicate<M> predicate) {
         if (predicate.test(measured())) {
@@ -96,61 +151,100 @@ class Deep<T, M> extends FingerTree<T, M> {
     }
 
     @Override
-    Optional<Pair<T, Supplier<FingerTree<T, M>>>> viewL() {
-        return Optional.of(Pair.make(prefix.peekLeft(), () -> deepL(prefix.popLeft(), middle, suffix, measure)));
+    Pair<FingerTree<T, M>, FingerTree<T, M>> split(int idx) {
+        if (idx < count) {
+            Split<FingerTree<T, M>, T> split = splitTree(idx);
+            return Pair.make(split.left, split.right.pushLeft(split.value));
+        } else {
+            return Pair.make(this, new Empty<>(measure));
+        }
     }
 
     @Override
-    Optional<Pair<T, Supplier<FingerTree<T, M>>>> viewR() {
-        return Optional.of(Pair.make(suffix.peekRight(), () -> deepR(prefix, middle, suffix.popRight(), measure)));
+    Split<FingerTree<T, M>, T> splitTree(int idx) {
+        int p = prefix.count();
+        if (idx < p) {
+            Split<Digit<T, M>, T> prefixSplit = splitDigit(prefix, idx);
+            return new Split<>(toTree(prefixSplit.left), prefixSplit.value, deepL(prefixSplit.right, middle, suffix, measure));
+        }
+        int m = middle.count();
+        if (idx < p + m) {
+            Split<FingerTree<Node<T, M>, M>, Node<T, M>> middleSplit = middle.splitTree(idx - p);
+            Split<Digit<T, M>, T> innerSplit = splitDigit(middleSplit.value, idx - p - middleSplit.left.count());
+            return new Split<>(deepR(prefix, middleSplit.left, innerSplit.left, measure), innerSplit.value, deepL(innerSplit.right, middleSplit.right, suffix, measure));
+        }
+        Split<Digit<T, M>, T> suffixSplit = splitDigit(suffix, idx - p - m);
+        return new Split<>(deepR(prefix, middle, suffixSplit.left, measure), suffixSplit.value, toTree(suffixSplit.right));
     }
 
     @Override
-    FingerTree<T, M> app3(LinkedList<T> ts, FingerTree<T, M> xs) {
+    T peekLeft() {
+        return prefix.peekLeft();
+    }
+
+    @Override
+    T peekRight() {
+        return suffix.peekRight();
+    }
+
+    @Override
+    FingerTree<T, M> popLeft() {
+        return deepL(prefix.popLeft(), middle, suffix, measure);
+    }
+
+    @Override
+    FingerTree<T, M> popRight() {
+        return deepR(prefix, middle, suffix.popRight(), measure);
+    }
+
+    @Override
+    FingerTree<T, M> app3(T[] ts, FingerTree<T, M> xs) {
         if (xs instanceof Empty) {
             return append(this, ts);
         } else if (xs instanceof Single) {
             return append(this, ts).pushRight(xs.peekRight());
         } else {
             Deep<T, M> deepXs = (Deep<T, M>) xs;
-            LinkedList<T> concat = concat(suffix, ts, deepXs.prefix);
-            return new Deep<>(prefix, middle.app3(nodes(concat, measure), deepXs.middle), deepXs.suffix, measure);
-
+            return new Deep<>(prefix, middle.app3(nodes(suffix, ts, deepXs.prefix, measure), deepXs.middle), deepXs.suffix, measure);
         }
     }
 
-    private static <T, M> LinkedList<T> concat(Digit<T, M> a, LinkedList<T> b, Digit<T, M> c) {
-        Iterator<T> it = a.reverseIterator();
-        while (it.hasNext()) {
-            b.addFirst(it.next());
-        }
-        for (T t : c) {
-            b.addLast(t);
-        }
-        return b;
-    }
+    /**
+     * Groups the values of a, b and c into nodes of two or three values. There are between 2 and 12
+     * values, so the result holds at most four nodes, which keeps the ts of the next level within bounds.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T, M> Node<T, M>[] nodes(Digit<T, M> a, T[] b, Digit<T, M> c, Measure<M, T> measure) {
+        int n = a.size() + b.length + c.size();
+        T[] ts = (T[]) new Object[n];
+        a.copyInto(ts, 0);
+        System.arraycopy(b, 0, ts, a.size(), b.length);
+        c.copyInto(ts, a.size() + b.length);
 
-    private static <T, M> LinkedList<Node<T, M>> nodes(LinkedList<T> ts, Measure<M, T> measure) {
-        LinkedList<Node<T, M>> res = new LinkedList<>();
-        if (ts.size() == 2) {
-            res.add(Node.makeTwo(measure, ts.removeFirst(), ts.removeFirst()));
-        } else if (ts.size() == 3) {
-            res.add(Node.makeThree(measure, ts.removeFirst(), ts.removeFirst(), ts.removeFirst()));
-        } else if (ts.size() == 4) {
-            res.add(Node.makeTwo(measure, ts.removeFirst(), ts.removeFirst()));
-            res.add(Node.makeTwo(measure, ts.removeFirst(), ts.removeFirst()));
+        Node<T, M>[] res = (Node<T, M>[]) new Node<?, ?>[(n + 2) / 3];
+        int i = 0;
+        int j = 0;
+        while (n - i > 4) {
+            res[j++] = Node.makeThree(measure, ts[i], ts[i + 1], ts[i + 2]);
+            i += 3;
+        }
+        if (n - i == 3) {
+            res[j] = Node.makeThree(measure, ts[i], ts[i + 1], ts[i + 2]);
         } else {
-            res.add(Node.makeThree(measure, ts.removeFirst(), ts.removeFirst(), ts.removeFirst()));
-            res.addAll(nodes(ts, measure));
+            res[j++] = Node.makeTwo(measure, ts[i], ts[i + 1]);
+            if (n - i == 4) {
+                res[j] = Node.makeTwo(measure, ts[i + 2], ts[i + 3]);
+            }
         }
         return res;
     }
 
     private static <T, M> FingerTree<T, M> deepL(Digit<T, M> prefix, FingerTree<Node<T, M>, M> middle, Digit<T, M> suffix, Measure<M, T> measure) {
         if (prefix.size() == 0) {
-            return middle.viewL()
-                    .map(pair -> (FingerTree<T, M>) new Deep<>(pair.first.toDigit(), pair.second.get(), suffix, measure))
-                    .orElseGet(() -> toTree(suffix));
+            if (middle instanceof Empty) {
+                return toTree(suffix);
+            }
+            return new Deep<>(middle.peekLeft().toDigit(), middle.popLeft(), suffix, measure);
         } else {
             return new Deep<>(prefix, middle, suffix, measure);
         }
@@ -158,9 +252,10 @@ class Deep<T, M> extends FingerTree<T, M> {
 
     private static <T, M> FingerTree<T, M> deepR(Digit<T, M> prefix, FingerTree<Node<T, M>, M> middle, Digit<T, M> suffix, Measure<M, T> measure) {
         if (suffix.size() == 0) {
-            return middle.viewR()
-                    .map(pair -> (FingerTree<T, M>) new Deep<>(prefix, pair.second.get(), pair.first.toDigit(), measure))
-                    .orElseGet(() -> toTree(prefix));
+            if (middle instanceof Empty) {
+                return toTree(prefix);
+            }
+            return new Deep<>(prefix, middle.popRight(), middle.peekRight().toDigit(), measure);
         } else {
             return new Deep<>(prefix, middle, suffix, measure);
         }
@@ -198,14 +293,23 @@ class Deep<T, M> extends FingerTree<T, M> {
         return new Split<>(left, match, right);
     }
 
-    @Override
-    public Iterator<T> iterator() {
-        ArrayList<Supplier<Iterator<T>>> its = new ArrayList<>();
-        its.add(() -> prefix.iterator());
-        for (Node<T, M> node : middle) {
-            its.add(() -> node.iterator());
+    private Split<Digit<T, M>, T> splitDigit(Iterable<T> digit, int idx) {
+        Digit<T, M> left = Digit.empty(measure);
+        Digit<T, M> right = Digit.empty(measure);
+        T match = null;
+        for (T t : digit) {
+            if (match != null) {
+                right = right.pushRight(t);
+            } else if (idx < measure.count(t)) {
+                match = t;
+            } else {
+                idx -= measure.count(t);
+                left = left.pushRight(t);
+            }
         }
-        its.add(() -> suffix.iterator());
-        return new ChainingIterator<>(its.iterator());
+        if (match == null) {
+            throw new IllegalStateException();
+        }
+        return new Split<>(left, match, right);
     }
 }
\ No newline at end of file
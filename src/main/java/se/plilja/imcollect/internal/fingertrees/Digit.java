@@ -4,22 +4,27 @@ import se.plilja.imcollect.internal.Pair;
 
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.function.Function;
 
 class Digit<T, M> implements Iterable<T> {
     static final int MAX_SIZE = 4;
     private final T[] values;
     final Measure<M, T> measure;
     private final M measured;
+    private final int count;
 
     @SafeVarargs
     private Digit(Measure<M, T> measure, T... values) {
         this.measure = measure;
         this.values = values;
         M tmp = measure.identity();
+        int n = 0;
         for (T value : values) {
             tmp = measure.combine(tmp, measure.measure(value));
+            n += measure.count(value);
         }
         this.measured = tmp;
+        this.count = n;
     }
 
     static <T, M> Digit<T, M> empty(Measure<M, T> measure) {
@@ -50,6 +55,44 @@ class Digit<T, M> implements Iterable<T> {
         return values.length;
     }
 
+    /**
+     * @return The number of values on the bottom level of the tree that this digit consists of.
+     */
+    int count() {
+        return count;
+    }
+
+    Object lookup(int idx) {
+        for (T value : values) {
+            int n = measure.count(value);
+            if (idx < n) {
+                return measure.lookup(value, idx);
+            }
+            idx -= n;
+        }
+        throw new IndexOutOfBoundsException();
+    }
+
+    Digit<T, M> update(int idx, Object newValue) {
+        for (int i = 0; i < values.length; i++) {
+            int n = measure.count(values[i]);
+            if (idx < n) {
+                return set(i, measure.update(values[i], idx, newValue));
+            }
+            idx -= n;
+        }
+        throw new IndexOutOfBoundsException();
+    }
+
+    <R> Digit<R, M> map(Function<Object, Object> f, Measure<M, R> newMeasure, int cutoff) {
+        @SuppressWarnings("unchecked")
+        R[] newValues = (R[]) new Object[values.length];
+        for (int i = 0; i < values.length; i++) {
+            newValues[i] = measure.map(values[i], f, newMeasure, cutoff);
+        }
+        return new Digit<>(newMeasure, newValues);
+    }
+
     Digit<T, M> pushRight(T t) {
         if (size() == MAX_SIZE) {
             throw new UnsupportedOperationException();
@@ -73,6 +116,10 @@ class Digit<T, M> implements Iterable<T> {
         }
     }
 
+    void copyInto(T[] dest, int offset) {
+        System.arraycopy(values, 0, dest, offset, values.length);
+    }
+
     int indexOf(T t) {
         for (int i = 0; i < values.length; i++) {
             if (values[i].equals(t)) {
@@ -156,20 +203,4 @@ class Digit<T, M> implements Iterable<T> {
             }
         };
     }
-
-    Iterator<T> reverseIterator() {
-        return new Iterator<>() {
-            int i = size() - 1;
-
-            @Override
-            public boolean hasNext() {
-                return i >= 0;
-            }
-
-            @Override
-            public T next() {
-                return values[i--];
-            }
-        };
-    }
 }
@@ -2,11 +2,9 @@ package se.plilja.imcollect.internal.fingertrees;
 
 import se.plilja.imcollect.internal.Pair;
 
-import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.Optional;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
 import java.util.function.Predicate;
-import java.util.function.Supplier;
 
 class Empty<T, M> extends FingerTree<T, M> {
     private final Measure<M, T> measure;
@@ -34,6 +32,36 @@ class Empty<T, M> extends FingerTree<T, M> {
         return measure.identity();
     }
 
+    @Override
+    int count() {
+        return 0;
+    }
+
+    @Override
+    Object lookup(int idx) {
+        throw new IndexOutOfBoundsException();
+    }
+
+    @Override
+    FingerTree<T, M> update(int idx, Object newValue) {
+        throw new IndexOutOfBoundsException();
+    }
+
+    @Override
+    Pair<FingerTree<T, M>, FingerTree<T, M>> split(int idx) {
+        return Pair.make(this, this);
+    }
+
+    @Override
+    Split<FingerTree<T, M>, T> splitTree(int idx) {
+        throw new IndexOutOfBoundsException("No values are present");
+    }
+
+    @Override
+    <R> FingerTree<R, M> map(Function<Object, Object> f, Measure<M, R> newMeasure, int cutoff) {
+        return new Empty<>(newMeasure);
+    }
+
     @Override
     Pair<FingerTree<T, M>, FingerTree<T, M>> split(Predicate<M> predicate) {
         return Pair.make(this, this);
@@ -45,22 +73,27 @@ class Empty<T, M> extends FingerTree<T, M> {
     }
 
     @Override
-    Optional<Pair<T, Supplier<FingerTree<T, M>>>> viewL() {
-        return Optional.empty();
+    T peekLeft() {
+        throw new NoSuchElementException();
     }
 
     @Override
-    Optional<Pair<T, Supplier<FingerTree<T, M>>>> viewR() {
-        return Optional.empty();
+    T peekRight() {
+        throw new NoSuchElementException();
     }
 
     @Override
-    FingerTree<T, M> app3(LinkedList<T> ts, FingerTree<T, M> xs) {
-        return prepend(ts, xs);
+    FingerTree<T, M> popLeft() {
+        throw new NoSuchElementException();
+    }
+
+    @Override
+    FingerTree<T, M> popRight() {
+        throw new NoSuchElementException();
     }
 
     @Override
-    public Iterator<T> iterator() {
-        return new VarArgsIterator<>();
+    FingerTree<T, M> app3(T[] ts, FingerTree<T, M> xs) {
+        return prepend(ts, xs);
     }
 }
\ No newline at end of file
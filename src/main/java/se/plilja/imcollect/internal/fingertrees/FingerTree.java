@@ -3,13 +3,11 @@ package se.plilja.imcollect.internal.fingertrees;
 import se.plilja.imcollect.internal.Pair;
 
 import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.NoSuchElementException;
-import java.util.Optional;
+import java.util.function.Function;
 import java.util.function.Predicate;
-import java.util.function.Supplier;
 
 abstract class FingerTree<T, M> implements Iterable<T> {
+    private static final Object[] NO_VALUES = new Object[0];
 
     public abstract FingerTree<T, M> pushRight(T value);
 
@@ -17,59 +15,83 @@ abstract class FingerTree<T, M> implements Iterable<T> {
 
     abstract M measured();
 
-    final T peekLeft() {
-        return viewL()
-                .map(view -> view.first)
-                .orElseThrow(() -> new NoSuchElementException());
-    }
+    /**
+     * @return The number of values on the bottom level of the tree. Positions are found through these counts with
+     * int arithmetic, independently of the measure.
+     */
+    abstract int count();
 
-    final T peekRight() {
-        return viewR()
-                .map(view -> view.first)
-                .orElseThrow(() -> new NoSuchElementException());
-    }
+    /**
+     * @return The value at position idx.
+     */
+    abstract Object lookup(int idx);
 
-    final FingerTree<T, M> popLeft() {
-        return viewL()
-                .map(view -> view.second.get())
-                .orElseThrow(() -> new NoSuchElementException());
-    }
+    /**
+     * @return A tree with the value at position idx replaced by newValue.
+     */
+    abstract FingerTree<T, M> update(int idx, Object newValue);
 
-    final FingerTree<T, M> popRight() {
-        return viewR()
-                .map(view -> view.second.get())
-                .orElseThrow(() -> new NoSuchElementException());
-    }
+    /**
+     * The ends of the tree are read and removed without allocating views, these run in amortized O(1).
+     * All four throw NoSuchElementException on an empty tree.
+     */
+    abstract T peekLeft();
+
+    abstract T peekRight();
+
+    abstract FingerTree<T, M> popLeft();
+
+    abstract FingerTree<T, M> popRight();
+
+    /**
+     * @return A tree of the same shape with every value on the bottom level replaced by f of it and measured
+     * by newMeasure. Runs in O(n), parts of the tree of at least cutoff values are mapped in parallel.
+     */
+    abstract <R> FingerTree<R, M> map(Function<Object, Object> f, Measure<M, R> newMeasure, int cutoff);
 
     abstract Pair<FingerTree<T, M>, FingerTree<T, M>> split(Predicate<M> predicate);
 
     abstract Split<FingerTree<T, M>, T> splitTree(Predicate<M> predicate, M i);
 
-    abstract Optional<Pair<T, Supplier<FingerTree<T, M>>>> viewL();
+    /**
+     * Splits the tree into the values before position idx and the values from position idx onwards.
+     */
+    abstract Pair<FingerTree<T, M>, FingerTree<T, M>> split(int idx);
 
-    abstract Optional<Pair<T, Supplier<FingerTree<T, M>>>> viewR();
+    /**
+     * Splits a non empty tree around the element that holds position idx.
+     */
+    abstract Split<FingerTree<T, M>, T> splitTree(int idx);
 
+    @SuppressWarnings("unchecked")
     final FingerTree<T, M> concat(FingerTree<T, M> other) {
-        LinkedList<T> empty = new LinkedList<>();
-        return app3(empty, other);
+        return app3((T[]) NO_VALUES, other);
     }
 
     /**
-     * Join this finger tree with a list of T:s (ts) and another finger tree (xs).
+     * Join this finger tree with at most four T:s (ts) and another finger tree (xs). Only the digits
+     * facing each other are touched on every level, so this allocates O(log(min(n, m))) objects.
      */
-    abstract FingerTree<T, M> app3(LinkedList<T> ts, FingerTree<T, M> xs);
+    abstract FingerTree<T, M> app3(T[] ts, FingerTree<T, M> xs);
+
+    @Override
+    public final Iterator<T> iterator() {
+        return new FingerTreeIterator<>(this, false);
+    }
+
+    final Iterator<T> reverseIterator() {
+        return new FingerTreeIterator<>(this, true);
+    }
 
-    static <T, M> FingerTree<T, M> prepend(LinkedList<T> toPrepend, FingerTree<T, M> tree) {
+    static <T, M> FingerTree<T, M> prepend(T[] toPrepend, FingerTree<T, M> tree) {
         FingerTree<T, M> res = tree;
-        Iterator<T> it = toPrepend.descendingIterator();
-        while (it.hasNext()) {
-            T t = it.next();
-            res = res.pushLeft(t);
+        for (int i = toPrepend.length - 1; i >= 0; i--) {
+            res = res.pushLeft(toPrepend[i]);
         }
         return res;
     }
 
-    static <T, M> FingerTree<T, M> append(FingerTree<T, M> tree, LinkedList<T> toAppend) {
+    static <T, M> FingerTree<T, M> append(FingerTree<T, M> tree, T[] toAppend) {
         FingerTree<T, M> res = tree;
         for (T t : toAppend) {
             res = res.pushRight(t);
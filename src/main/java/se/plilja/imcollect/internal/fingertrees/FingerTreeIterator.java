@@ -0,0 +1,154 @@
+package se.plilja.imcollect.internal.fingertrees;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A lazy iterator over a finger tree, in either direction. The parts of the tree not yet visited are
+ * kept on a stack, a deep tree is expanded into its digit elements and its middle tree only when
+ * it is reached, and a node into its children. Elements on deeper levels of the finger tree are nodes,
+ * each stack entry therefore also keeps the depth it was found at.
+ * <p>
+ * The stack holds at most a few entries per level of the tree, so the iterator uses O(log n) memory
+ * and creating it is O(1).
+ */
+final class FingerTreeIterator<T> implements Iterator<T> {
+    private static final int TREE = 1 << 30;
+
+    private final boolean reverse;
+    private Object[] items = new Object[16];
+    private int[] depths = new int[16]; // depth of the item, or'ed with TREE for sub trees
+    private int top;
+
+    FingerTreeIterator(FingerTree<T, ?> tree, boolean reverse) {
+        this.reverse = reverse;
+        push(tree, TREE);
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (top > 0 && depths[top - 1] != 0) {
+            expandTop();
+        }
+        return top > 0;
+    }
+
+    /**
+     * Compares the values of two trees in order. Both trees are walked side by side, and sub trees and
+     * nodes that the trees share at the same position are skipped without being visited, so comparing
+     * two versions of a tree only visits the parts where they differ.
+     */
+    static boolean sameValues(FingerTree<?, ?> a, FingerTree<?, ?> b) {
+        if (a.count() != b.count()) {
+            return false;
+        }
+        FingerTreeIterator<?> x = new FingerTreeIterator<>(a, false);
+        FingerTreeIterator<?> y = new FingerTreeIterator<>(b, false);
+        while (x.top > 0) {
+            Object itemX = x.items[x.top - 1];
+            Object itemY = y.items[y.top - 1];
+            int depthX = x.depths[x.top - 1];
+            int depthY = y.depths[y.top - 1];
+            if (itemX == itemY && depthX == depthY) {
+                x.pop();
+                y.pop();
+            } else if (depthX != 0 && (depthY == 0 || x.countOfTop() >= y.countOfTop())) {
+                x.expandTop();
+            } else if (depthY != 0) {
+                y.expandTop();
+            } else if (!itemX.equals(itemY)) {
+                return false;
+            } else {
+                x.pop();
+                y.pop();
+            }
+        }
+        return true;
+    }
+
+    private int countOfTop() {
+        Object item = items[top - 1];
+        int depth = depths[top - 1];
+        if ((depth & TREE) != 0) {
+            return ((FingerTree<?, ?>) item).count();
+        } else if (depth > 0) {
+            return ((Node<?, ?>) item).count();
+        } else {
+            return 1;
+        }
+    }
+
+    private void pop() {
+        items[--top] = null;
+    }
+
+    /**
+     * Replaces the sub tree or node on top of the stack with its parts.
+     */
+    private void expandTop() {
+        top--;
+        Object item = items[top];
+        int depth = depths[top];
+        items[top] = null;
+        if ((depth & TREE) != 0) {
+            expandTree((FingerTree<?, ?>) item, depth & ~TREE);
+        } else {
+            expandNode((Node<?, ?>) item, depth - 1);
+        }
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        top--;
+        @SuppressWarnings("unchecked")
+        T res = (T) items[top];
+        items[top] = null;
+        return res;
+    }
+
+    /**
+     * Pushes the parts of tree so that the part to be visited first ends up on top of the stack.
+     */
+    private void expandTree(FingerTree<?, ?> tree, int depth) {
+        if (tree instanceof Single) {
+            push(((Single<?, ?>) tree).value(), depth);
+        } else if (tree instanceof Deep) {
+            Deep<?, ?> deep = (Deep<?, ?>) tree;
+            Digit<?, ?> last = reverse ? deep.prefix() : deep.suffix();
+            Digit<?, ?> first = reverse ? deep.suffix() : deep.prefix();
+            pushDigit(last, depth);
+            if (!(deep.middle() instanceof Empty)) {
+                push(deep.middle(), (depth + 1) | TREE);
+            }
+            pushDigit(first, depth);
+        }
+    }
+
+    private void pushDigit(Digit<?, ?> digit, int depth) {
+        int n = digit.size();
+        for (int i = 0; i < n; i++) {
+            push(digit.get(reverse ? i : n - 1 - i), depth);
+        }
+    }
+
+    private void expandNode(Node<?, ?> node, int childDepth) {
+        int n = node.size();
+        for (int i = 0; i < n; i++) {
+            push(node.get(reverse ? i : n - 1 - i), childDepth);
+        }
+    }
+
+    private void push(Object item, int depth) {
+        if (top == items.length) {
+            items = Arrays.copyOf(items, 2 * top);
+            depths = Arrays.copyOf(depths, 2 * top);
+        }
+        items[top] = item;
+        depths[top] = depth;
+        top++;
+    }
+}
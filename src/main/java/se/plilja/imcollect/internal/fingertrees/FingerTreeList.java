@@ -1,45 +1,87 @@
 package se.plilja.imcollect.internal.fingertrees;
 
+import se.plilja.imcollect.Codec;
+import se.plilja.imcollect.ImmutableDeque;
 import se.plilja.imcollect.ImmutableList;
+import se.plilja.imcollect.internal.BinaryFormat;
+import se.plilja.imcollect.internal.CollectionEquality;
+import se.plilja.imcollect.internal.Pair;
+import se.plilja.imcollect.internal.Parallelism;
 
+import java.io.DataInput;
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
 import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.function.Function;
 
-public final class FingerTreeList<T> implements ImmutableList<T> {
-    private final FingerTree<T, Integer> fingerTree;
+public final class FingerTreeList<T> implements ImmutableList<T>, ImmutableDeque<T> {
+    private final FingerTree<T, Void> fingerTree;
+    private int hash; // 0 until computed
 
-    private FingerTreeList(FingerTree<T, Integer> fingerTree) {
+    private FingerTreeList(FingerTree<T, Void> fingerTree) {
         this.fingerTree = fingerTree;
     }
 
     public static <T> FingerTreeList<T> empty() {
-        return new FingerTreeList<>(new Empty<>(new CountingMeasure<>()));
+        return new FingerTreeList<>(new Empty<>(new NoMeasure<>()));
     }
 
-    private static class CountingMeasure<T> implements Measure<Integer, T> {
+    /**
+     * Reads a list written by writeTo with the same codec. The values are appended in amortized O(1) each,
+     * so this runs in O(n).
+     *
+     * @throws IOException If the input can't be read or holds a null value.
+     */
+    public static <T> FingerTreeList<T> readFrom(DataInput in, Codec<T> codec) throws IOException {
+        int size = BinaryFormat.readSize(in);
+        FingerTree<T, Void> tree = new Empty<>(new NoMeasure<>());
+        for (int i = 0; i < size; i++) {
+            T value = codec.read(in);
+            if (value == null) {
+                throw new IOException("Null value at index " + i);
+            }
+            tree = tree.pushRight(value);
+        }
+        return new FingerTreeList<>(tree);
+    }
+
+    /**
+     * Reads a list from channel, see {@link BinaryFormat} on reading from channels.
+     */
+    public static <T> FingerTreeList<T> readFrom(ReadableByteChannel channel, Codec<T> codec) throws IOException {
+        return readFrom(BinaryFormat.input(channel), codec);
+    }
+
+    /**
+     * Positions are found through the value counts that every part of the tree keeps in int fields,
+     * so the list has no use for a measure of its own.
+     */
+    private static class NoMeasure<T> implements Measure<Void, T> {
         @Override
-        public Integer identity() {
-            return 0;
+        public Void identity() {
+            return null;
         }
 
         @Override
-        public Integer combine(Integer a, Integer b) {
-            return a + b;
+        public Void combine(Void a, Void b) {
+            return null;
         }
 
         @Override
-        public Integer measure(T value) {
-            return 1;
+        public Void measure(T value) {
+            return null;
         }
     }
 
-
     @Override
     public T get(int idx) {
         if (idx < 0 || idx >= size()) {
             throw new IndexOutOfBoundsException();
         } else {
-            Split<FingerTree<T, Integer>, T> split = fingerTree.splitTree(j -> j >= idx + 1, 0);
-            return split.value;
+            @SuppressWarnings("unchecked")
+            T res = (T) fingerTree.lookup(idx);
+            return res;
         }
     }
 
@@ -47,9 +89,93 @@ public final class FingerTreeList<T> implements ImmutableList<T> {
     public FingerTreeList<T> set(int idx, T value) {
         if (idx < 0 || idx >= size()) {
             throw new IndexOutOfBoundsException();
+        } else if (value == null) {
+            throw new IllegalArgumentException("Null values are not supported");
+        } else {
+            return new FingerTreeList<>(fingerTree.update(idx, value));
+        }
+    }
+
+    @Override
+    public FingerTreeList<T> insert(int idx, T value) {
+        if (idx < 0 || idx > size()) {
+            throw new IndexOutOfBoundsException();
+        } else if (idx == 0) {
+            return prepend(value);
+        } else if (idx == size()) {
+            return add(value);
+        } else {
+            Pair<FingerTree<T, Void>, FingerTree<T, Void>> split = fingerTree.split(idx);
+            return new FingerTreeList<>(split.first.pushRight(value).concat(split.second));
+        }
+    }
+
+    @Override
+    public FingerTreeList<T> removeAt(int idx) {
+        if (idx < 0 || idx >= size()) {
+            throw new IndexOutOfBoundsException();
+        } else {
+            Split<FingerTree<T, Void>, T> split = fingerTree.splitTree(idx);
+            return new FingerTreeList<>(split.left.concat(split.right));
+        }
+    }
+
+    @Override
+    public FingerTreeList<T> prepend(T value) {
+        return new FingerTreeList<>(fingerTree.pushLeft(value));
+    }
+
+    @Override
+    public FingerTreeList<T> subList(int from, int to) {
+        if (from < 0 || to > size() || from > to) {
+            throw new IndexOutOfBoundsException();
         } else {
-            Split<FingerTree<T, Integer>, T> split = fingerTree.splitTree(j -> j >= idx + 1, 0);
-            return new FingerTreeList<>(split.left.pushRight(value).concat(split.right));
+            FingerTree<T, Void> head = to == size() ? fingerTree : fingerTree.split(to).first;
+            FingerTree<T, Void> res = from == 0 ? head : head.split(from).second;
+            return res == fingerTree ? this : new FingerTreeList<>(res);
+        }
+    }
+
+    @Override
+    public ImmutableList.Parts<T> splitAt(int idx) {
+        if (idx < 0 || idx > size()) {
+            throw new IndexOutOfBoundsException();
+        } else {
+            Pair<FingerTree<T, Void>, FingerTree<T, Void>> split = fingerTree.split(idx);
+            return new ImmutableList.Parts<>(new FingerTreeList<>(split.first), new FingerTreeList<>(split.second));
+        }
+    }
+
+    @Override
+    public <R> FingerTreeList<R> map(Function<? super T, ? extends R> f) {
+        return map(f, Parallelism.SEQUENTIAL_CUTOFF);
+    }
+
+    /**
+     * Maps the values in place of the shape of the tree, in O(n) and in parallel for large lists.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public <R> FingerTreeList<R> map(Function<? super T, ? extends R> f, int sequentialCutoff) {
+        int cutoff = Parallelism.checkCutoff(sequentialCutoff);
+        return new FingerTreeList<>(Parallelism.invoke(size(), cutoff, () -> fingerTree.map(value -> {
+            R newValue = f.apply((T) value);
+            if (newValue == null) {
+                throw new IllegalArgumentException("Null values are not supported");
+            }
+            return newValue;
+        }, new NoMeasure<>(), cutoff)));
+    }
+
+    /**
+     * Concatenation of two finger tree lists runs in O(log(min(n, m))), other lists are appended value by value.
+     */
+    @Override
+    public FingerTreeList<T> concat(ImmutableList<T> other) {
+        if (other instanceof FingerTreeList) {
+            return new FingerTreeList<>(fingerTree.concat(((FingerTreeList<T>) other).fingerTree));
+        } else {
+            return addAll(other);
         }
     }
 
@@ -67,16 +193,15 @@ public final class FingerTreeList<T> implements ImmutableList<T> {
 
     @Override
     public int lastIndexOf(T value) {
-        int res = -1;
-        int i = 0;
-        // TODO iterate in reverse instead
-        for (T t : fingerTree) {
-            if (t.equals(value)) {
-                res = i;
+        int i = size() - 1;
+        Iterator<T> it = fingerTree.reverseIterator();
+        while (it.hasNext()) {
+            if (it.next().equals(value)) {
+                return i;
             }
-            i++;
+            i--;
         }
-        return res;
+        return -1;
     }
 
     @Override
@@ -84,6 +209,36 @@ public final class FingerTreeList<T> implements ImmutableList<T> {
         return new FingerTreeList<>(fingerTree.pushRight(value));
     }
 
+    @Override
+    public FingerTreeList<T> addFirst(T value) {
+        return prepend(value);
+    }
+
+    @Override
+    public FingerTreeList<T> addLast(T value) {
+        return add(value);
+    }
+
+    @Override
+    public FingerTreeList<T> removeFirst() {
+        return new FingerTreeList<>(fingerTree.popLeft());
+    }
+
+    @Override
+    public FingerTreeList<T> removeLast() {
+        return new FingerTreeList<>(fingerTree.popRight());
+    }
+
+    @Override
+    public T peekFirst() {
+        return isEmpty() ? null : fingerTree.peekLeft();
+    }
+
+    @Override
+    public T peekLast() {
+        return isEmpty() ? null : fingerTree.peekRight();
+    }
+
     @Override
     public FingerTreeList<T> addAll(Iterable<? extends T> values) {
         return (FingerTreeList<T>) ImmutableList.super.addAll(values);
@@ -95,14 +250,32 @@ public final class FingerTreeList<T> implements ImmutableList<T> {
         if (idx == -1) {
             return this;
         } else {
-            Split<FingerTree<T, Integer>, T> split = fingerTree.splitTree(j -> j >= idx + 1, 0);
-            return new FingerTreeList<>(split.left.concat(split.right));
+            return removeAt(idx);
         }
     }
 
     @Override
     public int size() {
-        return fingerTree.measured();
+        return fingerTree.count();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o instanceof FingerTreeList) {
+            return FingerTreeIterator.sameValues(fingerTree, ((FingerTreeList<?>) o).fingerTree);
+        } else {
+            return CollectionEquality.listEquals(this, o);
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        int h = hash;
+        if (h == 0) {
+            h = CollectionEquality.listHashCode(this);
+            hash = h;
+        }
+        return h;
     }
 
     @Override
@@ -110,8 +283,23 @@ public final class FingerTreeList<T> implements ImmutableList<T> {
         return fingerTree.iterator();
     }
 
+    @Override
+    public Iterator<T> reverseIterator() {
+        return fingerTree.reverseIterator();
+    }
+
+    @Override
+    public Spliterator<T> spliterator() {
+        return new FingerTreeSpliterator<>(fingerTree);
+    }
+
     @Override
     public FingerTreeList<T> removeAll(Iterable<? extends T> values) {
         return (FingerTreeList<T>) ImmutableList.super.removeAll(values);
     }
+
+    @Override
+    public FingerTreeList<T> retainAll(Iterable<? extends T> values) {
+        return (FingerTreeList<T>) ImmutableList.super.retainAll(values);
+    }
 }
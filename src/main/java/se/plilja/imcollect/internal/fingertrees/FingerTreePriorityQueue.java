@@ -0,0 +1,154 @@
+package se.plilja.imcollect.internal.fingertrees;
+
+import se.plilja.imcollect.ImmutablePriorityQueue;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+
+/**
+ * A priority queue kept as a finger tree in insertion order, measured by the smallest value of every
+ * part of the tree. The smallest value of the queue is hence the measure of the whole tree, and it is
+ * removed by splitting the tree where the smallest value seen so far first reaches it.
+ */
+public final class FingerTreePriorityQueue<T> implements ImmutablePriorityQueue<T> {
+    private final FingerTree<T, T> fingerTree;
+    private final MinMeasure<T> measure;
+
+    private FingerTreePriorityQueue(FingerTree<T, T> fingerTree, MinMeasure<T> measure) {
+        this.fingerTree = fingerTree;
+        this.measure = measure;
+    }
+
+    public static <T> FingerTreePriorityQueue<T> empty(Comparator<T> comparator) {
+        if (comparator == null) {
+            throw new IllegalArgumentException();
+        }
+        MinMeasure<T> measure = new MinMeasure<>(comparator);
+        return new FingerTreePriorityQueue<>(new Empty<>(measure), measure);
+    }
+
+    /**
+     * The smallest of the measured values, the leftmost one if several are equal. The empty tree is
+     * measured as null.
+     */
+    private static class MinMeasure<T> implements Measure<T, T> {
+        private final Comparator<T> comparator;
+
+        private MinMeasure(Comparator<T> comparator) {
+            this.comparator = comparator;
+        }
+
+        @Override
+        public T identity() {
+            return null;
+        }
+
+        @Override
+        public T combine(T a, T b) {
+            if (a == null) {
+                return b;
+            } else if (b == null) {
+                return a;
+            } else {
+                return comparator.compare(a, b) <= 0 ? a : b;
+            }
+        }
+
+        @Override
+        public T measure(T value) {
+            return value;
+        }
+    }
+
+    @Override
+    public FingerTreePriorityQueue<T> add(T value) {
+        return withTree(fingerTree.pushRight(value));
+    }
+
+    @Override
+    public FingerTreePriorityQueue<T> addAll(Iterable<? extends T> values) {
+        return (FingerTreePriorityQueue<T>) ImmutablePriorityQueue.super.addAll(values);
+    }
+
+    @Override
+    public FingerTreePriorityQueue<T> remove(T value) {
+        int idx = 0;
+        for (T t : fingerTree) {
+            if (t.equals(value)) {
+                Split<FingerTree<T, T>, T> split = fingerTree.splitTree(idx);
+                return withTree(split.left.concat(split.right));
+            }
+            idx++;
+        }
+        return this;
+    }
+
+    @Override
+    public FingerTreePriorityQueue<T> removeAll(Iterable<? extends T> values) {
+        return (FingerTreePriorityQueue<T>) ImmutablePriorityQueue.super.removeAll(values);
+    }
+
+    @Override
+    public Comparator<T> comparator() {
+        return measure.comparator;
+    }
+
+    @Override
+    public T peekMin() {
+        return fingerTree.measured();
+    }
+
+    @Override
+    public FingerTreePriorityQueue<T> popMin() {
+        T min = fingerTree.measured();
+        if (min == null) {
+            throw new NoSuchElementException();
+        }
+        Split<FingerTree<T, T>, T> split = fingerTree.splitTree(m -> m != null && measure.comparator.compare(m, min) <= 0, measure.identity());
+        return withTree(split.left.concat(split.right));
+    }
+
+    /**
+     * Melding two queues ordered by the same comparator concatenates their trees in O(log(min(n, m))),
+     * other queues are added value by value.
+     */
+    @Override
+    public FingerTreePriorityQueue<T> meld(ImmutablePriorityQueue<T> other) {
+        if (other instanceof FingerTreePriorityQueue && ((FingerTreePriorityQueue<T>) other).measure.comparator == measure.comparator) {
+            return withTree(fingerTree.concat(((FingerTreePriorityQueue<T>) other).fingerTree));
+        } else {
+            return addAll(other);
+        }
+    }
+
+    @Override
+    public int size() {
+        return fingerTree.count();
+    }
+
+    @Override
+    public boolean contains(T value) {
+        for (T t : fingerTree) {
+            if (t.equals(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return fingerTree.iterator();
+    }
+
+    @Override
+    public Spliterator<T> spliterator() {
+        return new FingerTreeSpliterator<>(fingerTree);
+    }
+
+    private FingerTreePriorityQueue<T> withTree(FingerTree<T, T> newTree) {
+        return newTree == fingerTree ? this : new FingerTreePriorityQueue<>(newTree, measure);
+    }
+}
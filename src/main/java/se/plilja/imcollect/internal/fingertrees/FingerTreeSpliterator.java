@@ -0,0 +1,177 @@
+package se.plilja.imcollect.internal.fingertrees;
+
+import java.util.ArrayDeque;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * A spliterator over a finger tree. The remaining elements are kept as a
+ * sequence of pieces in order, where each piece is either a whole (sub) finger tree or a single
+ * element. Elements on deeper levels of the finger tree are nodes, a piece therefore also keeps the
+ * depth it was found at.
+ * <p>
+ * Splitting hands the first half of the pieces to the new spliterator. A lone piece is first broken up,
+ * a deep tree into its prefix, middle and suffix and a node into its two or three children.
+ */
+final class FingerTreeSpliterator<T> implements Spliterator<T> {
+    private final ArrayDeque<Piece> pieces;
+    private long remaining;
+
+    FingerTreeSpliterator(FingerTree<T, ?> tree) {
+        this(new ArrayDeque<>());
+        pieces.add(new Piece(tree, 0, true));
+        remaining = tree.count();
+    }
+
+    private FingerTreeSpliterator(ArrayDeque<Piece> pieces) {
+        this.pieces = pieces;
+        for (Piece piece : pieces) {
+            remaining += piece.size();
+        }
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+        Piece piece = pieces.pollFirst();
+        while (piece != null && (piece.isTree || piece.depth > 0)) {
+            ArrayDeque<Piece> expanded = new ArrayDeque<>();
+            piece.expandInto(expanded);
+            while (!expanded.isEmpty()) {
+                pieces.addFirst(expanded.pollLast());
+            }
+            piece = pieces.pollFirst();
+        }
+        if (piece == null) {
+            return false;
+        }
+        remaining--;
+        action.accept(cast(piece.value));
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super T> action) {
+        Piece piece;
+        while ((piece = pieces.pollFirst()) != null) {
+            if (piece.isTree) {
+                forEachInTree((FingerTree<?, ?>) piece.value, piece.depth, action);
+            } else {
+                forEachInElement(piece.value, piece.depth, action);
+            }
+        }
+        remaining = 0;
+    }
+
+    private void forEachInTree(FingerTree<?, ?> tree, int depth, Consumer<? super T> action) {
+        if (tree instanceof Single) {
+            forEachInElement(((Single<?, ?>) tree).value(), depth, action);
+        } else if (tree instanceof Deep) {
+            Deep<?, ?> deep = (Deep<?, ?>) tree;
+            forEachInDigit(deep.prefix(), depth, action);
+            forEachInTree(deep.middle(), depth + 1, action);
+            forEachInDigit(deep.suffix(), depth, action);
+        }
+    }
+
+    private void forEachInDigit(Digit<?, ?> digit, int depth, Consumer<? super T> action) {
+        for (int i = 0; i < digit.size(); i++) {
+            forEachInElement(digit.get(i), depth, action);
+        }
+    }
+
+    private void forEachInElement(Object element, int depth, Consumer<? super T> action) {
+        if (depth == 0) {
+            action.accept(cast(element));
+        } else {
+            Node<?, ?> node = (Node<?, ?>) element;
+            for (int i = 0; i < node.size(); i++) {
+                forEachInElement(node.get(i), depth - 1, action);
+            }
+        }
+    }
+
+    @Override
+    public Spliterator<T> trySplit() {
+        if (remaining <= 1) {
+            return null;
+        }
+        while (pieces.size() == 1) {
+            pieces.pollFirst().expandInto(pieces);
+        }
+        ArrayDeque<Piece> prefix = new ArrayDeque<>();
+        long prefixSize = 0;
+        while (pieces.size() > 1 && prefixSize + pieces.peekFirst().size() <= (remaining + 1) / 2) {
+            Piece piece = pieces.pollFirst();
+            prefix.add(piece);
+            prefixSize += piece.size();
+        }
+        if (prefix.isEmpty()) {
+            prefix.add(pieces.pollFirst());
+        }
+        FingerTreeSpliterator<T> res = new FingerTreeSpliterator<>(prefix);
+        remaining -= res.remaining;
+        return res;
+    }
+
+    @Override
+    public long estimateSize() {
+        return remaining;
+    }
+
+    @Override
+    public int characteristics() {
+        return Spliterator.ORDERED | Spliterator.SIZED | Spliterator.SUBSIZED | Spliterator.IMMUTABLE | Spliterator.NONNULL;
+    }
+
+    @SuppressWarnings("unchecked")
+    private T cast(Object element) {
+        return (T) element;
+    }
+
+    private static final class Piece {
+        private final Object value;
+        private final int depth;
+        private final boolean isTree;
+
+        private Piece(Object value, int depth, boolean isTree) {
+            this.value = value;
+            this.depth = depth;
+            this.isTree = isTree;
+        }
+
+        private int size() {
+            if (isTree) {
+                return ((FingerTree<?, ?>) value).count();
+            } else if (depth == 0) {
+                return 1;
+            } else {
+                return ((Node<?, ?>) value).count();
+            }
+        }
+
+        /**
+         * Adds the pieces that this piece consists of, in order, to the end of res.
+         */
+        private void expandInto(ArrayDeque<Piece> res) {
+            if (!isTree) {
+                Node<?, ?> node = (Node<?, ?>) value;
+                for (int i = 0; i < node.size(); i++) {
+                    res.add(new Piece(node.get(i), depth - 1, false));
+                }
+            } else if (value instanceof Single) {
+                res.add(new Piece(((Single<?, ?>) value).value(), depth, false));
+            } else if (value instanceof Deep) {
+                Deep<?, ?> deep = (Deep<?, ?>) value;
+                for (int i = 0; i < deep.prefix().size(); i++) {
+                    res.add(new Piece(deep.prefix().get(i), depth, false));
+                }
+                if (!(deep.middle() instanceof Empty)) {
+                    res.add(new Piece(deep.middle(), depth + 1, true));
+                }
+                for (int i = 0; i < deep.suffix().size(); i++) {
+                    res.add(new Piece(deep.suffix().get(i), depth, false));
+                }
+            }
+        }
+    }
+}
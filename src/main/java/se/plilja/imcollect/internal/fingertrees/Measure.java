@@ -1,5 +1,7 @@
 package se.plilja.imcollect.internal.fingertrees;
 
+import java.util.function.Function;
+
 /**
  * @param <M> The measure
  * @param <T> The type being measured
@@ -10,4 +12,35 @@ interface Measure<M, T> {
     M combine(M a, M b);
 
     M measure(T value);
+
+    /**
+     * @return The number of values that value consists of, which is 1 unless value is a node on a deeper level
+     * of the tree.
+     */
+    default int count(T value) {
+        return 1;
+    }
+
+    /**
+     * @return The value at idx within value.
+     */
+    default Object lookup(T value, int idx) {
+        return value;
+    }
+
+    /**
+     * @return value with the value at idx within it replaced by newValue.
+     */
+    @SuppressWarnings("unchecked")
+    default T update(T value, int idx, Object newValue) {
+        return (T) newValue;
+    }
+
+    /**
+     * @return value with every value within it replaced by f of it, nodes are rebuilt with newMeasure.
+     */
+    @SuppressWarnings("unchecked")
+    default <R> R map(T value, Function<Object, Object> f, Measure<M, R> newMeasure, int cutoff) {
+        return (R) f.apply(value);
+    }
 }
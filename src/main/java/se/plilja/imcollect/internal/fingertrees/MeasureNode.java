@@ -1,5 +1,7 @@
 package se.plilja.imcollect.internal.fingertrees;
 
+import java.util.function.Function;
+
 class MeasureNode<M, T> implements Measure<M, Node<T, M>> {
     private final Measure<M, T> wrapped;
 
@@ -21,4 +23,25 @@ class MeasureNode<M, T> implements Measure<M, Node<T, M>> {
     public M measure(Node<T, M> value) {
         return value.measured();
     }
+
+    @Override
+    public int count(Node<T, M> value) {
+        return value.count();
+    }
+
+    @Override
+    public Object lookup(Node<T, M> value, int idx) {
+        return value.lookup(idx);
+    }
+
+    @Override
+    public Node<T, M> update(Node<T, M> value, int idx, Object newValue) {
+        return value.update(idx, newValue);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <R> R map(Node<T, M> value, Function<Object, Object> f, Measure<M, R> newMeasure, int cutoff) {
+        return (R) value.map(f, ((MeasureNode<M, Object>) newMeasure).wrapped, cutoff);
+    }
 }
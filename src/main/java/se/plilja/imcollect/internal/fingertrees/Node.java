@@ -2,6 +2,8 @@ package se.plilja.imcollect.internal.fingertrees;
 
 
 import java.util.Iterator;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Function;
 
 interface Node<T, M> extends Iterable<T> {
 
@@ -15,19 +17,40 @@ interface Node<T, M> extends Iterable<T> {
 
     M measured();
 
+    /**
+     * @return The number of values on the bottom level of the tree that this node consists of.
+     */
+    int count();
+
+    Object lookup(int idx);
+
+    Node<T, M> update(int idx, Object newValue);
+
+    /**
+     * @return A node of the same shape with every value on the bottom level replaced by f of it. The
+     * children of nodes of at least cutoff values are mapped in parallel.
+     */
+    <R> Node<R, M> map(Function<Object, Object> f, Measure<M, R> newMeasure, int cutoff);
+
     Digit<T, M> toDigit();
 
+    int size();
+
+    T get(int idx);
+
     class Node2<T, M> implements Node<T, M> {
         private final Measure<M, T> measure;
         private final T a;
         private final T b;
         private final M measured;
+        private final int count;
 
         Node2(Measure<M, T> measure, T a, T b) {
             this.measure = measure;
             this.a = a;
             this.b = b;
             measured = measure.combine(measure.measure(a), measure.measure(b));
+            count = measure.count(a) + measure.count(b);
         }
 
         @Override
@@ -35,11 +58,53 @@ interface Node<T, M> extends Iterable<T> {
             return measured;
         }
 
+        @Override
+        public int count() {
+            return count;
+        }
+
+        @Override
+        public Object lookup(int idx) {
+            int n = measure.count(a);
+            return idx < n ? measure.lookup(a, idx) : measure.lookup(b, idx - n);
+        }
+
+        @Override
+        public Node<T, M> update(int idx, Object newValue) {
+            int n = measure.count(a);
+            if (idx < n) {
+                return new Node2<>(measure, measure.update(a, idx, newValue), b);
+            } else {
+                return new Node2<>(measure, a, measure.update(b, idx - n, newValue));
+            }
+        }
+
+        @Override
+        public <R> Node<R, M> map(Function<Object, Object> f, Measure<M, R> newMeasure, int cutoff) {
+            if (count >= cutoff) {
+                ForkJoinTask<R> aTask = ForkJoinTask.adapt(() -> measure.map(a, f, newMeasure, cutoff)).fork();
+                R newB = measure.map(b, f, newMeasure, cutoff);
+                return new Node2<>(newMeasure, aTask.join(), newB);
+            } else {
+                return new Node2<>(newMeasure, measure.map(a, f, newMeasure, cutoff), measure.map(b, f, newMeasure, cutoff));
+            }
+        }
+
         @Override
         public Digit<T, M> toDigit() {
             return Digit.two(measure, a, b);
         }
 
+        @Override
+        public int size() {
+            return 2;
+        }
+
+        @Override
+        public T get(int idx) {
+            return idx == 0 ? a : b;
+        }
+
         @Override
         public Iterator<T> iterator() {
             return new VarArgsIterator<>(a, b);
@@ -52,6 +117,7 @@ interface Node<T, M> extends Iterable<T> {
         private final T b;
         private final T c;
         private final M measured;
+        private final int count;
 
         Node3(Measure<M, T> measure, T a, T b, T c) {
             this.measure = measure;
@@ -59,6 +125,7 @@ interface Node<T, M> extends Iterable<T> {
             this.b = b;
             this.c = c;
             measured = measure.combine(measure.combine(measure.measure(a), measure.measure(b)), measure.measure(c));
+            count = measure.count(a) + measure.count(b) + measure.count(c);
         }
 
         @Override
@@ -66,11 +133,61 @@ interface Node<T, M> extends Iterable<T> {
             return measured;
         }
 
+        @Override
+        public int count() {
+            return count;
+        }
+
+        @Override
+        public Object lookup(int idx) {
+            int na = measure.count(a);
+            if (idx < na) {
+                return measure.lookup(a, idx);
+            }
+            int nb = measure.count(b);
+            return idx < na + nb ? measure.lookup(b, idx - na) : measure.lookup(c, idx - na - nb);
+        }
+
+        @Override
+        public Node<T, M> update(int idx, Object newValue) {
+            int na = measure.count(a);
+            int nb = measure.count(b);
+            if (idx < na) {
+                return new Node3<>(measure, measure.update(a, idx, newValue), b, c);
+            } else if (idx < na + nb) {
+                return new Node3<>(measure, a, measure.update(b, idx - na, newValue), c);
+            } else {
+                return new Node3<>(measure, a, b, measure.update(c, idx - na - nb, newValue));
+            }
+        }
+
+        @Override
+        public <R> Node<R, M> map(Function<Object, Object> f, Measure<M, R> newMeasure, int cutoff) {
+            if (count >= cutoff) {
+                ForkJoinTask<R> aTask = ForkJoinTask.adapt(() -> measure.map(a, f, newMeasure, cutoff)).fork();
+                ForkJoinTask<R> bTask = ForkJoinTask.adapt(() -> measure.map(b, f, newMeasure, cutoff)).fork();
+                R newC = measure.map(c, f, newMeasure, cutoff);
+                return new Node3<>(newMeasure, aTask.join(), bTask.join(), newC);
+            } else {
+                return new Node3<>(newMeasure, measure.map(a, f, newMeasure, cutoff), measure.map(b, f, newMeasure, cutoff), measure.map(c, f, newMeasure, cutoff));
+            }
+        }
+
         @Override
         public Digit<T, M> toDigit() {
             return Digit.three(measure, a, b, c);
         }
 
+        @Override
+        public int size() {
+            return 3;
+        }
+
+        @Override
+        public T get(int idx) {
+            return idx == 0 ? a : idx == 1 ? b : c;
+        }
+
         @Override
         public Iterator<T> iterator() {
             return new VarArgsIterator<>(a, b, c);
@@ -2,26 +2,25 @@ package se.plilja.imcollect.internal.fingertrees;
 
 import se.plilja.imcollect.internal.Pair;
 
-import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.Optional;
+import java.util.function.Function;
 import java.util.function.Predicate;
-import java.util.function.Supplier;
 
 class Single<T, M> extends FingerTree<T, M> {
     private final T value;
     private final Measure<M, T> measure;
     private final M measured;
+    private final int count;
 
     Single(T value, Measure<M, T> measure) {
         this.value = value;
         this.measure = measure;
         this.measured = measure.measure(value);
+        this.count = measure.count(value);
     }
 
     @Override
     public FingerTree<T, M> pushRight(T newValue) {
-        if (value == null) {
+        if (newValue == null) {
             throw new IllegalArgumentException();
         } else {
             return singleToDeep(value, newValue);
@@ -30,7 +29,7 @@ class Single<T, M> extends FingerTree<T, M> {
 
     @Override
     FingerTree<T, M> pushLeft(T newValue) {
-        if (value == null) {
+        if (newValue == null) {
             throw new IllegalArgumentException();
         } else {
             return singleToDeep(newValue, value);
@@ -51,6 +50,44 @@ class Single<T, M> extends FingerTree<T, M> {
         return measured;
     }
 
+    T value() {
+        return value;
+    }
+
+    @Override
+    int count() {
+        return count;
+    }
+
+    @Override
+    Object lookup(int idx) {
+        return measure.lookup(value, idx);
+    }
+
+    @Override
+    FingerTree<T, M> update(int idx, Object newValue) {
+        return new Single<>(measure.update(value, idx, newValue), measure);
+    }
+
+    @Override
+    Pair<FingerTree<T, M>, FingerTree<T, M>> split(int idx) {
+        if (idx < count) {
+            return Pair.make(new Empty<>(measure), this);
+        } else {
+            return Pair.make(this, new Empty<>(measure));
+        }
+    }
+
+    @Override
+    Split<FingerTree<T, M>, T> splitTree(int idx) {
+        return new Split<>(new Empty<>(measure), value, new Empty<>(measure));
+    }
+
+    @Override
+    <R> FingerTree<R, M> map(Function<Object, Object> f, Measure<M, R> newMeasure, int cutoff) {
+        return new Single<>(measure.map(value, f, newMeasure, cutoff), newMeasure);
+    }
+
     @Override
     Pair<FingerTree<T, M>, FingerTree<T, M>> split(Predicate<M> predicate) {
         if (predicate.test(measured)) {
@@ -66,22 +103,27 @@ class Single<T, M> extends FingerTree<T, M> {
     }
 
     @Override
-    Optional<Pair<T, Supplier<FingerTree<T, M>>>> viewL() {
-        return Optional.of(Pair.make(value, () -> new Empty<>(measure)));
+    T peekLeft() {
+        return value;
     }
 
     @Override
-    Optional<Pair<T, Supplier<FingerTree<T, M>>>> viewR() {
-        return Optional.of(Pair.make(value, () -> new Empty<>(measure)));
+    T peekRight() {
+        return value;
     }
 
     @Override
-    FingerTree<T, M> app3(LinkedList<T> ts, FingerTree<T, M> xs) {
-        return prepend(ts, xs).pushLeft(value);
+    FingerTree<T, M> popLeft() {
+        return new Empty<>(measure);
     }
 
     @Override
-    public Iterator<T> iterator() {
-        return new VarArgsIterator<>(value);
+    FingerTree<T, M> popRight() {
+        return new Empty<>(measure);
+    }
+
+    @Override
+    FingerTree<T, M> app3(T[] ts, FingerTree<T, M> xs) {
+        return prepend(ts, xs).pushLeft(value);
     }
 }
@@ -0,0 +1,130 @@
+package se.plilja.imcollect.internal.mapped;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads from a buffer with absolute gets starting at a position, so the position of the buffer itself is
+ * never changed and the buffer may be read through several inputs from several threads at once.
+ */
+final class BufferInput implements DataInput {
+    private final ByteBuffer buffer;
+    private int position;
+
+    BufferInput(ByteBuffer buffer, int position) {
+        this.buffer = buffer;
+        this.position = position;
+    }
+
+    int position() {
+        return position;
+    }
+
+    private int advance(int n) throws EOFException {
+        if (n > buffer.limit() - position) {
+            throw new EOFException();
+        }
+        int res = position;
+        position += n;
+        return res;
+    }
+
+    @Override
+    public void readFully(byte[] b) throws IOException {
+        readFully(b, 0, b.length);
+    }
+
+    @Override
+    public void readFully(byte[] b, int off, int len) throws IOException {
+        int from = advance(len);
+        for (int i = 0; i < len; i++) {
+            b[off + i] = buffer.get(from + i);
+        }
+    }
+
+    @Override
+    public int skipBytes(int n) {
+        int skipped = Math.max(0, Math.min(n, buffer.limit() - position));
+        position += skipped;
+        return skipped;
+    }
+
+    @Override
+    public boolean readBoolean() throws IOException {
+        return readByte() != 0;
+    }
+
+    @Override
+    public byte readByte() throws IOException {
+        return buffer.get(advance(1));
+    }
+
+    @Override
+    public int readUnsignedByte() throws IOException {
+        return readByte() & 0xff;
+    }
+
+    @Override
+    public short readShort() throws IOException {
+        return buffer.getShort(advance(2));
+    }
+
+    @Override
+    public int readUnsignedShort() throws IOException {
+        return readShort() & 0xffff;
+    }
+
+    @Override
+    public char readChar() throws IOException {
+        return buffer.getChar(advance(2));
+    }
+
+    @Override
+    public int readInt() throws IOException {
+        return buffer.getInt(advance(4));
+    }
+
+    @Override
+    public long readLong() throws IOException {
+        return buffer.getLong(advance(8));
+    }
+
+    @Override
+    public float readFloat() throws IOException {
+        return buffer.getFloat(advance(4));
+    }
+
+    @Override
+    public double readDouble() throws IOException {
+        return buffer.getDouble(advance(8));
+    }
+
+    @Override
+    public String readLine() throws IOException {
+        if (position >= buffer.limit()) {
+            return null;
+        }
+        StringBuilder res = new StringBuilder();
+        while (position < buffer.limit()) {
+            char c = (char) readUnsignedByte();
+            if (c == '\n') {
+                break;
+            } else if (c == '\r') {
+                if (position < buffer.limit() && buffer.get(position) == '\n') {
+                    position++;
+                }
+                break;
+            }
+            res.append(c);
+        }
+        return res.toString();
+    }
+
+    @Override
+    public String readUTF() throws IOException {
+        return DataInputStream.readUTF(this);
+    }
+}
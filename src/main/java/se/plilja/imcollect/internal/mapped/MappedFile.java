@@ -0,0 +1,252 @@
+package se.plilja.imcollect.internal.mapped;
+
+import se.plilja.imcollect.Codec;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.BiFunction;
+
+/**
+ * The sorted entries of a file written by {@link MappedSortedMap#write}, read straight from the mapped file.
+ * <p>
+ * The file starts with a header of the magic number, the number of entries and the number of entries per
+ * block. The entries follow in ascending order of key, each entry is its key followed by the length of its
+ * value in bytes and the value. The file ends with the index, the offset of the first entry of every block.
+ * Keys are found by a binary search over the first keys of the blocks and then a scan through one block,
+ * values are only decoded for the entries that are asked for.
+ */
+final class MappedFile<K, V> {
+    static final int MAGIC = 0x494d4d31;
+    static final int HEADER_SIZE = 12;
+
+    private final ByteBuffer buffer;
+    private final int size;
+    private final int blockSize;
+    private final int blockCount;
+    private final int indexOffset;
+    private final Comparator<K> comparator;
+    private final Codec<K> keyCodec;
+    private final Codec<V> valueCodec;
+
+    private MappedFile(ByteBuffer buffer, Comparator<K> comparator, Codec<K> keyCodec, Codec<V> valueCodec) throws IOException {
+        this.buffer = buffer;
+        this.comparator = comparator;
+        this.keyCodec = keyCodec;
+        this.valueCodec = valueCodec;
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a mapped map file");
+        }
+        size = buffer.getInt(4);
+        blockSize = buffer.getInt(8);
+        if (size < 0 || blockSize <= 0) {
+            throw new IOException(String.format("Corrupt header, size %d and block size %d", size, blockSize));
+        }
+        blockCount = size == 0 ? 0 : (size - 1) / blockSize + 1;
+        long index = (long) buffer.limit() - 8L * blockCount;
+        if (index < HEADER_SIZE) {
+            throw new IOException("The file is too short for its index");
+        }
+        indexOffset = (int) index;
+    }
+
+    /**
+     * Maps the whole file read only. The mapping stays valid after the channel is closed.
+     *
+     * @throws IOException If the file can't be read, is larger than 2 GB or isn't a mapped map file.
+     */
+    static <K, V> MappedFile<K, V> open(Path file, Comparator<K> comparator, Codec<K> keyCodec, Codec<V> valueCodec) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("Files larger than 2 GB are not supported, got " + length + " bytes");
+            }
+            return new MappedFile<>(channel.map(FileChannel.MapMode.READ_ONLY, 0, length), comparator, keyCodec, valueCodec);
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    Comparator<K> comparator() {
+        return comparator;
+    }
+
+    /**
+     * @return The index of the first entry with a key greater than or equal to key, or strictly greater
+     * than key if strict. size() if there is no such entry.
+     */
+    int bound(K key, boolean strict) {
+        return seek(key, strict).index;
+    }
+
+    /**
+     * @return The value of key if key is present with index in [from, to), otherwise null.
+     */
+    V find(K key, int from, int to) {
+        Cursor cursor = seek(key, false);
+        if (cursor.index >= from && cursor.index < to && comparator.compare(cursor.key, key) == 0) {
+            return cursor.value();
+        } else {
+            return null;
+        }
+    }
+
+    private Cursor seek(K key, boolean strict) {
+        int lo = 0;
+        int hi = blockCount - 1;
+        int block = -1; // the last block whose first key is before the bound
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (isBefore(new Cursor(mid * blockSize, blockOffset(mid)).key, key, strict)) {
+                block = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        if (block == -1) {
+            return new Cursor(0, HEADER_SIZE);
+        }
+        Cursor cursor = new Cursor(block * blockSize, blockOffset(block));
+        while (cursor.index < size && isBefore(cursor.key, key, strict)) {
+            cursor.next();
+        }
+        return cursor;
+    }
+
+    private boolean isBefore(K entryKey, K key, boolean strict) {
+        int cmp = comparator.compare(entryKey, key);
+        return strict ? cmp <= 0 : cmp < 0;
+    }
+
+    K keyAt(int idx) {
+        return cursor(idx).key;
+    }
+
+    V valueAt(int idx) {
+        return cursor(idx).value();
+    }
+
+    private Cursor cursor(int idx) {
+        if (idx < 0 || idx >= size) {
+            throw new IndexOutOfBoundsException();
+        }
+        int block = idx / blockSize;
+        Cursor cursor = new Cursor(block * blockSize, blockOffset(block));
+        while (cursor.index < idx) {
+            cursor.next();
+        }
+        return cursor;
+    }
+
+    private int blockOffset(int block) {
+        return (int) buffer.getLong(indexOffset + 8 * block);
+    }
+
+    /**
+     * Iterates the entries with index in [from, to). Values are decoded only if withValues is set, otherwise
+     * mapper gets null values. Descending iteration decodes one block at a time and returns it backwards.
+     */
+    <T> Iterator<T> iterator(int from, int to, boolean descending, boolean withValues, BiFunction<? super K, ? super V, ? extends T> mapper) {
+        if (!descending) {
+            return new Iterator<>() {
+                private final Cursor cursor = from < to ? cursor(from) : null;
+
+                @Override
+                public boolean hasNext() {
+                    return cursor != null && cursor.index < to;
+                }
+
+                @Override
+                public T next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    T res = mapper.apply(cursor.key, withValues ? cursor.value() : null);
+                    cursor.next();
+                    return res;
+                }
+            };
+        }
+        return new Iterator<>() {
+            private final ArrayList<T> block = new ArrayList<>();
+            private int blockStart = to;
+
+            @Override
+            public boolean hasNext() {
+                return !block.isEmpty() || blockStart > from;
+            }
+
+            @Override
+            public T next() {
+                if (block.isEmpty()) {
+                    if (blockStart <= from) {
+                        throw new NoSuchElementException();
+                    }
+                    int end = blockStart;
+                    blockStart = Math.max(from, (end - 1) / blockSize * blockSize);
+                    Cursor cursor = cursor(blockStart);
+                    while (cursor.index < end) {
+                        block.add(mapper.apply(cursor.key, withValues ? cursor.value() : null));
+                        cursor.next();
+                    }
+                }
+                return block.remove(block.size() - 1);
+            }
+        };
+    }
+
+    /**
+     * The entry at index, with its key decoded. Corrupt entries are reported as UncheckedIOException since
+     * the map interfaces don't declare IOException.
+     */
+    private final class Cursor {
+        private int index;
+        private int position;
+        private K key;
+        private int valuePosition;
+        private int valueLength;
+
+        private Cursor(int index, int position) {
+            this.index = index;
+            this.position = position;
+            decode();
+        }
+
+        private void next() {
+            index++;
+            position = valuePosition + valueLength;
+            decode();
+        }
+
+        private void decode() {
+            if (index < size) {
+                try {
+                    BufferInput in = new BufferInput(buffer, position);
+                    key = keyCodec.read(in);
+                    valueLength = in.readInt();
+                    valuePosition = in.position();
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            }
+        }
+
+        private V value() {
+            try {
+                return valueCodec.read(new BufferInput(buffer.duplicate().limit(valuePosition + valueLength), valuePosition));
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,340 @@
+package se.plilja.imcollect.internal.mapped;
+
+import se.plilja.imcollect.Codec;
+import se.plilja.imcollect.ImmutableSortedMap;
+import se.plilja.imcollect.internal.CollectionEquality;
+import se.plilja.imcollect.internal.WeightBalancedTreeMap;
+import se.plilja.imcollect.internal.WeightBalancedTreeSet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.function.BiFunction;
+
+/**
+ * A sorted map read straight from a memory mapped file, written by {@link #write}. Opening the map only
+ * reads the header of the file, lookups and iteration decode the entries from the mapped file as they
+ * are needed. Keys are found in O(log(n / b) + b) key decodes with b entries per block.
+ * <p>
+ * The file is never changed. Puts and removes are kept in a {@link WeightBalancedTreeMap} of changed
+ * entries and a {@link WeightBalancedTreeSet} of removed keys on top of the file, so the heap only holds
+ * the modifications. Sub maps of the file are index ranges of it.
+ */
+public final class MappedSortedMap<K, V> implements ImmutableSortedMap<K, V> {
+    public static final int DEFAULT_BLOCK_SIZE = 64;
+
+    private final MappedFile<K, V> file;
+    private final int from; // the entries of the file with index in [from, to) are in the map unless removed
+    private final int to;
+    private final WeightBalancedTreeMap<K, V> changes;
+    private final WeightBalancedTreeSet<K> removed;
+    private final int size;
+
+    private MappedSortedMap(MappedFile<K, V> file, int from, int to, WeightBalancedTreeMap<K, V> changes, WeightBalancedTreeSet<K> removed, int size) {
+        this.file = file;
+        this.from = from;
+        this.to = to;
+        this.changes = changes;
+        this.removed = removed;
+        this.size = size;
+    }
+
+    /**
+     * Opens a file written by {@link #write} with the same codecs and a comparator that orders keys the
+     * same way as the map that was written.
+     */
+    public static <K, V> MappedSortedMap<K, V> open(Path file, Comparator<K> comparator, Codec<K> keyCodec, Codec<V> valueCodec) throws IOException {
+        MappedFile<K, V> mapped = MappedFile.open(file, comparator, keyCodec, valueCodec);
+        return new MappedSortedMap<>(mapped, 0, mapped.size(), new WeightBalancedTreeMap<>(comparator), new WeightBalancedTreeSet<>(comparator), mapped.size());
+    }
+
+    public static <K, V> void write(Path file, ImmutableSortedMap<K, V> map, Codec<? super K> keyCodec, Codec<? super V> valueCodec) throws IOException {
+        write(file, map, keyCodec, valueCodec, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Writes the entries of map to file in the layout described in {@link MappedFile}. Larger blocks give a
+     * smaller index and longer scans on lookup.
+     *
+     * @throws IOException If the file can't be written or would be larger than 2 GB.
+     */
+    public static <K, V> void write(Path file, ImmutableSortedMap<K, V> map, Codec<? super K> keyCodec, Codec<? super V> valueCodec, int blockSize) throws IOException {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("Block size must be positive, got " + blockSize);
+        }
+        ByteArrayOutputStream valueBytes = new ByteArrayOutputStream();
+        DataOutputStream valueOut = new DataOutputStream(valueBytes);
+        ArrayList<Integer> blockOffsets = new ArrayList<>();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16))) {
+            out.writeInt(MappedFile.MAGIC);
+            out.writeInt(map.size());
+            out.writeInt(blockSize);
+            Iterator<V> values = map.values().iterator();
+            int i = 0;
+            for (K key : map.keys()) {
+                if (i++ % blockSize == 0) {
+                    blockOffsets.add(out.size());
+                }
+                valueBytes.reset();
+                valueCodec.write(valueOut, values.next());
+                keyCodec.write(out, key);
+                out.writeInt(valueBytes.size());
+                valueBytes.writeTo(out);
+                if (out.size() == Integer.MAX_VALUE) {
+                    throw new IOException("Files larger than 2 GB are not supported");
+                }
+            }
+            for (int offset : blockOffsets) {
+                out.writeLong(offset);
+            }
+        }
+    }
+
+    @Override
+    public Optional<V> lookup(K key) {
+        if (key == null) {
+            return Optional.empty();
+        }
+        Optional<V> changed = changes.lookup(key);
+        if (changed.isPresent() || removed.contains(key)) {
+            return changed;
+        }
+        return Optional.ofNullable(file.find(key, from, to));
+    }
+
+    /**
+     * @return The index of key in the file if it is in [from, to), otherwise -1.
+     */
+    private int indexOf(K key) {
+        return indexOf(key, from, to);
+    }
+
+    private int indexOf(K key, int from, int to) {
+        int idx = Math.max(from, file.bound(key, false));
+        return idx < to && file.comparator().compare(file.keyAt(idx), key) == 0 ? idx : -1;
+    }
+
+    private int lowerBound(K key) {
+        return Math.max(from, Math.min(to, file.bound(key, false)));
+    }
+
+    private int upperBound(K key) {
+        return Math.max(from, Math.min(to, file.bound(key, true)));
+    }
+
+    @Override
+    public MappedSortedMap<K, V> put(K key, V value) {
+        if (key == null) {
+            throw new IllegalArgumentException("Null keys are not supported");
+        }
+        if (value == null) {
+            throw new IllegalArgumentException("Null values are not supported");
+        }
+        int newSize = contains(key) ? size : size + 1;
+        return new MappedSortedMap<>(file, from, to, changes.put(key, value), removed.remove(key), newSize);
+    }
+
+    @Override
+    public MappedSortedMap<K, V> remove(K key) {
+        if (key == null || !contains(key)) {
+            return this;
+        }
+        WeightBalancedTreeSet<K> newRemoved = indexOf(key) == -1 ? removed : removed.add(key);
+        return new MappedSortedMap<>(file, from, to, changes.remove(key), newRemoved, size - 1);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Comparator<K> comparator() {
+        return file.comparator();
+    }
+
+    @Override
+    public Iterable<K> keys() {
+        return () -> iterator(false, false, (key, value) -> key);
+    }
+
+    @Override
+    public Iterable<V> values() {
+        return () -> iterator(false, true, (key, value) -> value);
+    }
+
+    @Override
+    public Iterable<K> descendingKeys() {
+        return () -> iterator(true, false, (key, value) -> key);
+    }
+
+    @Override
+    public Iterable<V> descendingValues() {
+        return () -> iterator(true, true, (key, value) -> value);
+    }
+
+    private <T> Iterator<T> iterator(boolean descending, boolean withValues, BiFunction<? super K, ? super V, ? extends T> mapper) {
+        Iterator<Map.Entry<K, V>> fromFile = file.iterator(from, to, descending, withValues, AbstractMap.SimpleImmutableEntry::new);
+        Iterator<K> changedKeys = descending ? changes.descendingKeys().iterator() : changes.keys().iterator();
+        Iterator<V> changedValues = descending ? changes.descendingValues().iterator() : changes.values().iterator();
+        Comparator<K> order = descending ? comparator().reversed() : comparator();
+        return new Iterator<>() {
+            private Map.Entry<K, V> nextFromFile = nextFromFile();
+            private K nextChangedKey = changedKeys.hasNext() ? changedKeys.next() : null;
+
+            private Map.Entry<K, V> nextFromFile() {
+                while (fromFile.hasNext()) {
+                    Map.Entry<K, V> entry = fromFile.next();
+                    if (removed.isEmpty() || !removed.contains(entry.getKey())) {
+                        return entry;
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return nextFromFile != null || nextChangedKey != null;
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                int cmp = nextFromFile == null ? 1 : nextChangedKey == null ? -1 : order.compare(nextFromFile.getKey(), nextChangedKey);
+                T res;
+                if (cmp < 0) {
+                    res = mapper.apply(nextFromFile.getKey(), nextFromFile.getValue());
+                } else {
+                    res = mapper.apply(nextChangedKey, changedValues.next());
+                    nextChangedKey = changedKeys.hasNext() ? changedKeys.next() : null;
+                }
+                if (cmp <= 0) {
+                    nextFromFile = nextFromFile();
+                }
+                return res;
+            }
+        };
+    }
+
+    @Override
+    public Map.Entry<K, V> firstEntry() {
+        return closest(fileEntry(from, 1), changes.firstEntry(), false);
+    }
+
+    @Override
+    public Map.Entry<K, V> lastEntry() {
+        return closest(fileEntry(to - 1, -1), changes.lastEntry(), true);
+    }
+
+    @Override
+    public Map.Entry<K, V> floorEntry(K key) {
+        return closest(fileEntry(upperBound(key) - 1, -1), changes.floorEntry(key), true);
+    }
+
+    @Override
+    public Map.Entry<K, V> ceilingEntry(K key) {
+        return closest(fileEntry(lowerBound(key), 1), changes.ceilingEntry(key), false);
+    }
+
+    @Override
+    public Map.Entry<K, V> lowerEntry(K key) {
+        return closest(fileEntry(lowerBound(key) - 1, -1), changes.lowerEntry(key), true);
+    }
+
+    @Override
+    public Map.Entry<K, V> higherEntry(K key) {
+        return closest(fileEntry(upperBound(key), 1), changes.higherEntry(key), false);
+    }
+
+    /**
+     * @return The first entry of the file from idx, stepping by step, whose key isn't removed. Null if there
+     * is no such entry in [from, to).
+     */
+    private Map.Entry<K, V> fileEntry(int idx, int step) {
+        for (int i = idx; i >= from && i < to; i += step) {
+            K key = file.keyAt(i);
+            if (!removed.contains(key)) {
+                return new AbstractMap.SimpleImmutableEntry<>(key, file.valueAt(i));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The entry with the greater key if greatest, otherwise the entry with the smaller key. Changed
+     * entries win over the file for equal keys.
+     */
+    private Map.Entry<K, V> closest(Map.Entry<K, V> fromFile, Map.Entry<K, V> changed, boolean greatest) {
+        if (fromFile == null) {
+            return changed;
+        } else if (changed == null) {
+            return fromFile;
+        }
+        int cmp = comparator().compare(fromFile.getKey(), changed.getKey());
+        return cmp == 0 || (cmp < 0) == greatest ? changed : fromFile;
+    }
+
+    @Override
+    public MappedSortedMap<K, V> subMap(K from, boolean fromInclusive, K to, boolean toInclusive) {
+        if (from == null || to == null) {
+            throw new IllegalArgumentException("Null keys are not supported");
+        } else if (comparator().compare(from, to) > 0) {
+            throw new IllegalArgumentException("from is greater than to");
+        }
+        int newFrom = fromInclusive ? lowerBound(from) : upperBound(from);
+        int newTo = Math.max(newFrom, toInclusive ? upperBound(to) : lowerBound(to));
+        return range(newFrom, newTo, changes.subMap(from, fromInclusive, to, toInclusive), removed.subSet(from, fromInclusive, to, toInclusive));
+    }
+
+    @Override
+    public MappedSortedMap<K, V> headMap(K to, boolean inclusive) {
+        if (to == null) {
+            throw new IllegalArgumentException("Null keys are not supported");
+        }
+        return range(from, inclusive ? upperBound(to) : lowerBound(to), changes.headMap(to, inclusive), removed.headSet(to, inclusive));
+    }
+
+    @Override
+    public MappedSortedMap<K, V> tailMap(K from, boolean inclusive) {
+        if (from == null) {
+            throw new IllegalArgumentException("Null keys are not supported");
+        }
+        return range(inclusive ? lowerBound(from) : upperBound(from), to, changes.tailMap(from, inclusive), removed.tailSet(from, inclusive));
+    }
+
+    /**
+     * A sub map of the file in [newFrom, newTo) with the changes within the same range of keys. The size is
+     * counted by looking up the changed keys in the file.
+     */
+    private MappedSortedMap<K, V> range(int newFrom, int newTo, WeightBalancedTreeMap<K, V> newChanges, WeightBalancedTreeSet<K> newRemoved) {
+        int newSize = newTo - newFrom - newRemoved.size();
+        for (K key : newChanges.keys()) {
+            if (indexOf(key, newFrom, newTo) == -1) {
+                newSize++;
+            }
+        }
+        return new MappedSortedMap<>(file, newFrom, newTo, newChanges, newRemoved, newSize);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return CollectionEquality.mapEquals(this, o);
+    }
+
+    @Override
+    public int hashCode() {
+        return CollectionEquality.mapHashCode(this);
+    }
+}
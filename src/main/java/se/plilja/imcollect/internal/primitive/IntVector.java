@@ -0,0 +1,273 @@
+package se.plilja.imcollect.internal.primitive;
+
+import se.plilja.imcollect.ImmutableIntList;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A 32-way persistent vector of unboxed ints. Leaves are int arrays and internal nodes are arrays of
+ * children, the last (up to 32) elements are kept in a separate tail so that add is amortized constant
+ * time. Unlike {@link se.plilja.imcollect.internal.vector.RrbVector} all nodes are strict, i.e. all
+ * nodes except the rightmost ones are full.
+ */
+public final class IntVector implements ImmutableIntList {
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+    private static final IntVector EMPTY = new IntVector(0, BITS, new Object[0], new int[0]);
+
+    private final int size;
+    private final int shift;
+    private final Object[] root;
+    private final int[] tail;
+
+    private IntVector(int size, int shift, Object[] root, int[] tail) {
+        this.size = size;
+        this.shift = shift;
+        this.root = root;
+        this.tail = tail;
+    }
+
+    public static IntVector empty() {
+        return EMPTY;
+    }
+
+    private int tailOffset() {
+        return size - tail.length;
+    }
+
+    /**
+     * @return The array holding idx, either the tail or a leaf.
+     */
+    private int[] leafFor(int idx) {
+        if (idx >= tailOffset()) {
+            return tail;
+        }
+        Object[] node = root;
+        for (int s = shift; s > BITS; s -= BITS) {
+            node = (Object[]) node[(idx >>> s) & MASK];
+        }
+        return (int[]) node[(idx >>> BITS) & MASK];
+    }
+
+    @Override
+    public int getInt(int idx) {
+        if (idx < 0 || idx >= size) {
+            throw new IndexOutOfBoundsException();
+        }
+        return leafFor(idx)[idx & MASK];
+    }
+
+    @Override
+    public IntVector set(int idx, int value) {
+        if (idx < 0 || idx >= size) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (idx >= tailOffset()) {
+            int[] newTail = tail.clone();
+            newTail[idx & MASK] = value;
+            return new IntVector(size, shift, root, newTail);
+        } else {
+            return new IntVector(size, shift, set(root, shift, idx, value), tail);
+        }
+    }
+
+    private static Object[] set(Object[] node, int shift, int idx, int value) {
+        Object[] res = node.clone();
+        int slot = (idx >>> shift) & MASK;
+        if (shift == BITS) {
+            int[] leaf = ((int[]) node[slot]).clone();
+            leaf[idx & MASK] = value;
+            res[slot] = leaf;
+        } else {
+            res[slot] = set((Object[]) node[slot], shift - BITS, idx, value);
+        }
+        return res;
+    }
+
+    @Override
+    public IntVector add(int value) {
+        if (tail.length < WIDTH) {
+            int[] newTail = Arrays.copyOf(tail, tail.length + 1);
+            newTail[tail.length] = value;
+            return new IntVector(size + 1, shift, root, newTail);
+        }
+        Object[] newRoot;
+        int newShift = shift;
+        if ((tailOffset() >>> BITS) >= (1 << shift)) {
+            // The tree is full, add a level
+            newRoot = new Object[]{root, newPath(shift, tail)};
+            newShift += BITS;
+        } else {
+            newRoot = pushTail(root, shift, tailOffset(), tail);
+        }
+        return new IntVector(size + 1, newShift, newRoot, new int[]{value});
+    }
+
+    private static Object[] pushTail(Object[] node, int shift, int idx, int[] leaf) {
+        int slot = (idx >>> shift) & MASK;
+        Object[] res = Arrays.copyOf(node, slot + 1);
+        if (shift == BITS) {
+            res[slot] = leaf;
+        } else if (slot < node.length) {
+            res[slot] = pushTail((Object[]) node[slot], shift - BITS, idx, leaf);
+        } else {
+            res[slot] = newPath(shift - BITS, leaf);
+        }
+        return res;
+    }
+
+    private static Object newPath(int shift, int[] leaf) {
+        if (shift == 0) {
+            return leaf;
+        } else {
+            return new Object[]{newPath(shift - BITS, leaf)};
+        }
+    }
+
+    @Override
+    public IntVector addAll(int... values) {
+        return (IntVector) ImmutableIntList.super.addAll(values);
+    }
+
+    @Override
+    public int indexOf(int value) {
+        for (int leafStart = 0; leafStart < size; leafStart += WIDTH) {
+            int[] leaf = leafFor(leafStart);
+            for (int i = 0; i < leaf.length; i++) {
+                if (leaf[i] == value) {
+                    return leafStart + i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int lastIndexOf(int value) {
+        for (int leafStart = (size - 1) & ~MASK; leafStart >= 0; leafStart -= WIDTH) {
+            int[] leaf = leafFor(leafStart);
+            for (int i = leaf.length - 1; i >= 0; i--) {
+                if (leaf[i] == value) {
+                    return leafStart + i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public PrimitiveIterator.OfInt intIterator() {
+        return new PrimitiveIterator.OfInt() {
+            private int i = 0;
+            private int[] leaf;
+
+            @Override
+            public boolean hasNext() {
+                return i < size;
+            }
+
+            @Override
+            public int nextInt() {
+                if (i >= size) {
+                    throw new NoSuchElementException();
+                }
+                if ((i & MASK) == 0) {
+                    leaf = leafFor(i);
+                }
+                return leaf[i++ & MASK];
+            }
+        };
+    }
+
+    @Override
+    public void forEach(IntConsumer action) {
+        for (int leafStart = 0; leafStart < size; leafStart += WIDTH) {
+            for (int value : leafFor(leafStart)) {
+                action.accept(value);
+            }
+        }
+    }
+
+    @Override
+    public IntStream intStream() {
+        return StreamSupport.intStream(new IntVectorSpliterator(0, size), false);
+    }
+
+    @Override
+    public int[] toArray() {
+        int[] res = new int[size];
+        for (int leafStart = 0; leafStart < size; leafStart += WIDTH) {
+            int[] leaf = leafFor(leafStart);
+            System.arraycopy(leaf, 0, res, leafStart, leaf.length);
+        }
+        return res;
+    }
+
+    /**
+     * Splits the index range in half on a leaf boundary.
+     */
+    private final class IntVectorSpliterator implements Spliterator.OfInt {
+        private int from;
+        private final int to;
+
+        private IntVectorSpliterator(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public boolean tryAdvance(IntConsumer action) {
+            if (from >= to) {
+                return false;
+            }
+            action.accept(leafFor(from)[from & MASK]);
+            from++;
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(IntConsumer action) {
+            while (from < to) {
+                int[] leaf = leafFor(from);
+                int end = Math.min(to - (from & ~MASK), leaf.length);
+                for (int i = from & MASK; i < end; i++) {
+                    action.accept(leaf[i]);
+                }
+                from = (from & ~MASK) + end;
+            }
+        }
+
+        @Override
+        public Spliterator.OfInt trySplit() {
+            int mid = (from + (to - from) / 2) & ~MASK;
+            if (mid <= from || mid >= to) {
+                return null;
+            }
+            IntVectorSpliterator prefix = new IntVectorSpliterator(from, mid);
+            from = mid;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return to - from;
+        }
+
+        @Override
+        public int characteristics() {
+            return Spliterator.ORDERED | Spliterator.SIZED | Spliterator.SUBSIZED | Spliterator.IMMUTABLE | Spliterator.NONNULL;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package se.plilja.imcollect.internal.primitive;
+
+import se.plilja.imcollect.ImmutableLongLongMap;
+
+import java.util.NoSuchElementException;
+import java.util.OptionalLong;
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.LongStream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A weight balanced tree map with unboxed long keys and values stored directly in the nodes.
+ */
+public final class LongLongTreeMap implements ImmutableLongLongMap {
+    private static final LongLongTreeMap EMPTY = new LongLongTreeMap(null);
+
+    private final LongTree.Node root;
+
+    private LongLongTreeMap(LongTree.Node root) {
+        this.root = root;
+    }
+
+    public static LongLongTreeMap empty() {
+        return EMPTY;
+    }
+
+    private LongLongTreeMap withRoot(LongTree.Node newRoot) {
+        return newRoot == root ? this : new LongLongTreeMap(newRoot);
+    }
+
+    @Override
+    public long getOrDefault(long key, long defaultValue) {
+        LongTree.Node node = LongTree.find(root, key);
+        return node == null ? defaultValue : node.value;
+    }
+
+    @Override
+    public long getLong(long key) {
+        LongTree.Node node = LongTree.find(root, key);
+        if (node == null) {
+            throw new NoSuchElementException();
+        }
+        return node.value;
+    }
+
+    @Override
+    public OptionalLong lookup(long key) {
+        LongTree.Node node = LongTree.find(root, key);
+        return node == null ? OptionalLong.empty() : OptionalLong.of(node.value);
+    }
+
+    @Override
+    public boolean contains(long key) {
+        return LongTree.find(root, key) != null;
+    }
+
+    @Override
+    public LongLongTreeMap put(long key, long value) {
+        return withRoot(LongTree.put(root, key, value));
+    }
+
+    @Override
+    public LongLongTreeMap remove(long key) {
+        return withRoot(LongTree.remove(root, key));
+    }
+
+    @Override
+    public int size() {
+        return LongTree.size(root);
+    }
+
+    @Override
+    public PrimitiveIterator.OfLong keyIterator() {
+        return new LongTree.NodeIterator(root, false);
+    }
+
+    @Override
+    public PrimitiveIterator.OfLong valueIterator() {
+        return new LongTree.NodeIterator(root, true);
+    }
+
+    @Override
+    public void forEach(LongLongConsumer action) {
+        forEach(root, action);
+    }
+
+    private static void forEach(LongTree.Node node, LongLongConsumer action) {
+        while (node != null) {
+            forEach(node.left, action);
+            action.accept(node.key, node.value);
+            node = node.right;
+        }
+    }
+
+    @Override
+    public LongStream keyStream() {
+        return StreamSupport.longStream(Spliterators.spliterator(keyIterator(), size(),
+                Spliterator.ORDERED | Spliterator.SORTED | Spliterator.DISTINCT | Spliterator.IMMUTABLE | Spliterator.NONNULL), false);
+    }
+
+    @Override
+    public LongStream valueStream() {
+        return StreamSupport.longStream(Spliterators.spliterator(valueIterator(), size(),
+                Spliterator.ORDERED | Spliterator.IMMUTABLE | Spliterator.NONNULL), false);
+    }
+
+    /**
+     * Test method. Validates that the tree is consistent.
+     */
+    boolean isConsistent() {
+        return LongTree.isConsistent(root, 0, 0, false, false);
+    }
+}
@@ -0,0 +1,225 @@
+package se.plilja.imcollect.internal.primitive;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * Weight balanced tree operations on nodes with an unboxed long key and long value. The balancing
+ * is the same as in {@link se.plilja.imcollect.internal.WeightBalancedTree}, but keys are compared
+ * directly without a comparator and there is no boxing or Pair per entry.
+ */
+final class LongTree {
+    private static final double OMEGA = 2.5;
+    private static final double ALPHA = 1.5;
+    private static final double DELTA = 1;
+
+    private LongTree() {
+    }
+
+    static Node find(Node node, long key) {
+        while (node != null) {
+            if (key < node.key) {
+                node = node.left;
+            } else if (key > node.key) {
+                node = node.right;
+            } else {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The tree with key mapped to value, or node itself if key is already mapped to value.
+     */
+    static Node put(Node node, long key, long value) {
+        if (node == null) {
+            return new Node(key, value, null, null);
+        } else if (key < node.key) {
+            Node newLeft = put(node.left, key, value);
+            return newLeft == node.left ? node : balance(node.key, node.value, newLeft, node.right);
+        } else if (key > node.key) {
+            Node newRight = put(node.right, key, value);
+            return newRight == node.right ? node : balance(node.key, node.value, node.left, newRight);
+        } else if (value == node.value) {
+            return node;
+        } else {
+            return new Node(key, value, node.left, node.right);
+        }
+    }
+
+    /**
+     * @return The tree without key, or node itself if key is not present.
+     */
+    static Node remove(Node node, long key) {
+        if (node == null) {
+            return null;
+        } else if (key < node.key) {
+            Node newLeft = remove(node.left, key);
+            return newLeft == node.left ? node : balance(node.key, node.value, newLeft, node.right);
+        } else if (key > node.key) {
+            Node newRight = remove(node.right, key);
+            return newRight == node.right ? node : balance(node.key, node.value, node.left, newRight);
+        } else {
+            return concat(node.left, node.right);
+        }
+    }
+
+    private static Node concat(Node left, Node right) {
+        if (right == null) {
+            return left;
+        } else if (left == null) {
+            return right;
+        } else if (left.size > right.size) {
+            Node max = max(left);
+            return balance(max.key, max.value, removeMax(left), right);
+        } else {
+            Node min = min(right);
+            return balance(min.key, min.value, left, removeMin(right));
+        }
+    }
+
+    static Node min(Node node) {
+        while (node.left != null) {
+            node = node.left;
+        }
+        return node;
+    }
+
+    static Node max(Node node) {
+        while (node.right != null) {
+            node = node.right;
+        }
+        return node;
+    }
+
+    private static Node removeMin(Node node) {
+        if (node.left == null) {
+            return node.right;
+        } else {
+            return balance(node.key, node.value, removeMin(node.left), node.right);
+        }
+    }
+
+    private static Node removeMax(Node node) {
+        if (node.right == null) {
+            return node.left;
+        } else {
+            return balance(node.key, node.value, node.left, removeMax(node.right));
+        }
+    }
+
+    /**
+     * Builds a perfectly balanced tree from the strictly increasing keys in [from, to).
+     */
+    static Node build(long[] keys, long[] values, int from, int to) {
+        if (from >= to) {
+            return null;
+        } else {
+            int mid = (from + to) >>> 1;
+            return new Node(keys[mid], values == null ? 0 : values[mid], build(keys, values, from, mid), build(keys, values, mid + 1, to));
+        }
+    }
+
+    static int size(Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static Node balance(long key, long value, Node left, Node right) {
+        int leftSize = size(left);
+        int rightSize = size(right);
+        if (leftSize + rightSize < 2) {
+            return new Node(key, value, left, right);
+        } else if (rightSize > OMEGA * leftSize + DELTA) {
+            if (size(right.left) < ALPHA * size(right.right)) {
+                return new Node(right.key, right.value, new Node(key, value, left, right.left), right.right);
+            } else {
+                Node rl = right.left;
+                return new Node(rl.key, rl.value, new Node(key, value, left, rl.left), new Node(right.key, right.value, rl.right, right.right));
+            }
+        } else if (leftSize > OMEGA * rightSize + DELTA) {
+            if (size(left.right) < ALPHA * size(left.left)) {
+                return new Node(left.key, left.value, left.left, new Node(key, value, left.right, right));
+            } else {
+                Node lr = left.right;
+                return new Node(lr.key, lr.value, new Node(left.key, left.value, left.left, lr.left), new Node(key, value, lr.right, right));
+            }
+        } else {
+            return new Node(key, value, left, right);
+        }
+    }
+
+    /**
+     * Test method. Validates sizes, balance and ordering.
+     */
+    static boolean isConsistent(Node node, long lowerExclusive, long upperExclusive, boolean hasLower, boolean hasUpper) {
+        if (node == null) {
+            return true;
+        }
+        boolean consistent = node.size == size(node.left) + size(node.right) + 1
+                && size(node.left) <= OMEGA * size(node.right) + DELTA
+                && size(node.right) <= OMEGA * size(node.left) + DELTA
+                && (!hasLower || node.key > lowerExclusive)
+                && (!hasUpper || node.key < upperExclusive);
+        return consistent
+                && isConsistent(node.left, lowerExclusive, node.key, hasLower, true)
+                && isConsistent(node.right, node.key, upperExclusive, true, hasUpper);
+    }
+
+    static final class Node {
+        final long key;
+        final long value;
+        final Node left;
+        final Node right;
+        final int size;
+
+        Node(long key, long value, Node left, Node right) {
+            this.key = key;
+            this.value = value;
+            this.left = left;
+            this.right = right;
+            this.size = size(left) + size(right) + 1;
+        }
+    }
+
+    /**
+     * Iterates the keys, or the values, in key order.
+     */
+    static final class NodeIterator implements PrimitiveIterator.OfLong {
+        private Node[] stack;
+        private final boolean values;
+        private int depth;
+
+        NodeIterator(Node root, boolean values) {
+            this.stack = new Node[2 * (32 - Integer.numberOfLeadingZeros(size(root))) + 1];
+            this.values = values;
+            goLeft(root);
+        }
+
+        private void goLeft(Node node) {
+            while (node != null) {
+                if (depth == stack.length) {
+                    stack = Arrays.copyOf(stack, 2 * depth);
+                }
+                stack[depth++] = node;
+                node = node.left;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return depth > 0;
+        }
+
+        @Override
+        public long nextLong() {
+            if (depth == 0) {
+                throw new NoSuchElementException();
+            }
+            Node node = stack[--depth];
+            goLeft(node.right);
+            return values ? node.value : node.key;
+        }
+    }
+}
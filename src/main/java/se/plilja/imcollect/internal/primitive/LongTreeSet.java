@@ -0,0 +1,126 @@
+package se.plilja.imcollect.internal.primitive;
+
+import se.plilja.imcollect.ImmutableLongSet;
+
+import java.util.Arrays;
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.LongConsumer;
+import java.util.stream.LongStream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A weight balanced tree of unboxed longs. The value field of the nodes is unused.
+ */
+public final class LongTreeSet implements ImmutableLongSet {
+    private static final LongTreeSet EMPTY = new LongTreeSet(null);
+
+    private final LongTree.Node root;
+
+    private LongTreeSet(LongTree.Node root) {
+        this.root = root;
+    }
+
+    public static LongTreeSet empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Builds a set from values in O(n log n), or O(n) if the values are already sorted.
+     */
+    public static LongTreeSet fromArray(long... values) {
+        long[] sorted = values.clone();
+        boolean isSorted = true;
+        for (int i = 1; i < sorted.length && isSorted; i++) {
+            isSorted = sorted[i - 1] < sorted[i];
+        }
+        int n = sorted.length;
+        if (!isSorted) {
+            Arrays.sort(sorted);
+            n = 0;
+            for (int i = 0; i < sorted.length; i++) {
+                if (n == 0 || sorted[n - 1] != sorted[i]) {
+                    sorted[n++] = sorted[i];
+                }
+            }
+        }
+        return new LongTreeSet(LongTree.build(sorted, null, 0, n));
+    }
+
+    private LongTreeSet withRoot(LongTree.Node newRoot) {
+        return newRoot == root ? this : new LongTreeSet(newRoot);
+    }
+
+    @Override
+    public LongTreeSet add(long value) {
+        return withRoot(LongTree.put(root, value, 0));
+    }
+
+    @Override
+    public LongTreeSet addAll(long... values) {
+        if (values.length > size()) {
+            long[] merged = Arrays.copyOf(toArray(), size() + values.length);
+            System.arraycopy(values, 0, merged, size(), values.length);
+            return fromArray(merged);
+        }
+        return (LongTreeSet) ImmutableLongSet.super.addAll(values);
+    }
+
+    @Override
+    public LongTreeSet remove(long value) {
+        return withRoot(LongTree.remove(root, value));
+    }
+
+    @Override
+    public boolean contains(long value) {
+        return LongTree.find(root, value) != null;
+    }
+
+    @Override
+    public int size() {
+        return LongTree.size(root);
+    }
+
+    @Override
+    public PrimitiveIterator.OfLong longIterator() {
+        return new LongTree.NodeIterator(root, false);
+    }
+
+    @Override
+    public void forEach(LongConsumer action) {
+        forEach(root, action);
+    }
+
+    private static void forEach(LongTree.Node node, LongConsumer action) {
+        while (node != null) {
+            forEach(node.left, action);
+            action.accept(node.key);
+            node = node.right;
+        }
+    }
+
+    @Override
+    public LongStream longStream() {
+        Spliterator.OfLong spliterator = Spliterators.spliterator(longIterator(), size(),
+                Spliterator.ORDERED | Spliterator.SORTED | Spliterator.DISTINCT | Spliterator.IMMUTABLE | Spliterator.NONNULL);
+        return StreamSupport.longStream(spliterator, false);
+    }
+
+    @Override
+    public long[] toArray() {
+        long[] res = new long[size()];
+        PrimitiveIterator.OfLong it = longIterator();
+        for (int i = 0; i < res.length; i++) {
+            res[i] = it.nextLong();
+        }
+        return res;
+    }
+
+    /**
+     * Test method. Validates that the tree is consistent.
+     */
+    boolean isConsistent() {
+        return LongTree.isConsistent(root, 0, 0, false, false);
+    }
+}
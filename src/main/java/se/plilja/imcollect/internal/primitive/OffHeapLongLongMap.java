@@ -0,0 +1,494 @@
+package se.plilja.imcollect.internal.primitive;
+
+import se.plilja.imcollect.ImmutableLongLongMap;
+import se.plilja.imcollect.ImmutableMap;
+import se.plilja.imcollect.internal.CollectionEquality;
+
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiFunction;
+import java.util.function.BiPredicate;
+import java.util.function.Consumer;
+import java.util.stream.LongStream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A weight balanced tree map from long keys to long values whose nodes are stored outside the heap, in
+ * direct buffers. The heap holds one small object per version, independently of the number of entries, so
+ * very large maps add nothing for the garbage collector to mark.
+ * <p>
+ * All versions derived from a map created by {@link #create()} share their nodes, a change copies the path
+ * to the changed node as a persistent tree on the heap does. Since the garbage collector doesn't know about
+ * the nodes, every version must be released explicitly, by {@link #release()} or close, when it's no longer
+ * used. Nodes no longer part of any version are then reused by later changes. Using a released version
+ * throws IllegalStateException. Versions may be read from several threads, releasing a version while it's
+ * being read by another thread is not allowed.
+ * <p>
+ * Bulk operations of ImmutableMap, such as putAll and filter, go through a builder and don't leave any
+ * intermediate versions to release.
+ */
+public final class OffHeapLongLongMap implements ImmutableLongLongMap.OffHeap, ImmutableMap<Long, Long> {
+    private static final int DEFAULT_NODES_PER_SLAB = 1 << 15;
+    private static final int MAX_NODES_PER_SLAB = 1 << 25; // a slab of 1 GB, twice that overflows the int capacity of a buffer
+
+    private final OffHeapNodes nodes;
+    private final int root;
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    /**
+     * @param root A node that the map holds a reference to.
+     */
+    private OffHeapLongLongMap(OffHeapNodes nodes, int root) {
+        this.nodes = nodes;
+        this.root = root;
+    }
+
+    /**
+     * @return An empty map with room for 32768 nodes (1 MB) in each slab.
+     */
+    public static OffHeapLongLongMap create() {
+        return create(DEFAULT_NODES_PER_SLAB);
+    }
+
+    /**
+     * @param nodesPerSlab The number of nodes to allocate at a time, each node takes 32 bytes. Rounded up to
+     *                     a power of two.
+     * @return An empty map, the first version of a new set of slabs.
+     */
+    public static OffHeapLongLongMap create(int nodesPerSlab) {
+        if (nodesPerSlab <= 0 || nodesPerSlab > MAX_NODES_PER_SLAB) {
+            throw new IllegalArgumentException(String.format("Nodes per slab must be in [1, %d], got %d", MAX_NODES_PER_SLAB, nodesPerSlab));
+        }
+        int powerOfTwo = Integer.highestOneBit(nodesPerSlab);
+        return new OffHeapLongLongMap(new OffHeapNodes(powerOfTwo == nodesPerSlab ? nodesPerSlab : 2 * powerOfTwo), OffHeapNodes.NIL);
+    }
+
+    /**
+     * Releases the nodes of this version that aren't shared with other versions. Releasing a version more
+     * than once has no effect.
+     */
+    @Override
+    public void release() {
+        if (released.compareAndSet(false, true)) {
+            nodes.release(root);
+        }
+    }
+
+    /**
+     * Same as release.
+     */
+    @Override
+    public void close() {
+        release();
+    }
+
+    @Override
+    public boolean isReleased() {
+        return released.get();
+    }
+
+    private int root() {
+        if (released.get()) {
+            throw new IllegalStateException("The map has been released");
+        }
+        return root;
+    }
+
+    @Override
+    public long getOrDefault(long key, long defaultValue) {
+        int node = nodes.find(root(), key);
+        return node == OffHeapNodes.NIL ? defaultValue : nodes.value(node);
+    }
+
+    @Override
+    public long getLong(long key) {
+        int node = nodes.find(root(), key);
+        if (node == OffHeapNodes.NIL) {
+            throw new NoSuchElementException();
+        }
+        return nodes.value(node);
+    }
+
+    @Override
+    public OptionalLong lookup(long key) {
+        int node = nodes.find(root(), key);
+        return node == OffHeapNodes.NIL ? OptionalLong.empty() : OptionalLong.of(nodes.value(node));
+    }
+
+    @Override
+    public boolean contains(long key) {
+        return nodes.find(root(), key) != OffHeapNodes.NIL;
+    }
+
+    /**
+     * @return A new version with key mapped to value. The new version must be released as well, also
+     * when it has the same entries as this version.
+     */
+    @Override
+    public OffHeapLongLongMap put(long key, long value) {
+        return new OffHeapLongLongMap(nodes, nodes.put(root(), key, value));
+    }
+
+    /**
+     * @return A new version without key. The new version must be released as well, also when it has the
+     * same entries as this version.
+     */
+    @Override
+    public OffHeapLongLongMap remove(long key) {
+        return new OffHeapLongLongMap(nodes, nodes.remove(root(), key));
+    }
+
+    @Override
+    public Optional<Long> lookup(Long key) {
+        if (key == null) {
+            return Optional.empty();
+        }
+        OptionalLong res = lookup(key.longValue());
+        return res.isPresent() ? Optional.of(res.getAsLong()) : Optional.empty();
+    }
+
+    @Override
+    public Long get(Long key) {
+        if (key == null) {
+            return null;
+        }
+        int node = nodes.find(root(), key);
+        return node == OffHeapNodes.NIL ? null : nodes.value(node);
+    }
+
+    @Override
+    public boolean contains(Long key) {
+        return key != null && contains(key.longValue());
+    }
+
+    @Override
+    public OffHeapLongLongMap put(Long key, Long value) {
+        if (key == null) {
+            throw new IllegalArgumentException("Null keys are not supported");
+        }
+        if (value == null) {
+            throw new IllegalArgumentException("Null values are not supported");
+        }
+        return put(key.longValue(), value.longValue());
+    }
+
+    @Override
+    public OffHeapLongLongMap remove(Long key) {
+        if (key == null) {
+            return new OffHeapLongLongMap(nodes, retain(root()));
+        }
+        return remove(key.longValue());
+    }
+
+    private int retain(int node) {
+        nodes.retain(node);
+        return node;
+    }
+
+    @Override
+    public int size() {
+        return nodes.size(root());
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public Map.Entry<Long, Long> getByIndex(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException(String.format("Index %d out of bounds for size %d", index, size()));
+        }
+        int node = nodes.byIndex(root(), index);
+        return new AbstractMap.SimpleImmutableEntry<>(nodes.key(node), nodes.value(node));
+    }
+
+    @Override
+    public int rankOf(Long key) {
+        if (key == null) {
+            return -1;
+        }
+        return nodes.rank(root(), key);
+    }
+
+    @Override
+    public PrimitiveIterator.OfLong keyIterator() {
+        return nodes.new NodeIterator(root(), false);
+    }
+
+    @Override
+    public PrimitiveIterator.OfLong valueIterator() {
+        return nodes.new NodeIterator(root(), true);
+    }
+
+    @Override
+    public Iterable<Long> keys() {
+        return this::keyIterator;
+    }
+
+    @Override
+    public Iterable<Long> values() {
+        return this::valueIterator;
+    }
+
+    @Override
+    public void forEach(LongLongConsumer action) {
+        forEach(root(), action);
+    }
+
+    private void forEach(int node, LongLongConsumer action) {
+        while (node != OffHeapNodes.NIL) {
+            forEach(nodes.left(node), action);
+            action.accept(nodes.key(node), nodes.value(node));
+            node = nodes.right(node);
+        }
+    }
+
+    @Override
+    public LongStream keyStream() {
+        return StreamSupport.longStream(Spliterators.spliterator(keyIterator(), size(),
+                Spliterator.ORDERED | Spliterator.SORTED | Spliterator.DISTINCT | Spliterator.IMMUTABLE | Spliterator.NONNULL), false);
+    }
+
+    @Override
+    public LongStream valueStream() {
+        return StreamSupport.longStream(Spliterators.spliterator(valueIterator(), size(),
+                Spliterator.ORDERED | Spliterator.IMMUTABLE | Spliterator.NONNULL), false);
+    }
+
+    /**
+     * If edits throws, the changes made so far are released before the exception is passed on.
+     */
+    private OffHeapLongLongMap edit(Consumer<Builder> edits) {
+        Builder builder = toBuilder();
+        try {
+            edits.accept(builder);
+        } catch (RuntimeException | Error e) {
+            builder.discard();
+            throw e;
+        }
+        return builder.build();
+    }
+
+    @Override
+    public OffHeapLongLongMap putAll(Map<Long, Long> map) {
+        return edit(builder -> builder.putAll(map));
+    }
+
+    @Override
+    public OffHeapLongLongMap putAll(ImmutableMap<Long, Long> map) {
+        return edit(builder -> {
+            Iterator<Long> values = map.values().iterator();
+            for (Long key : map.keys()) {
+                builder.put(key, values.next());
+            }
+        });
+    }
+
+    @Override
+    public OffHeapLongLongMap merge(ImmutableMap<Long, Long> other, BiFunction<? super Long, ? super Long, ? extends Long> resolver) {
+        if (resolver == null) {
+            throw new IllegalArgumentException("Null resolver is not supported");
+        }
+        return edit(builder -> {
+            Iterator<Long> values = other.values().iterator();
+            for (Long key : other.keys()) {
+                Long value = values.next();
+                Long current = builder.get(key);
+                Long resolved = current == null ? value : resolver.apply(current, value);
+                if (resolved == null) {
+                    builder.remove(key);
+                } else {
+                    builder.put(key, resolved);
+                }
+            }
+        });
+    }
+
+    /**
+     * Merges sequentially, the cutoff is ignored.
+     */
+    @Override
+    public OffHeapLongLongMap merge(ImmutableMap<Long, Long> other, BiFunction<? super Long, ? super Long, ? extends Long> resolver, int sequentialCutoff) {
+        return merge(other, resolver);
+    }
+
+    @Override
+    public OffHeapLongLongMap intersection(ImmutableMap<Long, Long> other) {
+        return filter((key, value) -> other.contains(key));
+    }
+
+    @Override
+    public OffHeapLongLongMap difference(ImmutableMap<Long, Long> other) {
+        return filter((key, value) -> !other.contains(key));
+    }
+
+    @Override
+    public OffHeapLongLongMap filter(BiPredicate<? super Long, ? super Long> predicate) {
+        return edit(builder -> forEach((key, value) -> {
+            if (!predicate.test(key, value)) {
+                builder.remove(key);
+            }
+        }));
+    }
+
+    /**
+     * Filters sequentially, the cutoff is ignored.
+     */
+    @Override
+    public OffHeapLongLongMap filter(BiPredicate<? super Long, ? super Long> predicate, int sequentialCutoff) {
+        return filter(predicate);
+    }
+
+    @Override
+    public OffHeapLongLongMap slice(int from, int to) {
+        if (from < 0 || to > size() || from > to) {
+            throw new IndexOutOfBoundsException(String.format("Slice [%d, %d) out of bounds for size %d", from, to, size()));
+        }
+        return edit(builder -> {
+            int i = 0;
+            for (PrimitiveIterator.OfLong keys = keyIterator(); keys.hasNext(); i++) {
+                long key = keys.nextLong();
+                if (i < from || i >= to) {
+                    builder.remove(key);
+                }
+            }
+        });
+    }
+
+    @Override
+    public Builder toBuilder() {
+        return new Builder(nodes, retain(root()));
+    }
+
+    /**
+     * A builder holds a reference to its content, which it hands over to the map returned by build. A
+     * builder should hence not be abandoned with changes that haven't been built, and a map built by a
+     * builder should not be released before the builder is done.
+     */
+    public static final class Builder implements ImmutableMap.Builder<Long, Long> {
+        private final OffHeapNodes nodes;
+        private int root;
+        private boolean owned; // whether the reference to root belongs to the builder rather than a built map
+
+        private Builder(OffHeapNodes nodes, int root) {
+            this.nodes = nodes;
+            this.root = root;
+            this.owned = true;
+        }
+
+        private void replaceRoot(int newRoot) {
+            if (owned) {
+                nodes.release(root);
+            }
+            root = newRoot;
+            owned = true;
+        }
+
+        private void discard() {
+            if (owned) {
+                nodes.release(root);
+            }
+            owned = false;
+        }
+
+        public Builder put(long key, long value) {
+            replaceRoot(nodes.put(root, key, value));
+            return this;
+        }
+
+        public Builder remove(long key) {
+            replaceRoot(nodes.remove(root, key));
+            return this;
+        }
+
+        @Override
+        public Builder put(Long key, Long value) {
+            if (key == null) {
+                throw new IllegalArgumentException("Null keys are not supported");
+            }
+            if (value == null) {
+                throw new IllegalArgumentException("Null values are not supported");
+            }
+            return put(key.longValue(), value.longValue());
+        }
+
+        @Override
+        public Builder remove(Long key) {
+            if (key != null) {
+                remove(key.longValue());
+            }
+            return this;
+        }
+
+        @Override
+        public Optional<Long> lookup(Long key) {
+            return Optional.ofNullable(get(key));
+        }
+
+        @Override
+        public Long get(Long key) {
+            if (key == null) {
+                return null;
+            }
+            int node = nodes.find(root, key);
+            return node == OffHeapNodes.NIL ? null : nodes.value(node);
+        }
+
+        @Override
+        public int size() {
+            return nodes.size(root);
+        }
+
+        @Override
+        public OffHeapLongLongMap build() {
+            if (!owned) {
+                nodes.retain(root);
+            }
+            owned = false;
+            return new OffHeapLongLongMap(nodes, root);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return CollectionEquality.mapEquals(this, o);
+    }
+
+    @Override
+    public int hashCode() {
+        int[] res = new int[1];
+        forEach((key, value) -> res[0] += Long.hashCode(key) ^ Long.hashCode(value));
+        return res[0];
+    }
+
+    /**
+     * Test method. Validates that the tree is consistent.
+     */
+    boolean isConsistent() {
+        return nodes.isConsistent(root(), 0, 0, false, false);
+    }
+
+    /**
+     * Test method. The number of nodes in use by all versions sharing slabs with this map.
+     */
+    int liveNodes() {
+        return nodes.liveNodes();
+    }
+
+    /**
+     * Test method. The number of nodes the slabs of this map have room for.
+     */
+    int capacity() {
+        return nodes.capacity();
+    }
+}
@@ -0,0 +1,398 @@
+package se.plilja.imcollect.internal.primitive;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * The nodes of {@link OffHeapLongLongMap}, stored in direct buffers outside the heap. The tree operations
+ * and the balancing are the same as in {@link LongTree}, but a node is an int id of a 32 byte slot in one of
+ * the slabs rather than an object.
+ * <p>
+ * Nodes are shared between versions and counted by reference: a node holds one reference for every parent
+ * and for every version having it as root. A node whose last reference is released goes to a free list and
+ * releases its children, freed slots are reused before the slabs grow. Slabs are never returned while the
+ * nodes are reachable, they are freed by the garbage collector along with the nodes object.
+ * <p>
+ * Changing the tree or the references is synchronized. Reading is not, the slots of a node never change
+ * while it's referenced, except for its reference count that is never read outside of the lock.
+ */
+final class OffHeapNodes {
+    static final int NIL = -1;
+
+    private static final int NODE_BYTES = 32;
+    private static final int KEY = 0;
+    private static final int VALUE = 8;
+    private static final int LEFT = 16;
+    private static final int RIGHT = 20;
+    private static final int SIZE = 24;
+    private static final int REFERENCES = 28;
+
+    private static final double OMEGA = 2.5;
+    private static final double ALPHA = 1.5;
+    private static final double DELTA = 1;
+
+    private final int slabShift;
+    private final int slabMask;
+    private volatile ByteBuffer[] slabs = new ByteBuffer[0];
+    private int allocated; // slots taken from the slabs, freed slots are kept in the free list
+    private int free = NIL; // linked through LEFT
+    private int live;
+
+    /**
+     * @param nodesPerSlab The number of nodes of each slab, a power of two.
+     */
+    OffHeapNodes(int nodesPerSlab) {
+        this.slabShift = Integer.numberOfTrailingZeros(nodesPerSlab);
+        this.slabMask = nodesPerSlab - 1;
+    }
+
+    private ByteBuffer slab(int node) {
+        return slabs[node >>> slabShift];
+    }
+
+    private int offset(int node) {
+        return (node & slabMask) * NODE_BYTES;
+    }
+
+    long key(int node) {
+        return slab(node).getLong(offset(node) + KEY);
+    }
+
+    long value(int node) {
+        return slab(node).getLong(offset(node) + VALUE);
+    }
+
+    int left(int node) {
+        return slab(node).getInt(offset(node) + LEFT);
+    }
+
+    int right(int node) {
+        return slab(node).getInt(offset(node) + RIGHT);
+    }
+
+    int size(int node) {
+        return node == NIL ? 0 : slab(node).getInt(offset(node) + SIZE);
+    }
+
+    int find(int node, long key) {
+        while (node != NIL) {
+            long nodeKey = key(node);
+            if (key < nodeKey) {
+                node = left(node);
+            } else if (key > nodeKey) {
+                node = right(node);
+            } else {
+                return node;
+            }
+        }
+        return NIL;
+    }
+
+    /**
+     * @return The index of key in the tree, or -(insertion point) - 1 if key isn't present.
+     */
+    int rank(int node, long key) {
+        int res = 0;
+        while (node != NIL) {
+            long nodeKey = key(node);
+            if (key < nodeKey) {
+                node = left(node);
+            } else if (key > nodeKey) {
+                res += size(left(node)) + 1;
+                node = right(node);
+            } else {
+                return res + size(left(node));
+            }
+        }
+        return -res - 1;
+    }
+
+    int byIndex(int node, int index) {
+        while (true) {
+            int leftSize = size(left(node));
+            if (index < leftSize) {
+                node = left(node);
+            } else if (index > leftSize) {
+                index -= leftSize + 1;
+                node = right(node);
+            } else {
+                return node;
+            }
+        }
+    }
+
+    /**
+     * @return The root of the tree with key mapped to value, with a reference held for the caller.
+     */
+    synchronized int put(int root, long key, long value) {
+        int res = insert(root, key, value);
+        retain(res);
+        return res;
+    }
+
+    /**
+     * @return The root of the tree without key, with a reference held for the caller.
+     */
+    synchronized int remove(int root, long key) {
+        int res = delete(root, key);
+        retain(res);
+        return res;
+    }
+
+    synchronized void retain(int node) {
+        if (node != NIL) {
+            ByteBuffer slab = slab(node);
+            int offset = offset(node);
+            slab.putInt(offset + REFERENCES, slab.getInt(offset + REFERENCES) + 1);
+        }
+    }
+
+    /**
+     * Releases one reference to node, freeing it and releasing its children if it was the last one.
+     */
+    synchronized void release(int node) {
+        if (node != NIL) {
+            ByteBuffer slab = slab(node);
+            int offset = offset(node);
+            int references = slab.getInt(offset + REFERENCES) - 1;
+            slab.putInt(offset + REFERENCES, references);
+            if (references == 0) {
+                deallocate(node);
+            }
+        }
+    }
+
+    /**
+     * Test method. The number of nodes that are not free.
+     */
+    synchronized int liveNodes() {
+        return live;
+    }
+
+    /**
+     * Test method. The number of nodes the slabs have room for.
+     */
+    synchronized int capacity() {
+        return slabs.length << slabShift;
+    }
+
+    private int insert(int node, long key, long value) {
+        if (node == NIL) {
+            return allocate(key, value, NIL, NIL);
+        }
+        long nodeKey = key(node);
+        if (key < nodeKey) {
+            int left = left(node);
+            int newLeft = insert(left, key, value);
+            return newLeft == left ? node : balance(nodeKey, value(node), newLeft, right(node));
+        } else if (key > nodeKey) {
+            int right = right(node);
+            int newRight = insert(right, key, value);
+            return newRight == right ? node : balance(nodeKey, value(node), left(node), newRight);
+        } else if (value == value(node)) {
+            return node;
+        } else {
+            return allocate(key, value, left(node), right(node));
+        }
+    }
+
+    private int delete(int node, long key) {
+        if (node == NIL) {
+            return NIL;
+        }
+        long nodeKey = key(node);
+        if (key < nodeKey) {
+            int left = left(node);
+            int newLeft = delete(left, key);
+            return newLeft == left ? node : balance(nodeKey, value(node), newLeft, right(node));
+        } else if (key > nodeKey) {
+            int right = right(node);
+            int newRight = delete(right, key);
+            return newRight == right ? node : balance(nodeKey, value(node), left(node), newRight);
+        } else {
+            return concat(left(node), right(node));
+        }
+    }
+
+    private int concat(int left, int right) {
+        if (right == NIL) {
+            return left;
+        } else if (left == NIL) {
+            return right;
+        } else if (size(left) > size(right)) {
+            int max = left;
+            while (right(max) != NIL) {
+                max = right(max);
+            }
+            return balance(key(max), value(max), removeMax(left), right);
+        } else {
+            int min = right;
+            while (left(min) != NIL) {
+                min = left(min);
+            }
+            return balance(key(min), value(min), left, removeMin(right));
+        }
+    }
+
+    private int removeMin(int node) {
+        if (left(node) == NIL) {
+            return right(node);
+        } else {
+            return balance(key(node), value(node), removeMin(left(node)), right(node));
+        }
+    }
+
+    private int removeMax(int node) {
+        if (right(node) == NIL) {
+            return left(node);
+        } else {
+            return balance(key(node), value(node), left(node), removeMax(right(node)));
+        }
+    }
+
+    /**
+     * A rotation takes apart left or right. If that node was created by the same change it isn't referenced
+     * by anything, and is freed once the new nodes hold references to its children.
+     */
+    private int balance(long key, long value, int left, int right) {
+        int leftSize = size(left);
+        int rightSize = size(right);
+        if (leftSize + rightSize < 2) {
+            return allocate(key, value, left, right);
+        } else if (rightSize > OMEGA * leftSize + DELTA) {
+            int res;
+            int rl = left(right);
+            if (size(rl) < ALPHA * size(right(right))) {
+                res = allocate(key(right), value(right), allocate(key, value, left, rl), right(right));
+            } else {
+                res = allocate(key(rl), value(rl), allocate(key, value, left, left(rl)), allocate(key(right), value(right), right(rl), right(right)));
+            }
+            freeIfUnreferenced(right);
+            return res;
+        } else if (leftSize > OMEGA * rightSize + DELTA) {
+            int res;
+            int lr = right(left);
+            if (size(lr) < ALPHA * size(left(left))) {
+                res = allocate(key(left), value(left), left(left), allocate(key, value, lr, right));
+            } else {
+                res = allocate(key(lr), value(lr), allocate(key(left), value(left), left(left), left(lr)), allocate(key, value, right(lr), right));
+            }
+            freeIfUnreferenced(left);
+            return res;
+        } else {
+            return allocate(key, value, left, right);
+        }
+    }
+
+    private void freeIfUnreferenced(int node) {
+        if (slab(node).getInt(offset(node) + REFERENCES) == 0) {
+            deallocate(node);
+        }
+    }
+
+    /**
+     * @return A new node without references, holding a reference to each of its children.
+     */
+    private int allocate(long key, long value, int left, int right) {
+        int node;
+        if (free != NIL) {
+            node = free;
+            free = left(node);
+        } else {
+            if (allocated == Integer.MAX_VALUE) {
+                throw new IllegalStateException("The number of off heap nodes is exhausted");
+            }
+            node = allocated++;
+            if ((node >>> slabShift) == slabs.length) {
+                ByteBuffer[] newSlabs = Arrays.copyOf(slabs, slabs.length + 1);
+                newSlabs[slabs.length] = ByteBuffer.allocateDirect(NODE_BYTES << slabShift).order(ByteOrder.nativeOrder());
+                slabs = newSlabs;
+            }
+        }
+        retain(left);
+        retain(right);
+        ByteBuffer slab = slab(node);
+        int offset = offset(node);
+        slab.putLong(offset + KEY, key);
+        slab.putLong(offset + VALUE, value);
+        slab.putInt(offset + LEFT, left);
+        slab.putInt(offset + RIGHT, right);
+        slab.putInt(offset + SIZE, size(left) + size(right) + 1);
+        slab.putInt(offset + REFERENCES, 0);
+        live++;
+        return node;
+    }
+
+    private void deallocate(int node) {
+        int left = left(node);
+        int right = right(node);
+        slab(node).putInt(offset(node) + LEFT, free);
+        free = node;
+        live--;
+        release(left);
+        release(right);
+    }
+
+    /**
+     * Test method. Validates sizes, balance and ordering.
+     */
+    boolean isConsistent(int node, long lowerExclusive, long upperExclusive, boolean hasLower, boolean hasUpper) {
+        if (node == NIL) {
+            return true;
+        }
+        int left = left(node);
+        int right = right(node);
+        long key = key(node);
+        boolean consistent = size(node) == size(left) + size(right) + 1
+                && size(left) <= OMEGA * size(right) + DELTA
+                && size(right) <= OMEGA * size(left) + DELTA
+                && (!hasLower || key > lowerExclusive)
+                && (!hasUpper || key < upperExclusive);
+        return consistent
+                && isConsistent(left, lowerExclusive, key, hasLower, true)
+                && isConsistent(right, key, upperExclusive, true, hasUpper);
+    }
+
+    /**
+     * Iterates the keys, or the values, in key order.
+     */
+    final class NodeIterator implements PrimitiveIterator.OfLong {
+        private int[] stack;
+        private final boolean values;
+        private int depth;
+
+        NodeIterator(int root, boolean values) {
+            this.stack = new int[2 * (32 - Integer.numberOfLeadingZeros(size(root))) + 1];
+            this.values = values;
+            goLeft(root);
+        }
+
+        private void goLeft(int node) {
+            while (node != NIL) {
+                if (depth == stack.length) {
+                    stack = Arrays.copyOf(stack, 2 * depth);
+                }
+                stack[depth++] = node;
+                node = left(node);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return depth > 0;
+        }
+
+        @Override
+        public long nextLong() {
+            if (depth == 0) {
+                throw new NoSuchElementException();
+            }
+            int node = stack[--depth];
+            goLeft(right(node));
+            return values ? value(node) : key(node);
+        }
+    }
+}
@@ -0,0 +1,675 @@
+package se.plilja.imcollect.internal.vector;
+
+import se.plilja.imcollect.ImmutableList;
+import se.plilja.imcollect.internal.CollectionEquality;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+import static se.plilja.imcollect.internal.vector.VectorNode.BITS;
+import static se.plilja.imcollect.internal.vector.VectorNode.WIDTH;
+
+/**
+ * A relaxed radix balanced vector, see Bagwell and Rompf, "RRB-Trees: Efficient Immutable Vectors".
+ * <p>
+ * The elements are stored in a 32-way tree with the last (up to 32) elements in a separate tail,
+ * which makes add amortized constant time. Indexed access and update are O(log32 n). Vectors can be
+ * concatenated and sliced in O(log n), which makes some nodes relaxed (see {@link VectorNode}), the
+ * concatenation rebalances the nodes along the seam to keep the tree shallow.
+ */
+public final class RrbVector<T> implements ImmutableList<T> {
+    private static final int E_MAX = 2;
+    private static final RrbVector<?> EMPTY = new RrbVector<>(0, BITS, VectorNode.EMPTY, new Object[0]);
+
+    private final int size;
+    private final int shift;
+    private final VectorNode root;
+    private final Object[] tail;
+
+    private RrbVector(int size, int shift, VectorNode root, Object[] tail) {
+        this.size = size;
+        this.shift = shift;
+        this.root = root;
+        this.tail = tail;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T> RrbVector<T> empty() {
+        return (RrbVector<T>) EMPTY;
+    }
+
+    private int tailOffset() {
+        return size - tail.length;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public T get(int idx) {
+        if (idx < 0 || idx >= size) {
+            throw new IndexOutOfBoundsException();
+        }
+        int tailOffset = tailOffset();
+        if (idx >= tailOffset) {
+            return (T) tail[idx - tailOffset];
+        }
+        Object node = root;
+        int i = idx;
+        for (int s = shift; s > 0; s -= BITS) {
+            VectorNode n = (VectorNode) node;
+            int slot = n.slot(i, s);
+            i -= n.offset(slot, s);
+            node = n.children[slot];
+        }
+        return (T) ((Object[]) node)[i];
+    }
+
+    @Override
+    public RrbVector<T> set(int idx, T value) {
+        if (idx < 0 || idx >= size) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (value == null) {
+            throw new IllegalArgumentException("Null values are not supported");
+        }
+        int tailOffset = tailOffset();
+        if (idx >= tailOffset) {
+            Object[] newTail = tail.clone();
+            newTail[idx - tailOffset] = value;
+            return new RrbVector<>(size, shift, root, newTail);
+        } else {
+            return new RrbVector<>(size, shift, (VectorNode) set(root, shift, idx, value), tail);
+        }
+    }
+
+    private static Object set(Object node, int shift, int idx, Object value) {
+        if (shift == 0) {
+            Object[] leaf = ((Object[]) node).clone();
+            leaf[idx] = value;
+            return leaf;
+        } else {
+            VectorNode n = (VectorNode) node;
+            int slot = n.slot(idx, shift);
+            Object child = set(n.children[slot], shift - BITS, idx - n.offset(slot, shift), value);
+            return n.withChild(slot, child, 0);
+        }
+    }
+
+    @Override
+    public RrbVector<T> add(T value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Null values are not supported");
+        }
+        if (tail.length < WIDTH) {
+            return new RrbVector<>(size + 1, shift, root, VectorNode.append(tail, value));
+        } else {
+            RrbVector<T> pushed = pushTail();
+            return new RrbVector<>(size + 1, pushed.shift, pushed.root, new Object[]{value});
+        }
+    }
+
+    /**
+     * Moves the tail into the tree, the tail of the result is empty.
+     */
+    private RrbVector<T> pushTail() {
+        if (tail.length == 0) {
+            return this;
+        }
+        VectorNode newRoot = pushLeaf(root, shift, tail);
+        int newShift = shift;
+        if (newRoot == null) {
+            newRoot = VectorNode.of(new Object[]{root, newPath(shift, tail)}, shift + BITS);
+            newShift = shift + BITS;
+        }
+        return new RrbVector<>(size, newShift, newRoot, new Object[0]);
+    }
+
+    /**
+     * Appends leaf as the rightmost leaf of the subtree at node.
+     *
+     * @return The new node or null if the subtree is full.
+     */
+    private static VectorNode pushLeaf(VectorNode node, int shift, Object[] leaf) {
+        if (shift > BITS && node.children.length > 0) {
+            VectorNode newLast = pushLeaf((VectorNode) node.lastChild(), shift - BITS, leaf);
+            if (newLast != null) {
+                return node.withChild(node.children.length - 1, newLast, leaf.length);
+            }
+        }
+        if (node.children.length == WIDTH) {
+            return null;
+        }
+        Object[] newChildren = VectorNode.append(node.children, newPath(shift - BITS, leaf));
+        boolean lastWasFull = node.children.length == 0 || VectorNode.size(node.lastChild(), shift - BITS) == 1 << shift;
+        if (node.sizes == null && lastWasFull) {
+            return new VectorNode(newChildren, null);
+        } else {
+            return VectorNode.of(newChildren, shift);
+        }
+    }
+
+    /**
+     * A subtree at shift holding nothing but leaf.
+     */
+    private static Object newPath(int shift, Object[] leaf) {
+        if (shift == 0) {
+            return leaf;
+        } else {
+            return new VectorNode(new Object[]{newPath(shift - BITS, leaf)}, null);
+        }
+    }
+
+    /**
+     * @return A vector with the elements of this vector followed by the elements of other.
+     */
+    public RrbVector<T> concat(RrbVector<T> other) {
+        if (other.size == 0) {
+            return this;
+        } else if (size == 0) {
+            return other;
+        } else if (other.tailOffset() == 0 && tail.length + other.size <= WIDTH) {
+            Object[] newTail = Arrays.copyOf(tail, tail.length + other.size);
+            System.arraycopy(other.tail, 0, newTail, tail.length, other.size);
+            return new RrbVector<>(size + other.size, shift, root, newTail);
+        }
+        RrbVector<T> left = pushTail();
+        if (other.tailOffset() == 0) {
+            return new RrbVector<>(size + other.size, left.shift, left.root, other.tail);
+        }
+        VectorNode wrapper = concatSubTree(left.root, left.shift, other.root, other.shift);
+        int newShift = Math.max(left.shift, other.shift);
+        VectorNode newRoot;
+        if (wrapper.children.length == 1) {
+            newRoot = (VectorNode) wrapper.children[0];
+        } else {
+            newRoot = wrapper;
+            newShift += BITS;
+        }
+        return new RrbVector<>(size + other.size, newShift, newRoot, other.tail);
+    }
+
+    /**
+     * Concatenates two subtrees (leaves if the shift is 0).
+     *
+     * @return A node at max(leftShift, rightShift) + BITS with one or two children.
+     */
+    private static VectorNode concatSubTree(Object left, int leftShift, Object right, int rightShift) {
+        if (leftShift > rightShift) {
+            VectorNode l = (VectorNode) left;
+            VectorNode mid = concatSubTree(l.lastChild(), leftShift - BITS, right, rightShift);
+            return rebalance(l, mid, null, leftShift);
+        } else if (leftShift < rightShift) {
+            VectorNode r = (VectorNode) right;
+            VectorNode mid = concatSubTree(left, leftShift, r.children[0], rightShift - BITS);
+            return rebalance(null, mid, r, rightShift);
+        } else if (leftShift == 0) {
+            Object[] l = (Object[]) left;
+            Object[] r = (Object[]) right;
+            Object[] merged = Arrays.copyOf(l, l.length + r.length);
+            System.arraycopy(r, 0, merged, l.length, r.length);
+            if (merged.length <= WIDTH) {
+                return new VectorNode(new Object[]{merged}, null);
+            } else {
+                return new VectorNode(new Object[]{Arrays.copyOf(merged, WIDTH), Arrays.copyOfRange(merged, WIDTH, merged.length)}, null);
+            }
+        } else {
+            VectorNode l = (VectorNode) left;
+            VectorNode r = (VectorNode) right;
+            VectorNode mid = concatSubTree(l.lastChild(), leftShift - BITS, r.children[0], rightShift - BITS);
+            return rebalance(l, mid, r, leftShift);
+        }
+    }
+
+    /**
+     * Merges the children of left (except the last one), mid and right (except the first one), which are all
+     * nodes at shift, and redistributes them so that there are at most E_MAX more nodes than necessary.
+     *
+     * @return A node at shift + BITS with one or two children.
+     */
+    private static VectorNode rebalance(VectorNode left, VectorNode mid, VectorNode right, int shift) {
+        int leftCount = left == null ? 0 : left.children.length - 1;
+        int rightCount = right == null ? 0 : right.children.length - 1;
+        Object[] all = new Object[leftCount + mid.children.length + rightCount];
+        if (left != null) {
+            System.arraycopy(left.children, 0, all, 0, leftCount);
+        }
+        System.arraycopy(mid.children, 0, all, leftCount, mid.children.length);
+        if (right != null) {
+            System.arraycopy(right.children, 1, all, leftCount + mid.children.length, rightCount);
+        }
+
+        Object[] balanced = executePlan(all, concatPlan(all, shift - BITS), shift - BITS);
+        if (balanced.length <= WIDTH) {
+            return new VectorNode(new Object[]{VectorNode.of(balanced, shift)}, null);
+        } else {
+            VectorNode first = VectorNode.of(Arrays.copyOf(balanced, WIDTH), shift);
+            VectorNode second = VectorNode.of(Arrays.copyOfRange(balanced, WIDTH, balanced.length), shift);
+            return VectorNode.of(new Object[]{first, second}, shift + BITS);
+        }
+    }
+
+    /**
+     * Calculates how many slots each of the nodes should have after rebalancing. Nodes with too few
+     * slots have their slots distributed over the following nodes, until the number of nodes is at
+     * most E_MAX more than the optimal.
+     */
+    private static int[] concatPlan(Object[] nodes, int shift) {
+        int[] counts = new int[nodes.length];
+        int total = 0;
+        for (int i = 0; i < nodes.length; i++) {
+            counts[i] = VectorNode.slots(nodes[i], shift);
+            total += counts[i];
+        }
+        int optimal = (total - 1) / WIDTH + 1;
+        int n = counts.length;
+        int i = 0;
+        while (optimal + E_MAX < n) {
+            while (counts[i] > WIDTH - 1) {
+                i++;
+            }
+            int remaining = counts[i];
+            do {
+                int minSize = Math.min(remaining + counts[i + 1], WIDTH);
+                counts[i] = minSize;
+                remaining = remaining + counts[i + 1] - minSize;
+                i++;
+            } while (remaining > 0);
+            System.arraycopy(counts, i + 1, counts, i, n - i - 1);
+            n--;
+            i--;
+        }
+        return Arrays.copyOf(counts, n);
+    }
+
+    private static Object[] executePlan(Object[] nodes, int[] plan, int shift) {
+        Object[] res = new Object[plan.length];
+        int src = 0;
+        int srcOffset = 0;
+        for (int i = 0; i < plan.length; i++) {
+            if (srcOffset == 0 && VectorNode.slots(nodes[src], shift) == plan[i]) {
+                res[i] = nodes[src++];
+                continue;
+            }
+            Object[] slots = new Object[plan[i]];
+            int filled = 0;
+            while (filled < plan[i]) {
+                Object[] srcSlots = VectorNode.slotArray(nodes[src], shift);
+                int count = Math.min(plan[i] - filled, srcSlots.length - srcOffset);
+                System.arraycopy(srcSlots, srcOffset, slots, filled, count);
+                filled += count;
+                srcOffset += count;
+                if (srcOffset == srcSlots.length) {
+                    src++;
+                    srcOffset = 0;
+                }
+            }
+            res[i] = shift == 0 ? slots : VectorNode.of(slots, shift);
+        }
+        return res;
+    }
+
+    /**
+     * @return A vector with the elements in [from, to).
+     */
+    public RrbVector<T> slice(int from, int to) {
+        if (from < 0 || to > size || from > to) {
+            throw new IndexOutOfBoundsException();
+        }
+        return take(to).drop(from);
+    }
+
+    private RrbVector<T> take(int n) {
+        if (n == size) {
+            return this;
+        } else if (n == 0) {
+            return empty();
+        }
+        int tailOffset = tailOffset();
+        if (n > tailOffset) {
+            return new RrbVector<>(n, shift, root, Arrays.copyOf(tail, n - tailOffset));
+        }
+        // The leaf holding the last element becomes the new tail
+        Object node = root;
+        int i = n - 1;
+        int leafStart = 0;
+        for (int s = shift; s > 0; s -= BITS) {
+            VectorNode nd = (VectorNode) node;
+            int slot = nd.slot(i, s);
+            int offset = nd.offset(slot, s);
+            i -= offset;
+            leafStart += offset;
+            node = nd.children[slot];
+        }
+        Object[] newTail = Arrays.copyOf((Object[]) node, i + 1);
+        if (leafStart == 0) {
+            return new RrbVector<>(n, BITS, VectorNode.EMPTY, newTail);
+        }
+        VectorNode newRoot = (VectorNode) takeTree(root, shift, leafStart);
+        return shrink(n, shift, newRoot, newTail);
+    }
+
+    /**
+     * @return The subtree holding the first count elements of node, where count is greater than zero.
+     */
+    private static Object takeTree(Object node, int shift, int count) {
+        if (shift == 0) {
+            return Arrays.copyOf((Object[]) node, count);
+        }
+        VectorNode n = (VectorNode) node;
+        int slot = n.slot(count - 1, shift);
+        int offset = n.offset(slot, shift);
+        Object[] newChildren = Arrays.copyOf(n.children, slot + 1);
+        newChildren[slot] = takeTree(n.children[slot], shift - BITS, count - offset);
+        if (n.sizes == null) {
+            return new VectorNode(newChildren, null);
+        } else {
+            int[] newSizes = Arrays.copyOf(n.sizes, slot + 1);
+            newSizes[slot] = count;
+            return new VectorNode(newChildren, newSizes);
+        }
+    }
+
+    private RrbVector<T> drop(int n) {
+        if (n == 0) {
+            return this;
+        } else if (n == size) {
+            return empty();
+        }
+        int tailOffset = tailOffset();
+        if (n >= tailOffset) {
+            return new RrbVector<>(size - n, BITS, VectorNode.EMPTY, Arrays.copyOfRange(tail, n - tailOffset, tail.length));
+        }
+        VectorNode newRoot = (VectorNode) dropTree(root, shift, n);
+        return shrink(size - n, shift, newRoot, tail);
+    }
+
+    /**
+     * @return The subtree without the first count elements of node, where count is less than the size of node.
+     */
+    private static Object dropTree(Object node, int shift, int count) {
+        if (shift == 0) {
+            Object[] leaf = (Object[]) node;
+            return Arrays.copyOfRange(leaf, count, leaf.length);
+        }
+        VectorNode n = (VectorNode) node;
+        int slot = n.slot(count, shift);
+        int offset = n.offset(slot, shift);
+        Object[] newChildren = Arrays.copyOfRange(n.children, slot, n.children.length);
+        newChildren[0] = dropTree(n.children[slot], shift - BITS, count - offset);
+        return VectorNode.of(newChildren, shift);
+    }
+
+    /**
+     * Removes redundant levels at the top of the tree.
+     */
+    private RrbVector<T> shrink(int newSize, int newShift, VectorNode newRoot, Object[] newTail) {
+        while (newShift > BITS && newRoot.children.length == 1) {
+            newRoot = (VectorNode) newRoot.children[0];
+            newShift -= BITS;
+        }
+        return new RrbVector<>(newSize, newShift, newRoot, newTail);
+    }
+
+    @Override
+    public RrbVector<T> insert(int idx, T value) {
+        if (idx < 0 || idx > size) {
+            throw new IndexOutOfBoundsException();
+        } else if (idx == size) {
+            return add(value);
+        } else {
+            return take(idx).add(value).concat(drop(idx));
+        }
+    }
+
+    @Override
+    public RrbVector<T> removeAt(int idx) {
+        if (idx < 0 || idx >= size) {
+            throw new IndexOutOfBoundsException();
+        }
+        return take(idx).concat(drop(idx + 1));
+    }
+
+    @Override
+    public RrbVector<T> prepend(T value) {
+        return insert(0, value);
+    }
+
+    @Override
+    public RrbVector<T> subList(int from, int to) {
+        return slice(from, to);
+    }
+
+    @Override
+    public ImmutableList.Parts<T> splitAt(int idx) {
+        if (idx < 0 || idx > size) {
+            throw new IndexOutOfBoundsException();
+        }
+        return new ImmutableList.Parts<>(take(idx), drop(idx));
+    }
+
+    /**
+     * Concatenation of two vectors runs in O(log n), other lists are appended value by value.
+     */
+    @Override
+    public RrbVector<T> concat(ImmutableList<T> other) {
+        if (other instanceof RrbVector) {
+            return concat((RrbVector<T>) other);
+        } else {
+            return addAll(other);
+        }
+    }
+
+    @Override
+    public RrbVector<T> remove(T value) {
+        int idx = indexOf(value);
+        if (idx == -1) {
+            return this;
+        } else {
+            return removeAt(idx);
+        }
+    }
+
+    @Override
+    public int indexOf(T value) {
+        int i = 0;
+        for (T t : this) {
+            if (t.equals(value)) {
+                return i;
+            }
+            i++;
+        }
+        return -1;
+    }
+
+    @Override
+    public int lastIndexOf(T value) {
+        LeafCursor cursor = new LeafCursor();
+        for (int i = size - 1; i >= 0; i--) {
+            if (cursor.get(i).equals(value)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return CollectionEquality.listEquals(this, o);
+    }
+
+    @Override
+    public int hashCode() {
+        return CollectionEquality.listHashCode(this);
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return new Iterator<>() {
+            private final LeafCursor cursor = new LeafCursor();
+            private int i = 0;
+
+            @Override
+            public boolean hasNext() {
+                return i < size;
+            }
+
+            @Override
+            public T next() {
+                if (i >= size) {
+                    throw new NoSuchElementException();
+                }
+                return cursor.get(i++);
+            }
+        };
+    }
+
+    @Override
+    public Spliterator<T> spliterator() {
+        return new RrbVectorSpliterator(0, size);
+    }
+
+    @Override
+    public RrbVector<T> addAll(Iterable<? extends T> values) {
+        return (RrbVector<T>) ImmutableList.super.addAll(values);
+    }
+
+    @Override
+    public RrbVector<T> removeAll(Iterable<? extends T> values) {
+        return (RrbVector<T>) ImmutableList.super.removeAll(values);
+    }
+
+    @Override
+    public RrbVector<T> retainAll(Iterable<? extends T> values) {
+        return (RrbVector<T>) ImmutableList.super.retainAll(values);
+    }
+
+    /**
+     * Remembers the last visited leaf, so that accessing nearby indexes only descends the tree once per leaf.
+     */
+    private final class LeafCursor {
+        private Object[] leaf = tail;
+        private int leafStart = tailOffset();
+
+        @SuppressWarnings("unchecked")
+        T get(int idx) {
+            if (idx < leafStart || idx >= leafStart + leaf.length) {
+                seek(idx);
+            }
+            return (T) leaf[idx - leafStart];
+        }
+
+        private void seek(int idx) {
+            int tailOffset = tailOffset();
+            if (idx >= tailOffset) {
+                leaf = tail;
+                leafStart = tailOffset;
+                return;
+            }
+            Object node = root;
+            int i = idx;
+            int start = 0;
+            for (int s = shift; s > 0; s -= BITS) {
+                VectorNode n = (VectorNode) node;
+                int slot = n.slot(i, s);
+                int offset = n.offset(slot, s);
+                i -= offset;
+                start += offset;
+                node = n.children[slot];
+            }
+            leaf = (Object[]) node;
+            leafStart = start;
+        }
+    }
+
+    /**
+     * Splits the index range in half, rounded down to a multiple of the leaf width so that the halves
+     * rarely share a leaf.
+     */
+    private final class RrbVectorSpliterator implements Spliterator<T> {
+        private final LeafCursor cursor = new LeafCursor();
+        private int from;
+        private final int to;
+
+        private RrbVectorSpliterator(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            if (from >= to) {
+                return false;
+            }
+            action.accept(cursor.get(from++));
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super T> action) {
+            while (from < to) {
+                action.accept(cursor.get(from++));
+            }
+        }
+
+        @Override
+        public Spliterator<T> trySplit() {
+            int mid = (from + (to - from) / 2) & ~VectorNode.MASK;
+            if (mid <= from || mid >= to) {
+                return null;
+            }
+            RrbVectorSpliterator prefix = new RrbVectorSpliterator(from, mid);
+            from = mid;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return to - from;
+        }
+
+        @Override
+        public int characteristics() {
+            return Spliterator.ORDERED | Spliterator.SIZED | Spliterator.SUBSIZED | Spliterator.IMMUTABLE | Spliterator.NONNULL;
+        }
+    }
+
+    /**
+     * Test method. Validates that the size tables are consistent with the content of the tree.
+     */
+    boolean isConsistent() {
+        return tail.length <= WIDTH && (size == 0 || tail.length > 0)
+                && tailOffset() == VectorNode.size(root, shift) && isConsistent(root, shift);
+    }
+
+    private static boolean isConsistent(Object node, int shift) {
+        if (shift == 0) {
+            return ((Object[]) node).length <= WIDTH;
+        }
+        VectorNode n = (VectorNode) node;
+        if (n.children.length > WIDTH) {
+            return false;
+        }
+        int sum = 0;
+        for (int i = 0; i < n.children.length; i++) {
+            int childSize = VectorNode.size(n.children[i], shift - BITS);
+            sum += childSize;
+            if (n.sizes == null && i < n.children.length - 1 && childSize != 1 << shift) {
+                return false;
+            }
+            if (n.sizes != null && n.sizes[i] != sum) {
+                return false;
+            }
+            if (!isConsistent(n.children[i], shift - BITS)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,132 @@
+package se.plilja.imcollect.internal.vector;
+
+import java.util.Arrays;
+
+/**
+ * An internal node of a {@link RrbVector}. The children are either nodes or, on the lowest level,
+ * leaves which are plain arrays of elements.
+ * <p>
+ * A node is strict if all children except the last one are full, in which case the child holding
+ * an index can be calculated directly from the bits of the index. Otherwise the node is relaxed and
+ * keeps a table with the cumulative sizes of its children.
+ */
+final class VectorNode {
+    static final int BITS = 5;
+    static final int WIDTH = 1 << BITS;
+    static final int MASK = WIDTH - 1;
+
+    static final VectorNode EMPTY = new VectorNode(new Object[0], null);
+
+    final Object[] children;
+    final int[] sizes; // null if strict
+
+    VectorNode(Object[] children, int[] sizes) {
+        this.children = children;
+        this.sizes = sizes;
+    }
+
+    /**
+     * Creates a node at shift from children, deciding whether it has to be relaxed.
+     */
+    static VectorNode of(Object[] children, int shift) {
+        int[] sizes = new int[children.length];
+        int sum = 0;
+        boolean strict = true;
+        for (int i = 0; i < children.length; i++) {
+            int childSize = size(children[i], shift - BITS);
+            if (i < children.length - 1 && childSize != 1 << shift) {
+                strict = false;
+            }
+            sum += childSize;
+            sizes[i] = sum;
+        }
+        return new VectorNode(children, strict ? null : sizes);
+    }
+
+    /**
+     * @return The number of elements in a subtree, where node is a leaf if shift is 0.
+     */
+    static int size(Object node, int shift) {
+        if (shift == 0) {
+            return ((Object[]) node).length;
+        }
+        VectorNode n = (VectorNode) node;
+        if (n.children.length == 0) {
+            return 0;
+        } else if (n.sizes != null) {
+            return n.sizes[n.sizes.length - 1];
+        } else {
+            return ((n.children.length - 1) << shift) + size(n.children[n.children.length - 1], shift - BITS);
+        }
+    }
+
+    /**
+     * Number of slots (children or elements) of a node, where node is a leaf if shift is 0.
+     */
+    static int slots(Object node, int shift) {
+        if (shift == 0) {
+            return ((Object[]) node).length;
+        } else {
+            return ((VectorNode) node).children.length;
+        }
+    }
+
+    static Object[] slotArray(Object node, int shift) {
+        if (shift == 0) {
+            return (Object[]) node;
+        } else {
+            return ((VectorNode) node).children;
+        }
+    }
+
+    /**
+     * The slot holding idx, where idx is relative to the start of this node.
+     */
+    int slot(int idx, int shift) {
+        if (sizes == null) {
+            return (idx >>> shift) & MASK;
+        } else {
+            int slot = idx >>> shift;
+            while (sizes[slot] <= idx) {
+                slot++;
+            }
+            return slot;
+        }
+    }
+
+    /**
+     * The index of the first element of slot, relative to the start of this node.
+     */
+    int offset(int slot, int shift) {
+        if (slot == 0) {
+            return 0;
+        } else if (sizes == null) {
+            return slot << shift;
+        } else {
+            return sizes[slot - 1];
+        }
+    }
+
+    Object lastChild() {
+        return children[children.length - 1];
+    }
+
+    VectorNode withChild(int slot, Object child, int sizeDelta) {
+        Object[] newChildren = children.clone();
+        newChildren[slot] = child;
+        int[] newSizes = sizes;
+        if (sizes != null && sizeDelta != 0) {
+            newSizes = sizes.clone();
+            for (int i = slot; i < newSizes.length; i++) {
+                newSizes[i] += sizeDelta;
+            }
+        }
+        return new VectorNode(newChildren, newSizes);
+    }
+
+    static Object[] append(Object[] array, Object value) {
+        Object[] res = Arrays.copyOf(array, array.length + 1);
+        res[array.length] = value;
+        return res;
+    }
+}
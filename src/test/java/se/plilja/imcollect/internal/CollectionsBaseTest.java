@@ -7,9 +7,12 @@ import org.junit.Assume;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import se.plilja.imcollect.ImmutableCollection;
+import se.plilja.imcollect.ImmutableList;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Spliterator;
 
 import static java.util.Arrays.asList;
 import static java.util.stream.Collectors.toList;
@@ -150,6 +153,109 @@ public abstract class CollectionsBaseTest {
         assertEquals(asList(2, 6, 10, 14, 18), result);
     }
 
+    @Property
+    public void parallelStreamShouldYieldSameResultAsIteration(@InRange(minInt = 0, maxInt = 20000) int size) {
+        var target = empty;
+        for (int i = 0; i < size; i++) {
+            target = target.add(i);
+        }
+        var expected = new ArrayList<Integer>();
+        target.forEach(expected::add);
+
+        // when
+        var result = target.parallelStream().collect(toList());
+
+        // then
+        assertTrue(target.parallelStream().isParallel());
+        assertEquals(expected, result);
+        assertEquals((long) size * (size - 1) / 2, target.parallelStream().mapToLong(i -> i).sum());
+    }
+
+    @Property
+    public void foldShouldYieldSameResultAsIteration(@InRange(minInt = 0, maxInt = 30000) int size) {
+        var target = empty;
+        for (int i = 0; i < size; i++) {
+            target = target.add(i);
+        }
+        var expected = new ArrayList<Integer>();
+        target.forEach(expected::add);
+
+        // when
+        List<Integer> result = target.fold(null, (acc, value) -> {
+            List<Integer> res = acc == null ? new ArrayList<>() : acc;
+            res.add(value);
+            return res;
+        }, (left, right) -> {
+            if (left == null || right == null) {
+                return left == null ? right : left;
+            }
+            left.addAll(right);
+            return left;
+        });
+
+        // then
+        assertEquals(expected, result == null ? List.of() : result);
+        assertEquals((long) size * (size - 1) / 2, (long) target.fold(0L, (acc, value) -> acc + value, Long::sum));
+        assertEquals((long) size * (size - 1) / 2, (long) target.fold(0L, (acc, value) -> acc + value, Long::sum, 16));
+    }
+
+    @Property
+    public void splittingShouldPreserveOrderAndSize(@InRange(minInt = 0, maxInt = 3000) int size, @InRange(minInt = 0, maxInt = 12) int depth) {
+        var target = empty;
+        for (int i = 0; i < size; i++) {
+            target = target.add(i);
+        }
+        var expected = new ArrayList<Integer>();
+        target.forEach(expected::add);
+
+        // when
+        var result = new ArrayList<Integer>();
+        collectSplits(target.spliterator(), depth, result);
+
+        // then
+        assertEquals(expected, result);
+    }
+
+    @Property
+    public void splittingAfterAdvancingShouldPreserveOrderAndSize(@InRange(minInt = 0, maxInt = 3000) int size, @InRange(minInt = 0, maxInt = 50) int advance) {
+        var target = empty;
+        for (int i = 0; i < size; i++) {
+            target = target.add(i);
+        }
+        var expected = new ArrayList<Integer>();
+        target.forEach(expected::add);
+        var spliterator = target.spliterator();
+        var result = new ArrayList<Integer>();
+
+        // when
+        for (int i = 0; i < advance && spliterator.tryAdvance(result::add); i++) {
+        }
+        collectSplits(spliterator, 8, result);
+
+        // then
+        assertEquals(expected, result);
+    }
+
+    private static void collectSplits(Spliterator<Integer> spliterator, int depth, List<Integer> res) {
+        long size = spliterator.estimateSize();
+        Spliterator<Integer> prefix = depth > 0 ? spliterator.trySplit() : null;
+        if (prefix == null) {
+            // alternate between element wise and bulk traversal
+            if (depth % 2 == 0) {
+                spliterator.forEachRemaining(res::add);
+            } else {
+                while (spliterator.tryAdvance(res::add)) {
+                }
+            }
+        } else {
+            if (spliterator.hasCharacteristics(Spliterator.SUBSIZED)) {
+                assertEquals(size, prefix.estimateSize() + spliterator.estimateSize());
+            }
+            collectSplits(prefix, depth - 1, res);
+            collectSplits(spliterator, depth - 1, res);
+        }
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void addingNullShouldNotBeAllowed1() {
         empty.add(null);
@@ -160,6 +266,27 @@ public abstract class CollectionsBaseTest {
         empty.addAll(Arrays.asList(1, 2, null, 3, 4));
     }
 
+    @Test(expected = IllegalArgumentException.class)
+    public void settingNullShouldNotBeAllowed() {
+        Assume.assumeTrue(empty instanceof ImmutableList);
+
+        ((ImmutableList<Integer>) empty.addAll(asList(1, 2, 3))).set(1, null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void insertingNullShouldNotBeAllowed() {
+        Assume.assumeTrue(empty instanceof ImmutableList);
+
+        ((ImmutableList<Integer>) empty.addAll(asList(1, 2, 3))).insert(1, null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void prependingNullShouldNotBeAllowed() {
+        Assume.assumeTrue(empty instanceof ImmutableList);
+
+        ((ImmutableList<Integer>) empty.add(1)).prepend(null);
+    }
+
     @Property
     public void nullShouldNeverBePresent(List<Integer> base) {
         var target = empty.addAll(base);
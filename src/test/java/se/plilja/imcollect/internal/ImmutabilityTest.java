@@ -1,8 +1,15 @@
 package se.plilja.imcollect.internal;
 
 import org.junit.Test;
+import se.plilja.imcollect.internal.champ.ChampHashMap;
+import se.plilja.imcollect.internal.champ.ChampHashSet;
 import se.plilja.imcollect.internal.fingertrees.FingerTreeList;
+import se.plilja.imcollect.internal.primitive.IntVector;
+import se.plilja.imcollect.internal.primitive.LongLongTreeMap;
+import se.plilja.imcollect.internal.primitive.LongTreeSet;
+import se.plilja.imcollect.internal.vector.RrbVector;
 
+import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.util.*;
 
@@ -17,6 +24,12 @@ public class ImmutabilityTest {
         assertImmutable(WeightBalancedTree.class);
         assertImmutable(WeightBalancedTreeMap.class);
         assertImmutable(WeightBalancedTreeSet.class);
+        assertImmutable(ChampHashMap.class);
+        assertImmutable(ChampHashSet.class);
+        assertImmutable(RrbVector.class);
+        assertImmutable(IntVector.class);
+        assertImmutable(LongTreeSet.class);
+        assertImmutable(LongLongTreeMap.class);
     }
 
     private void assertImmutable(Class<?> clazz) {
@@ -35,16 +48,35 @@ public class ImmutabilityTest {
                 .filter(field -> !isGenericType(field.getType()))
                 .forEach(field -> {
                     assertTrue(String.format("Field should be final (%s#%s)", clazz.getName(), field.getName()),
-                            Modifier.isFinal(field.getModifiers()));
+                            Modifier.isFinal(field.getModifiers()) || fieldFinalExceptions().contains(clazz.getSimpleName() + "#" + field.getName()) || isCachedHash(clazz, field));
                     assertImmutable(field.getType(), visited);
                 });
     }
 
+    /**
+     * A hash code computed on first use and then cached, which doesn't change the observable state.
+     */
+    private static boolean isCachedHash(Class<?> clazz, Field field) {
+        return cachedHashes().contains(clazz.getSimpleName()) && field.getName().equals("hash") && field.getType() == int.class;
+    }
+
+    private static Collection<String> cachedHashes() {
+        return Arrays.asList("FingerTreeList", "WBNode");
+    }
+
     private boolean isGenericType(Class<?> clazz) {
         return clazz.equals(Object.class);
     }
 
+    /**
+     * The fields a transient, or a bulk build, updates in place on the nodes owned by its edit token,
+     * see WeightBalancedTree.Transient. The nodes don't change once the tree they belong to is built.
+     */
+    private static Collection<String> fieldFinalExceptions() {
+        return Arrays.asList("WBNode#key", "WBNode#left", "WBNode#right", "WBNode#size");
+    }
+
     private static Collection<String> classFinalExceptions() {
-        return Collections.singletonList("FingerTree"); // The abstract base class which is package protected is allowed to not be final
+        return Arrays.asList("FingerTree", "ChampNode", "WBNode"); // The base classes which are not public are allowed to not be final
     }
 }
@@ -5,10 +5,26 @@ import com.pholser.junit.quickcheck.generator.InRange;
 import com.pholser.junit.quickcheck.runner.JUnitQuickcheck;
 import org.junit.Test;
 import org.junit.runner.RunWith;
-
+import se.plilja.imcollect.Codec;
+import se.plilja.imcollect.ImmutableMap;
+import se.plilja.imcollect.internal.champ.ChampHashMap;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.TreeMap;
+import java.util.function.BiFunction;
 
 import static org.junit.Assert.*;
 
@@ -72,6 +88,28 @@ public class WeightBalancedTreeMapTest {
         }
     }
 
+    @Property
+    public void getShouldBehaveAsReferenceImplementation(List<@InRange(minInt = -100, maxInt = 100) Integer> values) {
+        var target = new WeightBalancedTreeMap<Integer, String>(Integer::compare);
+        var reference = new TreeMap<Integer, String>();
+        for (Integer i : values) {
+            target = target.put(i, String.format("foo %d", i));
+            reference.put(i, String.format("foo %d", i));
+        }
+        var builder = target.toBuilder();
+
+        // then
+        for (int i = -100; i <= 100; i++) {
+            assertEquals(reference.get(i), target.get(i));
+            assertEquals(reference.getOrDefault(i, "missing"), target.getOrDefault(i, "missing"));
+            assertEquals(Optional.ofNullable(reference.get(i)), target.lookup(i));
+            assertEquals(reference.get(i), builder.get(i));
+            assertEquals(reference.containsKey(i), builder.contains(i));
+        }
+        assertNull(target.get(null));
+        assertFalse(target.contains(null));
+    }
+
     @Property
     public void iterateValuesShouldBehaveAsReferenceImplementation(List<@InRange(minInt = -10, maxInt = 10) Integer> values) {
         var target = new WeightBalancedTreeMap<Integer, Integer>(Integer::compare);
@@ -203,6 +241,105 @@ public class WeightBalancedTreeMapTest {
         }
     }
 
+    @Property
+    public void fromEntriesShouldBehaveAsReferenceImplementation(List<@InRange(minInt = -10, maxInt = 10) Integer> keys) {
+        var entries = new ArrayList<Map.Entry<Integer, Integer>>();
+        var reference = new TreeMap<Integer, Integer>();
+        for (int i = 0; i < keys.size(); i++) {
+            entries.add(new AbstractMap.SimpleEntry<>(keys.get(i), i));
+            reference.put(keys.get(i), i);
+        }
+
+        // when
+        var target = WeightBalancedTreeMap.fromEntries(Integer::compare, entries);
+
+        // then
+        assertEquals(reference.size(), target.size());
+        for (var entry : reference.entrySet()) {
+            assertEquals(entry.getValue(), target.get(entry.getKey()));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void putAllWithNullValueShouldFail() {
+        var target = new WeightBalancedTreeMap<Integer, Integer>(Integer::compare);
+        var map = new HashMap<Integer, Integer>();
+        map.put(1, null);
+        target.putAll(map);
+    }
+
+    @Property
+    public void setOperationsShouldBehaveAsReferenceImplementation(List<@InRange(minInt = -20, maxInt = 20) Integer> keys1, List<@InRange(minInt = -20, maxInt = 20) Integer> keys2) {
+        Comparator<Integer> comparator = Integer::compare;
+        var target = new WeightBalancedTreeMap<Integer, Integer>(comparator);
+        for (int key : keys1) {
+            target = target.put(key, key);
+        }
+        var other = new WeightBalancedTreeMap<Integer, Integer>(comparator);
+        for (int key : keys2) {
+            other = other.put(key, -key);
+        }
+
+        // when
+        var union = target.union(other);
+        var intersection = target.intersection(other);
+        var difference = target.difference(other);
+
+        // then
+        for (int i = -20; i <= 20; i++) {
+            assertEquals(keys1.contains(i) || keys2.contains(i), union.contains(i));
+            if (keys2.contains(i)) {
+                assertEquals(-i, (int) union.get(i));
+            }
+            assertEquals(keys1.contains(i) && keys2.contains(i), intersection.contains(i));
+            if (intersection.contains(i)) {
+                assertEquals(i, (int) intersection.get(i));
+            }
+            assertEquals(keys1.contains(i) && !keys2.contains(i), difference.contains(i));
+        }
+        assertEquals(keys2.containsAll(keys1), target.isSubsetOf(other));
+        assertEquals(keys1.stream().noneMatch(keys2::contains), target.isDisjoint(other));
+    }
+
+    @Property
+    public void builderShouldNotAffectOriginalMap(List<@InRange(minInt = -20, maxInt = 20) Integer> baseKeys, List<@InRange(minInt = -20, maxInt = 20) Integer> keys) {
+        var original = new WeightBalancedTreeMap<Integer, Integer>(Integer::compare);
+        for (int key : baseKeys) {
+            original = original.put(key, key);
+        }
+        var reference = new TreeMap<Integer, Integer>();
+        for (int key : baseKeys) {
+            reference.put(key, key);
+        }
+
+        // when
+        var builder = original.toBuilder();
+        for (int key : keys) {
+            if (key % 2 == 0) {
+                builder.put(key, -key);
+            } else {
+                builder.remove(key);
+            }
+        }
+        var first = builder.build();
+        builder.put(4711, 4711);
+        var second = builder.build();
+
+        // then
+        assertEquals(reference.size(), original.size());
+        for (var entry : reference.entrySet()) {
+            assertEquals(entry.getValue(), original.get(entry.getKey()));
+        }
+        for (int key : keys) {
+            if (key % 2 == 0) {
+                assertEquals(-key, (int) first.get(key));
+            }
+        }
+        assertFalse(first.contains(4711));
+        assertTrue(second.contains(4711));
+        assertEquals(first.size() + 1, second.size());
+    }
+
     @Property
     public void lookupNullShouldAlwaysReturnEmpty(List<Integer> baseValues) {
         var target = new WeightBalancedTreeMap<Integer, Integer>(Integer::compare);
@@ -239,4 +376,323 @@ public class WeightBalancedTreeMapTest {
         // then
         assertSame(result, target);
     }
-}
\ No newline at end of file
+
+    @Property
+    public void putOfEqualValueShouldReturnTheExactSameInstance(List<@InRange(minInt = -20, maxInt = 20) Integer> baseValues) {
+        var target = new WeightBalancedTreeMap<Integer, String>(Integer::compare);
+        for (int i : baseValues) {
+            target = target.put(i, String.format("foo %d", i));
+        }
+
+        for (int i : baseValues) {
+            // when
+            var result = target.put(i, String.format("foo %d", i));
+
+            // then
+            assertSame(target, result);
+        }
+    }
+
+    @Property
+    public void orderStatisticsShouldBehaveAsReferenceImplementation(List<@InRange(minInt = -50, maxInt = 50) Integer> keys,
+                                                                    @InRange(minInt = 0, maxInt = 100) int i) {
+        var target = new WeightBalancedTreeMap<Integer, String>(Integer::compare);
+        var reference = new TreeMap<Integer, String>();
+        for (int key : keys) {
+            target = target.put(key, String.format("foo %d", key));
+            reference.put(key, String.format("foo %d", key));
+        }
+        var entries = new ArrayList<>(reference.entrySet());
+        var sortedKeys = new ArrayList<>(reference.keySet());
+        int n = i % (entries.size() + 1);
+
+        for (int j = 0; j < entries.size(); j++) {
+            assertEquals(entries.get(j), target.getByIndex(j));
+        }
+        for (int key = -51; key <= 51; key++) {
+            assertEquals(Collections.binarySearch(sortedKeys, key), target.rankOf(key));
+        }
+        assertEquals(sortedKeys.subList(0, n), toList(target.take(n).keys()));
+        assertEquals(sortedKeys.subList(n, sortedKeys.size()), toList(target.drop(n).keys()));
+        var slice = target.slice(n / 2, n);
+        for (int j = 0; j < entries.size(); j++) {
+            assertEquals(j >= n / 2 && j < n ? entries.get(j).getValue() : null, slice.get(entries.get(j).getKey()));
+        }
+    }
+
+    private static <T> List<T> toList(Iterable<T> values) {
+        var res = new ArrayList<T>();
+        values.forEach(res::add);
+        return res;
+    }
+
+    @Property
+    public void navigationShouldBehaveAsReferenceImplementation(List<@InRange(minInt = -50, maxInt = 50) Integer> keys,
+                                                              @InRange(minInt = -60, maxInt = 60) int from,
+                                                              @InRange(minInt = -60, maxInt = 60) int to) {
+        var target = new WeightBalancedTreeMap<Integer, String>(Integer::compare);
+        var reference = new TreeMap<Integer, String>();
+        for (int key : keys) {
+            target = target.put(key, String.format("foo %d", key));
+            reference.put(key, String.format("foo %d", key));
+        }
+        int lo = Math.min(from, to);
+        int hi = Math.max(from, to);
+
+        assertEquals(reference.firstEntry(), target.firstEntry());
+        assertEquals(reference.lastEntry(), target.lastEntry());
+        for (int key = -51; key <= 51; key++) {
+            assertEquals(reference.floorEntry(key), target.floorEntry(key));
+            assertEquals(reference.ceilingEntry(key), target.ceilingEntry(key));
+            assertEquals(reference.lowerEntry(key), target.lowerEntry(key));
+            assertEquals(reference.higherEntry(key), target.higherEntry(key));
+            assertEquals(reference.floorKey(key), target.floorKey(key));
+            assertEquals(reference.higherKey(key), target.higherKey(key));
+        }
+        assertEquals(new ArrayList<>(reference.descendingMap().keySet()), toList(target.descendingKeys()));
+        assertEquals(new ArrayList<>(reference.descendingMap().values()), toList(target.descendingValues()));
+        assertEquals(new ArrayList<>(reference.subMap(lo, true, hi, false).values()), toList(target.subMap(lo, hi).values()));
+        assertEquals(new ArrayList<>(reference.subMap(lo, false, hi, true).keySet()), toList(target.subMap(lo, false, hi, true).keys()));
+        assertEquals(new ArrayList<>(reference.headMap(hi).keySet()), toList(target.headMap(hi).keys()));
+        assertEquals(new ArrayList<>(reference.tailMap(lo, false).keySet()), toList(target.tailMap(lo, false).keys()));
+    }
+
+    @Property
+    public void equalsAndHashCodeShouldFollowJavaUtilMap(HashMap<@InRange(minInt = -50, maxInt = 50) Integer, @InRange(minInt = 0, maxInt = 3) Integer> a, HashMap<@InRange(minInt = -50, maxInt = 50) Integer, @InRange(minInt = 0, maxInt = 3) Integer> b) {
+        var empty = new WeightBalancedTreeMap<Integer, Integer>(Integer::compare);
+        var mapA = empty.putAll(a);
+        var mapB = empty.putAll(b);
+        var reversedB = new WeightBalancedTreeMap<Integer, Integer>(Comparator.reverseOrder()).putAll(b);
+        var hashB = ChampHashMap.<Integer, Integer>empty().putAll(b);
+        boolean expected = a.equals(b);
+
+        assertEquals(expected, mapA.equals(mapB));
+        assertEquals(expected, mapA.equals(reversedB));
+        assertEquals(expected, mapA.equals(hashB));
+        assertEquals(expected, hashB.equals(mapA));
+        assertEquals(a.hashCode(), mapA.hashCode());
+        assertEquals(b.hashCode(), hashB.hashCode());
+    }
+
+    @Test
+    public void versionsSharingStructureShouldBeComparedByValue() {
+        var base = new WeightBalancedTreeMap<Integer, String>(Integer::compare);
+        for (int i = 0; i < 100000; i++) {
+            base = base.put(i, "v" + i);
+        }
+
+        var rebuilt = base.remove(500).put(500, "v500");
+
+        assertEquals(base, rebuilt);
+        assertEquals(base.hashCode(), rebuilt.hashCode());
+        assertNotEquals(base, base.put(77777, "changed"));
+        assertNotEquals(base.hashCode(), base.put(77777, "changed").hashCode());
+    }
+
+    @Property
+    public void diffShouldReportChangesBetweenVersions(@InRange(minInt = 0, maxInt = 5000) int size, List<@InRange(minInt = -100, maxInt = 5100) Integer> changes) {
+        var base = new WeightBalancedTreeMap<Integer, Integer>(Integer::compare);
+        for (int i = 0; i < size; i++) {
+            base = base.put(i, i);
+        }
+        var derived = base;
+        for (int key : changes) {
+            derived = key % 2 == 0 ? derived.put(key, -key) : derived.remove(key);
+        }
+
+        var expected = new ArrayList<String>();
+        for (int key = -100; key <= 5100; key++) {
+            if (base.contains(key) && !derived.contains(key)) {
+                expected.add("removed " + key + "=" + base.get(key));
+            } else if (!base.contains(key) && derived.contains(key)) {
+                expected.add("added " + key + "=" + derived.get(key));
+            } else if (base.contains(key) && !base.get(key).equals(derived.get(key))) {
+                expected.add("changed " + key + "=" + base.get(key) + "->" + derived.get(key));
+            }
+        }
+
+        assertEquals(expected, diff(base, derived));
+        var unrelated = ChampHashMap.<Integer, Integer>empty();
+        for (var key : derived.keys()) {
+            unrelated = unrelated.put(key, derived.get(key));
+        }
+        var fromUnrelated = diff(base, unrelated);
+        Collections.sort(fromUnrelated);
+        Collections.sort(expected);
+        assertEquals(expected, fromUnrelated);
+    }
+
+    @Property
+    public void mergeShouldBehaveAsReferenceImplementation(HashMap<@InRange(minInt = -50, maxInt = 50) Integer, @InRange(minInt = 0, maxInt = 5) Integer> a, HashMap<@InRange(minInt = -50, maxInt = 50) Integer, @InRange(minInt = 0, maxInt = 5) Integer> b) {
+        BiFunction<Integer, Integer, Integer> resolver = (x, y) -> x + y == 3 ? null : x * 10 + y;
+        var reference = new TreeMap<>(a);
+        b.forEach((key, value) -> reference.merge(key, value, resolver));
+        var left = ImmutableMap.<Integer, Integer>empty().putAll(a);
+        var right = ImmutableMap.<Integer, Integer>empty().putAll(b);
+        ImmutableMap<Integer, Integer> unrelated = ChampHashMap.<Integer, Integer>empty().putAll(b);
+
+        assertEquals(ImmutableMap.<Integer, Integer>empty().putAll(reference), left.merge(right, resolver));
+        assertEquals(ImmutableMap.<Integer, Integer>empty().putAll(reference), left.merge(unrelated, resolver));
+        assertEquals(ImmutableMap.<Integer, Integer>empty().putAll(reference), left.merge(right, resolver, 1));
+        assertEquals(a.size(), left.size());
+    }
+
+    @Test
+    public void mergeOfLargeMapsShouldResolveEveryCommonKey() {
+        var left = new WeightBalancedTreeMap<Integer, Integer>(Integer::compare);
+        var right = left;
+        for (int i = 0; i < 100_000; i++) {
+            left = left.put(2 * i, i);
+            right = right.put(3 * i, i);
+        }
+
+        var result = left.merge(right, (x, y) -> x - y);
+
+        assertEquals(100_000 + 100_000 - 33_334, result.size());
+        for (int i = 0; i < 300_000; i++) {
+            Integer expected;
+            if (i % 6 == 0 && i < 200_000) {
+                expected = i / 2 - i / 3;
+            } else if (i % 2 == 0 && i < 200_000) {
+                expected = i / 2;
+            } else if (i % 3 == 0) {
+                expected = i / 3;
+            } else {
+                expected = null;
+            }
+            assertEquals(expected, result.get(i));
+        }
+    }
+
+    @Property
+    public void mergeShouldShareUntouchedSubtrees(List<@InRange(minInt = 0, maxInt = 1000) Integer> keys) {
+        var base = new WeightBalancedTreeMap<Integer, Integer>(Integer::compare);
+        for (int key : keys) {
+            base = base.put(key, key);
+        }
+
+        assertSame(base, base.merge(base, (x, y) -> x));
+        assertSame(base, base.merge(new WeightBalancedTreeMap<>(base.comparator()), (x, y) -> y));
+    }
+
+    @Property
+    public void bulkTransformsShouldBehaveAsReferenceImplementation(HashMap<@InRange(minInt = -50, maxInt = 50) Integer, @InRange(minInt = 0, maxInt = 9) Integer> entries) {
+        var target = ImmutableMap.<Integer, Integer>empty().putAll(entries);
+        var mapped = new TreeMap<Integer, String>();
+        var filtered = new TreeMap<Integer, Integer>();
+        var evenKeys = new TreeMap<Integer, Integer>();
+        entries.forEach((key, value) -> {
+            mapped.put(key, "v" + value);
+            if (value > key) {
+                filtered.put(key, value);
+            }
+            if (key % 2 == 0) {
+                evenKeys.put(key, value);
+            }
+        });
+
+        assertEquals(ImmutableMap.<Integer, String>empty().putAll(mapped), target.mapValues(value -> "v" + value));
+        assertEquals(ImmutableMap.<Integer, Integer>empty().putAll(filtered), target.filter((key, value) -> value > key));
+        assertEquals(ImmutableMap.<Integer, Integer>empty().putAll(evenKeys), target.filterKeys(key -> key % 2 == 0));
+        assertSame(target, target.filter((key, value) -> true));
+        assertEquals(new ArrayList<>(filtered.keySet()), target.fold(new ArrayList<Integer>(), (acc, key, value) -> {
+            if (value > key) {
+                acc.add(key);
+            }
+            return acc;
+        }, (left, right) -> {
+            left.addAll(right);
+            return left;
+        }));
+
+        // a cutoff of 1 forks at every node
+        assertEquals(ImmutableMap.<Integer, String>empty().putAll(mapped), target.mapValues(value -> "v" + value, 1));
+        assertEquals(ImmutableMap.<Integer, Integer>empty().putAll(filtered), target.filter((key, value) -> value > key, 1));
+        assertEquals(Integer.valueOf(filtered.size()), target.fold(0, (acc, key, value) -> value > key ? acc + 1 : acc, Integer::sum, 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void sequentialCutoffBelowOneShouldFail() {
+        ImmutableMap.<Integer, Integer>empty().put(1, 2).mapValues(value -> value, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void mergeWithSequentialCutoffBelowOneShouldFail() {
+        var target = ImmutableMap.<Integer, Integer>empty().put(1, 2);
+        target.merge(target, (x, y) -> x, 0);
+    }
+
+    @Test
+    public void bulkTransformsOfLargeMapsShouldVisitEveryEntry() {
+        var target = new WeightBalancedTreeMap<Integer, Integer>(Integer::compare);
+        for (int i = 0; i < 100_000; i++) {
+            target = target.put(i, i);
+        }
+
+        var mapped = target.mapValues(value -> 2L * value);
+        var filtered = target.filterKeys(key -> key % 3 == 0);
+        long sum = target.fold(0L, (acc, key, value) -> acc + value, Long::sum);
+
+        assertEquals(100_000, mapped.size());
+        assertEquals(33_334, filtered.size());
+        assertEquals(99_999L * 100_000 / 2, sum);
+        for (int i = 0; i < 100_000; i++) {
+            assertEquals(Long.valueOf(2L * i), mapped.get(i));
+            assertEquals(i % 3 == 0, filtered.contains(i));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void mapValuesToNullShouldFail() {
+        ImmutableMap.<Integer, Integer>empty().put(1, 1).mapValues(value -> null);
+    }
+
+    @Property
+    public void readingWrittenMapShouldYieldEqualMap(HashMap<Integer, Integer> values) throws IOException {
+        var entries = new HashMap<Integer, String>();
+        values.forEach((key, value) -> entries.put(key, "v" + value));
+        var target = WeightBalancedTreeMap.fromEntries(Integer::compare, entries.entrySet());
+        var bytes = new ByteArrayOutputStream();
+
+        target.writeTo(Channels.newChannel(bytes), Codec.INTEGER, Codec.STRING);
+        var result = ImmutableMap.readFrom(Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray())), target.comparator(), Codec.INTEGER, Codec.STRING);
+
+        assertEquals(target, result);
+        assertEquals(toList(target.keys()), toList(result.keys()));
+        assertEquals(target.put(-1, "x").remove(7), result.put(-1, "x").remove(7));
+    }
+
+    @Test(expected = IOException.class)
+    public void readingKeysOutOfOrderShouldFail() throws IOException {
+        var bytes = new ByteArrayOutputStream();
+        var out = new DataOutputStream(bytes);
+        out.writeInt(2);
+        out.writeInt(2);
+        out.writeLong(20);
+        out.writeInt(1);
+        out.writeLong(10);
+
+        WeightBalancedTreeMap.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), Integer::compare, Codec.INTEGER, Codec.LONG);
+    }
+
+    private static List<String> diff(ImmutableMap<Integer, Integer> from, ImmutableMap<Integer, Integer> to) {
+        var res = new ArrayList<String>();
+        from.diff(to, new ImmutableMap.DiffListener<>() {
+            @Override
+            public void added(Integer key, Integer value) {
+                res.add("added " + key + "=" + value);
+            }
+
+            @Override
+            public void removed(Integer key, Integer value) {
+                res.add("removed " + key + "=" + value);
+            }
+
+            @Override
+            public void changed(Integer key, Integer oldValue, Integer newValue) {
+                res.add("changed " + key + "=" + oldValue + "->" + newValue);
+            }
+        });
+        return res;
+    }
+}
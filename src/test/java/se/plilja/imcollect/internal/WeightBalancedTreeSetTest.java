@@ -2,12 +2,28 @@ package se.plilja.imcollect.internal;
 
 import com.pholser.junit.quickcheck.Property;
 import com.pholser.junit.quickcheck.generator.InRange;
+import org.junit.Test;
+import se.plilja.imcollect.Codec;
+import se.plilja.imcollect.ImmutableSet;
+import se.plilja.imcollect.internal.champ.ChampHashSet;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
+import java.util.TreeSet;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 public class WeightBalancedTreeSetTest extends CollectionsBaseTest {
 
@@ -31,4 +47,211 @@ public class WeightBalancedTreeSetTest extends CollectionsBaseTest {
         assertEquals(uniqueValues.size(), target.size());
     }
 
-}
\ No newline at end of file
+    @Property
+    public void setOperationsShouldBehaveAsReferenceImplementation(List<@InRange(minInt = -20, maxInt = 20) Integer> values1, List<@InRange(minInt = -20, maxInt = 20) Integer> values2) {
+        Comparator<Integer> comparator = Integer::compare;
+        var target = new WeightBalancedTreeSet<>(comparator).addAll(values1);
+        var sameOrder = new WeightBalancedTreeSet<>(comparator).addAll(values2);
+        var otherOrder = new WeightBalancedTreeSet<Integer>(Comparator.reverseOrder()).addAll(values2);
+
+        for (var other : List.of(sameOrder, otherOrder)) {
+            for (int i = -20; i <= 20; i++) {
+                assertEquals(values1.contains(i) || values2.contains(i), target.union(other).contains(i));
+                assertEquals(values1.contains(i) && values2.contains(i), target.intersection(other).contains(i));
+                assertEquals(values1.contains(i) && !values2.contains(i), target.difference(other).contains(i));
+            }
+            assertEquals(values2.containsAll(values1), target.isSubsetOf(other));
+            assertEquals(values1.stream().noneMatch(values2::contains), target.isDisjoint(other));
+        }
+    }
+
+    @Property
+    public void orderStatisticsShouldBehaveAsReferenceImplementation(List<@InRange(minInt = -50, maxInt = 50) Integer> values,
+                                                                    @InRange(minInt = 0, maxInt = 100) int i1,
+                                                                    @InRange(minInt = 0, maxInt = 100) int i2) {
+        var target = new WeightBalancedTreeSet<Integer>(Integer::compare).addAll(values);
+        var reference = new ArrayList<>(new TreeSet<>(values));
+        int from = Math.min(i1, i2) % (reference.size() + 1);
+        int to = Math.max(from, Math.max(i1, i2) % (reference.size() + 1));
+
+        for (int i = 0; i < reference.size(); i++) {
+            assertEquals(reference.get(i), target.getByIndex(i));
+        }
+        for (int i = -51; i <= 51; i++) {
+            assertEquals(Collections.binarySearch(reference, i), target.rankOf(i));
+        }
+        assertEquals(reference.subList(0, from), toList(target.take(from)));
+        assertEquals(reference.subList(from, reference.size()), toList(target.drop(from)));
+        assertEquals(reference.subList(from, to), toList(target.slice(from, to)));
+    }
+
+    @Property
+    public void filterShouldBehaveAsReferenceImplementation(List<@InRange(minInt = -50, maxInt = 50) Integer> values) {
+        var target = new WeightBalancedTreeSet<Integer>(Integer::compare).addAll(values);
+        var reference = new TreeSet<>(values);
+        reference.removeIf(value -> value % 3 != 0);
+
+        assertEquals(new ArrayList<>(reference), toList(target.filter(value -> value % 3 == 0)));
+        assertEquals(new ArrayList<>(reference), toList(target.filter(value -> value % 3 == 0, 1)));
+        assertSame(target, target.filter(value -> true));
+    }
+
+    @Test
+    public void filterOfLargeSetShouldJoinKeptValues() {
+        var target = new WeightBalancedTreeSet<Integer>(Integer::compare);
+        for (int i = 0; i < 100_000; i++) {
+            target = target.add(i);
+        }
+
+        var result = target.filter(value -> value % 7 != 0);
+
+        assertEquals(100_000 - 14_286, result.size());
+        for (int i = 0; i < 100_000; i++) {
+            assertEquals(i % 7 != 0, result.contains(i));
+        }
+    }
+
+    @Property
+    public void readingWrittenSetsShouldYieldEqualSets(List<Integer> first, List<Integer> second) throws IOException {
+        var firstSet = new WeightBalancedTreeSet<Integer>(Integer::compare).addAll(first);
+        var secondSet = new WeightBalancedTreeSet<String>(String::compareTo);
+        for (int value : second) {
+            secondSet = secondSet.add("s" + value);
+        }
+        var bytes = new ByteArrayOutputStream();
+        var out = new DataOutputStream(bytes);
+
+        firstSet.writeTo(out, Codec.INTEGER);
+        secondSet.writeTo(out, Codec.STRING);
+        var in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        var firstResult = WeightBalancedTreeSet.readFrom(in, firstSet.comparator(), Codec.INTEGER);
+        var secondResult = WeightBalancedTreeSet.readFrom(in, secondSet.comparator(), Codec.STRING);
+
+        assertEquals(firstSet, firstResult);
+        assertEquals(toList(firstSet), toList(firstResult));
+        assertEquals(secondSet, secondResult);
+        assertEquals(-1, in.read());
+        assertEquals(firstSet.add(-1).remove(7), firstResult.add(-1).remove(7));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void getByIndexOutOfBoundsShouldFail() {
+        new WeightBalancedTreeSet<Integer>(Integer::compare).add(1).getByIndex(1);
+    }
+
+    private static List<Integer> toList(Iterable<Integer> values) {
+        var res = new ArrayList<Integer>();
+        values.forEach(res::add);
+        return res;
+    }
+
+    @Property
+    public void navigationShouldBehaveAsReferenceImplementation(List<@InRange(minInt = -50, maxInt = 50) Integer> values,
+                                                              @InRange(minInt = -60, maxInt = 60) int from,
+                                                              @InRange(minInt = -60, maxInt = 60) int to) {
+        var target = new WeightBalancedTreeSet<Integer>(Integer::compare).addAll(values);
+        var reference = new TreeSet<>(values);
+        int lo = Math.min(from, to);
+        int hi = Math.max(from, to);
+
+        assertEquals(reference.isEmpty() ? null : reference.first(), target.first());
+        assertEquals(reference.isEmpty() ? null : reference.last(), target.last());
+        for (int i = -51; i <= 51; i++) {
+            assertEquals(reference.floor(i), target.floor(i));
+            assertEquals(reference.ceiling(i), target.ceiling(i));
+            assertEquals(reference.lower(i), target.lower(i));
+            assertEquals(reference.higher(i), target.higher(i));
+        }
+        var descending = new ArrayList<Integer>();
+        target.descendingIterator().forEachRemaining(descending::add);
+        assertEquals(new ArrayList<>(reference.descendingSet()), descending);
+        for (boolean loInclusive : List.of(true, false)) {
+            for (boolean hiInclusive : List.of(true, false)) {
+                assertEquals(new ArrayList<>(reference.subSet(lo, loInclusive, hi, hiInclusive)), toList(target.subSet(lo, loInclusive, hi, hiInclusive)));
+            }
+            assertEquals(new ArrayList<>(reference.headSet(hi, loInclusive)), toList(target.headSet(hi, loInclusive)));
+            assertEquals(new ArrayList<>(reference.tailSet(lo, loInclusive)), toList(target.tailSet(lo, loInclusive)));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void subSetWithFromGreaterThanToShouldFail() {
+        new WeightBalancedTreeSet<Integer>(Integer::compare).add(1).subSet(2, 1);
+    }
+
+    @Property
+    public void equalsAndHashCodeShouldFollowJavaUtilSet(List<@InRange(minInt = -50, maxInt = 50) Integer> a, List<@InRange(minInt = -50, maxInt = 50) Integer> b) {
+        var empty = new WeightBalancedTreeSet<Integer>(Integer::compareTo);
+        var setA = empty.addAll(a);
+        var setB = empty.addAll(b);
+        var reversedB = new WeightBalancedTreeSet<Integer>(Comparator.reverseOrder()).addAll(b);
+        var hashB = ChampHashSet.<Integer>empty().addAll(b);
+        boolean expected = new HashSet<>(a).equals(new HashSet<>(b));
+
+        assertEquals(expected, setA.equals(setB));
+        assertEquals(expected, setA.equals(reversedB));
+        assertEquals(expected, setA.equals(hashB));
+        assertEquals(expected, hashB.equals(setA));
+        assertEquals(new HashSet<>(a).hashCode(), setA.hashCode());
+        assertEquals(new HashSet<>(b).hashCode(), hashB.hashCode());
+    }
+
+    @Test
+    public void versionsSharingStructureShouldBeComparedByValue() {
+        var base = new WeightBalancedTreeSet<Integer>(Integer::compareTo);
+        for (int i = 0; i < 100000; i++) {
+            base = base.add(i);
+        }
+
+        var rebuilt = base.remove(500).add(500);
+
+        assertEquals(base, rebuilt);
+        assertEquals(base.hashCode(), rebuilt.hashCode());
+        assertNotEquals(base, base.remove(77777));
+        assertNotEquals(base, base.remove(500).add(100001));
+        assertNotEquals(base.hashCode(), base.remove(500).add(100001).hashCode());
+    }
+
+    @Property
+    public void diffShouldReportChangesBetweenVersions(@InRange(minInt = 0, maxInt = 5000) int size, List<@InRange(minInt = -100, maxInt = 5100) Integer> changes) {
+        var base = new WeightBalancedTreeSet<Integer>(Integer::compareTo);
+        for (int i = 0; i < size; i++) {
+            base = base.add(i);
+        }
+        var derived = base;
+        for (int value : changes) {
+            derived = value % 2 == 0 ? derived.add(value) : derived.remove(value);
+        }
+
+        var expected = new ArrayList<String>();
+        for (int value = -100; value <= 5100; value++) {
+            if (base.contains(value) && !derived.contains(value)) {
+                expected.add("removed " + value);
+            } else if (!base.contains(value) && derived.contains(value)) {
+                expected.add("added " + value);
+            }
+        }
+
+        assertEquals(expected, diff(base, derived));
+        var fromUnrelated = diff(base, ChampHashSet.<Integer>empty().addAll(derived));
+        Collections.sort(fromUnrelated);
+        Collections.sort(expected);
+        assertEquals(expected, fromUnrelated);
+    }
+
+    private static List<String> diff(ImmutableSet<Integer> from, ImmutableSet<Integer> to) {
+        var res = new ArrayList<String>();
+        from.diff(to, new ImmutableSet.DiffListener<>() {
+            @Override
+            public void added(Integer value) {
+                res.add("added " + value);
+            }
+
+            @Override
+            public void removed(Integer value) {
+                res.add("removed " + value);
+            }
+        });
+        return res;
+    }
+}
@@ -5,8 +5,13 @@ import com.pholser.junit.quickcheck.generator.InRange;
 import com.pholser.junit.quickcheck.runner.JUnitQuickcheck;
 import org.junit.runner.RunWith;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 @RunWith(JUnitQuickcheck.class)
@@ -14,7 +19,7 @@ public class WeightBalancedTreeTest {
 
     @Property(trials = 500)
     public void treeShouldAlwaysBeConsistent(List<Operation> operations, List<@InRange(minInt = -50, maxInt = 50) Integer> values) {
-        var target = new WeightBalancedTree<Integer>(Integer::compare);
+        var target = new WeightBalancedTree<Integer, Void>(Integer::compare);
 
         for (int i = 0; i < Integer.min(operations.size(), values.size()); i++) {
             switch (operations.get(i)) {
@@ -36,6 +41,193 @@ public class WeightBalancedTreeTest {
         }
     }
 
+    @Property(trials = 500)
+    public void transientShouldBehaveAsPersistentTree(List<Operation> operations, List<@InRange(minInt = -50, maxInt = 50) Integer> values) {
+        var initial = new WeightBalancedTree<Integer, Void>(Integer::compare);
+        for (int i = 0; i < values.size(); i += 2) {
+            initial = initial.add(values.get(i));
+        }
+        var expected = initial;
+        var target = initial.asTransient();
+        var snapshots = new ArrayList<WeightBalancedTree<Integer, Void>>();
+        var snapshotContents = new ArrayList<List<Integer>>();
+
+        for (int i = 0; i < Integer.min(operations.size(), values.size()); i++) {
+            switch (operations.get(i)) {
+                case ADD:
+                    expected = expected.add(values.get(i));
+                    target.add(values.get(i));
+                    break;
+                case REMOVE:
+                    expected = expected.remove(values.get(i));
+                    target.remove(values.get(i));
+                    break;
+                default:
+                    throw new IllegalArgumentException();
+            }
+            assertEquals(expected.size(), target.size());
+            if (i % 3 == 0) {
+                var snapshot = target.persistent();
+                snapshots.add(snapshot);
+                snapshotContents.add(toList(snapshot));
+            }
+        }
+
+        // then
+        var result = target.persistent();
+        Pair<Boolean, String> consistent = result.isConsistent();
+        assertTrue(consistent.second, consistent.first);
+        assertEquals(toList(expected), toList(result));
+        for (int i = 0; i < snapshots.size(); i++) {
+            assertEquals(snapshotContents.get(i), toList(snapshots.get(i)));
+        }
+    }
+
+    private static List<Integer> toList(WeightBalancedTree<Integer, Void> tree) {
+        var result = new ArrayList<Integer>();
+        tree.iterator((key, value) -> key).forEachRemaining(result::add);
+        return result;
+    }
+
+    @Property(trials = 500)
+    public void addAllShouldYieldConsistentTreeWithAllValues(List<@InRange(minInt = -50, maxInt = 50) Integer> base, List<@InRange(minInt = -50, maxInt = 50) Integer> values) {
+        var target = new WeightBalancedTree<Integer, Void>(Integer::compare);
+        for (int value : base) {
+            target = target.add(value);
+        }
+        var reference = new TreeSet<>(base);
+        reference.addAll(values);
+
+        // when
+        target = target.addAll(values);
+
+        // then
+        Pair<Boolean, String> consistent = target.isConsistent();
+        assertTrue(consistent.second, consistent.first);
+        var result = new ArrayList<Integer>();
+        target.iterator((key, value) -> key).forEachRemaining(result::add);
+        assertEquals(new ArrayList<>(reference), result);
+    }
+
+    @Property(trials = 100)
+    public void addAllOfSortedValuesShouldYieldConsistentTree(@InRange(minInt = 0, maxInt = 5000) int n) {
+        var values = new ArrayList<Integer>();
+        for (int i = 0; i < n; i++) {
+            values.add(i);
+        }
+
+        // when
+        var target = new WeightBalancedTree<Integer, Void>(Integer::compare).addAll(values);
+
+        // then
+        Pair<Boolean, String> consistent = target.isConsistent();
+        assertTrue(consistent.second, consistent.first);
+        assertEquals(n, target.size());
+    }
+
+    @Property(trials = 500)
+    public void setOperationsShouldBehaveAsReferenceImplementation(List<@InRange(minInt = -50, maxInt = 50) Integer> values1, List<@InRange(minInt = -50, maxInt = 50) Integer> values2) {
+        verifySetOperations(values1, values2);
+    }
+
+    @Property(trials = 50)
+    public void setOperationsOnTreesOfDifferentSizesShouldBehaveAsReferenceImplementation(@InRange(minInt = 0, maxInt = 3000) int size1, @InRange(minInt = 0, maxInt = 30) int size2, long seed) {
+        Random random = new Random(seed);
+        var values1 = new ArrayList<Integer>();
+        var values2 = new ArrayList<Integer>();
+        for (int i = 0; i < size1; i++) {
+            values1.add(random.nextInt(5000));
+        }
+        for (int i = 0; i < size2; i++) {
+            values2.add(random.nextInt(5000));
+        }
+        verifySetOperations(values1, values2);
+        verifySetOperations(values2, values1);
+    }
+
+    private void verifySetOperations(List<Integer> values1, List<Integer> values2) {
+        var tree1 = new WeightBalancedTree<Integer, Void>(Integer::compare);
+        for (int value : values1) {
+            tree1 = tree1.add(value);
+        }
+        var tree2 = new WeightBalancedTree<Integer, Void>(Integer::compare);
+        for (int value : values2) {
+            tree2 = tree2.add(value);
+        }
+
+        var union = new TreeSet<>(values1);
+        union.addAll(values2);
+        var intersection = new TreeSet<>(values1);
+        intersection.retainAll(values2);
+        var difference = new TreeSet<>(values1);
+        difference.removeAll(values2);
+
+        assertTreeEquals(union, tree1.union(tree2));
+        assertTreeEquals(intersection, tree1.intersection(tree2));
+        assertTreeEquals(difference, tree1.difference(tree2));
+        assertEquals(values2.containsAll(values1), tree1.isSubsetOf(tree2));
+        assertEquals(intersection.isEmpty(), tree1.isDisjoint(tree2));
+    }
+
+    @Property
+    public void setOperationsShouldShareUnchangedTrees(List<@InRange(minInt = -50, maxInt = 50) Integer> values) {
+        var tree = new WeightBalancedTree<Integer, Void>(Integer::compare);
+        for (int value : values) {
+            tree = tree.add(value);
+        }
+        var empty = new WeightBalancedTree<Integer, Void>(Integer::compare);
+
+        assertSame(tree, tree.union(empty));
+        assertSame(tree, tree.union(tree));
+        assertSame(tree, tree.intersection(tree));
+        assertSame(tree, tree.difference(empty));
+        assertTrue(tree.isSubsetOf(tree));
+    }
+
+    @Property(trials = 100)
+    public void takeAndDropShouldYieldConsistentTrees(@InRange(minInt = 0, maxInt = 3000) int size, long seed) {
+        Random random = new Random(seed);
+        var values = new ArrayList<Integer>();
+        for (int i = 0; i < size; i++) {
+            values.add(random.nextInt(5000));
+        }
+        var tree = new WeightBalancedTree<Integer, Void>(Integer::compare).addAll(values);
+        var sorted = new ArrayList<>(new TreeSet<>(values));
+        int n = random.nextInt(sorted.size() + 1);
+
+        assertTreeEquals(new TreeSet<>(sorted.subList(0, n)), tree.take(n));
+        assertTreeEquals(new TreeSet<>(sorted.subList(n, sorted.size())), tree.drop(n));
+        assertSame(tree, tree.slice(0, tree.size()));
+    }
+
+    @Property(trials = 100)
+    public void rangesShouldYieldConsistentTrees(@InRange(minInt = 0, maxInt = 3000) int size, long seed) {
+        Random random = new Random(seed);
+        var values = new ArrayList<Integer>();
+        for (int i = 0; i < size; i++) {
+            values.add(random.nextInt(5000));
+        }
+        var tree = new WeightBalancedTree<Integer, Void>(Integer::compare).addAll(values);
+        var reference = new TreeSet<>(values);
+        int from = random.nextInt(5000);
+        int to = from + random.nextInt(5000 - from);
+
+        assertTreeEquals(new TreeSet<>(reference.headSet(to, true)), tree.head(to, true));
+        assertTreeEquals(new TreeSet<>(reference.tailSet(from, false)), tree.tail(from, false));
+        assertTreeEquals(new TreeSet<>(reference.subSet(from, true, to, false)), tree.range(from, true, to, false));
+        assertSame(tree, tree.head(5000, false));
+        assertSame(tree, tree.tail(-1, false));
+    }
+
+    private static void assertTreeEquals(TreeSet<Integer> expected, WeightBalancedTree<Integer, Void> actual) {
+        Pair<Boolean, String> consistent = actual.isConsistent();
+        assertTrue(consistent.second, consistent.first);
+        var result = new ArrayList<Integer>();
+        actual.iterator((key, value) -> key).forEachRemaining(result::add);
+        assertEquals(new ArrayList<>(expected), result);
+        assertEquals(expected.size(), actual.size());
+    }
+
     private enum Operation {
         ADD, REMOVE
     }
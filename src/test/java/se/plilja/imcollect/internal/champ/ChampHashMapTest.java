@@ -0,0 +1,124 @@
+package se.plilja.imcollect.internal.champ;
+
+import com.pholser.junit.quickcheck.Property;
+import com.pholser.junit.quickcheck.generator.InRange;
+import com.pholser.junit.quickcheck.runner.JUnitQuickcheck;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnitQuickcheck.class)
+public class ChampHashMapTest {
+
+    @Test
+    public void testLookup() {
+        var target = ChampHashMap.<Integer, String>empty();
+
+        // when
+        for (int i = 0; i < 100000; i++) {
+            target = target.put(i, String.format("foo %d", i));
+        }
+
+        // then
+        assertEquals(100000, target.size());
+        for (int i = 0; i < 100000; i++) {
+            assertEquals(String.format("foo %d", i), target.get(i));
+        }
+        assertFalse(target.contains(100000));
+    }
+
+    @Property(trials = 200)
+    public void operationsShouldBehaveAsReferenceImplementation(List<@InRange(minInt = -500, maxInt = 500) Integer> keys, @InRange(minInt = 1, maxInt = 8) int hashes) {
+        var target = ChampHashMap.<CollidingKey, Integer>empty();
+        var reference = new HashMap<CollidingKey, Integer>();
+
+        for (int i = 0; i < keys.size(); i++) {
+            var key = new CollidingKey(keys.get(i), hashes);
+            if (keys.get(i) % 3 == 0) {
+                target = target.remove(key);
+                reference.remove(key);
+            } else {
+                target = target.put(key, i);
+                reference.put(key, i);
+            }
+            assertEquals(reference.size(), target.size());
+        }
+
+        // then
+        for (int i = -500; i <= 500; i++) {
+            var key = new CollidingKey(i, hashes);
+            assertEquals(reference.get(key), target.get(key));
+        }
+        var iteratedKeys = new HashMap<CollidingKey, Boolean>();
+        for (var key : target.keys()) {
+            assertNull("Keys should only be iterated once", iteratedKeys.put(key, true));
+        }
+        assertEquals(reference.keySet(), iteratedKeys.keySet());
+    }
+
+    @Property
+    public void removingAllKeysShouldYieldEmptyMap(List<@InRange(minInt = -500, maxInt = 500) Integer> keys, @InRange(minInt = 1, maxInt = 8) int hashes) {
+        var target = ChampHashMap.<CollidingKey, Integer>empty();
+        for (int key : keys) {
+            target = target.put(new CollidingKey(key, hashes), key);
+        }
+
+        // when
+        for (int key : keys) {
+            target = target.remove(new CollidingKey(key, hashes));
+        }
+
+        // then
+        assertEquals(0, target.size());
+        assertFalse(target.keys().iterator().hasNext());
+    }
+
+    @Property
+    public void putOfSameValueShouldReturnTheExactSameInstance(List<Integer> keys) {
+        var target = ChampHashMap.<Integer, Integer>empty();
+        for (Integer key : keys) {
+            target = target.put(key, key);
+        }
+
+        for (Integer key : keys) {
+            assertSame(target, target.put(key, target.get(key)));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void insertNullKeyShouldFail() {
+        ChampHashMap.<Integer, Integer>empty().put(null, 4711);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void insertNullValueShouldFail() {
+        ChampHashMap.<Integer, Integer>empty().put(4711, null);
+    }
+
+    /**
+     * A key with only a few possible hash codes, so that hash collisions are common.
+     */
+    private static final class CollidingKey {
+        private final int value;
+        private final int hashes;
+
+        private CollidingKey(int value, int hashes) {
+            this.value = value;
+            this.hashes = hashes;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof CollidingKey && ((CollidingKey) o).value == value;
+        }
+
+        @Override
+        public int hashCode() {
+            return Math.floorMod(value, hashes) * 0x1000_0001;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package se.plilja.imcollect.internal.champ;
+
+import com.pholser.junit.quickcheck.Property;
+import com.pholser.junit.quickcheck.generator.InRange;
+import se.plilja.imcollect.internal.CollectionsBaseTest;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class ChampHashSetTest extends CollectionsBaseTest {
+
+    public ChampHashSetTest() {
+        super(ChampHashSet.empty());
+    }
+
+    @Property
+    public void sizeShouldBeEqualToNumberOfUniqueAddedValues(List<Integer> values) {
+        var target = ChampHashSet.<Integer>empty().addAll(values);
+
+        assertEquals(new HashSet<>(values).size(), target.size());
+    }
+
+    @Property
+    public void iterationShouldYieldAllValues(List<@InRange(minInt = -5000, maxInt = 5000) Integer> values, List<@InRange(minInt = -5000, maxInt = 5000) Integer> toRemove) {
+        var target = ChampHashSet.<Integer>empty().addAll(values).removeAll(toRemove);
+        var reference = new HashSet<>(values);
+        reference.removeAll(toRemove);
+
+        // when
+        var result = new HashSet<Integer>();
+        for (int i : target) {
+            result.add(i);
+        }
+
+        // then
+        assertEquals(reference, result);
+        assertEquals(reference.size(), target.size());
+    }
+
+    @Property
+    public void orderStatisticsShouldFollowIterationOrder(List<@InRange(minInt = -5000, maxInt = 5000) Integer> values, @InRange(minInt = 0, maxInt = 100) int i) {
+        var target = ChampHashSet.<Integer>empty().addAll(values);
+        var iterated = new ArrayList<Integer>();
+        target.forEach(iterated::add);
+        int n = i % (iterated.size() + 1);
+
+        for (int j = 0; j < iterated.size(); j++) {
+            assertEquals(iterated.get(j), target.getByIndex(j));
+            assertEquals(j, target.rankOf(iterated.get(j)));
+        }
+        assertEquals(-iterated.size() - 1, target.rankOf(5001));
+        assertEquals(new HashSet<>(iterated.subList(0, n)), new HashSet<>(target.take(n).toMutableCollection()));
+        assertEquals(new HashSet<>(iterated.subList(n, iterated.size())), new HashSet<>(target.drop(n).toMutableCollection()));
+    }
+}
@@ -0,0 +1,116 @@
+package se.plilja.imcollect.internal.fingertrees;
+
+import com.pholser.junit.quickcheck.Property;
+import com.pholser.junit.quickcheck.generator.InRange;
+import org.junit.Test;
+import se.plilja.imcollect.ImmutablePriorityQueue;
+import se.plilja.imcollect.internal.CollectionsBaseTest;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+import static org.junit.Assert.*;
+
+public class FingerTreePriorityQueueTest extends CollectionsBaseTest {
+
+    public FingerTreePriorityQueueTest() {
+        super(ImmutablePriorityQueue.<Integer>empty());
+    }
+
+    @Property
+    public void popMinShouldYieldValuesInAscendingOrder(List<@InRange(minInt = -100, maxInt = 100) Integer> values) {
+        var target = ImmutablePriorityQueue.<Integer>empty().addAll(values);
+        var reference = new PriorityQueue<>(values);
+
+        // when
+        var result = new ArrayList<Integer>();
+        while (!target.isEmpty()) {
+            result.add(target.peekMin());
+            target = target.popMin();
+        }
+
+        // then
+        var expected = new ArrayList<Integer>();
+        while (!reference.isEmpty()) {
+            expected.add(reference.poll());
+        }
+        assertEquals(expected, result);
+    }
+
+    @Property
+    public void meldShouldYieldValuesOfBothQueues(List<Integer> left, List<Integer> right) {
+        var leftQueue = ImmutablePriorityQueue.<Integer>empty().addAll(left);
+        var rightQueue = ImmutablePriorityQueue.<Integer>empty().addAll(right);
+        var reference = new PriorityQueue<>(left);
+        reference.addAll(right);
+
+        // when
+        var result = leftQueue.meld(rightQueue);
+
+        // then
+        assertEquals(left.size(), leftQueue.size());
+        assertEquals(reference.size(), result.size());
+        while (!reference.isEmpty()) {
+            assertEquals(reference.poll(), result.peekMin());
+            result = result.popMin();
+        }
+    }
+
+    @Test
+    public void naturallyOrderedQueuesShouldShareComparator() {
+        // the comparators are compared by identity when deciding whether to meld by concatenation
+        assertSame(ImmutablePriorityQueue.<Integer>empty().comparator(), ImmutablePriorityQueue.<String>empty().comparator());
+    }
+
+    @Property
+    public void interleavedAddAndPopMinShouldBehaveAsPriorityQueue(List<@InRange(minInt = -1000, maxInt = 1000) Integer> values) {
+        var target = ImmutablePriorityQueue.<Integer>empty();
+        var reference = new PriorityQueue<Integer>();
+
+        for (int value : values) {
+            if (value % 3 == 0 && !reference.isEmpty()) {
+                target = target.popMin();
+                reference.poll();
+            } else {
+                target = target.add(value);
+                reference.add(value);
+            }
+            assertEquals(reference.peek(), target.peekMin());
+        }
+    }
+
+    @Test
+    public void valuesOfEqualPriorityShouldBePoppedInInsertionOrder() {
+        Comparator<String> byLength = Comparator.comparing(String::length);
+        var target = ImmutablePriorityQueue.empty(byLength)
+                .add("ccc")
+                .add("a")
+                .add("b")
+                .add("dd")
+                .add("c");
+
+        var result = new ArrayList<String>();
+        while (!target.isEmpty()) {
+            result.add(target.peekMin());
+            target = target.popMin();
+        }
+
+        assertEquals(List.of("a", "b", "c", "dd", "ccc"), result);
+    }
+
+    @Test
+    public void emptyQueueShouldHaveNoMin() {
+        var target = ImmutablePriorityQueue.<Integer>empty();
+
+        assertNull(target.peekMin());
+        try {
+            target.popMin();
+            fail("Should have triggered NoSuchElementException before reaching here");
+        } catch (NoSuchElementException ex) {
+            // expected
+        }
+    }
+}
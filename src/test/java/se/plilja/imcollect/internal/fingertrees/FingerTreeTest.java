@@ -2,10 +2,22 @@ package se.plilja.imcollect.internal.fingertrees;
 
 import com.pholser.junit.quickcheck.Property;
 import com.pholser.junit.quickcheck.generator.InRange;
+import org.junit.Test;
+import se.plilja.imcollect.Codec;
+import se.plilja.imcollect.ImmutableDeque;
+import se.plilja.imcollect.ImmutableList;
 import se.plilja.imcollect.internal.CollectionsBaseTest;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
 import java.util.function.Consumer;
 import java.util.stream.IntStream;
 
@@ -45,6 +57,32 @@ public class FingerTreeTest extends CollectionsBaseTest {
         assertEquals(value, result);
     }
 
+    @Property(trials = 50)
+    public void setShouldOnlyChangeValueAtIndex(@InRange(minInt = 1, maxInt = 5000) int size, @InRange(minInt = 0, maxInt = 4999) int idx) {
+        idx = idx % size;
+        var target = FingerTreeList.<Integer>empty();
+        var expected = new ArrayList<Integer>();
+        for (int i = 0; i < size; i++) {
+            if (i % 2 == 0) {
+                target = target.add(i);
+                expected.add(i);
+            } else {
+                target = target.prepend(i);
+                expected.add(0, i);
+            }
+        }
+
+        // when
+        var result = target.set(idx, -1);
+        expected.set(idx, -1);
+
+        // then
+        assertEquals(expected, result.toMutableCollection());
+        for (int i = 0; i < size; i++) {
+            assertEquals(expected.get(i), result.get(i));
+        }
+    }
+
     @Property
     public void accessingObjectWithIllegalIndexShouldYieldIndexOutOfBounds(List<Integer> values) {
         var target = FingerTreeList.<Integer>empty()
@@ -108,4 +146,271 @@ public class FingerTreeTest extends CollectionsBaseTest {
         assertEquals(-1, target.lastIndexOf(query));
     }
 
-}
\ No newline at end of file
+    @Property(trials = 50)
+    public void iteratorsShouldVisitAllValuesInOrder(@InRange(minInt = 0, maxInt = 10000) int n) {
+        var expected = new ArrayList<Integer>();
+        var target = FingerTreeList.<Integer>empty();
+        for (int i = 0; i < n; i++) {
+            target = target.add(i);
+            expected.add(i);
+        }
+
+        // when
+        var forward = new ArrayList<Integer>();
+        target.iterator().forEachRemaining(forward::add);
+        var backward = new ArrayList<Integer>();
+        target.reverseIterator().forEachRemaining(backward::add);
+
+        // then
+        assertEquals(expected, forward);
+        Collections.reverse(backward);
+        assertEquals(expected, backward);
+    }
+
+    @Property
+    public void lastIndexOfShouldBehaveAsReferenceImplementation(List<@InRange(minInt = -10, maxInt = 10) Integer> values) {
+        var target = FingerTreeList.<Integer>empty()
+                .addAll(values);
+
+        for (int i = -11; i <= 11; i++) {
+            assertEquals(values.lastIndexOf(i), target.lastIndexOf(i));
+        }
+    }
+
+    @Property(trials = 50)
+    public void concatShouldYieldValuesOfBothLists(@InRange(minInt = 0, maxInt = 5000) int leftSize, @InRange(minInt = 0, maxInt = 5000) int rightSize) {
+        var left = FingerTreeList.<Integer>empty();
+        var right = FingerTreeList.<Integer>empty();
+        var expected = new ArrayList<Integer>();
+        for (int i = 0; i < leftSize; i++) {
+            left = left.add(i);
+            expected.add(i);
+        }
+        for (int i = 0; i < rightSize; i++) {
+            right = right.prepend(-i);
+            expected.add(leftSize, -i);
+        }
+
+        // when
+        var result = left.concat(right);
+
+        // then
+        assertEquals(expected, result.toMutableCollection());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i), result.get(i));
+        }
+    }
+
+    @Test
+    public void randomPositionalEditsShouldBehaveAsArrayList() {
+        var random = new Random(4711);
+        ImmutableList<Integer> target = FingerTreeList.empty();
+        var reference = new ArrayList<Integer>();
+        for (int round = 0; round < 3000; round++) {
+            int op = random.nextInt(6);
+            if (op == 0 || reference.size() < 50) {
+                int idx = random.nextInt(reference.size() + 1);
+                target = target.insert(idx, round);
+                reference.add(idx, round);
+            } else if (op == 1) {
+                target = target.prepend(round);
+                reference.add(0, round);
+            } else if (op == 2) {
+                int idx = random.nextInt(reference.size());
+                target = target.removeAt(idx);
+                reference.remove(idx);
+            } else if (op == 3 && reference.size() > 400) {
+                int from = random.nextInt(reference.size() / 4);
+                int to = reference.size() - random.nextInt(reference.size() / 4);
+                target = target.subList(from, to);
+                reference = new ArrayList<>(reference.subList(from, to));
+            } else if (op == 4) {
+                int idx = random.nextInt(reference.size() + 1);
+                var split = target.splitAt(idx);
+                assertEquals(reference.subList(0, idx), split.left().toMutableCollection());
+                assertEquals(reference.subList(idx, reference.size()), split.right().toMutableCollection());
+                target = split.right().concat(split.left());
+                var rotated = new ArrayList<>(reference.subList(idx, reference.size()));
+                rotated.addAll(reference.subList(0, idx));
+                reference = rotated;
+            } else {
+                var other = ImmutableList.<Integer>empty().addAll(List.of(-round, -round - 1));
+                target = target.concat(other);
+                reference.addAll(List.of(-round, -round - 1));
+            }
+            assertEquals(reference.size(), target.size());
+        }
+        assertEquals(reference, target.toMutableCollection());
+    }
+
+    @Property
+    public void positionalEditsWithIllegalIndexShouldYieldIndexOutOfBounds(List<Integer> values) {
+        var target = FingerTreeList.<Integer>empty().addAll(values);
+        int size = values.size();
+
+        verifyCausesOutOfBounds(-1, idx -> target.insert(idx, 0));
+        verifyCausesOutOfBounds(size + 1, idx -> target.insert(idx, 0));
+        verifyCausesOutOfBounds(-1, target::removeAt);
+        verifyCausesOutOfBounds(size, target::removeAt);
+        verifyCausesOutOfBounds(-1, target::splitAt);
+        verifyCausesOutOfBounds(size + 1, target::splitAt);
+        verifyCausesOutOfBounds(size + 1, idx -> target.subList(0, idx));
+        verifyCausesOutOfBounds(-1, idx -> target.subList(idx, size));
+    }
+
+    @Property
+    public void dequeOperationsShouldBehaveAsArrayDeque(List<@InRange(minInt = 0, maxInt = 1000) Integer> ops) {
+        ImmutableDeque<Integer> target = ImmutableDeque.empty();
+        var reference = new ArrayDeque<Integer>();
+
+        for (int op : ops) {
+            if (op % 4 == 0) {
+                target = target.addFirst(op);
+                reference.addFirst(op);
+            } else if (op % 4 == 1) {
+                target = target.addLast(op);
+                reference.addLast(op);
+            } else if (op % 4 == 2 && !reference.isEmpty()) {
+                target = target.removeFirst();
+                reference.removeFirst();
+            } else if (!reference.isEmpty()) {
+                target = target.removeLast();
+                reference.removeLast();
+            }
+            assertEquals(reference.size(), target.size());
+            assertEquals(reference.peekFirst(), target.peekFirst());
+            assertEquals(reference.peekLast(), target.peekLast());
+        }
+        assertEquals(new ArrayList<>(reference), target.toMutableCollection());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void addingNullFirstToDequeShouldNotBeAllowed() {
+        ImmutableDeque.of(1).addFirst(null);
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void removeFirstOfEmptyDequeShouldFail() {
+        ImmutableDeque.empty().removeFirst();
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void removeLastOfEmptyDequeShouldFail() {
+        ImmutableDeque.empty().removeLast();
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void splitTreeOfEmptyTreeShouldFail() {
+        new Empty<Integer, Integer>(new Measure<>() {
+            @Override
+            public Integer identity() {
+                return 0;
+            }
+
+            @Override
+            public Integer combine(Integer a, Integer b) {
+                return a + b;
+            }
+
+            @Override
+            public Integer measure(Integer value) {
+                return 1;
+            }
+        }).splitTree(0);
+    }
+
+    @Property
+    public void equalsAndHashCodeShouldFollowJavaUtilList(List<@InRange(minInt = 0, maxInt = 3) Integer> a, List<@InRange(minInt = 0, maxInt = 3) Integer> b) {
+        var listA = FingerTreeList.<Integer>empty().addAll(a);
+        var listB = FingerTreeList.<Integer>empty().addAll(b);
+        var vectorB = ImmutableList.<Integer>emptyVector().addAll(b);
+        boolean expected = a.equals(b);
+
+        assertEquals(expected, listA.equals(listB));
+        assertEquals(expected, listA.equals(vectorB));
+        assertEquals(expected, vectorB.equals(listA));
+        assertEquals(a.hashCode(), listA.hashCode());
+        assertEquals(b.hashCode(), vectorB.hashCode());
+    }
+
+    @Property
+    public void mapAndFilterShouldBehaveAsArrayList(List<@InRange(minInt = -50, maxInt = 50) Integer> values) {
+        var target = FingerTreeList.<Integer>empty().addAll(values);
+        var vector = ImmutableList.<Integer>emptyVector().addAll(values);
+        var mapped = new ArrayList<String>();
+        var filtered = new ArrayList<Integer>();
+        for (int value : values) {
+            mapped.add("v" + value);
+            if (value % 3 == 0) {
+                filtered.add(value);
+            }
+        }
+
+        assertEquals(mapped, toList(target.map(value -> "v" + value)));
+        assertEquals(mapped, toList(vector.map(value -> "v" + value)));
+        assertEquals(filtered, toList(target.filter(value -> value % 3 == 0)));
+        assertEquals(filtered, toList(vector.filter(value -> value % 3 == 0)));
+        assertSame(target, target.filter(value -> true));
+        assertEquals(mapped, toList(target.map(value -> "v" + value, 1)));
+        assertEquals(filtered, toList(target.filter(value -> value % 3 == 0, 1)));
+    }
+
+    @Test
+    public void mapAndFilterOfLargeListShouldKeepOrder() {
+        var target = FingerTreeList.<Integer>empty();
+        for (int i = 0; i < 100_000; i++) {
+            target = target.add(i);
+        }
+
+        var mapped = target.map(value -> 2L * value);
+        var filtered = target.filter(value -> value % 5 == 0);
+
+        assertEquals(100_000, mapped.size());
+        assertEquals(20_000, filtered.size());
+        for (int i = 0; i < 100_000; i++) {
+            assertEquals(Long.valueOf(2L * i), mapped.get(i));
+        }
+        for (int i = 0; i < 20_000; i++) {
+            assertEquals(Integer.valueOf(5 * i), filtered.get(i));
+        }
+    }
+
+    @Property
+    public void readingWrittenListShouldYieldEqualList(List<Long> values) throws IOException {
+        var target = FingerTreeList.<Long>empty().addAll(values);
+        var bytes = new ByteArrayOutputStream();
+
+        target.writeTo(Channels.newChannel(bytes), Codec.LONG);
+        var result = ImmutableList.readFrom(Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray())), Codec.LONG);
+
+        assertEquals(4 + 8 * values.size(), bytes.size());
+        assertEquals(values, toList(result));
+        assertEquals(target, result);
+        var vectorBytes = new ByteArrayOutputStream();
+        ImmutableList.<Long>emptyVector().addAll(values).writeTo(Channels.newChannel(vectorBytes), Codec.LONG);
+        assertArrayEquals(bytes.toByteArray(), vectorBytes.toByteArray());
+    }
+
+    @Test
+    public void versionsSharingStructureShouldBeComparedByValue() {
+        var base = FingerTreeList.<Integer>empty();
+        for (int i = 0; i < 100000; i++) {
+            base = base.add(i);
+        }
+
+        var rebuilt = base.removeAt(500).insert(500, 500);
+        var split = base.splitAt(31337);
+
+        assertEquals(base, rebuilt);
+        assertEquals(base, split.left().concat(split.right()));
+        assertEquals(base.hashCode(), rebuilt.hashCode());
+        assertNotEquals(base, base.set(77777, -1));
+        assertNotEquals(base, base.removeAt(0).add(0));
+    }
+
+    private static <T> List<T> toList(Iterable<T> values) {
+        var res = new ArrayList<T>();
+        values.forEach(res::add);
+        return res;
+    }
+}
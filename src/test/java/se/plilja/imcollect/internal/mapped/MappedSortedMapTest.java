@@ -0,0 +1,164 @@
+package se.plilja.imcollect.internal.mapped;
+
+import com.pholser.junit.quickcheck.Property;
+import com.pholser.junit.quickcheck.generator.InRange;
+import com.pholser.junit.quickcheck.runner.JUnitQuickcheck;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import se.plilja.imcollect.Codec;
+import se.plilja.imcollect.ImmutableMap;
+import se.plilja.imcollect.ImmutableSortedMap;
+import se.plilja.imcollect.internal.WeightBalancedTreeMap;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnitQuickcheck.class)
+public class MappedSortedMapTest {
+
+    @Property(trials = 50)
+    public void mappedMapWithChangesShouldBehaveAsReferenceImplementation(HashMap<@InRange(minInt = -100, maxInt = 100) Integer, Integer> entries,
+                                                                          List<@InRange(minInt = -120, maxInt = 120) Integer> changes,
+                                                                          @InRange(minInt = 1, maxInt = 10) int blockSize) throws IOException {
+        var reference = new TreeMap<Integer, String>();
+        entries.forEach((key, value) -> reference.put(key, "v" + value));
+        var target = open(reference, blockSize);
+        assertEquals(reference, toMap(target));
+
+        // when
+        for (int key : changes) {
+            if (key % 3 == 0) {
+                target = target.remove(key);
+                reference.remove(key);
+            } else {
+                target = target.put(key, "c" + key);
+                reference.put(key, "c" + key);
+            }
+        }
+
+        // then
+        assertEquals(reference, toMap(target));
+        assertEquals(new ArrayList<>(reference.descendingKeySet()), toList(target.descendingKeys()));
+        assertEquals(new ArrayList<>(reference.descendingMap().values()), toList(target.descendingValues()));
+        for (int key = -125; key <= 125; key++) {
+            assertEquals(reference.get(key), target.get(key));
+            assertEquals(reference.floorEntry(key), target.floorEntry(key));
+            assertEquals(reference.ceilingEntry(key), target.ceilingEntry(key));
+            assertEquals(reference.lowerEntry(key), target.lowerEntry(key));
+            assertEquals(reference.higherEntry(key), target.higherEntry(key));
+        }
+        assertEquals(reference.isEmpty() ? null : reference.firstEntry(), target.firstEntry());
+        assertEquals(reference.isEmpty() ? null : reference.lastEntry(), target.lastEntry());
+        assertEquals(ImmutableMap.<Integer, String>empty().putAll(reference), target);
+        assertEquals(ImmutableMap.<Integer, String>empty().putAll(reference).hashCode(), target.hashCode());
+    }
+
+    @Property(trials = 50)
+    public void subMapsShouldBehaveAsReferenceImplementation(HashMap<@InRange(minInt = -100, maxInt = 100) Integer, Integer> entries,
+                                                            List<@InRange(minInt = -120, maxInt = 120) Integer> changes,
+                                                            @InRange(minInt = -110, maxInt = 110) int from,
+                                                            @InRange(minInt = -110, maxInt = 110) int to) throws IOException {
+        var reference = new TreeMap<Integer, String>();
+        entries.forEach((key, value) -> reference.put(key, "v" + value));
+        var target = open(reference, 4);
+        for (int key : changes) {
+            if (key % 2 == 0) {
+                target = target.remove(key);
+                reference.remove(key);
+            } else {
+                target = target.put(key, "c" + key);
+                reference.put(key, "c" + key);
+            }
+        }
+        int lo = Math.min(from, to);
+        int hi = Math.max(from, to);
+
+        assertSameEntries(reference.subMap(lo, true, hi, false), target.subMap(lo, true, hi, false));
+        assertSameEntries(reference.subMap(lo, false, hi, true), target.subMap(lo, false, hi, true));
+        assertSameEntries(reference.headMap(hi, false), target.headMap(hi, false));
+        assertSameEntries(reference.headMap(lo, true), target.headMap(lo, true));
+        assertSameEntries(reference.tailMap(lo, true), target.tailMap(lo, true));
+        assertSameEntries(reference.tailMap(hi, false), target.tailMap(hi, false));
+        var head = target.headMap(hi, true).put(hi + 1, "x");
+        assertEquals("x", head.get(hi + 1));
+        assertEquals(reference.headMap(hi, true).size() + 1, head.size());
+    }
+
+    @Test
+    public void largeMapShouldBeReadFromFile() throws IOException {
+        var map = new WeightBalancedTreeMap<Long, Long>(Long::compare);
+        for (long i = 0; i < 100_000; i++) {
+            map = map.put(2 * i, i);
+        }
+        Path file = Files.createTempFile("mapped", ".map");
+        try {
+            ImmutableMap.writeMapped(file, map, Codec.LONG, Codec.LONG);
+            var target = ImmutableMap.mapped(file, Long::compare, Codec.LONG, Codec.LONG);
+
+            assertEquals(100_000, target.size());
+            for (long i = 0; i < 100_000; i++) {
+                assertEquals(Long.valueOf(i), target.get(2 * i));
+                assertNull(target.get(2 * i + 1));
+            }
+            assertEquals(toList(map.keys()), toList(target.keys()));
+            assertEquals(1000, target.subMap(1000L, 3000L).size());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void openingOtherFileShouldFail() throws IOException {
+        Path file = Files.createTempFile("mapped", ".map");
+        try {
+            Files.write(file, new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13});
+            MappedSortedMap.open(file, Integer::compare, Codec.INTEGER, Codec.INTEGER);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static MappedSortedMap<Integer, String> open(Map<Integer, String> entries, int blockSize) throws IOException {
+        Path file = Files.createTempFile("mapped", ".map");
+        try {
+            ImmutableSortedMap<Integer, String> map = ImmutableMap.<Integer, String>empty().putAll(entries);
+            MappedSortedMap.write(file, map, Codec.INTEGER, Codec.STRING, blockSize);
+            return MappedSortedMap.open(file, Integer::compare, Codec.INTEGER, Codec.STRING);
+        } finally {
+            Files.delete(file); // the mapping stays valid
+        }
+    }
+
+    private static void assertSameEntries(NavigableMap<Integer, String> expected, ImmutableSortedMap<Integer, String> actual) {
+        assertEquals(expected, toMap(actual));
+        assertEquals(expected.size(), actual.size());
+    }
+
+    private static TreeMap<Integer, String> toMap(ImmutableMap<Integer, String> map) {
+        var res = new TreeMap<Integer, String>();
+        var keys = toList(map.keys());
+        var values = toList(map.values());
+        assertEquals(keys.size(), values.size());
+        for (int i = 0; i < keys.size(); i++) {
+            res.put(keys.get(i), values.get(i));
+        }
+        assertEquals(res.size(), map.size());
+        assertEquals(new ArrayList<>(res.keySet()), keys);
+        return res;
+    }
+
+    private static <T> List<T> toList(Iterable<T> values) {
+        var res = new ArrayList<T>();
+        values.forEach(res::add);
+        return res;
+    }
+}
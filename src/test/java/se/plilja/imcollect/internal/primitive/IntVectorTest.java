@@ -0,0 +1,97 @@
+package se.plilja.imcollect.internal.primitive;
+
+import com.pholser.junit.quickcheck.Property;
+import com.pholser.junit.quickcheck.generator.InRange;
+import com.pholser.junit.quickcheck.runner.JUnitQuickcheck;
+import org.junit.runner.RunWith;
+
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnitQuickcheck.class)
+public class IntVectorTest {
+
+    @Property
+    public void getShouldReturnAddedValues(@InRange(minInt = 0, maxInt = 40000) int size) {
+        var target = IntVector.empty();
+        for (int i = 0; i < size; i++) {
+            target = target.add(i * 3);
+        }
+
+        // then
+        assertEquals(size, target.size());
+        for (int i = 0; i < size; i++) {
+            assertEquals(i * 3, target.getInt(i));
+        }
+        var expected = IntStream.range(0, size).map(i -> i * 3).toArray();
+        assertArrayEquals(expected, target.toArray());
+        assertArrayEquals(expected, target.intStream().toArray());
+        assertEquals(IntStream.of(expected).asLongStream().sum(), target.intStream().parallel().asLongStream().sum());
+        var it = target.intIterator();
+        for (int value : expected) {
+            assertEquals(value, it.nextInt());
+        }
+        assertFalse(it.hasNext());
+    }
+
+    @Property
+    public void setFollowedByGetShouldYieldSetValue(@InRange(minInt = 1, maxInt = 5000) int size, @InRange(minInt = 0, maxInt = 4999) int idx, int value) {
+        idx = idx % size;
+        var target = IntVector.empty();
+        for (int i = 0; i < size; i++) {
+            target = target.add(i);
+        }
+
+        // when
+        var result = target.set(idx, value);
+
+        // then
+        assertEquals(value, result.getInt(idx));
+        assertEquals(idx, target.getInt(idx));
+    }
+
+    @Property
+    public void indexOfShouldFindFirstAndLastOccurrence(@InRange(minInt = 1, maxInt = 3000) int size, @InRange(minInt = 0, maxInt = 2999) int value) {
+        value = value % size;
+        var target = IntVector.empty();
+        for (int i = 0; i < size; i++) {
+            target = target.add(i);
+        }
+        for (int i = 0; i < size; i++) {
+            target = target.add(i);
+        }
+
+        // then
+        assertEquals(value, target.indexOf(value));
+        assertEquals(size + value, target.lastIndexOf(value));
+        assertTrue(target.contains(value));
+        assertEquals(-1, target.indexOf(-1));
+        assertEquals(-1, target.lastIndexOf(size));
+    }
+
+    @Property
+    public void accessingIllegalIndexShouldYieldIndexOutOfBounds(@InRange(minInt = 0, maxInt = 100) int size, @InRange(minInt = -100, maxInt = 200) int idx) {
+        var target = IntVector.empty();
+        for (int i = 0; i < size; i++) {
+            target = target.add(i);
+        }
+        if (idx >= 0 && idx < size) {
+            return;
+        }
+
+        // when, then
+        try {
+            target.getInt(idx);
+            fail("Should have triggered IndexOutOfBoundsException");
+        } catch (IndexOutOfBoundsException ex) {
+            // expected
+        }
+        try {
+            target.set(idx, 1);
+            fail("Should have triggered IndexOutOfBoundsException");
+        } catch (IndexOutOfBoundsException ex) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package se.plilja.imcollect.internal.primitive;
+
+import com.pholser.junit.quickcheck.Property;
+import com.pholser.junit.quickcheck.generator.InRange;
+import com.pholser.junit.quickcheck.runner.JUnitQuickcheck;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnitQuickcheck.class)
+public class LongLongTreeMapTest {
+
+    @Property
+    public void shouldBehaveAsTreeMap(List<@InRange(minLong = -50, maxLong = 50) Long> keys, List<@InRange(minLong = -50, maxLong = 50) Long> toRemove) {
+        var target = LongLongTreeMap.empty();
+        var reference = new TreeMap<Long, Long>();
+        for (long key : keys) {
+            target = target.put(key, key * 31);
+            reference.put(key, key * 31);
+        }
+        for (long key : toRemove) {
+            target = target.remove(key);
+            reference.remove(key);
+        }
+
+        // then
+        assertTrue(target.isConsistent());
+        assertEquals(reference.size(), target.size());
+        for (long key = -50; key <= 50; key++) {
+            assertEquals(reference.containsKey(key), target.contains(key));
+            assertEquals(reference.getOrDefault(key, -1L), (Long) target.getOrDefault(key, -1));
+        }
+        assertArrayEquals(reference.keySet().stream().mapToLong(Long::longValue).toArray(), target.keyStream().toArray());
+        assertArrayEquals(reference.values().stream().mapToLong(Long::longValue).toArray(), target.valueStream().toArray());
+        var keysFromForEach = new ArrayList<Long>();
+        target.forEach((key, value) -> {
+            assertEquals(key * 31, value);
+            keysFromForEach.add(key);
+        });
+        assertEquals(new ArrayList<>(reference.keySet()), keysFromForEach);
+    }
+
+    @Test
+    public void putShouldReplaceValue() {
+        var target = LongLongTreeMap.empty().put(1, 2).put(1, 3);
+
+        assertEquals(1, target.size());
+        assertEquals(3, target.getLong(1));
+        assertEquals(3, target.lookup(1).getAsLong());
+        assertFalse(target.lookup(2).isPresent());
+    }
+
+    @Test
+    public void putOfSameValueShouldReturnSameInstance() {
+        var target = LongLongTreeMap.empty().put(1, 2);
+
+        assertSame(target, target.put(1, 2));
+        assertSame(target, target.remove(4711));
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void getLongOfMissingKeyShouldThrow() {
+        LongLongTreeMap.empty().put(1, 2).getLong(2);
+    }
+
+    @Test
+    public void largeMapShouldStayBalanced() {
+        var target = LongLongTreeMap.empty();
+        for (long i = 0; i < 100000; i++) {
+            target = target.put(i, -i);
+        }
+        for (long i = 0; i < 100000; i += 3) {
+            target = target.remove(i);
+        }
+
+        assertTrue(target.isConsistent());
+        assertEquals(66666, target.size());
+        assertEquals(-4, target.getLong(4));
+        assertFalse(target.contains(3));
+    }
+}
@@ -0,0 +1,62 @@
+package se.plilja.imcollect.internal.primitive;
+
+import com.pholser.junit.quickcheck.Property;
+import com.pholser.junit.quickcheck.generator.InRange;
+import com.pholser.junit.quickcheck.runner.JUnitQuickcheck;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnitQuickcheck.class)
+public class LongTreeSetTest {
+
+    @Property
+    public void shouldBehaveAsTreeSet(List<@InRange(minLong = -50, maxLong = 50) Long> values, List<@InRange(minLong = -50, maxLong = 50) Long> toRemove) {
+        var target = LongTreeSet.empty();
+        for (long value : values) {
+            target = target.add(value);
+        }
+        for (long value : toRemove) {
+            target = target.remove(value);
+        }
+        var reference = new TreeSet<>(values);
+        reference.removeAll(toRemove);
+
+        // then
+        assertTrue(target.isConsistent());
+        assertEquals(reference.size(), target.size());
+        for (long value = -50; value <= 50; value++) {
+            assertEquals(reference.contains(value), target.contains(value));
+        }
+        var iterated = new ArrayList<Long>();
+        target.longIterator().forEachRemaining((long value) -> iterated.add(value));
+        assertEquals(new ArrayList<>(reference), iterated);
+        var forEached = new ArrayList<Long>();
+        target.forEach((long value) -> forEached.add(value));
+        assertEquals(new ArrayList<>(reference), forEached);
+    }
+
+    @Property
+    public void fromArrayShouldBeEqualToAddingOneByOne(List<Long> values, List<Long> more) {
+        var expected = LongTreeSet.empty();
+        for (long value : values) {
+            expected = expected.add(value);
+        }
+        for (long value : more) {
+            expected = expected.add(value);
+        }
+
+        // when
+        var result = LongTreeSet.fromArray(values.stream().mapToLong(Long::longValue).toArray())
+                .addAll(more.stream().mapToLong(Long::longValue).toArray());
+
+        // then
+        assertTrue(result.isConsistent());
+        assertArrayEquals(expected.toArray(), result.toArray());
+        assertArrayEquals(expected.toArray(), result.longStream().toArray());
+    }
+}
@@ -0,0 +1,265 @@
+package se.plilja.imcollect.internal.primitive;
+
+import com.pholser.junit.quickcheck.Property;
+import com.pholser.junit.quickcheck.generator.InRange;
+import com.pholser.junit.quickcheck.runner.JUnitQuickcheck;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import se.plilja.imcollect.ImmutableLongLongMap;
+import se.plilja.imcollect.ImmutableMap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnitQuickcheck.class)
+public class OffHeapLongLongMapTest {
+
+    @Property
+    public void shouldBehaveAsTreeMap(List<@InRange(minLong = -50, maxLong = 50) Long> keys, List<@InRange(minLong = -50, maxLong = 50) Long> toRemove) {
+        var target = OffHeapLongLongMap.create(4);
+        var reference = new TreeMap<Long, Long>();
+        for (long key : keys) {
+            var previous = target;
+            target = target.put(key, key * 31);
+            previous.release();
+            reference.put(key, key * 31);
+        }
+        for (long key : toRemove) {
+            var previous = target;
+            target = target.remove(key);
+            previous.release();
+            reference.remove(key);
+        }
+
+        // then
+        assertTrue(target.isConsistent());
+        assertEquals(reference.size(), target.size());
+        assertEquals(reference.size(), target.liveNodes());
+        for (long key = -50; key <= 50; key++) {
+            assertEquals(reference.containsKey(key), target.contains(key));
+            assertEquals(reference.getOrDefault(key, -1L), (Long) target.getOrDefault(key, -1));
+            assertEquals(reference.get(key), target.get(key));
+        }
+        assertArrayEquals(reference.keySet().stream().mapToLong(Long::longValue).toArray(), target.keyStream().toArray());
+        assertArrayEquals(reference.values().stream().mapToLong(Long::longValue).toArray(), target.valueStream().toArray());
+        var keysFromForEach = new ArrayList<Long>();
+        target.forEach((key, value) -> {
+            assertEquals(key * 31, value);
+            keysFromForEach.add(key);
+        });
+        assertEquals(new ArrayList<>(reference.keySet()), keysFromForEach);
+
+        target.release();
+        assertEquals(0, target.liveNodes());
+    }
+
+    @Property
+    public void oldVersionsShouldStayValidUntilReleased(List<@InRange(minLong = -30, maxLong = 30) Long> keys) {
+        var versions = new ArrayList<OffHeapLongLongMap>();
+        var references = new ArrayList<TreeMap<Long, Long>>();
+        versions.add(OffHeapLongLongMap.create(2));
+        references.add(new TreeMap<>());
+        for (long key : keys) {
+            var reference = new TreeMap<>(references.get(references.size() - 1));
+            var version = versions.get(versions.size() - 1);
+            if (key % 3 == 0) {
+                versions.add(version.remove(key));
+                reference.remove(key);
+            } else {
+                versions.add(version.put(key, key + versions.size()));
+                reference.put(key, key + versions.size() - 1);
+            }
+            references.add(reference);
+        }
+
+        // when, releasing every other version first
+        for (int i = 0; i < versions.size(); i += 2) {
+            versions.get(i).release();
+        }
+
+        // then
+        for (int i = 1; i < versions.size(); i += 2) {
+            assertEquals(references.get(i), toMap(versions.get(i)));
+            assertTrue(versions.get(i).isConsistent());
+            versions.get(i).release();
+        }
+        assertEquals(0, versions.get(0).liveNodes());
+    }
+
+    @Test
+    public void changeShouldOnlyCopyPathToChangedNode() {
+        var builder = OffHeapLongLongMap.create().toBuilder();
+        for (long i = 0; i < 100000; i++) {
+            builder.put(i, -i);
+        }
+        var target = builder.build();
+        assertEquals(100000, target.liveNodes());
+
+        // when
+        var changed = target.put(4711, 17);
+
+        // then
+        assertTrue(changed.liveNodes() - 100000 < 40);
+        assertEquals(-4711, target.getLong(4711));
+        assertEquals(17, changed.getLong(4711));
+        target.release();
+        assertEquals(100000, changed.liveNodes());
+        changed.release();
+        assertEquals(0, changed.liveNodes());
+    }
+
+    @Test
+    public void releasedNodesShouldBeReused() {
+        var builder = OffHeapLongLongMap.create(16).toBuilder();
+        for (long i = 0; i < 1000; i++) {
+            builder.put(i, i);
+        }
+        var target = builder.build();
+        var changed = change(target, 0);
+        int capacity = changed.capacity();
+
+        // when
+        for (int round = 1; round < 100; round++) {
+            changed.release();
+            changed = change(target, round);
+        }
+
+        // then
+        assertEquals(capacity, target.capacity());
+        changed.release();
+        assertEquals(1000, target.liveNodes());
+    }
+
+    private static OffHeapLongLongMap change(OffHeapLongLongMap map, long key) {
+        try (var put = map.put(key, -key - 1)) {
+            return put.remove(key + 1);
+        }
+    }
+
+    @Property
+    public void bulkOperationsShouldBehaveAsReferenceImplementation(HashMap<@InRange(minLong = -40, maxLong = 40) Long, Long> entries,
+                                                                    HashMap<@InRange(minLong = -40, maxLong = 40) Long, Long> other) {
+        var target = OffHeapLongLongMap.create(8).putAll(entries);
+        var reference = ImmutableMap.<Long, Long>empty().putAll(entries);
+        var otherMap = ImmutableMap.<Long, Long>empty().putAll(other);
+
+        assertEquals(reference, target);
+        assertEquals(target, reference);
+        assertEquals(reference.hashCode(), target.hashCode());
+        assertEquals(reference.putAll(otherMap), target.putAll(otherMap));
+        assertEquals(reference.merge(otherMap, Long::sum), target.merge(otherMap, Long::sum));
+        assertEquals(reference.intersection(otherMap), target.intersection(otherMap));
+        assertEquals(reference.difference(otherMap), target.difference(otherMap));
+        assertEquals(reference.filter((key, value) -> key % 2 == 0), target.filter((key, value) -> key % 2 == 0));
+        assertEquals(reference.slice(reference.size() / 3, reference.size() / 2), target.slice(reference.size() / 3, reference.size() / 2));
+        for (int i = 0; i < reference.size(); i++) {
+            assertEquals(reference.getByIndex(i), target.getByIndex(i));
+            assertEquals(i, target.rankOf(reference.getByIndex(i).getKey()));
+        }
+        assertEquals(reference.rankOf(100L), target.rankOf(100L));
+    }
+
+    @Test
+    public void failedBulkOperationsShouldNotLeakNodes() {
+        var target = OffHeapLongLongMap.create(8).putAll(Map.of(1L, 1L, 2L, 2L, 3L, 3L));
+        var withNull = new HashMap<Long, Long>();
+        withNull.put(4L, 4L);
+        withNull.put(5L, null);
+
+        verifyFailsWithoutLeaking(target, () -> target.putAll(withNull));
+        verifyFailsWithoutLeaking(target, () -> target.filter((key, value) -> {
+            throw new IllegalStateException();
+        }));
+        verifyFailsWithoutLeaking(target, () -> target.merge(ImmutableMap.<Long, Long>empty().put(1L, 5L), (a, b) -> {
+            throw new IllegalStateException();
+        }));
+
+        target.release();
+        assertEquals(0, target.liveNodes());
+    }
+
+    private static void verifyFailsWithoutLeaking(OffHeapLongLongMap map, Runnable operation) {
+        int liveNodes = map.liveNodes();
+        try {
+            operation.run();
+            fail("Should have triggered an exception");
+        } catch (IllegalArgumentException | IllegalStateException ex) {
+            assertEquals(liveNodes, map.liveNodes());
+        }
+    }
+
+    @Test
+    public void putOfSameValueShouldYieldEqualVersion() {
+        var target = OffHeapLongLongMap.create().put(1, 2);
+        var same = target.put(1, 2);
+
+        assertEquals(target, same);
+        same.release();
+        assertEquals(2, target.getLong(1));
+        assertEquals(1, target.liveNodes());
+    }
+
+    @Test
+    public void closingEveryVersionShouldReleaseAllNodes() {
+        OffHeapLongLongMap first;
+        try (ImmutableLongLongMap.OffHeap empty = ImmutableLongLongMap.emptyOffHeap(4);
+             ImmutableLongLongMap.OffHeap v1 = empty.put(17, 1);
+             ImmutableLongLongMap.OffHeap v2 = v1.put(17, 2)) {
+            assertEquals(1, v1.getLong(17));
+            assertEquals(2, v2.getLong(17));
+            first = (OffHeapLongLongMap) v1;
+        }
+
+        assertTrue(first.isReleased());
+        assertEquals(0, first.liveNodes());
+    }
+
+    @Test
+    public void largestSlabsShouldBeAllocated() {
+        try (var empty = OffHeapLongLongMap.create(1 << 25); var target = empty.put(1L, 2L)) {
+            assertEquals(2, target.getLong(1));
+            assertEquals(1 << 25, target.capacity());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void slabsLargerThanOneGigabyteShouldNotBeSupported() {
+        OffHeapLongLongMap.create((1 << 25) + 1);
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void getLongOfMissingKeyShouldThrow() {
+        OffHeapLongLongMap.create().put(1, 2).getLong(2);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void releasedMapShouldNotBeUsed() {
+        var target = OffHeapLongLongMap.create().put(1, 2);
+        target.release();
+        target.release();
+
+        target.contains(1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nullResolverShouldNotBeSupported() {
+        OffHeapLongLongMap.create().put(1, 2).merge(ImmutableMap.<Long, Long>empty().put(3L, 4L), null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nullValuesShouldNotBeSupported() {
+        OffHeapLongLongMap.create().put(1L, null);
+    }
+
+    private static TreeMap<Long, Long> toMap(OffHeapLongLongMap map) {
+        var res = new TreeMap<Long, Long>();
+        map.forEach(res::put);
+        return res;
+    }
+}
@@ -0,0 +1,243 @@
+package se.plilja.imcollect.internal.vector;
+
+import com.pholser.junit.quickcheck.Property;
+import com.pholser.junit.quickcheck.generator.InRange;
+import org.junit.Test;
+import se.plilja.imcollect.ImmutableList;
+import se.plilja.imcollect.internal.CollectionsBaseTest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.*;
+
+public class RrbVectorTest extends CollectionsBaseTest {
+
+    public RrbVectorTest() {
+        super(RrbVector.empty());
+    }
+
+    @Property
+    public void toMutableCollectionShouldReturnObjectEqualToArrayList(ArrayList<Integer> values) {
+        var target = RrbVector.<Integer>empty().addAll(values);
+
+        // when
+        var result = target.toMutableCollection();
+
+        // then
+        assertEquals(values, result);
+    }
+
+    @Property
+    public void getShouldReturnAddedValues(@InRange(minInt = 0, maxInt = 40000) int size) {
+        var target = vectorOfRange(0, size);
+
+        for (int i = 0; i < size; i++) {
+            assertEquals(i, (int) target.get(i));
+        }
+        assertTrue(target.isConsistent());
+    }
+
+    @Property
+    public void setFollowedByGetShouldYieldSetValue(@InRange(minInt = 1, maxInt = 5000) int size, @InRange(minInt = 0, maxInt = 4999) int idx, int value) {
+        idx = idx % size;
+        var target = vectorOfRange(0, size);
+
+        // when
+        var result = target.set(idx, value);
+
+        // then
+        assertEquals(value, (int) result.get(idx));
+        assertEquals(idx, (int) target.get(idx));
+        assertEquals(size, result.size());
+        assertTrue(result.isConsistent());
+    }
+
+    @Property
+    public void accessingObjectWithIllegalIndexShouldYieldIndexOutOfBounds(List<Integer> values) {
+        var target = RrbVector.<Integer>empty().addAll(values);
+
+        // when, then
+        for (int j = -100; j < 0; j++) {
+            verifyCausesOutOfBounds(j, i -> target.get(i));
+            verifyCausesOutOfBounds(j, i -> target.set(i, 4711));
+        }
+        for (int j = values.size(); j < 100; j++) {
+            verifyCausesOutOfBounds(j, i -> target.get(i));
+            verifyCausesOutOfBounds(j, i -> target.set(i, 4711));
+        }
+    }
+
+    @Property
+    public void concatShouldYieldElementsOfBothVectors(@InRange(minInt = 0, maxInt = 5000) int leftSize, @InRange(minInt = 0, maxInt = 5000) int rightSize) {
+        var left = vectorOfRange(0, leftSize);
+        var right = vectorOfRange(leftSize, leftSize + rightSize);
+
+        // when
+        var result = left.concat(right);
+
+        // then
+        assertEquals(leftSize + rightSize, result.size());
+        assertTrue(result.isConsistent());
+        assertEquals(rangeList(0, leftSize + rightSize), result.toMutableCollection());
+    }
+
+    @Property
+    public void sliceShouldYieldElementsInRange(@InRange(minInt = 0, maxInt = 5000) int size, @InRange(minInt = 0, maxInt = 5000) int a, @InRange(minInt = 0, maxInt = 5000) int b) {
+        int from = Math.min(a, b) % (size + 1);
+        int to = Math.max(from, Math.max(a, b) % (size + 1));
+        var target = vectorOfRange(0, size);
+
+        // when
+        var result = target.slice(from, to);
+
+        // then
+        assertTrue(result.isConsistent());
+        assertEquals(rangeList(from, to), result.toMutableCollection());
+    }
+
+    @Test
+    public void randomConcatAndSliceShouldBehaveAsArrayList() {
+        var random = new Random(4711);
+        var target = RrbVector.<Integer>empty();
+        var reference = new ArrayList<Integer>();
+        for (int round = 0; round < 2000; round++) {
+            int op = random.nextInt(4);
+            if (op == 0 || reference.size() < 100) {
+                int n = random.nextInt(300);
+                var other = vectorOfRange(round * 1000, round * 1000 + n);
+                target = target.concat(other);
+                reference.addAll(rangeList(round * 1000, round * 1000 + n));
+            } else if (op == 1) {
+                int n = random.nextInt(300);
+                var other = vectorOfRange(round * 1000, round * 1000 + n);
+                target = other.concat(target);
+                reference.addAll(0, rangeList(round * 1000, round * 1000 + n));
+            } else if (op == 2 && reference.size() > 3000) {
+                int from = random.nextInt(reference.size() / 2);
+                int to = reference.size() - random.nextInt(reference.size() / 2);
+                target = target.slice(from, to);
+                reference = new ArrayList<>(reference.subList(from, to));
+            } else {
+                int idx = random.nextInt(reference.size());
+                target = target.set(idx, -round);
+                reference.set(idx, -round);
+            }
+            assertTrue(target.isConsistent());
+            assertEquals(reference.size(), target.size());
+        }
+        assertEquals(reference, target.toMutableCollection());
+        for (int i = 0; i < reference.size(); i++) {
+            assertEquals(reference.get(i), target.get(i));
+        }
+    }
+
+    @Property
+    public void removeShouldRemoveFirstOccurrence(@InRange(minInt = 1, maxInt = 3000) int size, @InRange(minInt = 0, maxInt = 2999) int idx) {
+        idx = idx % size;
+        var target = vectorOfRange(0, size).concat(vectorOfRange(0, size));
+        var reference = rangeList(0, size);
+        reference.addAll(rangeList(0, size));
+
+        // when
+        var result = target.remove(idx);
+        reference.remove((Integer) idx);
+
+        // then
+        assertTrue(result.isConsistent());
+        assertEquals(reference, result.toMutableCollection());
+        assertEquals(idx + size - 1, result.lastIndexOf(idx));
+    }
+
+    @Property
+    public void indexOfShouldReturnMinusOneForNonExistingValue(List<@InRange(minInt = -1000, maxInt = -1) Integer> values, @InRange(minInt = 0, maxInt = 1000) Integer query) {
+        var target = RrbVector.<Integer>empty().addAll(values);
+
+        assertEquals(-1, target.indexOf(query));
+        assertEquals(-1, target.lastIndexOf(query));
+    }
+
+    private void verifyCausesOutOfBounds(int idx, Consumer<Integer> actionThatShouldCauseOutOfBoundsException) {
+        try {
+            actionThatShouldCauseOutOfBoundsException.accept(idx);
+            fail("Should have triggered IndexOutOfBoundsException before reaching here");
+        } catch (IndexOutOfBoundsException ex) {
+            // expected
+        }
+    }
+
+    private static RrbVector<Integer> vectorOfRange(int from, int to) {
+        var res = RrbVector.<Integer>empty();
+        for (int i = from; i < to; i++) {
+            res = res.add(i);
+        }
+        return res;
+    }
+
+    private static List<Integer> rangeList(int from, int to) {
+        var res = new ArrayList<Integer>();
+        for (int i = from; i < to; i++) {
+            res.add(i);
+        }
+        return res;
+    }
+
+    @Test
+    public void randomPositionalEditsShouldBehaveAsArrayList() {
+        var random = new Random(4711);
+        ImmutableList<Integer> target = RrbVector.empty();
+        var reference = new ArrayList<Integer>();
+        for (int round = 0; round < 3000; round++) {
+            int op = random.nextInt(6);
+            if (op == 0 || reference.size() < 50) {
+                int idx = random.nextInt(reference.size() + 1);
+                target = target.insert(idx, round);
+                reference.add(idx, round);
+            } else if (op == 1) {
+                target = target.prepend(round);
+                reference.add(0, round);
+            } else if (op == 2) {
+                int idx = random.nextInt(reference.size());
+                target = target.removeAt(idx);
+                reference.remove(idx);
+            } else if (op == 3 && reference.size() > 400) {
+                int from = random.nextInt(reference.size() / 4);
+                int to = reference.size() - random.nextInt(reference.size() / 4);
+                target = target.subList(from, to);
+                reference = new ArrayList<>(reference.subList(from, to));
+            } else if (op == 4) {
+                int idx = random.nextInt(reference.size() + 1);
+                var split = target.splitAt(idx);
+                assertEquals(reference.subList(0, idx), split.left().toMutableCollection());
+                assertEquals(reference.subList(idx, reference.size()), split.right().toMutableCollection());
+                target = split.right().concat(split.left());
+                var rotated = new ArrayList<>(reference.subList(idx, reference.size()));
+                rotated.addAll(reference.subList(0, idx));
+                reference = rotated;
+            } else {
+                var other = ImmutableList.<Integer>empty().addAll(List.of(-round, -round - 1));
+                target = target.concat(other);
+                reference.addAll(List.of(-round, -round - 1));
+            }
+            assertEquals(reference.size(), target.size());
+        }
+        assertEquals(reference, target.toMutableCollection());
+    }
+
+    @Property
+    public void positionalEditsWithIllegalIndexShouldYieldIndexOutOfBounds(List<Integer> values) {
+        var target = RrbVector.<Integer>empty().addAll(values);
+        int size = values.size();
+
+        verifyCausesOutOfBounds(-1, idx -> target.insert(idx, 0));
+        verifyCausesOutOfBounds(size + 1, idx -> target.insert(idx, 0));
+        verifyCausesOutOfBounds(-1, target::removeAt);
+        verifyCausesOutOfBounds(size, target::removeAt);
+        verifyCausesOutOfBounds(-1, target::splitAt);
+        verifyCausesOutOfBounds(size + 1, target::splitAt);
+        verifyCausesOutOfBounds(size + 1, idx -> target.subList(0, idx));
+        verifyCausesOutOfBounds(-1, idx -> target.subList(idx, size));
+    }
+}